@@ -0,0 +1,678 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import cuchaz.modsShared.blocks.BlockSet;
+import cuchaz.modsShared.blocks.Coords;
+
+public class BlockOctree
+{
+	// leaves are 4x4x4 bricks, so one long holds the whole brick
+	private static final int LeafSize = 4;
+	
+	public static interface Visitor
+	{
+		// return false to skip everything inside the node
+		boolean visitNode( int x0, int y0, int z0, int size );
+		void visitBlock( int x, int y, int z );
+	}
+	
+	public static interface BlockVisitor
+	{
+		// return false to stop the query
+		boolean visitBlock( int x, int y, int z );
+	}
+	
+	private static class Node
+	{
+		public int count;
+		public Node[] children;
+		public long bits;
+	}
+	
+	private Node m_root;
+	private int m_rootX;
+	private int m_rootY;
+	private int m_rootZ;
+	private int m_rootSize;
+	
+	public BlockOctree( )
+	{
+		m_root = null;
+		m_rootX = 0;
+		m_rootY = 0;
+		m_rootZ = 0;
+		m_rootSize = LeafSize;
+	}
+	
+	public BlockOctree( BlockSet blocks )
+	{
+		this();
+		for( Coords coords : blocks )
+		{
+			add( coords.x, coords.y, coords.z );
+		}
+	}
+	
+	public int size( )
+	{
+		return m_root == null ? 0 : m_root.count;
+	}
+	
+	public boolean contains( int x, int y, int z )
+	{
+		if( m_root == null || !isInRoot( x, y, z ) )
+		{
+			return false;
+		}
+		
+		Node node = m_root;
+		int x0 = m_rootX;
+		int y0 = m_rootY;
+		int z0 = m_rootZ;
+		int size = m_rootSize;
+		while( size > LeafSize )
+		{
+			if( node.children == null )
+			{
+				return false;
+			}
+			size /= 2;
+			int i = getChildIndex( x, y, z, x0, y0, z0, size );
+			node = node.children[i];
+			if( node == null )
+			{
+				return false;
+			}
+			x0 += ( i & 1 ) != 0 ? size : 0;
+			y0 += ( i & 2 ) != 0 ? size : 0;
+			z0 += ( i & 4 ) != 0 ? size : 0;
+		}
+		return ( node.bits & getLeafBit( x - x0, y - y0, z - z0 ) ) != 0;
+	}
+	
+	public boolean add( int x, int y, int z )
+	{
+		if( m_root == null )
+		{
+			// start with a single leaf aligned to the leaf grid
+			m_rootX = x & ~( LeafSize - 1 );
+			m_rootY = y & ~( LeafSize - 1 );
+			m_rootZ = z & ~( LeafSize - 1 );
+			m_rootSize = LeafSize;
+			m_root = new Node();
+		}
+		while( !isInRoot( x, y, z ) )
+		{
+			growToward( x, y, z );
+		}
+		
+		if( contains( x, y, z ) )
+		{
+			return false;
+		}
+		
+		// walk down, making nodes as needed
+		Node node = m_root;
+		int x0 = m_rootX;
+		int y0 = m_rootY;
+		int z0 = m_rootZ;
+		int size = m_rootSize;
+		node.count++;
+		while( size > LeafSize )
+		{
+			if( node.children == null )
+			{
+				node.children = new Node[8];
+			}
+			size /= 2;
+			int i = getChildIndex( x, y, z, x0, y0, z0, size );
+			if( node.children[i] == null )
+			{
+				node.children[i] = new Node();
+			}
+			node = node.children[i];
+			node.count++;
+			x0 += ( i & 1 ) != 0 ? size : 0;
+			y0 += ( i & 2 ) != 0 ? size : 0;
+			z0 += ( i & 4 ) != 0 ? size : 0;
+		}
+		node.bits |= getLeafBit( x - x0, y - y0, z - z0 );
+		return true;
+	}
+	
+	public boolean remove( int x, int y, int z )
+	{
+		if( !contains( x, y, z ) )
+		{
+			return false;
+		}
+		
+		// walk down, dropping empty nodes as we go
+		Node node = m_root;
+		int x0 = m_rootX;
+		int y0 = m_rootY;
+		int z0 = m_rootZ;
+		int size = m_rootSize;
+		node.count--;
+		while( size > LeafSize )
+		{
+			size /= 2;
+			int i = getChildIndex( x, y, z, x0, y0, z0, size );
+			Node child = node.children[i];
+			child.count--;
+			if( child.count == 0 )
+			{
+				node.children[i] = null;
+			}
+			node = child;
+			x0 += ( i & 1 ) != 0 ? size : 0;
+			y0 += ( i & 2 ) != 0 ? size : 0;
+			z0 += ( i & 4 ) != 0 ? size : 0;
+		}
+		node.bits &= ~getLeafBit( x - x0, y - y0, z - z0 );
+		if( m_root.count == 0 )
+		{
+			m_root = null;
+		}
+		return true;
+	}
+	
+	public void query( BlockSet out, int minX, int minY, int minZ, int maxX, int maxY, int maxZ )
+	{
+		// bounds are inclusive
+		if( m_root != null )
+		{
+			query( out, m_root, m_rootX, m_rootY, m_rootZ, m_rootSize, minX, minY, minZ, maxX, maxY, maxZ );
+		}
+	}
+	
+	public boolean query( BlockVisitor visitor, int minX, int minY, int minZ, int maxX, int maxY, int maxZ )
+	{
+		// bounds are inclusive
+		// returns false if the visitor stopped the query
+		return m_root == null || query( visitor, m_root, m_rootX, m_rootY, m_rootZ, m_rootSize, minX, minY, minZ, maxX, maxY, maxZ );
+	}
+	
+	public boolean visitBlocks( BlockVisitor visitor )
+	{
+		// returns false if the visitor stopped early
+		return m_root == null || visitBlocks( visitor, m_root, m_rootX, m_rootY, m_rootZ, m_rootSize );
+	}
+	
+	public boolean anyInBox( int minX, int minY, int minZ, int maxX, int maxY, int maxZ )
+	{
+		return m_root != null && anyInBox( m_root, m_rootX, m_rootY, m_rootZ, m_rootSize, minX, minY, minZ, maxX, maxY, maxZ );
+	}
+	
+	public boolean rayQuery( BlockVisitor visitor, double fromX, double fromY, double fromZ, double toX, double toY, double toZ )
+	{
+		// visits the blocks in the cells the line segment passes through, in order from the start of the segment
+		// returns false if the visitor stopped the query
+		// NOTE: this is a 3D DDA (Amanatides & Woo), so the cost follows the length of the segment, not the volume of its box
+		if( m_root == null )
+		{
+			return true;
+		}
+		
+		// clip the segment to the root, segment points are from + t*delta for t in [0,1]
+		double dx = toX - fromX;
+		double dy = toY - fromY;
+		double dz = toZ - fromZ;
+		double tMin = Math.max( 0, Math.max(
+			getSlabEnterT( fromX, dx, m_rootX, m_rootX + m_rootSize ),
+			Math.max( getSlabEnterT( fromY, dy, m_rootY, m_rootY + m_rootSize ), getSlabEnterT( fromZ, dz, m_rootZ, m_rootZ + m_rootSize ) )
+		) );
+		double tMax = Math.min( 1, Math.min(
+			getSlabExitT( fromX, dx, m_rootX, m_rootX + m_rootSize ),
+			Math.min( getSlabExitT( fromY, dy, m_rootY, m_rootY + m_rootSize ), getSlabExitT( fromZ, dz, m_rootZ, m_rootZ + m_rootSize ) )
+		) );
+		if( tMin > tMax )
+		{
+			return true;
+		}
+		
+		// get the first and last cells
+		int x = getCell( fromX + dx*tMin, m_rootX );
+		int y = getCell( fromY + dy*tMin, m_rootY );
+		int z = getCell( fromZ + dz*tMin, m_rootZ );
+		int endX = getCell( fromX + dx*tMax, m_rootX );
+		int endY = getCell( fromY + dy*tMax, m_rootY );
+		int endZ = getCell( fromZ + dz*tMax, m_rootZ );
+		
+		// how far along the segment do we cross the next cell boundary on each axis?
+		int stepX = dx > 0 ? 1 : ( dx < 0 ? -1 : 0 );
+		int stepY = dy > 0 ? 1 : ( dy < 0 ? -1 : 0 );
+		int stepZ = dz > 0 ? 1 : ( dz < 0 ? -1 : 0 );
+		double deltaX = stepX == 0 ? Double.POSITIVE_INFINITY : Math.abs( 1/dx );
+		double deltaY = stepY == 0 ? Double.POSITIVE_INFINITY : Math.abs( 1/dy );
+		double deltaZ = stepZ == 0 ? Double.POSITIVE_INFINITY : Math.abs( 1/dz );
+		double nextX = stepX == 0 ? Double.POSITIVE_INFINITY : ( x + ( stepX > 0 ? 1 : 0 ) - fromX )/dx;
+		double nextY = stepY == 0 ? Double.POSITIVE_INFINITY : ( y + ( stepY > 0 ? 1 : 0 ) - fromY )/dy;
+		double nextZ = stepZ == 0 ? Double.POSITIVE_INFINITY : ( z + ( stepZ > 0 ? 1 : 0 ) - fromZ )/dz;
+		
+		// NOTE: count the steps instead of comparing t values, so round-off can't walk us past the end
+		int numSteps = Math.abs( endX - x ) + Math.abs( endY - y ) + Math.abs( endZ - z );
+		for( int i=0; i<=numSteps; i++ )
+		{
+			if( contains( x, y, z ) && !visitor.visitBlock( x, y, z ) )
+			{
+				return false;
+			}
+			
+			// step across the nearest boundary, but never on an axis that's already done
+			boolean canStepX = x != endX;
+			boolean canStepY = y != endY;
+			boolean canStepZ = z != endZ;
+			if( canStepX && ( !canStepY || nextX <= nextY ) && ( !canStepZ || nextX <= nextZ ) )
+			{
+				x += stepX;
+				nextX += deltaX;
+			}
+			else if( canStepY && ( !canStepZ || nextY <= nextZ ) )
+			{
+				y += stepY;
+				nextY += deltaY;
+			}
+			else if( canStepZ )
+			{
+				z += stepZ;
+				nextZ += deltaZ;
+			}
+		}
+		return true;
+	}
+	
+	public double getNearestDistSq( double x, double y, double z )
+	{
+		// returns the squared distance from the point to the nearest block center, or infinity if there are no blocks
+		if( m_root == null )
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+		return getNearestDistSq( m_root, m_rootX, m_rootY, m_rootZ, m_rootSize, x, y, z, Double.POSITIVE_INFINITY );
+	}
+	
+	public void visit( Visitor visitor )
+	{
+		if( m_root != null )
+		{
+			visit( visitor, m_root, m_rootX, m_rootY, m_rootZ, m_rootSize );
+		}
+	}
+	
+	private void visit( Visitor visitor, Node node, int x0, int y0, int z0, int size )
+	{
+		if( node.count == 0 || !visitor.visitNode( x0, y0, z0, size ) )
+		{
+			return;
+		}
+		
+		if( size == LeafSize )
+		{
+			long bits = node.bits;
+			while( bits != 0 )
+			{
+				int i = Long.numberOfTrailingZeros( bits );
+				bits &= bits - 1;
+				visitor.visitBlock( x0 + ( i & 3 ), y0 + ( i >> 4 ), z0 + ( ( i >> 2 ) & 3 ) );
+			}
+			return;
+		}
+		
+		int half = size/2;
+		for( int i=0; i<8; i++ )
+		{
+			Node child = node.children[i];
+			if( child != null )
+			{
+				visit( visitor, child,
+					x0 + ( ( i & 1 ) != 0 ? half : 0 ),
+					y0 + ( ( i & 2 ) != 0 ? half : 0 ),
+					z0 + ( ( i & 4 ) != 0 ? half : 0 ),
+					half
+				);
+			}
+		}
+	}
+	
+	private void query( BlockSet out, Node node, int x0, int y0, int z0, int size, int minX, int minY, int minZ, int maxX, int maxY, int maxZ )
+	{
+		if( node.count == 0 || !intersects( x0, y0, z0, size, minX, minY, minZ, maxX, maxY, maxZ ) )
+		{
+			return;
+		}
+		
+		if( size == LeafSize )
+		{
+			// only visit the set bits
+			long bits = node.bits;
+			while( bits != 0 )
+			{
+				int i = Long.numberOfTrailingZeros( bits );
+				bits &= bits - 1;
+				int x = x0 + ( i & 3 );
+				int z = z0 + ( ( i >> 2 ) & 3 );
+				int y = y0 + ( i >> 4 );
+				if( x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ )
+				{
+					out.add( new Coords( x, y, z ) );
+				}
+			}
+			return;
+		}
+		
+		int half = size/2;
+		for( int i=0; i<8; i++ )
+		{
+			Node child = node.children[i];
+			if( child != null )
+			{
+				query( out, child,
+					x0 + ( ( i & 1 ) != 0 ? half : 0 ),
+					y0 + ( ( i & 2 ) != 0 ? half : 0 ),
+					z0 + ( ( i & 4 ) != 0 ? half : 0 ),
+					half, minX, minY, minZ, maxX, maxY, maxZ
+				);
+			}
+		}
+	}
+	
+	private boolean query( BlockVisitor visitor, Node node, int x0, int y0, int z0, int size, int minX, int minY, int minZ, int maxX, int maxY, int maxZ )
+	{
+		if( node.count == 0 || !intersects( x0, y0, z0, size, minX, minY, minZ, maxX, maxY, maxZ ) )
+		{
+			return true;
+		}
+		
+		if( size == LeafSize )
+		{
+			long bits = node.bits;
+			while( bits != 0 )
+			{
+				int i = Long.numberOfTrailingZeros( bits );
+				bits &= bits - 1;
+				int x = x0 + ( i & 3 );
+				int z = z0 + ( ( i >> 2 ) & 3 );
+				int y = y0 + ( i >> 4 );
+				if( x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ && !visitor.visitBlock( x, y, z ) )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		int half = size/2;
+		for( int i=0; i<8; i++ )
+		{
+			Node child = node.children[i];
+			if( child != null && !query( visitor, child,
+				x0 + ( ( i & 1 ) != 0 ? half : 0 ),
+				y0 + ( ( i & 2 ) != 0 ? half : 0 ),
+				z0 + ( ( i & 4 ) != 0 ? half : 0 ),
+				half, minX, minY, minZ, maxX, maxY, maxZ ) )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private boolean visitBlocks( BlockVisitor visitor, Node node, int x0, int y0, int z0, int size )
+	{
+		if( node.count == 0 )
+		{
+			return true;
+		}
+		
+		if( size == LeafSize )
+		{
+			long bits = node.bits;
+			while( bits != 0 )
+			{
+				int i = Long.numberOfTrailingZeros( bits );
+				bits &= bits - 1;
+				if( !visitor.visitBlock( x0 + ( i & 3 ), y0 + ( i >> 4 ), z0 + ( ( i >> 2 ) & 3 ) ) )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		int half = size/2;
+		for( int i=0; i<8; i++ )
+		{
+			Node child = node.children[i];
+			if( child != null && !visitBlocks( visitor, child,
+				x0 + ( ( i & 1 ) != 0 ? half : 0 ),
+				y0 + ( ( i & 2 ) != 0 ? half : 0 ),
+				z0 + ( ( i & 4 ) != 0 ? half : 0 ),
+				half ) )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private boolean anyInBox( Node node, int x0, int y0, int z0, int size, int minX, int minY, int minZ, int maxX, int maxY, int maxZ )
+	{
+		if( node.count == 0 || !intersects( x0, y0, z0, size, minX, minY, minZ, maxX, maxY, maxZ ) )
+		{
+			return false;
+		}
+		
+		// if the box covers the whole node, we're done
+		if( minX <= x0 && maxX >= x0 + size - 1
+			&& minY <= y0 && maxY >= y0 + size - 1
+			&& minZ <= z0 && maxZ >= z0 + size - 1 )
+		{
+			return true;
+		}
+		
+		if( size == LeafSize )
+		{
+			long bits = node.bits;
+			while( bits != 0 )
+			{
+				int i = Long.numberOfTrailingZeros( bits );
+				bits &= bits - 1;
+				int x = x0 + ( i & 3 );
+				int z = z0 + ( ( i >> 2 ) & 3 );
+				int y = y0 + ( i >> 4 );
+				if( x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ )
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		int half = size/2;
+		for( int i=0; i<8; i++ )
+		{
+			Node child = node.children[i];
+			if( child != null && anyInBox( child,
+				x0 + ( ( i & 1 ) != 0 ? half : 0 ),
+				y0 + ( ( i & 2 ) != 0 ? half : 0 ),
+				z0 + ( ( i & 4 ) != 0 ? half : 0 ),
+				half, minX, minY, minZ, maxX, maxY, maxZ ) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private double getNearestDistSq( Node node, int x0, int y0, int z0, int size, double x, double y, double z, double bestDistSq )
+	{
+		// skip nodes that can't have anything closer than what we already found
+		// NOTE: the block centers in a node are at least half a block inside it
+		if( node.count == 0 || getBoxDistSq( x, y, z, x0 + 0.5, y0 + 0.5, z0 + 0.5, x0 + size - 0.5, y0 + size - 0.5, z0 + size - 0.5 ) >= bestDistSq )
+		{
+			return bestDistSq;
+		}
+		
+		if( size == LeafSize )
+		{
+			long bits = node.bits;
+			while( bits != 0 )
+			{
+				int i = Long.numberOfTrailingZeros( bits );
+				bits &= bits - 1;
+				double dx = x0 + ( i & 3 ) + 0.5 - x;
+				double dy = y0 + ( i >> 4 ) + 0.5 - y;
+				double dz = z0 + ( ( i >> 2 ) & 3 ) + 0.5 - z;
+				bestDistSq = Math.min( bestDistSq, dx*dx + dy*dy + dz*dz );
+			}
+			return bestDistSq;
+		}
+		
+		// start with the child containing the point, then try the others, so the bound tightens quickly
+		int half = size/2;
+		int nearest = 0;
+		if( x >= x0 + half )
+		{
+			nearest |= 1;
+		}
+		if( y >= y0 + half )
+		{
+			nearest |= 2;
+		}
+		if( z >= z0 + half )
+		{
+			nearest |= 4;
+		}
+		for( int j=0; j<8; j++ )
+		{
+			int i = nearest ^ j;
+			Node child = node.children[i];
+			if( child != null )
+			{
+				bestDistSq = getNearestDistSq( child,
+					x0 + ( ( i & 1 ) != 0 ? half : 0 ),
+					y0 + ( ( i & 2 ) != 0 ? half : 0 ),
+					z0 + ( ( i & 4 ) != 0 ? half : 0 ),
+					half, x, y, z, bestDistSq );
+			}
+		}
+		return bestDistSq;
+	}
+	
+	private static double getBoxDistSq( double x, double y, double z, double minX, double minY, double minZ, double maxX, double maxY, double maxZ )
+	{
+		double dx = Math.max( 0, Math.max( minX - x, x - maxX ) );
+		double dy = Math.max( 0, Math.max( minY - y, y - maxY ) );
+		double dz = Math.max( 0, Math.max( minZ - z, z - maxZ ) );
+		return dx*dx + dy*dy + dz*dz;
+	}
+	
+	private void growToward( int x, int y, int z )
+	{
+		// double the root, keeping the old root as one of the children
+		int i = 0;
+		int newX = m_rootX;
+		int newY = m_rootY;
+		int newZ = m_rootZ;
+		if( x < m_rootX )
+		{
+			newX -= m_rootSize;
+			i |= 1;
+		}
+		if( y < m_rootY )
+		{
+			newY -= m_rootSize;
+			i |= 2;
+		}
+		if( z < m_rootZ )
+		{
+			newZ -= m_rootSize;
+			i |= 4;
+		}
+		
+		Node newRoot = new Node();
+		newRoot.count = m_root.count;
+		if( m_root.count > 0 )
+		{
+			newRoot.children = new Node[8];
+			newRoot.children[i] = m_root;
+		}
+		m_root = newRoot;
+		m_rootX = newX;
+		m_rootY = newY;
+		m_rootZ = newZ;
+		m_rootSize *= 2;
+	}
+	
+	private int getCell( double p, int rootMin )
+	{
+		// NOTE: points on the far side of the root round down into the last cell
+		return Math.max( rootMin, Math.min( rootMin + m_rootSize - 1, (int)Math.floor( p ) ) );
+	}
+	
+	private static double getSlabEnterT( double from, double delta, double min, double max )
+	{
+		if( delta == 0 )
+		{
+			// parallel to the slab, so we're either always in it or never in it
+			return from >= min && from <= max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		}
+		return Math.min( ( min - from )/delta, ( max - from )/delta );
+	}
+	
+	private static double getSlabExitT( double from, double delta, double min, double max )
+	{
+		if( delta == 0 )
+		{
+			return from >= min && from <= max ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+		}
+		return Math.max( ( min - from )/delta, ( max - from )/delta );
+	}
+	
+	private boolean isInRoot( int x, int y, int z )
+	{
+		return x >= m_rootX && x < m_rootX + m_rootSize
+			&& y >= m_rootY && y < m_rootY + m_rootSize
+			&& z >= m_rootZ && z < m_rootZ + m_rootSize;
+	}
+	
+	private static boolean intersects( int x0, int y0, int z0, int size, int minX, int minY, int minZ, int maxX, int maxY, int maxZ )
+	{
+		return maxX >= x0 && minX < x0 + size
+			&& maxY >= y0 && minY < y0 + size
+			&& maxZ >= z0 && minZ < z0 + size;
+	}
+	
+	private static int getChildIndex( int x, int y, int z, int x0, int y0, int z0, int half )
+	{
+		int i = 0;
+		if( x >= x0 + half )
+		{
+			i |= 1;
+		}
+		if( y >= y0 + half )
+		{
+			i |= 2;
+		}
+		if( z >= z0 + half )
+		{
+			i |= 4;
+		}
+		return i;
+	}
+	
+	private static long getLeafBit( int dx, int dy, int dz )
+	{
+		return 1L << ( ( dy*LeafSize + dz )*LeafSize + dx );
+	}
+}
@@ -24,24 +24,50 @@ public class BlocksStorage
 {
 	private static final Coords Origin = new Coords( 0, 0, 0 );
 	
+	// ships that fill at least this fraction of their bounding box get packed into arrays
+	private static final double MinPackedDensity = 0.05;
+	
+	// exactly one of these is non-null: the map for sparse ships, the packed arrays for dense ones
+	// NOTE: packed ships don't keep any coords, the non-empty cells are the blocks
 	private BlockMap<BlockStorage> m_blocks;
+	private PackedBlocks m_packedBlocks;
 	private final BlockStorage m_airBlockStorage;
 	private ShipGeometry m_geometry;
 	private ShipDisplacement m_displacement;
+	private int m_version;
+	private int m_physicsVersion;
 	
 	public BlocksStorage( )
 	{
 		m_blocks = new BlockMap<BlockStorage>();
+		m_packedBlocks = null;
 		m_airBlockStorage = new BlockStorage();
 		m_geometry = null;
 		m_displacement = null;
+		m_version = 0;
+		m_physicsVersion = 0;
 	}
 	
 	public void clear( )
 	{
-		m_blocks.clear();
+		m_blocks = new BlockMap<BlockStorage>();
+		m_packedBlocks = null;
 		m_geometry = null;
 		m_displacement = null;
+		m_version++;
+		m_physicsVersion++;
+	}
+	
+	public int getVersion( )
+	{
+		// bumped whenever any block changes, so caches of derived data know when to recompute
+		return m_version;
+	}
+	
+	public int getPhysicsVersion( )
+	{
+		// only bumped when a change can move the ship physics, so eg doors opening don't make the physics start over
+		return m_physicsVersion;
 	}
 	
 	public void readFromWorld( World world, Coords originCoords, BlockSet blocks )
@@ -58,16 +84,35 @@ public class BlocksStorage
 			Coords relativeCoords = new Coords( worldCoords.x - originCoords.x, worldCoords.y - originCoords.y, worldCoords.z - originCoords.z );
 			m_blocks.put( relativeCoords, storage );
 		}
+		
+		packIfDense();
+	}
+	
+	public void readFromSnapshot( WorldSnapshot snapshot, Coords originCoords, BlockSet blocks )
+	{
+		clear();
+		
+		// same as reading from the world, but safe to do off the main thread
+		for( Coords worldCoords : blocks )
+		{
+			BlockStorage storage = new BlockStorage(
+				snapshot.getBlockId( worldCoords.x, worldCoords.y, worldCoords.z ),
+				snapshot.getBlockMetadata( worldCoords.x, worldCoords.y, worldCoords.z )
+			);
+			Coords relativeCoords = new Coords( worldCoords.x - originCoords.x, worldCoords.y - originCoords.y, worldCoords.z - originCoords.z );
+			m_blocks.put( relativeCoords, storage );
+		}
+		
+		packIfDense();
 	}
 	
 	public void writeToWorld( World world, Map<Coords,Coords> correspondence )
 	{
 		// copy the blocks to the world
-		for( Map.Entry<Coords,BlockStorage> entry : m_blocks.entrySet() )
+		for( Coords coordsShip : coords() )
 		{
-			Coords coordsShip = entry.getKey();
 			Coords coordsWorld = correspondence.get( coordsShip );
-			BlockStorage storage = entry.getValue();
+			BlockStorage storage = getBlock( coordsShip );
 			storage.writeToWorld( world, coordsWorld );
 		}
 	}
@@ -75,10 +120,9 @@ public class BlocksStorage
 	public String dumpBlocks( )
 	{
 		StringBuilder buf = new StringBuilder();
-		for( Map.Entry<Coords,BlockStorage> entry : m_blocks.entrySet() )
+		for( Coords coords : coords() )
 		{
-			Coords coords = entry.getKey();
-			BlockStorage storage = entry.getValue();
+			BlockStorage storage = getBlock( coords );
 			
 			buf.append( String.format( "%3d,%3d,%3d %4d %4d\n", coords.x, coords.y, coords.z, storage.id, storage.meta ) );
 		}
@@ -89,7 +133,8 @@ public class BlocksStorage
 	{
 		if( m_geometry == null )
 		{
-			m_geometry = new ShipGeometry( new BlockSet( m_blocks.keySet() ) );
+			// NOTE: packed storage already builds a new set
+			m_geometry = new ShipGeometry( m_packedBlocks != null ? coords() : new BlockSet( coords() ) );
 		}
 		return m_geometry;
 	}
@@ -99,7 +144,7 @@ public class BlocksStorage
 		if( m_displacement == null )
 		{
 			BlockSet watertightBlocks = new BlockSet();
-			for( Coords coords : m_blocks.keySet() )
+			for( Coords coords : coords() )
 			{
 				Block block = Block.blocksList[getBlock( coords ).id];
 				if( BlockProperties.isWatertight( block ) )
@@ -114,17 +159,60 @@ public class BlocksStorage
 	
 	public int getNumBlocks( )
 	{
+		if( m_packedBlocks != null )
+		{
+			return m_packedBlocks.getNumBlocks();
+		}
 		return m_blocks.size();
 	}
 	
 	public BlockSet coords( )
 	{
+		// NOTE: packed storage has to build the set, so don't call this every tick. Try visitBlocks() or contains()
+		if( m_packedBlocks != null )
+		{
+			BlockSet coords = new BlockSet();
+			m_packedBlocks.getCoords( coords );
+			return coords;
+		}
 		return m_blocks.blockSet();
 	}
 	
+	public boolean contains( Coords coords )
+	{
+		if( m_packedBlocks != null )
+		{
+			return m_packedBlocks.contains( coords.x, coords.y, coords.z );
+		}
+		return m_blocks.containsKey( coords );
+	}
+	
+	public boolean visitBlocks( BlockOctree.BlockVisitor visitor )
+	{
+		// like coords(), but without building the set
+		// returns false if the visitor stopped early
+		if( m_packedBlocks != null )
+		{
+			return m_packedBlocks.visitBlocks( visitor );
+		}
+		for( Coords coords : m_blocks.keySet() )
+		{
+			if( !visitor.visitBlock( coords.x, coords.y, coords.z ) )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public boolean isPacked( )
+	{
+		return m_packedBlocks != null;
+	}
+	
 	public BlockStorage getBlock( Coords coords )
 	{
-		BlockStorage storage = m_blocks.get( coords );
+		BlockStorage storage = lookupBlock( coords );
 		if( storage == null )
 		{
 			storage = m_airBlockStorage;
@@ -134,7 +222,124 @@ public class BlocksStorage
 	
 	public void setBlock( Coords coords, BlockStorage val )
 	{
-		m_blocks.put( coords, val );
+		m_version++;
+		BlockStorage oldVal = lookupBlock( coords );
+		if( oldVal == null || isPhysicsChange( oldVal.id, val.id ) )
+		{
+			onPhysicsChanged();
+		}
+		
+		// NOTE: packed storage only keeps the id/meta, not the instance
+		if( m_packedBlocks != null )
+		{
+			boolean isNewBlock = oldVal == null;
+			if( m_packedBlocks.set( coords.x, coords.y, coords.z, val.id, val.meta ) )
+			{
+				if( isNewBlock )
+				{
+					onBlockAdded( coords );
+				}
+				return;
+			}
+			
+			// the block doesn't fit in the arrays, fall back to the map
+			unpack();
+		}
+		if( m_blocks.put( coords, val ) == null )
+		{
+			onBlockAdded( coords );
+		}
+	}
+	
+	public boolean changeBlock( Coords coords, int id, int meta )
+	{
+		// only blocks that are already on the ship can change
+		if( m_packedBlocks != null )
+		{
+			if( !m_packedBlocks.contains( coords.x, coords.y, coords.z ) )
+			{
+				return false;
+			}
+			setBlock( coords, new BlockStorage( id, meta ) );
+			return true;
+		}
+		
+		// sparse storage owns its instances, so just edit in place
+		BlockStorage storage = m_blocks.get( coords );
+		if( storage == null )
+		{
+			return false;
+		}
+		if( isPhysicsChange( storage.id, id ) )
+		{
+			onPhysicsChanged();
+		}
+		storage.id = id;
+		storage.meta = meta;
+		m_version++;
+		return true;
+	}
+	
+	public void packIfDense( )
+	{
+		if( m_packedBlocks != null || m_blocks.isEmpty() )
+		{
+			return;
+		}
+		
+		BoundingBoxInt box = m_blocks.blockSet().getBoundingBox();
+		double density = (double)m_blocks.size()/PackedBlocks.getVolume( box );
+		if( density >= MinPackedDensity )
+		{
+			pack();
+		}
+	}
+	
+	public void pack( )
+	{
+		if( m_packedBlocks != null || m_blocks.isEmpty() )
+		{
+			return;
+		}
+		
+		PackedBlocks packedBlocks = new PackedBlocks( m_blocks.blockSet().getBoundingBox() );
+		for( Map.Entry<Coords,BlockStorage> entry : m_blocks.entrySet() )
+		{
+			Coords coords = entry.getKey();
+			BlockStorage storage = entry.getValue();
+			if( !packedBlocks.set( coords.x, coords.y, coords.z, storage.id, storage.meta ) )
+			{
+				// too many kinds of blocks to fit in the palette, stay sparse
+				return;
+			}
+		}
+		
+		m_packedBlocks = packedBlocks;
+		m_blocks = null;
+	}
+	
+	public void unpack( )
+	{
+		if( m_packedBlocks == null )
+		{
+			return;
+		}
+		
+		final BlockMap<BlockStorage> blocks = new BlockMap<BlockStorage>();
+		final PackedBlocks packedBlocks = m_packedBlocks;
+		packedBlocks.visitBlocks( new BlockOctree.BlockVisitor( )
+		{
+			@Override
+			public boolean visitBlock( int x, int y, int z )
+			{
+				BlockStorage storage = packedBlocks.get( x, y, z );
+				blocks.put( new Coords( x, y, z ), new BlockStorage( storage.id, storage.meta ) );
+				return true;
+			}
+		} );
+		
+		m_blocks = blocks;
+		m_packedBlocks = null;
 	}
 	
 	public BoundingBoxInt getBoundingBox( )
@@ -149,7 +354,7 @@ public class BlocksStorage
 	
 	public BlockStorage getShipBlock( )
 	{
-		BlockStorage block = m_blocks.get( Origin );
+		BlockStorage block = lookupBlock( Origin );
 		if( block == null )
 		{
 			throw new ShipConfigurationException( "Ship does not have a ship block!" );
@@ -160,4 +365,48 @@ public class BlocksStorage
 		}
 		return block;
 	}
+	
+	private void onBlockAdded( Coords coords )
+	{
+		// keep the geometry index up to date instead of rebuilding it
+		if( m_geometry != null )
+		{
+			m_geometry.addBlock( coords );
+		}
+		
+		// but the displacement has to start over
+		m_displacement = null;
+	}
+	
+	private void onPhysicsChanged( )
+	{
+		m_physicsVersion++;
+		
+		// watertight blocks might have changed too
+		m_displacement = null;
+	}
+	
+	private boolean isPhysicsChange( int oldId, int newId )
+	{
+		// meta changes never change the block properties
+		if( oldId == newId )
+		{
+			return false;
+		}
+		
+		Block oldBlock = Block.blocksList[oldId];
+		Block newBlock = Block.blocksList[newId];
+		return BlockProperties.getMass( oldBlock ) != BlockProperties.getMass( newBlock )
+			|| BlockProperties.getDisplacement( oldBlock ) != BlockProperties.getDisplacement( newBlock )
+			|| BlockProperties.isWatertight( oldBlock ) != BlockProperties.isWatertight( newBlock );
+	}
+	
+	private BlockStorage lookupBlock( Coords coords )
+	{
+		if( m_packedBlocks != null )
+		{
+			return m_packedBlocks.get( coords.x, coords.y, coords.z );
+		}
+		return m_blocks.get( coords );
+	}
 }
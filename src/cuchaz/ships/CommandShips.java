@@ -27,6 +27,7 @@ import cuchaz.modsShared.blocks.BlockUtils.BlockExplorer;
 import cuchaz.modsShared.blocks.BlockUtils.Neighbors;
 import cuchaz.modsShared.blocks.BlockUtils.SearchAction;
 import cuchaz.modsShared.blocks.Coords;
+import cuchaz.ships.persistence.ShipWorldEncodingCache;
 
 public class CommandShips extends CommandBase
 {
@@ -89,13 +90,70 @@ public class CommandShips extends CommandBase
 					buf.append( String.format(
 						" id: %8d,   blocks: %5d,   pos: ( %.1f, %.1f, %.1f )\n",
 						ship.entityId,
-						ship.getShipWorld().coords().size(),
+						ship.getShipWorld().getNumBlocks(),
 						ship.posX, ship.posY, ship.posZ
 					) );
 				}
+				buf.append( String.format(
+					"Ship encoding cache: %d hits, %d misses\n",
+					ShipWorldEncodingCache.getNumHits(),
+					ShipWorldEncodingCache.getNumMisses()
+				) );
 				reply( sender, buf.toString() );
 			}
 		},
+		ChangeTicks( "Set how many ticks of ship block changes get sent to players at once", "<ticks>" )
+		{
+			@Override
+			public void process( ICommandSender sender, String[] args )
+			{
+				if( args.length <= 0 )
+				{
+					reply( sender, String.format( "Ship block changes are sent every %d ticks.", ShipBlockWatchers.getWindowTicks() ) );
+					return;
+				}
+				
+				int ticks;
+				try
+				{
+					ticks = Integer.parseInt( args[0] );
+				}
+				catch( NumberFormatException ex )
+				{
+					reply( sender, "Unrecognized number of ticks!" );
+					return;
+				}
+				
+				ShipBlockWatchers.setWindowTicks( ticks );
+				replyAllAdmins( sender, String.format( "Ship block changes will be sent every %d ticks.", ShipBlockWatchers.getWindowTicks() ) );
+			}
+		},
+		PilotTicks( "Set how many ticks of pilot changes get sent to players at once", "<ticks>" )
+		{
+			@Override
+			public void process( ICommandSender sender, String[] args )
+			{
+				if( args.length <= 0 )
+				{
+					reply( sender, String.format( "Pilot changes are sent every %d ticks.", EntityShip.getPilotUpdateTicks() ) );
+					return;
+				}
+				
+				int ticks;
+				try
+				{
+					ticks = Integer.parseInt( args[0] );
+				}
+				catch( NumberFormatException ex )
+				{
+					reply( sender, "Unrecognized number of ticks!" );
+					return;
+				}
+				
+				EntityShip.setPilotUpdateTicks( ticks );
+				replyAllAdmins( sender, String.format( "Pilot changes will be sent every %d ticks.", EntityShip.getPilotUpdateTicks() ) );
+			}
+		},
 		Kill( "Removes a ship from the world", "<id>" )
 		{
 			@Override
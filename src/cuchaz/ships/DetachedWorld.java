@@ -105,6 +105,13 @@ public class DetachedWorld extends World
 		isRemote = realWorld.isRemote;
 	}
 	
+	public DetachedWorld( String worldName, WorldSettings settings, WorldProvider provider )
+	{
+		// for worlds that aren't attached to any real world (eg, in tests)
+		// NOTE: the provider is taken over by this world
+		super( new SaveHandler(), worldName, settings, provider, new Profiler(), null );
+	}
+	
 	@Override
 	protected IChunkProvider createChunkProvider( )
 	{
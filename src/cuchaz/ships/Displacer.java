@@ -17,13 +17,13 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import net.minecraft.block.Block;
 import cuchaz.modsShared.blocks.BlockMap;
 import cuchaz.modsShared.blocks.BlockSet;
-import cuchaz.modsShared.blocks.BlockUtils;
 import cuchaz.modsShared.blocks.BlockUtils.UpdateRules;
 import cuchaz.modsShared.blocks.Coords;
 
@@ -44,6 +44,8 @@ public abstract class Displacer
 	
 	protected void updateDisplacement( )
 	{
+		WorldEditBatch edits = new WorldEditBatch( m_ship.worldObj, UpdateRules.UpdateClients );
+		
 		// are there any blocks that are displaced, but shouldn't be?
 		Iterator<Map.Entry<Coords,Integer>> iter = m_displacedBlocks.entrySet().iterator();
 		while( iter.hasNext() )
@@ -52,7 +54,7 @@ public abstract class Displacer
 			Coords coords = entry.getKey();
 			if( !m_shouldBeDisplaced.contains( coords ) )
 			{
-				restoreBlock( coords, entry.getValue() );
+				restoreBlock( edits, coords, entry.getValue() );
 				iter.remove();
 			}
 		}
@@ -60,35 +62,58 @@ public abstract class Displacer
 		// make sure that all the blocks that should be displaced are actually displaced
 		for( Coords coords : m_shouldBeDisplaced )
 		{
-			int blockId = m_ship.worldObj.getBlockId( coords.x, coords.y, coords.z );
-			int blockMeta = m_ship.worldObj.getBlockMetadata( coords.x, coords.y, coords.z );
-			if( blockId != m_block.blockID )
+			displaceBlock( edits, coords );
+		}
+		
+		edits.apply();
+	}
+	
+	protected void displaceBlock( WorldEditBatch edits, Coords coords )
+	{
+		int blockId = m_ship.worldObj.getBlockId( coords.x, coords.y, coords.z );
+		int blockMeta = m_ship.worldObj.getBlockMetadata( coords.x, coords.y, coords.z );
+		if( blockId != m_block.blockID )
+		{
+			// displace the block
+			edits.changeBlock( coords, m_block.blockID, 0 );
+			
+			// remember that we displaced it
+			m_displacedBlocks.put( coords, pack( blockId, blockMeta ) );
+		}
+		else
+		{
+			// we sailed over a block that has already been displaced
+			// make sure we remember it, but don't erase the displaced block info
+			if( !m_displacedBlocks.containsKey( coords ) )
 			{
-				// displace the block
-				BlockUtils.changeBlockWithoutNotifyingIt( m_ship.worldObj, coords.x, coords.y, coords.z, m_block.blockID, 0, UpdateRules.UpdateClients );
-				
-				// remember that we displaced it
 				m_displacedBlocks.put( coords, pack( blockId, blockMeta ) );
 			}
-			else
-			{
-				// we sailed over a block that has already been displaced
-				// make sure we remember it, but don't erase the displaced block info
-				if( !m_displacedBlocks.containsKey( coords ) )
-				{
-					m_displacedBlocks.put( coords, pack( blockId, blockMeta ) );
-				}
-			}
 		}
 	}
 	
+	protected void restoreBlock( WorldEditBatch edits, Coords coords )
+	{
+		Integer packed = m_displacedBlocks.remove( coords );
+		if( packed != null )
+		{
+			restoreBlock( edits, coords, packed );
+		}
+	}
+	
+	protected Set<Coords> getDisplacedBlocks( )
+	{
+		return m_displacedBlocks.keySet();
+	}
+	
 	public void restore( )
 	{
+		WorldEditBatch edits = new WorldEditBatch( m_ship.worldObj, UpdateRules.UpdateClients );
 		for( Map.Entry<Coords,Integer> entry : m_displacedBlocks.entrySet() )
 		{
-			restoreBlock( entry.getKey(), entry.getValue() );
+			restoreBlock( edits, entry.getKey(), entry.getValue() );
 		}
 		m_displacedBlocks.clear();
+		edits.apply();
 	}
 	
 	public byte[] write( )
@@ -140,13 +165,13 @@ public abstract class Displacer
 		}
 	}
 	
-	private void restoreBlock( Coords coords, int packed )
+	private void restoreBlock( WorldEditBatch edits, Coords coords, int packed )
 	{
 		if( m_ship.worldObj.getBlockId( coords.x, coords.y, coords.z ) == m_block.blockID )
 		{
 			int blockId = unpackId( packed );
 			int blockMeta = unpackMeta( packed );
-			BlockUtils.changeBlockWithoutNotifyingIt( m_ship.worldObj, coords.x, coords.y, coords.z, blockId, blockMeta, UpdateRules.UpdateClients );
+			edits.changeBlock( coords, blockId, blockMeta );
 		}
 	}
 	
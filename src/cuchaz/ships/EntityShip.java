@@ -10,7 +10,6 @@
  ******************************************************************************/
 package cuchaz.ships;
 
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -28,6 +27,7 @@ import net.minecraft.util.MathHelper;
 import net.minecraft.util.MovingObjectPosition;
 import net.minecraft.util.Vec3;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
 import net.minecraftforge.event.ForgeEventFactory;
 import net.minecraftforge.event.entity.player.PlayerInteractEvent.Action;
 import cpw.mods.fml.common.network.PacketDispatcher;
@@ -35,21 +35,18 @@ import cpw.mods.fml.relauncher.Side;
 import cpw.mods.fml.relauncher.SideOnly;
 import cuchaz.modsShared.EntityUtils;
 import cuchaz.modsShared.Environment;
-import cuchaz.modsShared.blocks.BlockSet;
 import cuchaz.modsShared.blocks.BlockSide;
-import cuchaz.modsShared.blocks.BlockUtils;
 import cuchaz.modsShared.blocks.Coords;
-import cuchaz.modsShared.blocks.Envelopes;
 import cuchaz.modsShared.math.CircleRange;
 import cuchaz.modsShared.math.CompareReal;
 import cuchaz.modsShared.math.RotatedBB;
 import cuchaz.modsShared.perf.DelayTimer;
-import cuchaz.ships.config.BlockProperties;
 import cuchaz.ships.packets.PacketPilotShip;
-import cuchaz.ships.packets.PacketRequestShipBlocks;
-import cuchaz.ships.packets.PacketShipLaunched;
+import cuchaz.ships.packets.ShipBlocksTransfer;
 import cuchaz.ships.persistence.PersistenceException;
 import cuchaz.ships.persistence.ShipPersistence;
+import cuchaz.ships.persistence.ShipWorldEncodingCache;
+import cuchaz.ships.persistence.ShipWorldPersistence;
 import cuchaz.ships.propulsion.Propulsion;
 
 public class EntityShip extends Entity 
@@ -60,6 +57,13 @@ public class EntityShip extends Entity
 	public static final int AngularThrottleMax = 1;
 	public static final int AngularThrottleMin = -1;
 	
+	// how fast the client catches up to the server, and when it just gives up and jumps
+	private static final double ErrorBlendRate = 0.2;
+	private static final double ErrorSnapDist = 4;
+	private static final float ErrorSnapYaw = 30;
+	
+	private static int m_pilotUpdateTicks = 2;
+	
 	public float motionYaw;
 	public int linearThrottle;
 	public int angularThrottle;
@@ -74,17 +78,31 @@ public class EntityShip extends Entity
 	private int m_oldPilotActions;
 	private BlockSide m_sideShipForward;
 	private boolean m_sendPilotChangesToServer;
+	private boolean m_isLocalPilot;
+	private boolean m_sendPilotChangesToClients;
+	private int m_pilotId;
+	private int m_ticksSincePilotUpdate;
+	private ShipStateSender m_stateSender;
+	private ShipState m_stateFromServer;
 	private boolean m_hasInfoFromServer;
-	private double m_xFromServer;
-	private double m_yFromServer;
-	private double m_zFromServer;
-	private float m_yawFromServer;
-	private float m_pitchFromServer;
+	private double m_errorX;
+	private double m_errorY;
+	private double m_errorZ;
+	private float m_errorYaw;
 	private ShipCollider m_collider;
 	private WaterDisplacer m_waterDisplacer;
 	private RainDisplacer m_rainDisplacer;
+	private WaterSurfaceSampler m_waterSurfaceSampler;
+	private ShipWorldEncodingCache m_encodingCache;
 	private DelayTimer m_throttleKillDelay;
 	private Map<Integer,Entity> m_ridersLastTick;
+	private Vec3 m_riderDelta;
+	private float m_yaw;
+	private double m_cos;
+	private double m_sin;
+	private float m_otherYaw;
+	private double m_otherCos;
+	private double m_otherSin;
 	
 	public EntityShip( World world )
 	{
@@ -107,17 +125,27 @@ public class EntityShip extends Entity
 		m_oldPilotActions = 0;
 		m_sideShipForward = null;
 		m_sendPilotChangesToServer = false;
+		m_isLocalPilot = false;
+		m_sendPilotChangesToClients = false;
+		m_pilotId = 0;
+		m_ticksSincePilotUpdate = 0;
+		m_stateSender = new ShipStateSender( this );
+		m_stateFromServer = null;
 		m_hasInfoFromServer = false;
-		m_xFromServer = 0;
-		m_yFromServer = 0;
-		m_zFromServer = 0;
-		m_yawFromServer = 0;
-		m_pitchFromServer = 0;
+		m_errorX = 0;
+		m_errorY = 0;
+		m_errorZ = 0;
+		m_errorYaw = 0;
 		m_collider = new ShipCollider( this );
 		m_waterDisplacer = new WaterDisplacer( this );
 		m_rainDisplacer = new RainDisplacer( this );
+		m_waterSurfaceSampler = new WaterSurfaceSampler( this );
+		m_encodingCache = new ShipWorldEncodingCache();
 		m_throttleKillDelay = null;
 		m_ridersLastTick = new TreeMap<Integer,Entity>();
+		m_riderDelta = Vec3.createVectorHelper( 0, 0, 0 );
+		m_yaw = Float.NaN;
+		m_otherYaw = Float.NaN;
 	}
 	
 	@Override
@@ -128,6 +156,13 @@ public class EntityShip extends Entity
 	
 	public void setShipWorld( ShipWorld shipWorld )
 	{
+		setShipWorld( shipWorld, null );
+	}
+	
+	public void setShipWorld( ShipWorld shipWorld, ShipPhysics physics )
+	{
+		// NOTE: pass in the physics if it was already built for these blocks, so we don't build it again
+		
 		// if the blocks are invalid, just kill the ship
 		if( !shipWorld.isValid() )
 		{
@@ -144,7 +179,8 @@ public class EntityShip extends Entity
 		
 		m_shipWorld = shipWorld;
 		shipWorld.setShip( this );
-		m_physics = new ShipPhysics( m_shipWorld.getBlocksStorage() );
+		m_encodingCache.clear();
+		m_physics = physics != null ? physics : new ShipPhysics( m_shipWorld.getBlocksStorage() );
 		m_propulsion = new Propulsion( m_shipWorld.getBlocksStorage() );
 		
 		// get the ship center of mass so we can convert between ship/block spaces
@@ -154,6 +190,7 @@ public class EntityShip extends Entity
 		m_shipBlockZ = -centerOfMass.zCoord;
 		
 		m_collider.computeShipBoundingBox( boundingBox, posX, posY, posZ, rotationYaw );
+		ShipRegistry.get( worldObj ).move( this );
 		
 		// LOGGING
 		Ships.logger.info( String.format(
@@ -168,6 +205,7 @@ public class EntityShip extends Entity
 	public void setDead( )
 	{
 		super.setDead();
+		ShipRegistry.get( worldObj ).remove( this );
 		
 		// LOGGING
 		Ships.logger.info( "EntityShip %d died!", entityId );
@@ -221,6 +259,23 @@ public class EntityShip extends Entity
 		return m_shipWorld;
 	}
 	
+	public ShipWorldEncodingCache.Encoding getEncodedShipWorld( boolean isCompressed )
+	{
+		// NOTE: the encoding is shared, so it's only re-encoded when the blocks or tile entities change
+		return m_encodingCache.get( m_shipWorld, isCompressed );
+	}
+	
+	public byte[] getSavedShipWorld( )
+	{
+		// lots of tile entities (eg furnaces) change their saved data without telling the world
+		// so saves can only trust the cached encoding when there are no tile entities
+		if( !m_shipWorld.tileEntities().isEmpty() )
+		{
+			return ShipWorldPersistence.writeNewestVersion( m_shipWorld, false );
+		}
+		return getEncodedShipWorld( false ).data;
+	}
+	
 	public Propulsion getPropulsion( )
 	{
 		return m_propulsion;
@@ -272,6 +327,10 @@ public class EntityShip extends Entity
         if( m_collider != null )
         {
         	m_collider.computeShipBoundingBox( boundingBox, posX, posY, posZ, rotationYaw );
+        	if( worldObj != null )
+        	{
+        		ShipRegistry.get( worldObj ).move( this );
+        	}
         }
 	}
 	
@@ -279,15 +338,20 @@ public class EntityShip extends Entity
 	public void setPositionAndRotation2( double x, double y, double z, float yaw, float pitch, int alwaysThree )
 	{
 		// NOTE: this function should really be called onGetUpdatedPositionFromServer()
-		// also, server positions are off by as much as 0.03 in {x,y,z}
-		
+		// but server positions from the entity tracker are off by as much as 0.03 in {x,y,z}
+		// so ignore them. The ship state comes from PacketShipState instead
+	}
+	
+	public ShipState getStateFromServer( )
+	{
+		return m_stateFromServer;
+	}
+	
+	public void setStateFromServer( ShipState state )
+	{
 		// just save the info and we'll deal with it on the next update tick
+		m_stateFromServer = state;
 		m_hasInfoFromServer = true;
-		m_xFromServer = x;
-		m_yFromServer = y;
-		m_zFromServer = z;
-		m_yawFromServer = yaw;
-		m_pitchFromServer = pitch;
 	}
 	
 	@Override
@@ -299,20 +363,23 @@ public class EntityShip extends Entity
 			return;
 		}
 		
-		// do we have any packets waiting?
+		// make sure we're registered, in case we missed the join event
+		ShipRegistry.get( worldObj ).add( this );
+		
+		// did our blocks arrive yet?
 		if( m_shipWorld == null )
 		{
-			PacketShipLaunched packet = PacketShipLaunched.getPacket( this );
-			if( packet != null )
-			{
-				packet.process( this );
-			}
-			else
+			if( !ShipBlocksTransfer.applyReceivedBlocks( this ) )
 			{
 				// ask for blocks
-				PacketDispatcher.sendPacketToServer( new PacketRequestShipBlocks( entityId ).getCustomPacket() );
+				ShipBlocksTransfer.requestBlocks( this );
 			}
 		}
+		else if( worldObj.isRemote )
+		{
+			// if our blocks got out of date, the server sends new ones
+			ShipBlocksTransfer.applyReceivedBlocks( this );
+		}
 		
 		// don't do any updating until we get blocks
 		if( m_shipWorld == null )
@@ -320,42 +387,56 @@ public class EntityShip extends Entity
 			return;
 		}
 		
+		// did we get an updated state from the server?
+		if( m_hasInfoFromServer )
+		{
+			applyStateFromServer();
+			m_hasInfoFromServer = false;
+		}
+		
+		// NOTE: on the client, this predicts the motion until the next state from the server
 		double waterHeightInBlockSpace = shipToBlocksY( worldToShipY( getWaterHeight() ) );
 		adjustMotionDueToGravityAndBuoyancy( waterHeightInBlockSpace );
 		adjustMotionDueToThrustAndDrag( waterHeightInBlockSpace );
+		updatePilotChanges();
 		
 		double dx = motionX;
 		double dy = motionY;
 		double dz = motionZ;
 		float dYaw = motionYaw;
 		
-		// did we get an updated position from the server?
-		if( m_hasInfoFromServer )
+		// blend out some of the difference between our prediction and the server
+		if( m_errorX != 0 || m_errorY != 0 || m_errorZ != 0 || m_errorYaw != 0 )
 		{
-			// position deltas are easy
-			dx += m_xFromServer - posX;
-			dy += m_yFromServer - posY;
-			dz += m_zFromServer - posZ;
-			
-			// we need fancy math to get the correct rotation delta
-			double yawRadClient = CircleRange.mapMinusPiToPi( Math.toRadians( rotationYaw ) );
-			double yawRadServer = CircleRange.mapMinusPiToPi( Math.toRadians( m_yawFromServer ) );
-			double yawDelta = CircleRange.newByShortSegment( yawRadClient, yawRadServer ).getLength();
-			
-			// was the rotation delta actually positive?
-			if( !CompareReal.eq( CircleRange.mapMinusPiToPi( yawRadClient + yawDelta ), yawRadServer ) )
+			// if we're way off, don't bother blending
+			double blendRate = ErrorBlendRate;
+			if( m_errorX*m_errorX + m_errorY*m_errorY + m_errorZ*m_errorZ > ErrorSnapDist*ErrorSnapDist || Math.abs( m_errorYaw ) > ErrorSnapYaw )
 			{
-				// nope. it's a negative delta
-				yawDelta = -yawDelta;
+				blendRate = 1;
 			}
-			yawDelta = Math.toDegrees( yawDelta );
 			
-			dYaw += yawDelta;
+			double blendX = m_errorX*blendRate;
+			double blendY = m_errorY*blendRate;
+			double blendZ = m_errorZ*blendRate;
+			float blendYaw = m_errorYaw*(float)blendRate;
+			dx += blendX;
+			dy += blendY;
+			dz += blendZ;
+			dYaw += blendYaw;
+			m_errorX -= blendX;
+			m_errorY -= blendY;
+			m_errorZ -= blendZ;
+			m_errorYaw -= blendYaw;
 			
-			// just apply the pitch directly
-			rotationPitch = m_pitchFromServer;
-			
-			m_hasInfoFromServer = false;
+			// call it close enough after a while
+			final double ErrorEpsilon = 1e-4;
+			if( Math.abs( m_errorX ) < ErrorEpsilon && Math.abs( m_errorY ) < ErrorEpsilon && Math.abs( m_errorZ ) < ErrorEpsilon && Math.abs( m_errorYaw ) < ErrorEpsilon )
+			{
+				m_errorX = 0;
+				m_errorY = 0;
+				m_errorZ = 0;
+				m_errorYaw = 0;
+			}
 		}
 		
 		// did we even move a noticeable amount?
@@ -408,38 +489,56 @@ public class EntityShip extends Entity
 		
 		// update the world
 		m_shipWorld.updateEntities();
+		
+		// tell the clients where we are
+		if( Environment.isServer() )
+		{
+			m_stateSender.update();
+		}
 	}
 	
-	public double getWaterHeight( )
+	private void applyStateFromServer( )
 	{
-		// search in the ship box for water blocks (and air wall blocks)
-		BlockSet waterCoords = new BlockSet();
-		BlockUtils.worldRangeQuery( waterCoords, worldObj, boundingBox );
+		// the velocity and throttle can change right away, nobody will notice
+		motionX = m_stateFromServer.getMotionX();
+		motionY = m_stateFromServer.getMotionY();
+		motionZ = m_stateFromServer.getMotionZ();
+		motionYaw = m_stateFromServer.getMotionYaw();
 		
-		Iterator<Coords> iter = waterCoords.iterator();
-		while( iter.hasNext() )
+		// NOTE: if we're the pilot, our throttle is newer than the server's
+		if( !m_isLocalPilot )
 		{
-			Coords coords = iter.next();
-			Block block = Block.blocksList[worldObj.getBlockId( coords.x, coords.y, coords.z )];
-			if( !BlockProperties.isWater( block ) )
-			{
-				iter.remove();
-			}
+			linearThrottle = m_stateFromServer.linearThrottle;
+			angularThrottle = m_stateFromServer.angularThrottle;
 		}
 		
-		if( waterCoords.isEmpty() )
-		{
-			return 0;
-		}
+		// but the position should move smoothly, so blend the error out over the next few ticks
+		m_errorX = m_stateFromServer.getX() - posX;
+		m_errorY = m_stateFromServer.getY() - posY;
+		m_errorZ = m_stateFromServer.getZ() - posZ;
+		
+		// we need fancy math to get the correct rotation delta
+		double yawRadClient = CircleRange.mapMinusPiToPi( Math.toRadians( rotationYaw ) );
+		double yawRadServer = CircleRange.mapMinusPiToPi( Math.toRadians( m_stateFromServer.getYaw() ) );
+		double yawDelta = CircleRange.newByShortSegment( yawRadClient, yawRadServer ).getLength();
 		
-		// compute the average y from the top envelope of these blocks
-		double sum = 0;
-		BlockSet topEnvelope = new Envelopes( waterCoords ).getEnvelope( BlockSide.Top ).toBlockSet();
-		for( Coords coords : topEnvelope )
+		// was the rotation delta actually positive?
+		if( !CompareReal.eq( CircleRange.mapMinusPiToPi( yawRadClient + yawDelta ), yawRadServer ) )
 		{
-			sum += coords.y + 1; // +1 for the top of the block
+			// nope. it's a negative delta
+			yawDelta = -yawDelta;
 		}
-		return sum/topEnvelope.size();
+		m_errorYaw = (float)Math.toDegrees( yawDelta );
+	}
+	
+	public double getWaterHeight( )
+	{
+		return m_waterSurfaceSampler.getWaterHeight();
+	}
+	
+	public WaterSurfaceSampler getWaterSurfaceSampler( )
+	{
+		return m_waterSurfaceSampler;
 	}
 
 	@Override
@@ -491,11 +590,9 @@ public class EntityShip extends Entity
 	public void worldToShipDirection( Vec3 v )
 	{
 		// just apply the rotation
-		double yawRad = Math.toRadians( rotationYaw );
-		double cos = Math.cos( yawRad );
-		double sin = Math.sin( yawRad );
-		double x = v.xCoord*cos - v.zCoord*sin;
-		double z = v.xCoord*sin + v.zCoord*cos;
+		updateRotation();
+		double x = v.xCoord*m_cos - v.zCoord*m_sin;
+		double z = v.xCoord*m_sin + v.zCoord*m_cos;
 		
 		v.xCoord = x;
 		v.zCoord = z;
@@ -503,10 +600,8 @@ public class EntityShip extends Entity
 	
 	public double worldToShipX( double x, double z )
 	{
-		double yawRad = Math.toRadians( rotationYaw );
-		double cos = Math.cos( yawRad );
-		double sin = Math.sin( yawRad );
-		return ( x - posX )*cos - ( z - posZ )*sin;
+		updateRotation();
+		return ( x - posX )*m_cos - ( z - posZ )*m_sin;
 	}
 	
 	public double worldToShipY( double y )
@@ -516,10 +611,8 @@ public class EntityShip extends Entity
 	
 	public double worldToShipZ( double x, double z )
 	{
-		double yawRad = Math.toRadians( rotationYaw );
-		double cos = Math.cos( yawRad );
-		double sin = Math.sin( yawRad );
-		return ( x - posX )*sin + ( z - posZ )*cos;
+		updateRotation();
+		return ( x - posX )*m_sin + ( z - posZ )*m_cos;
 	}
 	
 	public void shipToWorld( Vec3 v )
@@ -536,11 +629,9 @@ public class EntityShip extends Entity
 	public void shipToWorldDirection( Vec3 v )
 	{
 		// just apply the rotation
-		double yawRad = Math.toRadians( rotationYaw );
-		double cos = Math.cos( yawRad );
-		double sin = Math.sin( yawRad );
-		double x = v.xCoord*cos + v.zCoord*sin;
-		double z = -v.xCoord*sin + v.zCoord*cos;
+		updateRotation();
+		double x = v.xCoord*m_cos + v.zCoord*m_sin;
+		double z = -v.xCoord*m_sin + v.zCoord*m_cos;
 		
 		v.xCoord = x;
 		v.zCoord = z;
@@ -548,10 +639,8 @@ public class EntityShip extends Entity
 	
 	public double shipToWorldX( double x, double z )
 	{
-		double yawRad = Math.toRadians( rotationYaw );
-		double cos = Math.cos( yawRad );
-		double sin = Math.sin( yawRad );
-		return x*cos + z*sin + posX;
+		updateRotation();
+		return x*m_cos + z*m_sin + posX;
 	}
 	
 	public double shipToWorldY( double y )
@@ -561,10 +650,20 @@ public class EntityShip extends Entity
 	
 	public double shipToWorldZ( double x, double z )
 	{
-		double yawRad = Math.toRadians( rotationYaw );
-		double cos = Math.cos( yawRad );
-		double sin = Math.sin( yawRad );
-		return -x*sin + z*cos + posZ;
+		updateRotation();
+		return -x*m_sin + z*m_cos + posZ;
+	}
+	
+	public double shipToWorldDirectionX( double x, double z )
+	{
+		updateRotation();
+		return x*m_cos + z*m_sin;
+	}
+	
+	public double shipToWorldDirectionZ( double x, double z )
+	{
+		updateRotation();
+		return -x*m_sin + z*m_cos;
 	}
 	
 	public void shipToBlocks( Vec3 v )
@@ -611,24 +710,127 @@ public class EntityShip extends Entity
 		return z + m_shipBlockZ;
 	}
 	
+	public double worldToBlocksX( double x, double z )
+	{
+		return shipToBlocksX( worldToShipX( x, z ) );
+	}
+	
+	public double worldToBlocksY( double y )
+	{
+		return shipToBlocksY( worldToShipY( y ) );
+	}
+	
+	public double worldToBlocksZ( double x, double z )
+	{
+		return shipToBlocksZ( worldToShipZ( x, z ) );
+	}
+	
+	public double blocksToWorldX( double x, double z )
+	{
+		return shipToWorldX( blocksToShipX( x ), blocksToShipZ( z ) );
+	}
+	
+	public double blocksToWorldY( double y )
+	{
+		return shipToWorldY( blocksToShipY( y ) );
+	}
+	
+	public double blocksToWorldZ( double x, double z )
+	{
+		return shipToWorldZ( blocksToShipX( x ), blocksToShipZ( z ) );
+	}
+	
+	public void worldToBlocks( double[] points, int numPoints )
+	{
+		// points are packed x,y,z and get transformed in place
+		updateRotation();
+		for( int i=0; i<numPoints*3; i+=3 )
+		{
+			double x = points[i] - posX;
+			double z = points[i + 2] - posZ;
+			points[i] = x*m_cos - z*m_sin - m_shipBlockX;
+			points[i + 1] = points[i + 1] - posY - m_shipBlockY;
+			points[i + 2] = x*m_sin + z*m_cos - m_shipBlockZ;
+		}
+	}
+	
+	public void blocksToWorld( double[] points, int numPoints )
+	{
+		// points are packed x,y,z and get transformed in place
+		updateRotation();
+		for( int i=0; i<numPoints*3; i+=3 )
+		{
+			double x = points[i] + m_shipBlockX;
+			double z = points[i + 2] + m_shipBlockZ;
+			points[i] = x*m_cos + z*m_sin + posX;
+			points[i + 1] = points[i + 1] + m_shipBlockY + posY;
+			points[i + 2] = -x*m_sin + z*m_cos + posZ;
+		}
+	}
+	
+	public void worldToBlocksBoxes( double[] boxes, int numBoxes )
+	{
+		// boxes are packed minX,minY,minZ,maxX,maxY,maxZ
+		// NOTE: like worldToBlocks( AxisAlignedBB ), the box centers move but the sizes don't,
+		// so the boxes are rotated by -rotationYaw around their centers
+		updateRotation();
+		for( int i=0; i<numBoxes*6; i+=6 )
+		{
+			double dxh = ( boxes[i + 3] - boxes[i] )/2;
+			double dzh = ( boxes[i + 5] - boxes[i + 2] )/2;
+			double x = boxes[i] + dxh - posX;
+			double z = boxes[i + 2] + dzh - posZ;
+			double centerX = x*m_cos - z*m_sin - m_shipBlockX;
+			double centerZ = x*m_sin + z*m_cos - m_shipBlockZ;
+			boxes[i] = centerX - dxh;
+			boxes[i + 1] -= posY + m_shipBlockY;
+			boxes[i + 2] = centerZ - dzh;
+			boxes[i + 3] = centerX + dxh;
+			boxes[i + 4] -= posY + m_shipBlockY;
+			boxes[i + 5] = centerZ + dzh;
+		}
+	}
+	
+	public void blocksToWorldBoxes( double[] boxes, int numBoxes )
+	{
+		// boxes are packed minX,minY,minZ,maxX,maxY,maxZ
+		// NOTE: like blocksToWorld( AxisAlignedBB ), the box centers move but the sizes don't,
+		// so the boxes are rotated by rotationYaw around their centers
+		updateRotation();
+		for( int i=0; i<numBoxes*6; i+=6 )
+		{
+			double dxh = ( boxes[i + 3] - boxes[i] )/2;
+			double dzh = ( boxes[i + 5] - boxes[i + 2] )/2;
+			double x = boxes[i] + dxh + m_shipBlockX;
+			double z = boxes[i + 2] + dzh + m_shipBlockZ;
+			double centerX = x*m_cos + z*m_sin + posX;
+			double centerZ = -x*m_sin + z*m_cos + posZ;
+			boxes[i] = centerX - dxh;
+			boxes[i + 1] += m_shipBlockY + posY;
+			boxes[i + 2] = centerZ - dzh;
+			boxes[i + 3] = centerX + dxh;
+			boxes[i + 4] += m_shipBlockY + posY;
+			boxes[i + 5] = centerZ + dzh;
+		}
+	}
+	
 	public RotatedBB worldToBlocks( AxisAlignedBB box )
 	{
 		// transform the box center into block space
-		Vec3 center = Vec3.createVectorHelper(
-			( box.minX + box.maxX )/2,
-			( box.minY + box.maxY )/2,
-			( box.minZ + box.maxZ )/2
-		);
-		worldToShip( center );
-		shipToBlocks( center );
+		double x = ( box.minX + box.maxX )/2;
+		double y = ( box.minY + box.maxY )/2;
+		double z = ( box.minZ + box.maxZ )/2;
+		double centerX = worldToBlocksX( x, z );
+		double centerY = worldToBlocksY( y );
+		double centerZ = worldToBlocksZ( x, z );
 		
 		// build a box of the same dimensions in blocks space
 		double dxh = ( box.maxX - box.minX )/2;
 		double dyh = ( box.maxY - box.minY )/2;
 		double dzh = ( box.maxZ - box.minZ )/2;
 		box = AxisAlignedBB.getBoundingBox(
-			center.xCoord - dxh, center.yCoord - dyh, center.zCoord - dzh,
-			center.xCoord + dxh, center.yCoord + dyh, center.zCoord + dzh
+			centerX - dxh, centerY - dyh, centerZ - dzh,
+			centerX + dxh, centerY + dyh, centerZ + dzh
 		);
 		
 		return new RotatedBB( box, -rotationYaw );
@@ -637,26 +839,54 @@ public class EntityShip extends Entity
 	public RotatedBB blocksToWorld( AxisAlignedBB box )
 	{
 		// transform the box center into world space
-		Vec3 center = Vec3.createVectorHelper(
-			( box.minX + box.maxX )/2,
-			( box.minY + box.maxY )/2,
-			( box.minZ + box.maxZ )/2
-		);
-		blocksToShip( center );
-		shipToWorld( center );
+		double x = ( box.minX + box.maxX )/2;
+		double y = ( box.minY + box.maxY )/2;
+		double z = ( box.minZ + box.maxZ )/2;
+		double centerX = blocksToWorldX( x, z );
+		double centerY = blocksToWorldY( y );
+		double centerZ = blocksToWorldZ( x, z );
 		
 		// build a box of the same dimensions in world space
 		double dxh = ( box.maxX - box.minX )/2;
 		double dyh = ( box.maxY - box.minY )/2;
 		double dzh = ( box.maxZ - box.minZ )/2;
 		box = AxisAlignedBB.getBoundingBox(
-			center.xCoord - dxh, center.yCoord - dyh, center.zCoord - dzh,
-			center.xCoord + dxh, center.yCoord + dyh, center.zCoord + dzh
+			centerX - dxh, centerY - dyh, centerZ - dzh,
+			centerX + dxh, centerY + dyh, centerZ + dzh
 		);
 		
 		return new RotatedBB( box, rotationYaw );
 	}
 	
+	private void updateRotation( )
+	{
+		// NOTE: rotationYaw is public and changes all over the place, so just check it every time
+		// the collider likes to turn the ship to its next yaw and back again, so remember the last two rotations
+		if( rotationYaw == m_yaw )
+		{
+			return;
+		}
+		float yaw = m_otherYaw;
+		double cos = m_otherCos;
+		double sin = m_otherSin;
+		m_otherYaw = m_yaw;
+		m_otherCos = m_cos;
+		m_otherSin = m_sin;
+		if( rotationYaw == yaw )
+		{
+			m_yaw = yaw;
+			m_cos = cos;
+			m_sin = sin;
+		}
+		else
+		{
+			double yawRad = Math.toRadians( rotationYaw );
+			m_yaw = rotationYaw;
+			m_cos = Math.cos( yawRad );
+			m_sin = Math.sin( yawRad );
+		}
+	}
+	
 	private void adjustMotionDueToGravityAndBuoyancy( double waterHeightInBlockSpace )
 	{
 		/* only simulate buoyancy if we're outside of the epsilon for the equilibrium y pos
@@ -720,14 +950,6 @@ public class EntityShip extends Entity
 		double linearAccelerationDueToThrustZ = 0;
 		if( m_sideShipForward != null )
 		{
-			if( m_sendPilotChangesToServer )
-			{
-				// send a packet to the server
-				PacketPilotShip packet = new PacketPilotShip( entityId, m_pilotActions, m_sideShipForward, linearThrottle, angularThrottle );
-				PacketDispatcher.sendPacketToServer( packet.getCustomPacket() );
-				m_sendPilotChangesToServer = false;
-			}
-			
 			// compute the forward vector
 			float yawRad = (float)Math.toRadians( rotationYaw );
 			float cos = MathHelper.cos( yawRad );
@@ -773,6 +995,11 @@ public class EntityShip extends Entity
 	
 	private void moveRiders( List<Entity> riders, double dx, double dy, double dz, float dYaw )
 	{
+		// every rider turns by the same amount, so only compute the rotation once
+		float dYawRad = (float)Math.toRadians( dYaw );
+		float dYawCos = MathHelper.cos( dYawRad );
+		float dYawSin = MathHelper.sin( dYawRad );
+		
 		// remove all current riders from the last known riders
 		// meaning, only lost riders will be left
 		for( Entity rider : riders )
@@ -784,7 +1011,7 @@ public class EntityShip extends Entity
 		}
 		for( Entity rider : m_ridersLastTick.values() )
 		{
-			Vec3 delta = getRiderDelta( rider, dx, dy, dz, dYaw );
+			Vec3 delta = getRiderDelta( rider, dx, dy, dz, dYawCos, dYawSin );
 			
 			// impart some velocity to the old rider
 			rider.motionX += delta.xCoord;
@@ -810,7 +1037,7 @@ public class EntityShip extends Entity
 		// first, move the riders
 		for( Entity rider : riders )
 		{
-			Vec3 delta = getRiderDelta( rider, dx, dy, dz, dYaw );
+			Vec3 delta = getRiderDelta( rider, dx, dy, dz, dYawCos, dYawSin );
 			
 			// apply the transformation
 			rider.rotationYaw -= dYaw;
@@ -827,19 +1054,69 @@ public class EntityShip extends Entity
 		m_pilotActions = actions;
 		m_sideShipForward = sideShipForward;
 		m_sendPilotChangesToServer = sendPilotChangesToServer;
+		
+		// only the pilot's client sends changes to the server
+		m_isLocalPilot = sendPilotChangesToServer;
+	}
+	
+	public void sendPilotChangesToClients( EntityPlayer pilot )
+	{
+		m_pilotId = pilot.entityId;
+		m_sendPilotChangesToClients = true;
+	}
+	
+	public static int getPilotUpdateTicks( )
+	{
+		return m_pilotUpdateTicks;
+	}
+	
+	public static void setPilotUpdateTicks( int val )
+	{
+		m_pilotUpdateTicks = Math.max( 1, val );
+	}
+	
+	private void updatePilotChanges( )
+	{
+		// pilots can change their actions every tick, so only send the latest actions every few ticks
+		// NOTE: the first change after a break goes out right away, so piloting still feels responsive
+		if( m_ticksSincePilotUpdate < m_pilotUpdateTicks )
+		{
+			m_ticksSincePilotUpdate++;
+		}
+		if( m_ticksSincePilotUpdate < m_pilotUpdateTicks || m_sideShipForward == null )
+		{
+			return;
+		}
+		
+		if( m_sendPilotChangesToServer )
+		{
+			// send a packet to the server
+			// NOTE: the server knows who the pilot is
+			PacketPilotShip packet = new PacketPilotShip( entityId, 0, m_pilotActions, m_sideShipForward, linearThrottle, angularThrottle );
+			PacketDispatcher.sendPacketToServer( packet.getCustomPacket() );
+			m_sendPilotChangesToServer = false;
+			m_ticksSincePilotUpdate = 0;
+		}
+		else if( m_sendPilotChangesToClients )
+		{
+			// only the players tracking the ship need to know
+			PacketPilotShip packet = new PacketPilotShip( entityId, m_pilotId, m_pilotActions, m_sideShipForward, linearThrottle, angularThrottle );
+			( (WorldServer)worldObj ).getEntityTracker().sendPacketToAllPlayersTrackingEntity( this, packet.getCustomPacket() );
+			m_sendPilotChangesToClients = false;
+			m_ticksSincePilotUpdate = 0;
+		}
 	}
 	
-	private Vec3 getRiderDelta( Entity rider, double shipDx, double shipDy, double shipDz, double shipDyaw )
+	private Vec3 getRiderDelta( Entity rider, double shipDx, double shipDy, double shipDz, float cos, float sin )
 	{
-		Vec3 p = Vec3.createVectorHelper( 0, 0, 0 );
+		// NOTE: the delta is only good until the next call
+		Vec3 p = m_riderDelta;
 		
 		// apply rotation of position relative to the ship center
 		p.xCoord = rider.posX + shipDx;
+		p.yCoord = 0;
 		p.zCoord = rider.posZ + shipDz;
 		worldToShip( p );
-		float yawRad = (float)Math.toRadians( shipDyaw );
-		float cos = MathHelper.cos( yawRad );
-		float sin = MathHelper.sin( yawRad );
 		double x = p.xCoord*cos + p.zCoord*sin;
 		double z = -p.xCoord*sin + p.zCoord*cos;
 		p.xCoord = x;
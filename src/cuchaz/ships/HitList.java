@@ -120,14 +120,18 @@ public class HitList
 		ship.worldToShip( shipTo );
 		ship.shipToBlocks( shipTo );
 		
-		for( MovingObjectPosition hit : ship.getCollider().lineSegmentQuery( shipFrom, shipTo ) )
+		// only the closest ship block matters, the blocks behind it are hidden
+		MovingObjectPosition hit = ship.getCollider().rayTrace( shipFrom, shipTo );
+		if( hit == null )
 		{
-			// convert hit vec back to world coords
-			ship.blocksToShip( hit.hitVec );
-			ship.shipToWorld( hit.hitVec );
-			
-			m_entries.add( new Entry( Type.Ship, from.distanceTo( hit.hitVec ), hit ) );
+			return;
 		}
+		
+		// convert hit vec back to world coords
+		ship.blocksToShip( hit.hitVec );
+		ship.shipToWorld( hit.hitVec );
+		
+		m_entries.add( new Entry( Type.Ship, from.distanceTo( hit.hitVec ), hit ) );
 	}
 	
 	public void addHits( World world, EntityPlayer player, double reachDist )
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cuchaz.modsShared.blocks.BoundingBoxInt;
+import cuchaz.modsShared.blocks.Coords;
+
+public class PackedBlocks
+{
+	// cells hold palette index + 1, so a zero cell is empty
+	private static final char EmptyCell = 0;
+	private static final int MaxPaletteSize = Character.MAX_VALUE - 1;
+	
+	private int m_minX;
+	private int m_minY;
+	private int m_minZ;
+	private int m_dx;
+	private int m_dy;
+	private int m_dz;
+	private char[] m_cells;
+	private List<BlockStorage> m_palette;
+	private Map<Integer,Integer> m_paletteIndices;
+	private int m_numBlocks;
+	
+	public PackedBlocks( BoundingBoxInt box )
+	{
+		m_minX = box.minX;
+		m_minY = box.minY;
+		m_minZ = box.minZ;
+		m_dx = box.maxX - box.minX + 1;
+		m_dy = box.maxY - box.minY + 1;
+		m_dz = box.maxZ - box.minZ + 1;
+		m_cells = new char[m_dx*m_dy*m_dz];
+		m_palette = new ArrayList<BlockStorage>();
+		m_paletteIndices = new TreeMap<Integer,Integer>();
+		m_numBlocks = 0;
+	}
+	
+	public static int getVolume( BoundingBoxInt box )
+	{
+		return ( box.maxX - box.minX + 1 )*( box.maxY - box.minY + 1 )*( box.maxZ - box.minZ + 1 );
+	}
+	
+	public int getNumBlocks( )
+	{
+		return m_numBlocks;
+	}
+	
+	public int getPaletteSize( )
+	{
+		return m_palette.size();
+	}
+	
+	public boolean isInBounds( int x, int y, int z )
+	{
+		return x >= m_minX && x < m_minX + m_dx
+			&& y >= m_minY && y < m_minY + m_dy
+			&& z >= m_minZ && z < m_minZ + m_dz;
+	}
+	
+	public boolean contains( int x, int y, int z )
+	{
+		return isInBounds( x, y, z ) && m_cells[getIndex( x, y, z )] != EmptyCell;
+	}
+	
+	public boolean visitBlocks( BlockOctree.BlockVisitor visitor )
+	{
+		// walk the cells in index order, skipping the empty ones
+		// returns false if the visitor stopped early
+		int index = 0;
+		for( int y=0; y<m_dy; y++ )
+		{
+			for( int z=0; z<m_dz; z++ )
+			{
+				for( int x=0; x<m_dx; x++ )
+				{
+					if( m_cells[index++] != EmptyCell && !visitor.visitBlock( m_minX + x, m_minY + y, m_minZ + z ) )
+					{
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+	
+	public void getCoords( final Collection<Coords> out )
+	{
+		visitBlocks( new BlockOctree.BlockVisitor( )
+		{
+			@Override
+			public boolean visitBlock( int x, int y, int z )
+			{
+				out.add( new Coords( x, y, z ) );
+				return true;
+			}
+		} );
+	}
+	
+	public BlockStorage get( int x, int y, int z )
+	{
+		if( !isInBounds( x, y, z ) )
+		{
+			return null;
+		}
+		char cell = m_cells[getIndex( x, y, z )];
+		if( cell == EmptyCell )
+		{
+			return null;
+		}
+		return m_palette.get( cell - 1 );
+	}
+	
+	public boolean set( int x, int y, int z, int id, int meta )
+	{
+		if( !isInBounds( x, y, z ) )
+		{
+			return false;
+		}
+		
+		// find the palette entry for this block, or make a new one
+		int key = pack( id, meta );
+		Integer paletteIndex = m_paletteIndices.get( key );
+		if( paletteIndex == null )
+		{
+			if( m_palette.size() >= MaxPaletteSize )
+			{
+				return false;
+			}
+			BlockStorage storage = new BlockStorage();
+			storage.id = id;
+			storage.meta = meta;
+			paletteIndex = m_palette.size();
+			m_palette.add( storage );
+			m_paletteIndices.put( key, paletteIndex );
+		}
+		
+		int index = getIndex( x, y, z );
+		if( m_cells[index] == EmptyCell )
+		{
+			m_numBlocks++;
+		}
+		m_cells[index] = (char)( paletteIndex + 1 );
+		return true;
+	}
+	
+	private int getIndex( int x, int y, int z )
+	{
+		return ( ( y - m_minY )*m_dz + ( z - m_minZ ) )*m_dx + ( x - m_minX );
+	}
+	
+	private int pack( int id, int meta )
+	{
+		return Bits.packUnsigned( id, 12, 0 ) | Bits.packUnsigned( meta, 4, 12 );
+	}
+}
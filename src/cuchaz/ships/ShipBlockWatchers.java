@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.network.packet.Packet250CustomPayload;
+import cpw.mods.fml.common.network.PacketDispatcher;
+import cpw.mods.fml.common.network.Player;
+import cuchaz.modsShared.blocks.BlockSet;
+import cuchaz.modsShared.blocks.Coords;
+import cuchaz.ships.packets.PacketChangedBlocks;
+
+public class ShipBlockWatchers
+{
+	// server side. Collects the block changes on a ship and sends them to the players whose clients have the ship's blocks
+	// changes get collected over a few ticks, so blocks that change every tick only get sent once per window
+	
+	// NOTE: this matches the ship tracking range in Ships, plus a little slack so we never drop a player the tracker still has
+	private static final double MaxWatchDist = 256 + 16;
+	
+	private static int m_windowTicks = 4;
+	
+	private static class Watcher
+	{
+		public int checksum;
+		public boolean hasBlocks;
+		
+		// the changes the client missed while it was getting the blocks
+		public BlockSet missedBlocks;
+	}
+	
+	private Map<EntityPlayer,Watcher> m_watchers;
+	private BlockSet m_changedBlocks;
+	private int m_ticksSinceSend;
+	
+	public ShipBlockWatchers( )
+	{
+		m_watchers = new HashMap<EntityPlayer,Watcher>();
+		m_changedBlocks = new BlockSet();
+		m_ticksSinceSend = 0;
+	}
+	
+	public static int getWindowTicks( )
+	{
+		return m_windowTicks;
+	}
+	
+	public static void setWindowTicks( int val )
+	{
+		m_windowTicks = Math.max( 1, val );
+	}
+	
+	public Set<EntityPlayer> getPlayers( )
+	{
+		return m_watchers.keySet();
+	}
+	
+	public boolean hasBlocks( EntityPlayer player )
+	{
+		Watcher watcher = m_watchers.get( player );
+		return watcher != null && watcher.hasBlocks;
+	}
+	
+	public void addChange( int x, int y, int z )
+	{
+		// if nobody is watching, the next player to ask for the blocks gets the change with them
+		if( m_watchers.isEmpty() )
+		{
+			return;
+		}
+		
+		Coords coords = new Coords( x, y, z );
+		m_changedBlocks.add( coords );
+		for( Watcher watcher : m_watchers.values() )
+		{
+			if( !watcher.hasBlocks )
+			{
+				watcher.missedBlocks.add( coords );
+			}
+		}
+	}
+	
+	public void onBlocksSent( EntityPlayer player, int checksum )
+	{
+		// the client will have these blocks soon, but anything that changes until then has to be sent separately
+		Watcher watcher = new Watcher();
+		watcher.checksum = checksum;
+		watcher.hasBlocks = false;
+		watcher.missedBlocks = new BlockSet();
+		m_watchers.put( player, watcher );
+	}
+	
+	public boolean onBlocksReceived( EntityShip ship, EntityPlayer player, int checksum )
+	{
+		// did the client get the blocks we sent?
+		Watcher watcher = m_watchers.get( player );
+		if( watcher == null || watcher.checksum != checksum )
+		{
+			return false;
+		}
+		if( watcher.hasBlocks )
+		{
+			return true;
+		}
+		
+		// catch the client up
+		watcher.hasBlocks = true;
+		if( !watcher.missedBlocks.isEmpty() )
+		{
+			PacketDispatcher.sendPacketToPlayer( new PacketChangedBlocks( ship, watcher.missedBlocks ).getCustomPacket(), (Player)player );
+		}
+		watcher.missedBlocks = null;
+		return true;
+	}
+	
+	public void update( EntityShip ship )
+	{
+		if( ++m_ticksSinceSend < m_windowTicks )
+		{
+			return;
+		}
+		m_ticksSinceSend = 0;
+		
+		// stop watching for players that can't see the ship anymore
+		// NOTE: if they come back, their clients will ask for the blocks again
+		Iterator<Map.Entry<EntityPlayer,Watcher>> iter = m_watchers.entrySet().iterator();
+		while( iter.hasNext() )
+		{
+			EntityPlayer player = iter.next().getKey();
+			if( player.isDead || player.worldObj != ship.worldObj
+				|| Math.abs( player.posX - ship.posX ) > MaxWatchDist || Math.abs( player.posZ - ship.posZ ) > MaxWatchDist )
+			{
+				iter.remove();
+			}
+		}
+		
+		if( m_changedBlocks.isEmpty() )
+		{
+			return;
+		}
+		
+		// everyone gets the same packet
+		Packet250CustomPayload packet = null;
+		for( Map.Entry<EntityPlayer,Watcher> entry : m_watchers.entrySet() )
+		{
+			if( entry.getValue().hasBlocks )
+			{
+				if( packet == null )
+				{
+					packet = new PacketChangedBlocks( ship, m_changedBlocks ).getCustomPacket();
+				}
+				PacketDispatcher.sendPacketToPlayer( packet, (Player)entry.getKey() );
+			}
+		}
+		m_changedBlocks.clear();
+	}
+}
@@ -113,9 +113,7 @@ public class ShipClipboard
 			if( Block.blocksList[blockId] == null )
 			{
 				foundUnknownBlocks = true;
-				BlockStorage storage = shipWorld.getBlockStorage( coords );
-				storage.id = Block.planks.blockID;
-				storage.meta = 0;
+				shipWorld.getBlocksStorage().changeBlock( coords, Block.planks.blockID, 0 );
 			}
 		}
 		if( foundUnknownBlocks )
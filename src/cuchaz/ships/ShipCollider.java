@@ -24,45 +24,397 @@ import net.minecraft.util.AxisAlignedBB;
 import net.minecraft.util.MathHelper;
 import net.minecraft.util.MovingObjectPosition;
 import net.minecraft.util.Vec3;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
 import cpw.mods.fml.relauncher.Side;
 import cpw.mods.fml.relauncher.SideOnly;
 import cuchaz.modsShared.Environment;
 import cuchaz.modsShared.blocks.BlockSet;
-import cuchaz.modsShared.blocks.BlockSide;
 import cuchaz.modsShared.blocks.BlockUtils;
 import cuchaz.modsShared.blocks.Coords;
-import cuchaz.modsShared.math.BoxCorner;
 import cuchaz.modsShared.math.RotatedBB;
 import cuchaz.ships.render.ShipDebugRenderInfo;
 
 public class ShipCollider
 {
+	public static interface CollisionBoxVisitor
+	{
+		// return false to stop the query
+		boolean visitBox( int x, int y, int z, AxisAlignedBB box );
+	}
+	
+	private static final CollisionBoxVisitor StopAtFirstBox = new CollisionBoxVisitor( )
+	{
+		@Override
+		public boolean visitBox( int x, int y, int z, AxisAlignedBB box )
+		{
+			return false;
+		}
+	};
+	
+	private class CollisionBoxQuery implements BlockOctree.BlockVisitor
+	{
+		public AxisAlignedBB box;
+		public AxisAlignedBB queryBox;
+		public CollisionBoxVisitor visitor;
+		public boolean isBusy;
+		private List<AxisAlignedBB> m_boxes;
+		
+		public CollisionBoxQuery( )
+		{
+			box = null;
+			queryBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+			visitor = null;
+			isBusy = false;
+			m_boxes = new ArrayList<AxisAlignedBB>();
+		}
+		
+		@Override
+		public boolean visitBlock( int x, int y, int z )
+		{
+			m_boxes.clear();
+			getCollisionBoxesInBlockSpace( m_boxes, x, y, z, box );
+			for( int i=0; i<m_boxes.size(); i++ )
+			{
+				if( !visitor.visitBox( x, y, z, m_boxes.get( i ) ) )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+	private class ScalingVisitor implements CollisionBoxVisitor
+	{
+		// finds the scaling of the delta that keeps the box out of the obstacles
+		
+		public AxisAlignedBB box;
+		public double dx;
+		public double dy;
+		public double dz;
+		public CollisionResult result;
+		
+		@Override
+		public boolean visitBox( int x, int y, int z, AxisAlignedBB obstacleBox )
+		{
+			double scaling = getScalingToAvoidCollision( box, dx, dy, dz, obstacleBox );
+			result.scaling = Math.min( result.scaling, scaling );
+			if( scaling < 1 )
+			{
+				result.numCollidingBoxes++;
+			}
+			return true;
+		}
+	}
+	
 	private static class PossibleCollision
 	{
-		public Coords coords;
+		public int x;
+		public int y;
+		public int z;
 		public AxisAlignedBB box;
+	}
+	
+	private class TrajectoryVisitor implements CollisionBoxVisitor
+	{
+		// collects the boxes along the trajectory, reusing the collisions from the last query
 		
-		public PossibleCollision( Coords coords, AxisAlignedBB box )
+		public List<PossibleCollision> collisions;
+		private List<PossibleCollision> m_pool;
+		
+		public TrajectoryVisitor( )
 		{
-			this.coords = coords;
-			this.box = box;
+			collisions = new ArrayList<PossibleCollision>();
+			m_pool = new ArrayList<PossibleCollision>();
+		}
+		
+		@Override
+		public boolean visitBox( int x, int y, int z, AxisAlignedBB box )
+		{
+			if( collisions.size() == m_pool.size() )
+			{
+				m_pool.add( new PossibleCollision() );
+			}
+			PossibleCollision collision = m_pool.get( collisions.size() );
+			collision.x = x;
+			collision.y = y;
+			collision.z = z;
+			collision.box = box;
+			collisions.add( collision );
+			return true;
 		}
 	}
 	
-	private static class CollisionResult
+	static class CollisionResult
 	{
 		public double scaling;
 		public int numCollidingBoxes;
 	}
 	
+	private class ShipCollisionVisitor implements BlockOctree.Visitor
+	{
+		// NOTE: like checkShipCollision(), this works in the other ship's block space
+		
+		public double scaling;
+		public int numCollidingBoxes;
+		
+		private double m_dx;
+		private double m_dy;
+		private double m_dz;
+		private float m_dYaw;
+		private EntityShip m_otherShip;
+		private AxisAlignedBB m_nodeBox;
+		private AxisAlignedBB m_nextNodeBox;
+		private AxisAlignedBB m_sweptBox;
+		private CollisionResult m_result;
+		
+		public ShipCollisionVisitor( )
+		{
+			m_nodeBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+			m_nextNodeBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+			m_sweptBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+			m_result = new CollisionResult();
+		}
+		
+		public void init( double dx, double dy, double dz, float dYaw, EntityShip otherShip )
+		{
+			scaling = 1.0;
+			numCollidingBoxes = 0;
+			
+			m_dx = dx;
+			m_dy = dy;
+			m_dz = dz;
+			m_dYaw = dYaw;
+			m_otherShip = otherShip;
+		}
+		
+		@Override
+		public boolean visitNode( int x0, int y0, int z0, int size )
+		{
+			// get the box swept out by this node, rotated into the other ship's blocks
+			getNodeBoundingBox( m_nodeBox, x0, y0, z0, size, m_ship.posX, m_ship.posY, m_ship.posZ, m_ship.rotationYaw, m_otherShip );
+			getNodeBoundingBox( m_nextNodeBox, x0, y0, z0, size,
+				m_ship.posX + m_dx, m_ship.posY + m_dy, m_ship.posZ + m_dz, m_ship.rotationYaw + m_dYaw,
+				m_otherShip
+			);
+			
+			// only go inside if the other ship has blocks there
+			// NOTE: expand by 1 so we pick up blocks whose collision boxes are outside their bounding boxes
+			setUnion( m_sweptBox, m_nodeBox, m_nextNodeBox, 1 );
+			return m_otherShip.getShipWorld().getGeometry().anyInRange( m_sweptBox );
+		}
+		
+		@Override
+		public void visitBlock( int x, int y, int z )
+		{
+			checkShipCollision( m_result, x, y, z, m_dx, m_dy, m_dz, m_dYaw, m_otherShip );
+			if( m_result.scaling < 1.0 )
+			{
+				scaling = Math.min( scaling, m_result.scaling );
+				numCollidingBoxes += m_result.numCollidingBoxes;
+			}
+		}
+	}
+	
+	private static class WorldCollision
+	{
+		public int x;
+		public int y;
+		public int z;
+		public Block block;
+		public AxisAlignedBB box;
+		public boolean isDestroyed;
+	}
+	
+	private class HullCollisionVisitor implements BlockOctree.BlockVisitor
+	{
+		// checks the hull blocks against the world collisions for this move
+		
+		public double scaling;
+		public int numCollidingBoxes;
+		
+		private double m_dx;
+		private double m_dy;
+		private double m_dz;
+		private float m_dYaw;
+		private CollisionResult m_result;
+		
+		public HullCollisionVisitor( )
+		{
+			m_result = new CollisionResult();
+		}
+		
+		public void init( double dx, double dy, double dz, float dYaw )
+		{
+			scaling = 1.0;
+			numCollidingBoxes = 0;
+			
+			m_dx = dx;
+			m_dy = dy;
+			m_dz = dz;
+			m_dYaw = dYaw;
+		}
+		
+		@Override
+		public boolean visitBlock( int x, int y, int z )
+		{
+			checkBlockCollision( m_result, x, y, z, m_dx, m_dy, m_dz, m_dYaw, m_worldCollisions );
+			if( m_result.scaling < 1.0 )
+			{
+				scaling = Math.min( scaling, m_result.scaling );
+				numCollidingBoxes += m_result.numCollidingBoxes;
+			}
+			return true;
+		}
+	}
+	
+	private class LadderVisitor implements BlockOctree.BlockVisitor
+	{
+		public EntityLivingBase entity;
+		
+		@Override
+		public boolean visitBlock( int x, int y, int z )
+		{
+			// stop at the first ladder
+			ShipWorld shipWorld = m_ship.getShipWorld();
+			Block block = Block.blocksList[shipWorld.getBlockId( x, y, z )];
+			return block == null || !block.isLadder( shipWorld, x, y, z, entity );
+		}
+	}
+	
+	private class CollidingVisitor implements BlockOctree.BlockVisitor
+	{
+		public AxisAlignedBB box;
+		private AxisAlignedBB m_shipBlockBox;
+		
+		public CollidingVisitor( )
+		{
+			box = null;
+			m_shipBlockBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		}
+		
+		@Override
+		public boolean visitBlock( int x, int y, int z )
+		{
+			// stop at the first block that intersects the box
+			getBlockWorldBoundingBox( m_shipBlockBox, x, y, z );
+			return !m_shipBlockBox.intersectsWith( box );
+		}
+	}
+	
+	private class RayTraceVisitor implements BlockOctree.BlockVisitor
+	{
+		public Vec3 from;
+		public Vec3 to;
+		public List<MovingObjectPosition> hits;
+		public MovingObjectPosition firstHit;
+		
+		public RayTraceVisitor( )
+		{
+			from = null;
+			to = null;
+			hits = null;
+			firstHit = null;
+		}
+		
+		public void init( Vec3 from, Vec3 to, List<MovingObjectPosition> hits )
+		{
+			// NOTE: without a hits list, stop at the first hit
+			this.from = from;
+			this.to = to;
+			this.hits = hits;
+			firstHit = null;
+		}
+		
+		@Override
+		public boolean visitBlock( int x, int y, int z )
+		{
+			// get the intersection point with the line segment
+			Block block = Block.blocksList[m_ship.getShipWorld().getBlockId( x, y, z )];
+			if( block == null )
+			{
+				return true;
+			}
+			MovingObjectPosition hit = block.collisionRayTrace( m_ship.getShipWorld(), x, y, z, from, to );
+			if( hit == null )
+			{
+				return true;
+			}
+			if( firstHit == null )
+			{
+				firstHit = hit;
+			}
+			if( hits == null )
+			{
+				return false;
+			}
+			hits.add( hit );
+			return true;
+		}
+	}
 	
 	private EntityShip m_ship;
+	private double[] m_nodeCorners;
+	private CollisionBoxQuery m_collisionBoxQuery;
+	private ScalingVisitor m_scalingVisitor;
+	private ShipCollisionVisitor m_shipCollisionVisitor;
+	private LadderVisitor m_ladderVisitor;
+	private CollidingVisitor m_collidingVisitor;
+	private CollisionResult m_collisionResult;
+	private HullCollisionVisitor m_hullCollisionVisitor;
+	private TrajectoryVisitor m_trajectoryVisitor;
+	private RayTraceVisitor m_rayTraceVisitor;
+	private List<WorldCollision> m_worldCollisions;
+	private List<WorldCollision> m_worldCollisionPool;
+	private List<AxisAlignedBB> m_worldBlockBoxes;
+	private List<EntityShip> m_nearbyShips;
+	private List<Entity> m_nearbyEntities;
+	private AxisAlignedBB m_shipBlockBox;
+	private AxisAlignedBB m_nextShipBlockBox;
+	private AxisAlignedBB m_combinedShipBlockBox;
+	private AxisAlignedBB m_nextShipBox;
+	private AxisAlignedBB m_sweptShipBox;
+	private AxisAlignedBB m_standingBox;
+	private AxisAlignedBB m_ladderBox;
+	private AxisAlignedBB m_oldEntityBox;
+	private AxisAlignedBB m_newEntityBox;
+	private AxisAlignedBB m_crouchBox;
+	private AxisAlignedBB m_stairsBox;
+	private AxisAlignedBB m_trajectoryBox;
 	@SideOnly( Side.CLIENT )
 	private ShipDebugRenderInfo m_debugRenderInfo;
 	
 	public ShipCollider( EntityShip ship )
 	{
 		m_ship = ship;
+		m_nodeCorners = new double[4*3];
+		m_collisionBoxQuery = new CollisionBoxQuery();
+		m_scalingVisitor = new ScalingVisitor();
+		m_shipCollisionVisitor = new ShipCollisionVisitor();
+		m_ladderVisitor = new LadderVisitor();
+		m_collidingVisitor = new CollidingVisitor();
+		m_collisionResult = new CollisionResult();
+		m_hullCollisionVisitor = new HullCollisionVisitor();
+		m_trajectoryVisitor = new TrajectoryVisitor();
+		m_rayTraceVisitor = new RayTraceVisitor();
+		m_worldCollisions = new ArrayList<WorldCollision>();
+		m_worldCollisionPool = new ArrayList<WorldCollision>();
+		m_worldBlockBoxes = new ArrayList<AxisAlignedBB>();
+		m_nearbyShips = new ArrayList<EntityShip>();
+		m_nearbyEntities = new ArrayList<Entity>();
+		m_shipBlockBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		m_nextShipBlockBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		m_combinedShipBlockBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		m_nextShipBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		m_sweptShipBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		m_standingBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		m_ladderBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		m_oldEntityBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		m_newEntityBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		m_crouchBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		m_stairsBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		m_trajectoryBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
 		
 		if( Environment.isClient() )
 		{
@@ -92,24 +444,31 @@ public class ShipCollider
 		box.maxY = y + m_ship.blocksToShipY( blocks.getBoundingBox().maxY + 1 );
 		box.maxZ = z + m_ship.blocksToShipZ( blocks.getBoundingBox().maxZ + 1 );
 		
-		// now rotate by the yaw
-		// UNDONE: optimize out the new
-		RotatedBB rotatedBox = new RotatedBB( box.copy(), yaw, x, z );
+		// now rotate the xz corners around the ship by the yaw, the same way shipToWorld() does
+		double yawRad = Math.toRadians( yaw );
+		double cos = Math.cos( yawRad );
+		double sin = Math.sin( yawRad );
+		double minX = box.minX - x;
+		double maxX = box.maxX - x;
+		double minZ = box.minZ - z;
+		double maxZ = box.maxZ - z;
 		
 		// compute the new xz bounds
 		box.minX = Integer.MAX_VALUE;
 		box.maxX = Integer.MIN_VALUE;
 		box.minZ = Integer.MAX_VALUE;
 		box.maxZ = Integer.MIN_VALUE;
-		Vec3 p = Vec3.createVectorHelper( 0, 0, 0 );
-		for( BoxCorner corner : BlockSide.Top.getCorners() )
+		for( int i=0; i<4; i++ )
 		{
-			rotatedBox.getCorner( p, corner );
+			double cornerX = ( i & 1 ) != 0 ? maxX : minX;
+			double cornerZ = ( i & 2 ) != 0 ? maxZ : minZ;
+			double px = cornerX*cos + cornerZ*sin + x;
+			double pz = -cornerX*sin + cornerZ*cos + z;
 			
-			box.minX = Math.min( box.minX, p.xCoord );
-			box.maxX = Math.max( box.maxX, p.xCoord );
-			box.minZ = Math.min( box.minZ, p.zCoord );
-			box.maxZ = Math.max( box.maxZ, p.zCoord );
+			box.minX = Math.min( box.minX, px );
+			box.maxX = Math.max( box.maxX, px );
+			box.minZ = Math.min( box.minZ, pz );
+			box.maxZ = Math.max( box.maxZ, pz );
 		}
 	}
 	
@@ -128,8 +487,8 @@ public class ShipCollider
 		}
 		
 		// get a box for the entity's original positions
-		AxisAlignedBB oldEntityBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
-		getEntityBoxInBlockSpace( oldEntityBox, entity, Vec3.createVectorHelper( oldX, oldY, oldZ ) );
+		AxisAlignedBB oldEntityBox = m_oldEntityBox;
+		getEntityBoxInBlockSpace( oldEntityBox, entity, oldX, oldY, oldZ );
 		
 		// to make collisions for standing on blocks more robust, if the old box is JUST beneath the top of a block, pop it up.
 		final double Epsilon = 1e-1;
@@ -141,7 +500,7 @@ public class ShipCollider
 		}
 		
 		// get a box for the entity's current position
-		AxisAlignedBB newEntityBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		AxisAlignedBB newEntityBox = m_newEntityBox;
 		getEntityBoxInBlockSpace( newEntityBox, entity );
 		
 		// adjust the old box for the old ySize
@@ -151,7 +510,10 @@ public class ShipCollider
 		
 		if( Environment.isClient() && ShipDebugRenderInfo.isDebugRenderingOn() && entity instanceof EntityLivingBase )
 		{
-			m_debugRenderInfo.setQueryBox( entity, oldEntityBox );
+			// NOTE: the debug renderer keeps the box, so give it a copy
+			AxisAlignedBB queryBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+			queryBox.setBB( oldEntityBox );
+			m_debugRenderInfo.setQueryBox( entity, queryBox );
 		}
 		
 		// get the deltas in blocks coordinates
@@ -173,20 +535,20 @@ public class ShipCollider
 			
 			// reduce the movement delta to ensure player is always standing on a ship block
 			final double StepSize = 0.05;
-			while( dx != 0 && m_ship.getShipWorld().getGeometry().rangeQuery( oldEntityBox.getOffsetBoundingBox( dx + bufferX, -1.0, 0.0 ) ).isEmpty() )
+			while( dx != 0 && !m_ship.getShipWorld().getGeometry().anyInRange( setOffset( m_crouchBox, oldEntityBox, dx + bufferX, -1.0, 0.0 ) ) )
             {
 				dx = stepTowardsZero( dx, StepSize );
             }
-			while( dz != 0 && m_ship.getShipWorld().getGeometry().rangeQuery( oldEntityBox.getOffsetBoundingBox( 0.0, -1.0, dz + bufferZ ) ).isEmpty() )
+			while( dz != 0 && !m_ship.getShipWorld().getGeometry().anyInRange( setOffset( m_crouchBox, oldEntityBox, 0.0, -1.0, dz + bufferZ ) ) )
             {
 				dz = stepTowardsZero( dz, StepSize );
             }
-			while( dx != 0 && dz != 0 && m_ship.getShipWorld().getGeometry().rangeQuery( oldEntityBox.getOffsetBoundingBox( dx + bufferX, -1.0, dz + bufferZ ) ).isEmpty() )
+			while( dx != 0 && dz != 0 && !m_ship.getShipWorld().getGeometry().anyInRange( setOffset( m_crouchBox, oldEntityBox, dx + bufferX, -1.0, dz + bufferZ ) ) )
             {
 				dx = stepTowardsZero( dx, StepSize );
 				dz = stepTowardsZero( dz, StepSize );
             }
-			
+
 			// update the new entity box position
 			newEntityBox.minX = oldEntityBox.minX + dx;
 			newEntityBox.maxX = oldEntityBox.maxX + dx;
@@ -198,9 +560,10 @@ public class ShipCollider
 		
 		if( Environment.isClient() && ShipDebugRenderInfo.isDebugRenderingOn() && entity instanceof EntityLivingBase )
 		{
-			for( PossibleCollision collision : possibleCollisions )
+			for( int i=0; i<possibleCollisions.size(); i++ )
 			{
-				m_debugRenderInfo.addCollidedCoord( collision.coords );
+				PossibleCollision collision = possibleCollisions.get( i );
+				m_debugRenderInfo.addCollidedCoord( new Coords( collision.x, collision.y, collision.z ) );
 			}
 		}
 		
@@ -215,23 +578,23 @@ public class ShipCollider
 		// y first, then x, then z
 		// different orders should give different collisions,
 		// but for a small enough d vector, the difference should be un-noticeable
-		for( PossibleCollision collision : possibleCollisions )
+		for( int i=0; i<possibleCollisions.size(); i++ )
 		{
-			dy = collision.box.calculateYOffset( oldEntityBox, dy );
+			dy = possibleCollisions.get( i ).box.calculateYOffset( oldEntityBox, dy );
 		}
 		dy = applyBackoff( dy, originalDy );
 		oldEntityBox.offset( 0, dy, 0 );
 		
-		for( PossibleCollision collision : possibleCollisions )
+		for( int i=0; i<possibleCollisions.size(); i++ )
 		{
-			dx = collision.box.calculateXOffset( oldEntityBox, dx );
+			dx = possibleCollisions.get( i ).box.calculateXOffset( oldEntityBox, dx );
 		}
 		dx = applyBackoff( dx, originalDx );
 		oldEntityBox.offset( dx, 0, 0 );
 		
-		for( PossibleCollision collision : possibleCollisions )
+		for( int i=0; i<possibleCollisions.size(); i++ )
 		{
-			dz = collision.box.calculateZOffset( oldEntityBox, dz );
+			dz = possibleCollisions.get( i ).box.calculateZOffset( oldEntityBox, dz );
 		}
 		dz = applyBackoff( dz, originalDz );
 		oldEntityBox.offset( 0, 0, dz );
@@ -256,26 +619,27 @@ public class ShipCollider
 			double stairsDy = originalStairsDy;
 			double stairsDz = originalStairsDz;
 			
-			AxisAlignedBB tempBox = oldEntityBox.copy();
+			AxisAlignedBB tempBox = m_stairsBox;
+			tempBox.setBB( oldEntityBox );
 			if( !possibleCollisions.isEmpty() )
 			{
-				for( PossibleCollision collision : possibleCollisions )
+				for( int i=0; i<possibleCollisions.size(); i++ )
 				{
-					stairsDy = collision.box.calculateYOffset( tempBox, stairsDy );
+					stairsDy = possibleCollisions.get( i ).box.calculateYOffset( tempBox, stairsDy );
 				}
 				stairsDy = applyBackoff( stairsDy, originalDy );
 				tempBox.offset( 0, stairsDy, 0 );
 				
-				for( PossibleCollision collision : possibleCollisions )
+				for( int i=0; i<possibleCollisions.size(); i++ )
 				{
-					stairsDx = collision.box.calculateXOffset( tempBox, stairsDx );
+					stairsDx = possibleCollisions.get( i ).box.calculateXOffset( tempBox, stairsDx );
 				}
 				stairsDx = applyBackoff( stairsDx, originalDx );
 				tempBox.offset( stairsDx, 0, 0 );
 				
-				for( PossibleCollision collision : possibleCollisions )
+				for( int i=0; i<possibleCollisions.size(); i++ )
 				{
-					stairsDz = collision.box.calculateZOffset( tempBox, stairsDz );
+					stairsDz = possibleCollisions.get( i ).box.calculateZOffset( tempBox, stairsDz );
 				}
 				stairsDz = applyBackoff( stairsDz, originalDz );
 				tempBox.offset( 0, 0, stairsDz );
@@ -297,16 +661,15 @@ public class ShipCollider
 		}
 		
 		// translate back into world coordinates
-		Vec3 newPos = Vec3.createVectorHelper(
-			( oldEntityBox.minX + oldEntityBox.maxX )/2,
-			oldEntityBox.minY,
-			( oldEntityBox.minZ + oldEntityBox.maxZ )/2
-		);
-		m_ship.blocksToShip( newPos );
-		m_ship.shipToWorld( newPos );
+		double newX = ( oldEntityBox.minX + oldEntityBox.maxX )/2;
+		double newZ = ( oldEntityBox.minZ + oldEntityBox.maxZ )/2;
 		
 		// update the entity properties
-		entity.setPosition( newPos.xCoord, newPos.yCoord + entity.yOffset - entity.ySize, newPos.zCoord );
+		entity.setPosition(
+			m_ship.blocksToWorldX( newX, newZ ),
+			m_ship.blocksToWorldY( oldEntityBox.minY ) + entity.yOffset - entity.ySize,
+			m_ship.blocksToWorldZ( newX, newZ )
+		);
 		entity.isCollidedHorizontally = originalDx != dx || originalDz != dz;
 		entity.isCollidedVertically = originalDy != dy;
 		entity.onGround = entity.isCollidedVertically && originalDy < 0;
@@ -325,7 +688,7 @@ public class ShipCollider
 		{
 			entity.motionZ = 0;
 		}
-        
+		
 		// update fall state. Sadly, we can't just call this:
 		//entity.updateFallState( dy, entity.onGround );
 		// so we're going have to do it using package injection
@@ -355,8 +718,42 @@ public class ShipCollider
 	
 	public void getCollisionBoxesInBlockSpace( List<AxisAlignedBB> out, Coords coords, AxisAlignedBB box )
 	{
-		Block block = Block.blocksList[m_ship.getShipWorld().getBlockId( coords )];
-		block.addCollisionBoxesToList( m_ship.getShipWorld(), coords.x, coords.y, coords.z, box, out, null );
+		getCollisionBoxesInBlockSpace( out, coords.x, coords.y, coords.z, box );
+	}
+	
+	public void getCollisionBoxesInBlockSpace( List<AxisAlignedBB> out, int x, int y, int z, AxisAlignedBB box )
+	{
+		Block block = Block.blocksList[m_ship.getShipWorld().getBlockId( x, y, z )];
+		block.addCollisionBoxesToList( m_ship.getShipWorld(), x, y, z, box, out, null );
+	}
+	
+	public boolean visitCollisionBoxes( CollisionBoxVisitor visitor, AxisAlignedBB box )
+	{
+		// visits the block-space collision boxes of the ship blocks that intersect the box
+		// returns false if the visitor stopped the query
+		
+		// NOTE: if the ship hasn't loaded yet, there's nothing to collide with
+		if( m_ship == null || m_ship.getShipWorld() == null || m_ship.getShipWorld().getGeometry() == null )
+		{
+			return true;
+		}
+		
+		// a visitor might start another query from inside this one, so don't clobber the query in progress
+		CollisionBoxQuery query = m_collisionBoxQuery.isBusy ? new CollisionBoxQuery() : m_collisionBoxQuery;
+		query.box = box;
+		query.visitor = visitor;
+		query.isBusy = true;
+		try
+		{
+			// NOTE: expand the box by 1 so we pick up blocks whose collision boxes are outside their bounding boxes
+			setUnion( query.queryBox, box, box, 1 );
+			return m_ship.getShipWorld().getGeometry().rangeQuery( query, query.queryBox );
+		}
+		finally
+		{
+			query.visitor = null;
+			query.isBusy = false;
+		}
 	}
 	
 	public RotatedBB getBlockBoxInWorldSpace( Coords coords )
@@ -366,23 +763,36 @@ public class ShipCollider
 	
 	public AxisAlignedBB getBlockWorldBoundingBox( AxisAlignedBB box, Coords coords )
 	{
-		return getBlockBoundingBox( box, coords, null );
+		return getBlockBoundingBox( box, coords.x, coords.y, coords.z, null );
+	}
+	
+	public AxisAlignedBB getBlockWorldBoundingBox( AxisAlignedBB box, int blockX, int blockY, int blockZ )
+	{
+		return getBlockBoundingBox( box, blockX, blockY, blockZ, null );
 	}
 	
 	public AxisAlignedBB getBlockBoundingBox( AxisAlignedBB box, Coords coords, EntityShip ship )
+	{
+		return getBlockBoundingBox( box, coords.x, coords.y, coords.z, ship );
+	}
+	
+	public AxisAlignedBB getBlockBoundingBox( AxisAlignedBB box, int blockX, int blockY, int blockZ, EntityShip ship )
 	{
 		// transform the block center into world space
-		Vec3 p = Vec3.createVectorHelper( coords.x + 0.5, coords.y + 0.5, coords.z + 0.5 );
-		m_ship.blocksToShip( p );
-		m_ship.shipToWorld( p );
+		double x = m_ship.blocksToWorldX( blockX + 0.5, blockZ + 0.5 );
+		double y = m_ship.blocksToWorldY( blockY + 0.5 );
+		double z = m_ship.blocksToWorldZ( blockX + 0.5, blockZ + 0.5 );
 		
 		if( ship != null )
 		{
 			// and then into ship space
-			ship.worldToShip( p );
-			ship.shipToBlocks( p );
+			double worldX = x;
+			double worldZ = z;
+			x = ship.worldToBlocksX( worldX, worldZ );
+			y = ship.worldToBlocksY( y );
+			z = ship.worldToBlocksZ( worldX, worldZ );
 		}
-	
+		
 		// compute the halfwidth of the bounding box
 		float yawRad = (float)Math.toRadians( m_ship.rotationYaw );
 		if( ship != null )
@@ -397,17 +807,69 @@ public class ShipCollider
 		)/2;
 		
 		return box.setBounds(
-			p.xCoord - halfSize, p.yCoord - 0.5, p.zCoord - halfSize,
-			p.xCoord + halfSize, p.yCoord + 0.5, p.zCoord + halfSize
+			x - halfSize, y - 0.5, z - halfSize,
+			x + halfSize, y + 0.5, z + halfSize
+		);
+	}
+	
+	private AxisAlignedBB getNodeBoundingBox( AxisAlignedBB box, int x0, int y0, int z0, int size, double shipX, double shipY, double shipZ, float shipYaw, EntityShip ship )
+	{
+		// temporarily move the ship to the new location
+		double oldX = m_ship.posX;
+		double oldY = m_ship.posY;
+		double oldZ = m_ship.posZ;
+		float oldYaw = m_ship.rotationYaw;
+		m_ship.posX = shipX;
+		m_ship.posY = shipY;
+		m_ship.posZ = shipZ;
+		m_ship.rotationYaw = shipYaw;
+		
+		// ships only rotate around y, so the xz corners of the node are enough
+		box.setBounds(
+			Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+			Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY
 		);
+		for( int i=0; i<4; i++ )
+		{
+			m_nodeCorners[i*3] = x0 + ( ( i & 1 ) != 0 ? size : 0 );
+			m_nodeCorners[i*3 + 1] = y0;
+			m_nodeCorners[i*3 + 2] = z0 + ( ( i & 2 ) != 0 ? size : 0 );
+		}
+		m_ship.blocksToWorld( m_nodeCorners, 4 );
+		ship.worldToBlocks( m_nodeCorners, 4 );
+		for( int i=0; i<4; i++ )
+		{
+			double x = m_nodeCorners[i*3];
+			double y = m_nodeCorners[i*3 + 1];
+			double z = m_nodeCorners[i*3 + 2];
+			box.minX = Math.min( box.minX, x );
+			box.minY = Math.min( box.minY, y );
+			box.minZ = Math.min( box.minZ, z );
+			box.maxX = Math.max( box.maxX, x );
+			box.maxY = Math.max( box.maxY, y + size );
+			box.maxZ = Math.max( box.maxZ, z );
+		}
+		
+		// restore the ship
+		m_ship.posX = oldX;
+		m_ship.posY = oldY;
+		m_ship.posZ = oldZ;
+		m_ship.rotationYaw = oldYaw;
+		
+		return box;
 	}
 	
 	public AxisAlignedBB getBlockWorldBoundingBox( AxisAlignedBB box, Coords coords, double shipX, double shipY, double shipZ, float shipYaw )
 	{
-		return getBlockBoundingBox( box, coords, shipX, shipY, shipZ, shipYaw, null );
+		return getBlockBoundingBox( box, coords.x, coords.y, coords.z, shipX, shipY, shipZ, shipYaw, null );
 	}
 	
 	public AxisAlignedBB getBlockBoundingBox( AxisAlignedBB box, Coords coords, double shipX, double shipY, double shipZ, float shipYaw, EntityShip ship )
+	{
+		return getBlockBoundingBox( box, coords.x, coords.y, coords.z, shipX, shipY, shipZ, shipYaw, ship );
+	}
+	
+	public AxisAlignedBB getBlockBoundingBox( AxisAlignedBB box, int blockX, int blockY, int blockZ, double shipX, double shipY, double shipZ, float shipYaw, EntityShip ship )
 	{
 		// temporarily place the ship at the new position
 		double oldX = m_ship.posX;
@@ -421,7 +883,7 @@ public class ShipCollider
 		m_ship.posZ = shipZ;
 		m_ship.rotationYaw = shipYaw;
 		
-		AxisAlignedBB blockWorldBox = getBlockBoundingBox( box, coords, ship );
+		AxisAlignedBB blockWorldBox = getBlockBoundingBox( box, blockX, blockY, blockZ, ship );
 		
 		// restore the ship before anyone notices =P
 		m_ship.posX = oldX;
@@ -434,44 +896,50 @@ public class ShipCollider
 	
 	public void moveShip( double dx, double dy, double dz, float dYaw )
 	{
+		// get the volume swept out by the ship
+		computeShipBoundingBox( m_nextShipBox, m_ship.posX + dx, m_ship.posY + dy, m_ship.posZ + dz, m_ship.rotationYaw + dYaw );
+		AxisAlignedBB sweptBox = setUnion( m_sweptShipBox, m_ship.boundingBox, m_nextShipBox, 0 );
+		
 		// compute the scaling of the delta (between 0 and 1) that avoids collisions
 		double scaling = 1.0;
 		int numCollidingBoxes = 0;
-		CollisionResult collisionResult = new CollisionResult();
-		for( Coords coords : m_ship.getShipWorld().coords() )
+		CollisionResult collisionResult = m_collisionResult;
+		
+		// interior blocks can't hit the world before the hull does,
+		// so get the world boxes in the swept volume once and only check the hull against them
+		List<WorldCollision> worldCollisions = getWorldCollisions( sweptBox );
+		if( !worldCollisions.isEmpty() )
 		{
-			checkBlockCollision( collisionResult, coords, dx, dy, dz, dYaw );
-			if( collisionResult.scaling < 1.0 )
-			{
-				scaling = Math.min( scaling, collisionResult.scaling );
-				numCollidingBoxes += collisionResult.numCollidingBoxes;
-			}
+			m_hullCollisionVisitor.init( dx, dy, dz, dYaw );
+			m_ship.getShipWorld().getGeometry().getHullIndex().visitBlocks( m_hullCollisionVisitor );
+			scaling = Math.min( scaling, m_hullCollisionVisitor.scaling );
+			numCollidingBoxes += m_hullCollisionVisitor.numCollidingBoxes;
 		}
 		
 		// look for collisions with other ships
-		AxisAlignedBB nextShipBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
-		computeShipBoundingBox( nextShipBox, dx, dy, dz, dYaw );
-		AxisAlignedBB queryBox = m_ship.boundingBox.func_111270_a( nextShipBox );
-		@SuppressWarnings( "unchecked" )
-		List<EntityShip> ships = (List<EntityShip>)m_ship.worldObj.getEntitiesWithinAABB( EntityShip.class, queryBox );
-		for( EntityShip ship : ships )
+		// NOTE: ships are too big for World.getEntitiesWithinAABB(), so ask the registry like ShipLocator does
+		List<EntityShip> ships = m_nearbyShips;
+		ships.clear();
+		ShipRegistry.get( m_ship.worldObj ).findShipsInBox( ships, sweptBox );
+		for( int i=0; i<ships.size(); i++ )
 		{
+			EntityShip ship = ships.get( i );
 			if( ship == m_ship )
 			{
 				// skip self
 				continue;
 			}
 			
-			// handle inter-ship collisions
-			for( Coords coords : m_ship.getShipWorld().coords() )
+			if( ship.getShipWorld() == null )
 			{
-				checkShipCollision( collisionResult, coords, dx, dy, dz, dYaw, ship );
-				if( collisionResult.scaling < 1.0 )
-				{
-					scaling = Math.min( scaling, collisionResult.scaling );
-					numCollidingBoxes += collisionResult.numCollidingBoxes;
-				}
+				// the other ship hasn't loaded yet, so there's nothing to hit
+				continue;
 			}
+			
+			// handle inter-ship collisions
+			checkShipCollisions( collisionResult, dx, dy, dz, dYaw, ship );
+			scaling = Math.min( scaling, collisionResult.scaling );
+			numCollidingBoxes += collisionResult.numCollidingBoxes;
 		}
 		
 		// avoid the collision
@@ -495,10 +963,10 @@ public class ShipCollider
 		);
 		
 		// we just moved the ship. Push any colliding entities out of the way
-		@SuppressWarnings( "unchecked" )
-		List<Entity> entities = (List<Entity>)m_ship.worldObj.getEntitiesWithinAABB( Entity.class, m_ship.boundingBox );
-		for( Entity entity : entities )
+		List<Entity> entities = getEntitiesInBox( m_nearbyEntities, m_ship.boundingBox );
+		for( int i=0; i<entities.size(); i++ )
 		{
+			Entity entity = entities.get( i );
 			if( entity instanceof EntityShip )
 			{
 				// don't push ships here
@@ -549,105 +1017,85 @@ public class ShipCollider
 	public boolean isEntityStandingOnBlock( Entity entity )
 	{
 		// get the bounding box of the entity in block space
-		AxisAlignedBB checkBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
+		AxisAlignedBB checkBox = m_standingBox;
 		getEntityBoxInBlockSpace( checkBox, entity );
 		
 		// change the box so it only occupies space JUST UNDER the entity
 		checkBox.maxY = checkBox.minY;
 		checkBox.minY -= 0.1;
 		
-		// get the list of nearby boxes that could be colliding
-		List<AxisAlignedBB> nearbyBoxes = new ArrayList<AxisAlignedBB>();
-		for( Coords coords : m_ship.getShipWorld().getGeometry().rangeQuery( checkBox.expand( 0, 1, 0 ) ) )
-		{
-			getCollisionBoxesInBlockSpace( nearbyBoxes, coords, checkBox );
-		}
-		return !nearbyBoxes.isEmpty();
+		// is there any collision box in there?
+		return !visitCollisionBoxes( StopAtFirstBox, checkBox );
 	}
 	
 	public boolean isEntityOnLadder( EntityLivingBase entity )
 	{
-		ShipWorld shipWorld = m_ship.getShipWorld();
-		AxisAlignedBB entityBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
-		getEntityBoxInBlockSpace( entityBox, entity );
-		for( Coords coords : shipWorld.getGeometry().rangeQuery( entityBox ) )
+		getEntityBoxInBlockSpace( m_ladderBox, entity );
+		m_ladderVisitor.entity = entity;
+		try
 		{
-			Block block = Block.blocksList[shipWorld.getBlockId( coords )];
-			if( block != null && block.isLadder( shipWorld, coords.x, coords.y, coords.z, entity ) )
-			{
-				return true;
-			}
+			return !m_ship.getShipWorld().getGeometry().rangeQuery( m_ladderVisitor, m_ladderBox );
+		}
+		finally
+		{
+			m_ladderVisitor.entity = null;
 		}
-		return false;
 	}
 	
 	public boolean isColliding( AxisAlignedBB box )
 	{
 		// UNDONE: can optimize this by converting box into ship coords and doing a range query
 		
-		for( Coords coords : m_ship.getShipWorld().coords() )
+		m_collidingVisitor.box = box;
+		try
 		{
-			AxisAlignedBB shipBlockBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
-			getBlockWorldBoundingBox( shipBlockBox, coords );
-			
-			if( shipBlockBox.intersectsWith( box ) )
-			{
-				return true;
-			}
+			return !m_ship.getShipWorld().getGeometry().visitBlocks( m_collidingVisitor );
+		}
+		finally
+		{
+			m_collidingVisitor.box = null;
 		}
-		return false;
 	}
 	
-	public List<MovingObjectPosition> lineSegmentQuery( final Vec3 from, Vec3 to )
+	public void lineSegmentQuery( List<MovingObjectPosition> out, Vec3 from, Vec3 to )
 	{
-		// do a range query using the bounding box of the line segment
-		AxisAlignedBB box = AxisAlignedBB.getBoundingBox(
-			Math.min( from.xCoord, to.xCoord ),
-			Math.min( from.yCoord, to.yCoord ),
-			Math.min( from.zCoord, to.zCoord ),
-			Math.max( from.xCoord, to.xCoord ),
-			Math.max( from.yCoord, to.yCoord ),
-			Math.max( from.zCoord, to.zCoord )
-		);
-		BlockSet nearbyBlocks = m_ship.getShipWorld().getGeometry().rangeQuery( box );
-		
-		// sort the boxes by their line/box intersection distance to the "from" point
-		// throw out boxes that don't actually intersect the line segment
-		List<MovingObjectPosition> intersections = new ArrayList<MovingObjectPosition>();
-		for( Coords coords : nearbyBlocks )
+		// walk the blocks along the line segment, so the hits come out sorted by their distance to the "from" point
+		m_rayTraceVisitor.init( from, to, out );
+		try
 		{
-			// get the intersection point with the line segment
-			Block block = Block.blocksList[m_ship.getShipWorld().getBlockId( coords )];
-			MovingObjectPosition intersection = block.collisionRayTrace( m_ship.getShipWorld(), coords.x, coords.y, coords.z, from, to );
-			if( intersection != null )
-			{
-				intersections.add( intersection );
-			}
+			m_ship.getShipWorld().getGeometry().rayQuery( m_rayTraceVisitor, from, to );
+		}
+		finally
+		{
+			m_rayTraceVisitor.init( null, null, null );
 		}
-		return intersections;
 	}
 	
-	public double getDistanceSqToEntity( Entity entity )
+	public MovingObjectPosition rayTrace( Vec3 from, Vec3 to )
 	{
-		// find the nearest neighbor block of entity
-		// UNDONE: could optimize this with something like a kd tree, or an oct-tree,
-		// but I'm lazy. This is probably fast enough for now
-		
-		// get the point of the entity in blocks space
-		Vec3 p = Vec3.createVectorHelper( entity.posX, entity.posY, entity.posZ );
-		m_ship.worldToShip( p );
-		m_ship.shipToBlocks( p );
-		
-		double minDistSq = Double.POSITIVE_INFINITY;
-		for( Coords coords : m_ship.getShipWorld().coords() )
+		// returns the closest hit on the line segment, or null if nothing was hit
+		// NOTE: block selection boxes stay inside their cells, so the first block hit along the segment is the closest one
+		m_rayTraceVisitor.init( from, to, null );
+		try
+		{
+			m_ship.getShipWorld().getGeometry().rayQuery( m_rayTraceVisitor, from, to );
+			return m_rayTraceVisitor.firstHit;
+		}
+		finally
 		{
-			double dx = coords.x - p.xCoord;
-			double dy = coords.y - p.yCoord;
-			double dz = coords.z - p.zCoord;
-			double dist = dx*dx + dy*dy + dz*dz;
-			minDistSq = Math.min( minDistSq, dist );
+			m_rayTraceVisitor.init( null, null, null );
 		}
-		return Math.sqrt( minDistSq );
+	}
+	
+	public double getDistanceSqToEntity( Entity entity )
+	{
+		// find the nearest neighbor block of entity, in blocks space
+		// NOTE: like the vanilla method, this is the squared distance, and it's measured to the block centers
+		return m_ship.getShipWorld().getGeometry().getNearestBlockDistSq(
+			m_ship.worldToBlocksX( entity.posX, entity.posZ ),
+			m_ship.worldToBlocksY( entity.posY ),
+			m_ship.worldToBlocksZ( entity.posX, entity.posZ )
+		);
 	}
 	
 	public void getIntersectingWorldBlocks( BlockSet worldBlocks, BlockSet shipBlocks )
@@ -655,7 +1103,7 @@ public class ShipCollider
 		getIntersectingWorldBlocks( worldBlocks, shipBlocks, 0, false );
 	}
 	
-	public void getIntersectingWorldBlocks( BlockSet worldBlocks, BlockSet shipBlocks, double epsilon, boolean includeAir )
+	public void getIntersectingWorldBlocks( BlockSet worldBlocks, Iterable<Coords> shipBlocks, double epsilon, boolean includeAir )
 	{
 		// find the world blocks that intersect the trapped air blocks
 		AxisAlignedBB box = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
@@ -671,94 +1119,124 @@ public class ShipCollider
 		}
 	}
 	
-	private void checkBlockCollision( CollisionResult result, Coords coords, double dx, double dy, double dz, float dYaw )
+	private List<WorldCollision> getWorldCollisions( AxisAlignedBB box )
+	{
+		// NOTE: the collisions are reused every tick, so don't hang onto them
+		m_worldCollisions.clear();
+		int minX = MathHelper.floor_double( box.minX );
+		int minY = MathHelper.floor_double( box.minY );
+		int minZ = MathHelper.floor_double( box.minZ );
+		int maxX = MathHelper.floor_double( box.maxX );
+		int maxY = MathHelper.floor_double( box.maxY );
+		int maxZ = MathHelper.floor_double( box.maxZ );
+		for( int x=minX; x<=maxX; x++ )
+		{
+			for( int y=minY; y<=maxY; y++ )
+			{
+				for( int z=minZ; z<=maxZ; z++ )
+				{
+					Block worldBlock = Block.blocksList[m_ship.worldObj.getBlockId( x, y, z )];
+					if( worldBlock == null )
+					{
+						continue;
+					}
+					
+					m_worldBlockBoxes.clear();
+					worldBlock.addCollisionBoxesToList( m_ship.worldObj, x, y, z, box, m_worldBlockBoxes, null );
+					for( int i=0; i<m_worldBlockBoxes.size(); i++ )
+					{
+						if( m_worldCollisions.size() == m_worldCollisionPool.size() )
+						{
+							m_worldCollisionPool.add( new WorldCollision() );
+						}
+						WorldCollision collision = m_worldCollisionPool.get( m_worldCollisions.size() );
+						collision.x = x;
+						collision.y = y;
+						collision.z = z;
+						collision.block = worldBlock;
+						collision.box = m_worldBlockBoxes.get( i );
+						collision.isDestroyed = false;
+						m_worldCollisions.add( collision );
+					}
+				}
+			}
+		}
+		m_worldBlockBoxes.clear();
+		return m_worldCollisions;
+	}
+	
+	private void checkBlockCollision( CollisionResult result, int blockX, int blockY, int blockZ, double dx, double dy, double dz, float dYaw, List<WorldCollision> worldCollisions )
 	{
 		// get the current world bounding box for the ship block
-		AxisAlignedBB shipBlockBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
-		getBlockWorldBoundingBox( shipBlockBox, coords );
+		getBlockWorldBoundingBox( m_shipBlockBox, blockX, blockY, blockZ );
 		
 		// where would the ship block move to?
 		double nextX = m_ship.posX + dx;
 		double nextY = m_ship.posY + dy;
 		double nextZ = m_ship.posZ + dz;
 		float nextYaw = m_ship.rotationYaw + dYaw;
-		AxisAlignedBB nextShipBlockBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
- 		getBlockWorldBoundingBox( nextShipBlockBox, coords, nextX, nextY, nextZ, nextYaw );
- 		
- 		// func_111270_a returns the bounding box of both boxes
- 		AxisAlignedBB combinedBlockBox = shipBlockBox.func_111270_a( nextShipBlockBox );
- 		
- 		// do a range query to get colliding world blocks
- 		BlockSet nearbyWorldBlocks = new BlockSet();
-		BlockUtils.worldRangeQuery( nearbyWorldBlocks, m_ship.worldObj, combinedBlockBox );
-        
-        // get the scaling that avoids the collision
-        result.scaling = 1;
-        List<AxisAlignedBB> worldBlockBoxes = new ArrayList<AxisAlignedBB>();
-        for( Coords worldCoords : nearbyWorldBlocks )
-		{
-        	// get the block collision boxes
-        	Block worldBlock = Block.blocksList[m_ship.worldObj.getBlockId( worldCoords.x, worldCoords.y, worldCoords.z )];
-        	worldBlockBoxes.clear();
-        	worldBlock.addCollisionBoxesToList(
-        		m_ship.worldObj,
-        		worldCoords.x, worldCoords.y, worldCoords.z,
-        		combinedBlockBox,
-        		worldBlockBoxes,
-        		null
-        	);
-        	
-        	// determine the scaling for this block
-        	double blockScaling = 1;
-        	for( AxisAlignedBB worldBlockBox : worldBlockBoxes )
-        	{
-        		blockScaling = Math.min( blockScaling, getScalingToAvoidCollision( shipBlockBox, dx, dy, dz, worldBlockBox ) );
-        	}
-        	
-        	// did this block impede us? and should we break it?
-        	if( blockScaling < 1 && worldBlock instanceof BlockFlower )
-        	{
-        		m_ship.worldObj.destroyBlock( worldCoords.x, worldCoords.y, worldCoords.z, false );
-        	}
-        	else
-        	{
-        		result.scaling = Math.min( result.scaling, blockScaling );
-        	}
-		}
-        result.numCollidingBoxes = nearbyWorldBlocks.size();
-	}
-	
-	private void checkShipCollision( CollisionResult result, Coords coords, double dx, double dy, double dz, float dYaw, EntityShip ship )
+		getBlockBoundingBox( m_nextShipBlockBox, blockX, blockY, blockZ, nextX, nextY, nextZ, nextYaw, null );
+		AxisAlignedBB combinedBlockBox = setUnion( m_combinedShipBlockBox, m_shipBlockBox, m_nextShipBlockBox, 0 );
+		
+		// get the scaling that avoids the collision
+		result.scaling = 1;
+		result.numCollidingBoxes = 0;
+		for( int i=0; i<worldCollisions.size(); i++ )
+		{
+			WorldCollision collision = worldCollisions.get( i );
+			if( collision.isDestroyed || !collision.box.intersectsWith( combinedBlockBox ) )
+			{
+				continue;
+			}
+			
+			// did this block impede us? and should we break it?
+			double blockScaling = getScalingToAvoidCollision( m_shipBlockBox, dx, dy, dz, collision.box );
+			if( blockScaling < 1 && collision.block instanceof BlockFlower )
+			{
+				m_ship.worldObj.destroyBlock( collision.x, collision.y, collision.z, false );
+				collision.isDestroyed = true;
+			}
+			else if( blockScaling < 1 )
+			{
+				result.scaling = Math.min( result.scaling, blockScaling );
+				result.numCollidingBoxes++;
+			}
+		}
+	}
+	
+	void checkShipCollisions( CollisionResult result, double dx, double dy, double dz, float dYaw, EntityShip ship )
+	{
+		// NOTE: only the hull can hit the other ship before the rest of the blocks do
+		m_shipCollisionVisitor.init( dx, dy, dz, dYaw, ship );
+		m_ship.getShipWorld().getGeometry().getHullIndex().visit( m_shipCollisionVisitor );
+		result.scaling = m_shipCollisionVisitor.scaling;
+		result.numCollidingBoxes = m_shipCollisionVisitor.numCollidingBoxes;
+		m_shipCollisionVisitor.m_otherShip = null;
+	}
+	
+	private void checkShipCollision( CollisionResult result, int blockX, int blockY, int blockZ, double dx, double dy, double dz, float dYaw, EntityShip ship )
 	{
 		// NOTE: all inter-ship collision calculations take place in the other ship's coordinate system
 		
 		// get the current bounding box for the ship block
-		AxisAlignedBB shipBlockBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
-		getBlockBoundingBox( shipBlockBox, coords, ship );
+		getBlockBoundingBox( m_shipBlockBox, blockX, blockY, blockZ, ship );
 		
 		// where would the ship block move to?
 		double nextX = m_ship.posX + dx;
 		double nextY = m_ship.posY + dy;
 		double nextZ = m_ship.posZ + dz;
 		float nextYaw = m_ship.rotationYaw + dYaw;
-		AxisAlignedBB nextShipBlockBox = AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 );
- 		getBlockBoundingBox( nextShipBlockBox, coords, nextX, nextY, nextZ, nextYaw, ship );
- 		
- 		// get the collisions with the other ship
- 		List<PossibleCollision> possibleCollisions = trajectoryQuery( shipBlockBox, nextShipBlockBox );
-        
-        // get the scaling that avoids the collisions
+		getBlockBoundingBox( m_nextShipBlockBox, blockX, blockY, blockZ, nextX, nextY, nextZ, nextYaw, ship );
+		
+		// get the scaling that avoids the collisions with the other ship
         result.scaling = 1;
         result.numCollidingBoxes = 0;
-        for( PossibleCollision possibleCollision : possibleCollisions )
-		{
-        	double scaling = getScalingToAvoidCollision( shipBlockBox, dx, dy, dz, possibleCollision.box );
-       		result.scaling = Math.min( result.scaling, scaling );
-       		if( scaling < 1 )
-       		{
-       			result.numCollidingBoxes++;
-       		}
-		}
+		m_scalingVisitor.box = m_shipBlockBox;
+		m_scalingVisitor.dx = dx;
+		m_scalingVisitor.dy = dy;
+		m_scalingVisitor.dz = dz;
+		m_scalingVisitor.result = result;
+		ship.getCollider().visitCollisionBoxes( m_scalingVisitor, setUnion( m_combinedShipBlockBox, m_shipBlockBox, m_nextShipBlockBox, 0 ) );
 	}
 	
 	private double getScalingToAvoidCollision( AxisAlignedBB box, double dx, double dy, double dz, AxisAlignedBB obstacleBox )
@@ -831,46 +1309,76 @@ public class ShipCollider
 	private List<PossibleCollision> trajectoryQuery( AxisAlignedBB oldBox, AxisAlignedBB newBox )
 	{
 		// get a bounding box containing the entire entity trajectory
-		AxisAlignedBB trajectoryBox = oldBox.func_111270_a( newBox );
+		setUnion( m_trajectoryBox, oldBox, newBox, 0 );
 		
 		// collect the boxes for the blocks in the trajectory box
-		List<AxisAlignedBB> boxes = new ArrayList<AxisAlignedBB>();
-		List<PossibleCollision> collisions = new ArrayList<PossibleCollision>();
-		if( m_ship != null && m_ship.getShipWorld() != null && m_ship.getShipWorld().getGeometry() != null )
-		// NOTE: if one of these things is null, the ship probably hasn't loaded yet, so there shouldn't be any collisions
+		// NOTE: the collisions are reused by the next query, so don't hang onto them
+		m_trajectoryVisitor.collisions.clear();
+		visitCollisionBoxes( m_trajectoryVisitor, m_trajectoryBox );
+		return m_trajectoryVisitor.collisions;
+	}
+	
+	private static AxisAlignedBB setUnion( AxisAlignedBB out, AxisAlignedBB a, AxisAlignedBB b, double padding )
+	{
+		// like a.func_111270_a( b ).expand( padding, padding, padding ), but without allocating from the AABB pool
+		return out.setBounds(
+			Math.min( a.minX, b.minX ) - padding,
+			Math.min( a.minY, b.minY ) - padding,
+			Math.min( a.minZ, b.minZ ) - padding,
+			Math.max( a.maxX, b.maxX ) + padding,
+			Math.max( a.maxY, b.maxY ) + padding,
+			Math.max( a.maxZ, b.maxZ ) + padding
+		);
+	}
+	
+	private static AxisAlignedBB setOffset( AxisAlignedBB out, AxisAlignedBB box, double dx, double dy, double dz )
+	{
+		// like box.getOffsetBoundingBox( dx, dy, dz ), but without allocating from the AABB pool
+		return out.setBounds(
+			box.minX + dx, box.minY + dy, box.minZ + dz,
+			box.maxX + dx, box.maxY + dy, box.maxZ + dz
+		);
+	}
+	
+	private List<Entity> getEntitiesInBox( List<Entity> out, AxisAlignedBB box )
+	{
+		// like World.getEntitiesWithinAABB(), but fills our list instead of making a new one every tick
+		out.clear();
+		World world = m_ship.worldObj;
+		int minChunkX = MathHelper.floor_double( ( box.minX - World.MAX_ENTITY_RADIUS )/16 );
+		int maxChunkX = MathHelper.floor_double( ( box.maxX + World.MAX_ENTITY_RADIUS )/16 );
+		int minChunkZ = MathHelper.floor_double( ( box.minZ - World.MAX_ENTITY_RADIUS )/16 );
+		int maxChunkZ = MathHelper.floor_double( ( box.maxZ + World.MAX_ENTITY_RADIUS )/16 );
+		for( int chunkX=minChunkX; chunkX<=maxChunkX; chunkX++ )
 		{
-			for( Coords coords : m_ship.getShipWorld().getGeometry().rangeQuery( trajectoryBox.expand( 1, 1, 1 ) ) )
-			// NOTE: expand trajectoryBox by 1 so we pick up boxes whose collision boxes are outside their bounding boxes
+			for( int chunkZ=minChunkZ; chunkZ<=maxChunkZ; chunkZ++ )
 			{
-				boxes.clear();
-				getCollisionBoxesInBlockSpace( boxes, coords, trajectoryBox );
-				for( AxisAlignedBB box : boxes )
+				// NOTE: don't load chunks just to look for entities
+				if( !world.blockExists( chunkX << 4, 0, chunkZ << 4 ) )
 				{
-					collisions.add( new PossibleCollision( coords, box ) );
+					continue;
+				}
+				Chunk chunk = world.getChunkFromChunkCoords( chunkX, chunkZ );
+				if( chunk != null )
+				{
+					chunk.getEntitiesOfTypeWithinAAAB( Entity.class, box, out, null );
 				}
 			}
 		}
-		return collisions;
+		return out;
 	}
 	
 	private void getEntityBoxInBlockSpace( AxisAlignedBB box, Entity entity )
 	{
-		getEntityBoxInBlockSpace( box, entity, Vec3.createVectorHelper( entity.posX, entity.posY, entity.posZ ) );
+		getEntityBoxInBlockSpace( box, entity, entity.posX, entity.posY, entity.posZ );
 	}
 	
-	private void getEntityBoxInBlockSpace( AxisAlignedBB box, Entity entity, Vec3 pos )
+	private void getEntityBoxInBlockSpace( AxisAlignedBB box, Entity entity, double x, double y, double z )
 	{
-		// copy the vector since we need to modify it
-		pos = Vec3.createVectorHelper( pos.xCoord, pos.yCoord, pos.zCoord );
-		
-		// transform to block coords
-		m_ship.worldToShip( pos );
-		m_ship.shipToBlocks( pos );
-		
 		// set the box here
 		box.setBB( entity.boundingBox );
 		box.offset( -entity.posX, -entity.posY, -entity.posZ );
-		box.offset( pos.xCoord, pos.yCoord, pos.zCoord );
+		box.offset( m_ship.worldToBlocksX( x, z ), m_ship.worldToBlocksY( y ), m_ship.worldToBlocksZ( x, z ) );
 	}
 	
 	private double stepTowardsZero( double val, double epsilon )
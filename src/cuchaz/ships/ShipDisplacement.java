@@ -11,19 +11,30 @@
 package cuchaz.ships;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
 
 import net.minecraft.util.MathHelper;
 import cuchaz.modsShared.blocks.BlockSet;
 import cuchaz.modsShared.blocks.BlockSetHeightIndex;
 import cuchaz.modsShared.blocks.BlockUtils;
 import cuchaz.modsShared.blocks.BlockUtils.Neighbors;
+import cuchaz.modsShared.blocks.BoundingBoxInt;
 import cuchaz.modsShared.blocks.Coords;
 
 public class ShipDisplacement
 {
+	public static interface BlockValue
+	{
+		double getValue( Coords coords );
+	}
+	
 	private static class ClassifiedSegment
 	{
 		BlockSet segment;
@@ -32,30 +43,189 @@ public class ShipDisplacement
 		boolean isTrapped;
 	}
 	
-	private static class DisplacementEntry
+	private class LayerDeltas
+	{
+		// the blocks that join or leave the set at each layer, packed into volume indices
+		public int[][] added;
+		public int[][] removed;
+		
+		// the set at one layer, so nearby layers are cheap to get to
+		private BitSet m_members;
+		private int m_layer;
+		private BlockSet m_cachedBlocks;
+		
+		public LayerDeltas( int numLayers )
+		{
+			added = new int[numLayers][];
+			removed = new int[numLayers][];
+			m_members = new BitSet();
+			m_layer = -1;
+			m_cachedBlocks = null;
+		}
+		
+		public BitSet getMembers( int layer )
+		{
+			// walk forwards or backwards to the layer
+			while( m_layer < layer )
+			{
+				m_layer++;
+				for( int index : added[m_layer] )
+				{
+					m_members.set( index );
+				}
+				for( int index : removed[m_layer] )
+				{
+					m_members.clear( index );
+				}
+				m_cachedBlocks = null;
+			}
+			while( m_layer > layer )
+			{
+				for( int index : added[m_layer] )
+				{
+					m_members.clear( index );
+				}
+				for( int index : removed[m_layer] )
+				{
+					m_members.set( index );
+				}
+				m_layer--;
+				m_cachedBlocks = null;
+			}
+			return m_members;
+		}
+		
+		public BlockSet getBlocks( int layer )
+		{
+			// NOTE: the set is only built when someone asks for it, and then only once per layer
+			BitSet members = getMembers( layer );
+			if( m_cachedBlocks == null )
+			{
+				m_cachedBlocks = new BlockSet();
+				for( int index=members.nextSetBit( 0 ); index>=0; index=members.nextSetBit( index + 1 ) )
+				{
+					m_cachedBlocks.add( getCoords( index ) );
+				}
+			}
+			return m_cachedBlocks;
+		}
+		
+		public double[] getSums( BlockValue value )
+		{
+			// keep a running sum instead of summing each layer from scratch
+			double[] sums = new double[added.length];
+			double sum = 0;
+			for( int i=0; i<added.length; i++ )
+			{
+				for( int index : added[i] )
+				{
+					sum += value.getValue( getCoords( index ) );
+				}
+				for( int index : removed[i] )
+				{
+					sum -= value.getValue( getCoords( index ) );
+				}
+				sums[i] = sum;
+			}
+			return sums;
+		}
+	}
+	
+	public class BlocksView implements Iterable<Coords>
 	{
-		public int numFillableBlocks;
-		public BlockSet trappedAir;
-		public BlockSet surfaceBlocks;
-		public BlockSet underwaterBlocks;
+		// NOTE: only good until the next time someone asks the displacement for the same kind of blocks
+		private BitSet m_members;
+		private int m_layer;
+		
+		private BlocksView( BitSet members, int layer )
+		{
+			m_members = members;
+			m_layer = layer;
+		}
+		
+		public ShipDisplacement getDisplacement( )
+		{
+			return ShipDisplacement.this;
+		}
+		
+		public int getLayer( )
+		{
+			return m_layer;
+		}
+		
+		public boolean contains( int x, int y, int z )
+		{
+			int index = getIndexOrNegative( x, y, z );
+			return index >= 0 && m_members.get( index );
+		}
+		
+		public boolean isEmpty( )
+		{
+			return m_members.isEmpty();
+		}
+		
+		public int size( )
+		{
+			return m_members.cardinality();
+		}
 		
-		public DisplacementEntry( )
+		@Override
+		public Iterator<Coords> iterator( )
 		{
-			numFillableBlocks = 0;
-			trappedAir = new BlockSet();
-			surfaceBlocks = new BlockSet();
-			underwaterBlocks = new BlockSet();
+			return new Iterator<Coords>( )
+			{
+				private int m_nextIndex = m_members.nextSetBit( 0 );
+				
+				@Override
+				public boolean hasNext( )
+				{
+					return m_nextIndex >= 0;
+				}
+				
+				@Override
+				public Coords next( )
+				{
+					if( m_nextIndex < 0 )
+					{
+						throw new NoSuchElementException();
+					}
+					Coords coords = getCoords( m_nextIndex );
+					m_nextIndex = m_members.nextSetBit( m_nextIndex + 1 );
+					return coords;
+				}
+				
+				@Override
+				public void remove( )
+				{
+					throw new UnsupportedOperationException();
+				}
+			};
 		}
 	}
 	
 	public static final Neighbors BoundaryNeighbors = Neighbors.Edges;
 	public static final Neighbors VoidBlockNeighbors = Neighbors.Faces;
-	private static final DisplacementEntry EmptyEntry = new DisplacementEntry();
+	private static final BitSet EmptyMembers = new BitSet();
+	private static final BlockSet EmptyBlocks = new BlockSet();
+	
+	private static final int TrappedAir = 0;
+	private static final int Surface = 1;
+	private static final int Underwater = 2;
+	private static final int NumKinds = 3;
 	
 	private BlockSet m_blocks;
 	private List<BlockSet> m_outerBoundaries;
 	private List<BlockSet> m_holes;
-	private TreeMap<Integer,DisplacementEntry> m_displacement;
+	
+	// the displacement is stored as per-layer changes over the ship bounding box plus one block on every side
+	private int m_minX;
+	private int m_minY;
+	private int m_minZ;
+	private int m_sizeX;
+	private int m_sizeY;
+	private int m_sizeZ;
+	private int[] m_numFillableBlocks;
+	private LayerDeltas[] m_deltas;
 	
 	public ShipDisplacement( BlockSet blocks )
 	{
@@ -94,7 +264,7 @@ public class ShipDisplacement
 	
 	public BlockSet getTrappedAir( int y )
 	{
-		return get( y ).trappedAir;
+		return getBlocks( TrappedAir, y );
 	}
 	
 	public BlockSet getTrappedAirFromWaterHeight( int waterHeightInBlockSpace )
@@ -104,7 +274,7 @@ public class ShipDisplacement
 		// therefore, if we want the y coord of the top water block, we need to subtract 1
 		return getTrappedAir( waterHeightInBlockSpace - 1 );
 	}
-
+	
 	public BlockSet getTrappedAirFromWaterHeight( double waterHeightInBlockSpace )
 	{
 		// for double water height values, round up to the top of the block, then subtract 1
@@ -112,49 +282,111 @@ public class ShipDisplacement
 		return getTrappedAir( MathHelper.floor_double( waterHeightInBlockSpace ) );
 	}
 	
+	public BlocksView getTrappedAirViewFromWaterHeight( double waterHeightInBlockSpace )
+	{
+		// same as getTrappedAirFromWaterHeight(), but without building a block set
+		int layer = getLayer( MathHelper.floor_double( waterHeightInBlockSpace ) );
+		if( layer < 0 )
+		{
+			return new BlocksView( EmptyMembers, layer );
+		}
+		return new BlocksView( m_deltas[TrappedAir].getMembers( layer ), layer );
+	}
+	
 	public BlockSet getSurfaceBlocks( int y )
 	{
-		return get( y ).surfaceBlocks;
+		return getBlocks( Surface, y );
 	}
 	
 	public BlockSet getUnderwaterBlocks( int y )
 	{
-		return get( y ).underwaterBlocks;
+		return getBlocks( Underwater, y );
+	}
+	
+	public double[] getSurfaceSums( BlockValue value )
+	{
+		// NOTE: index 0 is getMinY(), and there's one extra layer above getMaxY()
+		return getSums( Surface, value );
+	}
+	
+	public double[] getUnderwaterSums( BlockValue value )
+	{
+		return getSums( Underwater, value );
 	}
 	
 	public int getNumFillableBlocks( int y )
 	{
-		return get( y ).numFillableBlocks;
+		int layer = getLayer( y );
+		return layer < 0 ? 0 : m_numFillableBlocks[layer];
 	}
 	
 	public Integer getLastFillY( )
 	{
-		for( Map.Entry<Integer,DisplacementEntry> entry : m_displacement.descendingMap().entrySet() )
+		for( int i=m_numFillableBlocks.length-1; i>=0; i-- )
 		{
-			if( entry.getValue().numFillableBlocks > 0 )
+			if( m_numFillableBlocks[i] > 0 )
 			{
-				return entry.getKey() + 1; // + 1 to get to the top of the block
+				int y = m_minY + 1 + i;
+				return y + 1; // + 1 to get to the top of the block
 			}
 		}
 		return null;
 	}
 	
-	private DisplacementEntry get( int y )
+	private int getLayer( int y )
 	{
-		if( m_displacement.isEmpty() )
+		if( m_numFillableBlocks.length == 0 )
 		{
-			return EmptyEntry;
+			return -1;
 		}
 		
 		// if y is too big, clamp it. ie when the ship is underwater, we get the max trapped air
-		y = Math.min( y, m_displacement.lastKey() );
-		
-		DisplacementEntry entry = m_displacement.get( y );
-		if( entry == null )
+		return Math.min( y - m_minY - 1, m_numFillableBlocks.length - 1 );
+	}
+	
+	private BlockSet getBlocks( int kind, int y )
+	{
+		int layer = getLayer( y );
+		if( layer < 0 )
+		{
+			return EmptyBlocks;
+		}
+		return m_deltas[kind].getBlocks( layer );
+	}
+	
+	private double[] getSums( int kind, BlockValue value )
+	{
+		if( m_numFillableBlocks.length == 0 )
 		{
-			entry = EmptyEntry;
+			return new double[0];
 		}
-		return entry;
+		return m_deltas[kind].getSums( value );
+	}
+	
+	private int getIndex( int x, int y, int z )
+	{
+		return ( ( y - m_minY )*m_sizeZ + ( z - m_minZ ) )*m_sizeX + ( x - m_minX );
+	}
+	
+	private int getIndexOrNegative( int x, int y, int z )
+	{
+		int dx = x - m_minX;
+		int dy = y - m_minY;
+		int dz = z - m_minZ;
+		if( dx < 0 || dx >= m_sizeX || dy < 0 || dy >= m_sizeY || dz < 0 || dz >= m_sizeZ )
+		{
+			return -1;
+		}
+		return ( dy*m_sizeZ + dz )*m_sizeX + dx;
+	}
+	
+	private Coords getCoords( int index )
+	{
+		return new Coords(
+			m_minX + index%m_sizeX,
+			m_minY + index/( m_sizeX*m_sizeZ ),
+			m_minZ + ( index/m_sizeX )%m_sizeZ
+		);
 	}
 	
 	private void computeBoundaryAndHoles( )
@@ -185,179 +417,494 @@ public class ShipDisplacement
 		int minY = getMinY();
 		int maxY = getMaxY();
 		
-		m_displacement = new TreeMap<Integer,DisplacementEntry>();
+		if( m_blocks.isEmpty() )
+		{
+			m_numFillableBlocks = new int[0];
+			return;
+		}
+		
+		BoundingBoxInt box = m_blocks.getBoundingBox();
+		m_minX = box.minX - 1;
+		m_minY = box.minY - 1;
+		m_minZ = box.minZ - 1;
+		m_sizeX = box.maxX - box.minX + 3;
+		m_sizeY = box.maxY - box.minY + 3;
+		m_sizeZ = box.maxZ - box.minZ + 3;
+		
+		// layers go from minY to maxY + 1
+		int numLayers = maxY + 2 - minY;
+		m_numFillableBlocks = new int[numLayers];
+		m_deltas = new LayerDeltas[NumKinds];
+		for( int kind=0; kind<NumKinds; kind++ )
+		{
+			m_deltas[kind] = new LayerDeltas( numLayers );
+		}
+		
+		// sweep the bounding volume once from bottom to top
+		// outside air and trapped segments are both tracked with union-finds, so we never have to flood fill
+		SweepVolume volume = new SweepVolume();
+		volume.addAirLayer( minY - 1 );
 		
-		// pass 1: compute the displacement of ship blocks
 		BlockSetHeightIndex shipIndex = new BlockSetHeightIndex( m_blocks );
+		BlockSetHeightIndex boundaryIndex = new BlockSetHeightIndex();
+		for( BlockSet blocks : m_outerBoundaries )
+		{
+			boundaryIndex.add( blocks );
+		}
+		BlockSetHeightIndex holeIndex = new BlockSetHeightIndex();
+		for( BlockSet hole : m_holes )
+		{
+			holeIndex.add( hole );
+		}
+		
 		for( int y=minY; y<=maxY+1; y++ )
 		{
-			// build the displacement entry
-			DisplacementEntry entry = new DisplacementEntry();
-			m_displacement.put( y, entry );
+			volume.addAirLayer( y );
 			
-			// separate surface blocks from underwater blocks
+			// ship blocks are on the surface at their layer, and underwater above it
 			BlockSet yBlocks = shipIndex.get( y );
 			if( yBlocks != null )
 			{
-				entry.surfaceBlocks.addAll( yBlocks );
+				volume.addBlocks( Surface, yBlocks );
 			}
-			if( y > minY )
+			BlockSet lowerBlocks = shipIndex.get( y - 1 );
+			if( lowerBlocks != null )
 			{
-				DisplacementEntry lowerEntry = m_displacement.get( y - 1 );
-				entry.underwaterBlocks.addAll( lowerEntry.surfaceBlocks );
-				entry.underwaterBlocks.addAll( lowerEntry.underwaterBlocks );
+				volume.removeBlocks( Surface, lowerBlocks );
+				volume.addBlocks( Underwater, lowerBlocks );
 			}
+			
+			// analyze the outer boundary for trapped air
+			BlockSet blocksAtY = boundaryIndex.get( y );
+			if( blocksAtY != null )
+			{
+				int numFilledBlocks = 0;
+				for( BlockSet ySegment : BlockUtils.getConnectedComponents( blocksAtY, VoidBlockNeighbors ) )
+				{
+					numFilledBlocks += volume.addSegment( ySegment, y );
+				}
+				
+				// handle any filled blocks
+				if( numFilledBlocks > 0 )
+				{
+					m_numFillableBlocks[y - 1 - minY] = numFilledBlocks;
+				}
+			}
+			
+			// holes are always trapped air, and they displace just like ship blocks
+			BlockSet holeLayer = holeIndex.get( y );
+			if( holeLayer != null )
+			{
+				volume.addBlocks( TrappedAir, holeLayer );
+				volume.addBlocks( Surface, holeLayer );
+			}
+			BlockSet lowerHoleLayer = holeIndex.get( y - 1 );
+			if( lowerHoleLayer != null )
+			{
+				volume.removeBlocks( Surface, lowerHoleLayer );
+				volume.addBlocks( Underwater, lowerHoleLayer );
+			}
+			
+			volume.finishLayer( y - minY );
 		}
+	}
+	
+	private class SweepVolume
+	{
+		private boolean[] m_isShip;
 		
-		// pass 2: analyze the outer boundary for trapped air
-		BlockSetHeightIndex boundaryIndex = new BlockSetHeightIndex();
-		for( BlockSet blocks : m_outerBoundaries )
+		// union-find over the air blocks. roots remember if the air reaches the outside
+		private int[] m_airParents;
+		private boolean[] m_isAirOutside;
+		
+		// union-find over the boundary segments. roots are always the oldest segment in the set
+		private List<ClassifiedSegment> m_segments;
+		private int[] m_segmentIds;
+		private Map<Integer,List<Integer>> m_extraSegmentIds;
+		private int[] m_segmentParents;
+		
+		// how many things (ship layers, holes, trapped segments) put each block in each set
+		private int[][] m_counts;
+		private boolean[][] m_isMember;
+		private int[][] m_changed;
+		private int[] m_numChanged;
+		private boolean[][] m_isChanged;
+		
+		public SweepVolume( )
 		{
-			boundaryIndex.add( blocks );
+			int volume = m_sizeX*m_sizeY*m_sizeZ;
+			
+			m_isShip = new boolean[volume];
+			for( Coords coords : m_blocks )
+			{
+				m_isShip[getIndex( coords.x, coords.y, coords.z )] = true;
+			}
+			
+			m_airParents = new int[volume];
+			m_isAirOutside = new boolean[volume];
+			Arrays.fill( m_airParents, -1 );
+			
+			m_segments = new ArrayList<ClassifiedSegment>();
+			m_segmentIds = new int[volume];
+			m_extraSegmentIds = new HashMap<Integer,List<Integer>>();
+			m_segmentParents = new int[16];
+			Arrays.fill( m_segmentIds, -1 );
+			
+			m_counts = new int[NumKinds][volume];
+			m_isMember = new boolean[NumKinds][volume];
+			m_changed = new int[NumKinds][16];
+			m_numChanged = new int[NumKinds];
+			m_isChanged = new boolean[NumKinds][volume];
 		}
-		List<ClassifiedSegment> boundarySegments = new ArrayList<ClassifiedSegment>();
-		for( int y=minY; y<=maxY+1; y++ )
+		
+		public void addAirLayer( int y )
 		{
-			// get all the segments at y
-			BlockSet blocksAtY = boundaryIndex.get( y );
-			if( blocksAtY != null )
+			int dy = y - m_minY;
+			for( int dz=0; dz<m_sizeZ; dz++ )
 			{
-				List<BlockSet> ySegments = BlockUtils.getConnectedComponents( blocksAtY, VoidBlockNeighbors );
-				
-				// merge them with existing segments
-				int numFilledBlocks = 0;
-				for( BlockSet ySegment : ySegments )
+				for( int dx=0; dx<m_sizeX; dx++ )
 				{
-					List<ClassifiedSegment> connectedSegments = getYConnectedSegments( ySegment, boundarySegments, VoidBlockNeighbors );
-					if( connectedSegments.isEmpty() )
+					int index = ( dy*m_sizeZ + dz )*m_sizeX + dx;
+					if( m_isShip[index] )
 					{
-						// add the new segment
-						ClassifiedSegment classifiedSegment = new ClassifiedSegment();
-						classifiedSegment.segment = ySegment;
-						classifiedSegment.isTrapped = !BlockUtils.isConnectedToShell( ySegment.iterator().next(), m_blocks, VoidBlockNeighbors, y );
-						classifiedSegment.surfaceBlocks = new BlockSet( ySegment );
-						classifiedSegment.underwaterBlocks = new BlockSet();
-						boundarySegments.add( classifiedSegment );
+						continue;
 					}
-					else
+					
+					// anything outside the ship bounding box is outside
+					m_airParents[index] = index;
+					m_isAirOutside[index] = dx == 0 || dx == m_sizeX - 1
+						|| dy == 0 || dy == m_sizeY - 1
+						|| dz == 0 || dz == m_sizeZ - 1;
+					
+					// connect to the air we've already seen
+					if( dx > 0 )
 					{
-						// count the number of possibly filled blocks
-						int numPossiblyFilledBlocks = 0;
-						for( ClassifiedSegment segment : connectedSegments )
-						{
-							if( segment.isTrapped )
-							{
-								numPossiblyFilledBlocks += segment.segment.size();
-							}
-						}
-						
-						// merge all the existing segments
-						ClassifiedSegment baseSegment = connectedSegments.get( 0 );
-						if( baseSegment.isTrapped )
-						{
-							// fill in holes for inner boundaries
-							ySegment.addAll( BlockUtils.getHoleFromInnerBoundary( ySegment, m_blocks, VoidBlockNeighbors, y, y ) );
-						}
-						baseSegment.segment.addAll( ySegment );
-						baseSegment.underwaterBlocks.addAll( baseSegment.surfaceBlocks );
-						baseSegment.surfaceBlocks.clear();
-						baseSegment.surfaceBlocks.addAll( ySegment );
-						for( int i=1; i<connectedSegments.size(); i++ )
-						{
-							ClassifiedSegment nextSegment = connectedSegments.get( i );
-							baseSegment.isTrapped = baseSegment.isTrapped && nextSegment.isTrapped;
-							baseSegment.segment.addAll( nextSegment.segment );
-							baseSegment.underwaterBlocks.addAll( nextSegment.surfaceBlocks );
-							baseSegment.underwaterBlocks.addAll( nextSegment.underwaterBlocks );
-							boundarySegments.remove( nextSegment );
-						}
-						
-						// record the number of filled blocks
-						if( !baseSegment.isTrapped )
-						{
-							numFilledBlocks += numPossiblyFilledBlocks;
-						}
+						unionAir( index, index - 1 );
+					}
+					if( dz > 0 )
+					{
+						unionAir( index, index - m_sizeX );
+					}
+					if( dy > 0 )
+					{
+						unionAir( index, index - m_sizeX*m_sizeZ );
 					}
 				}
-				
-				// handle any filled blocks
-				if( numFilledBlocks > 0 )
+			}
+		}
+		
+		public int addSegment( BlockSet ySegment, int y )
+		{
+			// NOTE: returns the number of blocks that could be filled with water at y - 1
+			
+			List<Integer> connectedIds = getYConnectedSegmentIds( ySegment );
+			if( connectedIds.isEmpty() )
+			{
+				// add the new segment
+				// NOTE: all the air layers up to y have been added, so this is the same as looking for the shell below y
+				Coords coords = ySegment.iterator().next();
+				ClassifiedSegment classifiedSegment = new ClassifiedSegment();
+				classifiedSegment.segment = ySegment;
+				classifiedSegment.isTrapped = !m_isAirOutside[findAir( getIndex( coords.x, coords.y, coords.z ) )];
+				classifiedSegment.surfaceBlocks = new BlockSet( ySegment );
+				classifiedSegment.underwaterBlocks = new BlockSet();
+				addSegmentBlocks( ySegment, createSegment( classifiedSegment ) );
+				if( classifiedSegment.isTrapped )
 				{
-					m_displacement.get( y - 1 ).numFillableBlocks = numFilledBlocks;
+					addBlocks( TrappedAir, classifiedSegment.segment );
+					addBlocks( Surface, classifiedSegment.surfaceBlocks );
 				}
+				return 0;
 			}
 			
-			// compute the trapped air so far
-			DisplacementEntry entry = m_displacement.get( y );
-			for( ClassifiedSegment segment : boundarySegments )
+			// count the number of possibly filled blocks
+			int numPossiblyFilledBlocks = 0;
+			boolean isTrapped = true;
+			for( int id : connectedIds )
 			{
+				ClassifiedSegment segment = m_segments.get( id );
 				if( segment.isTrapped )
 				{
-					entry.trappedAir.addAll( segment.segment );
-					entry.surfaceBlocks.addAll( segment.surfaceBlocks );
-					entry.underwaterBlocks.addAll( segment.underwaterBlocks );
+					numPossiblyFilledBlocks += segment.segment.size();
+				}
+				isTrapped = isTrapped && segment.isTrapped;
+			}
+			
+			// merge all the existing segments into the oldest one
+			int baseId = connectedIds.get( 0 );
+			ClassifiedSegment baseSegment = m_segments.get( baseId );
+			if( baseSegment.isTrapped )
+			{
+				// fill in holes for inner boundaries
+				ySegment.addAll( BlockUtils.getHoleFromInnerBoundary( ySegment, m_blocks, VoidBlockNeighbors, y, y ) );
+				
+				if( !isTrapped )
+				{
+					// the water got in, so the base segment doesn't displace anymore
+					removeSegmentBlocks( baseSegment );
+				}
+			}
+			
+			// only a segment that stays trapped changes the displacement as it grows
+			for( Coords coords : ySegment )
+			{
+				if( baseSegment.segment.add( coords ) && isTrapped )
+				{
+					addBlock( TrappedAir, coords );
 				}
 			}
+			for( Coords coords : baseSegment.surfaceBlocks )
+			{
+				if( baseSegment.underwaterBlocks.add( coords ) && isTrapped )
+				{
+					addBlock( Underwater, coords );
+				}
+			}
+			if( isTrapped )
+			{
+				removeBlocks( Surface, baseSegment.surfaceBlocks );
+				addBlocks( Surface, ySegment );
+			}
+			baseSegment.surfaceBlocks.clear();
+			baseSegment.surfaceBlocks.addAll( ySegment );
+			for( int i=1; i<connectedIds.size(); i++ )
+			{
+				int nextId = connectedIds.get( i );
+				ClassifiedSegment nextSegment = m_segments.get( nextId );
+				if( nextSegment.isTrapped )
+				{
+					removeSegmentBlocks( nextSegment );
+				}
+				for( Coords coords : nextSegment.segment )
+				{
+					if( baseSegment.segment.add( coords ) && isTrapped )
+					{
+						addBlock( TrappedAir, coords );
+					}
+				}
+				for( Coords coords : nextSegment.surfaceBlocks )
+				{
+					if( baseSegment.underwaterBlocks.add( coords ) && isTrapped )
+					{
+						addBlock( Underwater, coords );
+					}
+				}
+				for( Coords coords : nextSegment.underwaterBlocks )
+				{
+					if( baseSegment.underwaterBlocks.add( coords ) && isTrapped )
+					{
+						addBlock( Underwater, coords );
+					}
+				}
+				m_segmentParents[nextId] = baseId;
+			}
+			baseSegment.isTrapped = isTrapped;
+			addSegmentBlocks( ySegment, baseId );
+			
+			// record the number of filled blocks
+			if( !baseSegment.isTrapped )
+			{
+				return numPossiblyFilledBlocks;
+			}
+			return 0;
 		}
 		
-		// pass 3: analyze the holes
-		BlockSetHeightIndex holeIndex = new BlockSetHeightIndex();
-		for( BlockSet hole : m_holes )
+		public void addBlocks( int kind, BlockSet blocks )
 		{
-			holeIndex.add( hole );
+			for( Coords coords : blocks )
+			{
+				addBlock( kind, coords );
+			}
 		}
-		BlockSet holeBlocks = new BlockSet();
-		BlockSet underwaterBlocks = new BlockSet();
-		for( int y=minY; y<=maxY+1; y++ )
+		
+		public void removeBlocks( int kind, BlockSet blocks )
 		{
-			DisplacementEntry entry = m_displacement.get( y );
-			
-			// add the blocks for this y
-			BlockSet layer = holeIndex.get( y );
-			if( layer != null )
+			for( Coords coords : blocks )
 			{
-				holeBlocks.addAll( layer );
-				entry.surfaceBlocks.addAll( layer );
+				changeCount( kind, getIndex( coords.x, coords.y, coords.z ), -1 );
 			}
-			entry.underwaterBlocks.addAll( underwaterBlocks );
-			entry.trappedAir.addAll( holeBlocks );
-			
-			if( layer != null )
+		}
+		
+		public void finishLayer( int layer )
+		{
+			// save the blocks that joined or left each set at this layer
+			for( int kind=0; kind<NumKinds; kind++ )
 			{
-				// update the underwater blocks for next time
-				underwaterBlocks.addAll( layer );
-			}			
+				int[] changed = m_changed[kind];
+				int numChanged = m_numChanged[kind];
+				int numAdded = 0;
+				int numRemoved = 0;
+				for( int i=0; i<numChanged; i++ )
+				{
+					int index = changed[i];
+					m_isChanged[kind][index] = false;
+					boolean isMember = m_counts[kind][index] > 0;
+					if( isMember == m_isMember[kind][index] )
+					{
+						// it left and came back, or vice versa
+						changed[i] = -1;
+					}
+					else if( isMember )
+					{
+						numAdded++;
+					}
+					else
+					{
+						numRemoved++;
+					}
+					m_isMember[kind][index] = isMember;
+				}
+				
+				int[] added = new int[numAdded];
+				int[] removed = new int[numRemoved];
+				numAdded = 0;
+				numRemoved = 0;
+				for( int i=0; i<numChanged; i++ )
+				{
+					int index = changed[i];
+					if( index < 0 )
+					{
+						continue;
+					}
+					if( m_isMember[kind][index] )
+					{
+						added[numAdded++] = index;
+					}
+					else
+					{
+						removed[numRemoved++] = index;
+					}
+				}
+				m_deltas[kind].added[layer] = added;
+				m_deltas[kind].removed[layer] = removed;
+				m_numChanged[kind] = 0;
+			}
 		}
-	}
-	
-	private List<ClassifiedSegment> getYConnectedSegments( BlockSet ySegment, Iterable<ClassifiedSegment> segments, Neighbors neighbors )
-	{
-		List<ClassifiedSegment> connectedSegments = new ArrayList<ClassifiedSegment>();
-		for( ClassifiedSegment segment : segments )
+		
+		private void addBlock( int kind, Coords coords )
 		{
-			if( isYConnected( segment.segment, ySegment, neighbors ) )
+			changeCount( kind, getIndex( coords.x, coords.y, coords.z ), 1 );
+		}
+		
+		private void removeSegmentBlocks( ClassifiedSegment segment )
+		{
+			removeBlocks( TrappedAir, segment.segment );
+			removeBlocks( Surface, segment.surfaceBlocks );
+			removeBlocks( Underwater, segment.underwaterBlocks );
+		}
+		
+		private void changeCount( int kind, int index, int delta )
+		{
+			m_counts[kind][index] += delta;
+			if( !m_isChanged[kind][index] )
 			{
-				connectedSegments.add( segment );
+				m_isChanged[kind][index] = true;
+				if( m_numChanged[kind] == m_changed[kind].length )
+				{
+					m_changed[kind] = Arrays.copyOf( m_changed[kind], m_changed[kind].length*2 );
+				}
+				m_changed[kind][m_numChanged[kind]++] = index;
 			}
 		}
-		return connectedSegments;
-	}
-	
-	private boolean isYConnected( BlockSet below, BlockSet at, Neighbors neighbors )
-	{
-		// NOTE: below is strictly below y, at is strictly at y
-		Coords neighborCoords = new Coords( 0, 0, 0 );
-		for( Coords coords : at )
+		
+		private List<Integer> getYConnectedSegmentIds( BlockSet ySegment )
 		{
-			for( int i=0; i<neighbors.getNumNeighbors(); i++ )
+			// look at the blocks right below the segment
+			TreeSet<Integer> ids = new TreeSet<Integer>();
+			for( Coords coords : ySegment )
 			{
-				neighbors.getNeighbor( neighborCoords, coords, i );
-				if( neighborCoords.y == coords.y - 1 && below.contains( neighborCoords ) )
+				int index = getIndexOrNegative( coords.x, coords.y - 1, coords.z );
+				if( index < 0 || m_segmentIds[index] < 0 )
 				{
-					return true;
+					continue;
 				}
+				ids.add( findSegment( m_segmentIds[index] ) );
+				List<Integer> extraIds = m_extraSegmentIds.get( index );
+				if( extraIds != null )
+				{
+					for( int id : extraIds )
+					{
+						ids.add( findSegment( id ) );
+					}
+				}
+			}
+			return new ArrayList<Integer>( ids );
+		}
+		
+		private int createSegment( ClassifiedSegment segment )
+		{
+			int id = m_segments.size();
+			m_segments.add( segment );
+			if( id >= m_segmentParents.length )
+			{
+				m_segmentParents = Arrays.copyOf( m_segmentParents, m_segmentParents.length*2 );
+			}
+			m_segmentParents[id] = id;
+			return id;
+		}
+		
+		private void addSegmentBlocks( BlockSet blocks, int id )
+		{
+			for( Coords coords : blocks )
+			{
+				int index = getIndexOrNegative( coords.x, coords.y, coords.z );
+				if( index < 0 )
+				{
+					continue;
+				}
+				int oldId = m_segmentIds[index];
+				if( oldId < 0 )
+				{
+					m_segmentIds[index] = id;
+				}
+				else if( findSegment( oldId ) != id )
+				{
+					// NOTE: hole fills can overlap other segments in the same layer
+					List<Integer> extraIds = m_extraSegmentIds.get( index );
+					if( extraIds == null )
+					{
+						extraIds = new ArrayList<Integer>();
+						m_extraSegmentIds.put( index, extraIds );
+					}
+					extraIds.add( id );
+				}
+			}
+		}
+		
+		private int findSegment( int id )
+		{
+			while( m_segmentParents[id] != id )
+			{
+				m_segmentParents[id] = m_segmentParents[m_segmentParents[id]];
+				id = m_segmentParents[id];
+			}
+			return id;
+		}
+		
+		private int findAir( int index )
+		{
+			while( m_airParents[index] != index )
+			{
+				m_airParents[index] = m_airParents[m_airParents[index]];
+				index = m_airParents[index];
+			}
+			return index;
+		}
+		
+		private void unionAir( int index, int neighborIndex )
+		{
+			if( m_airParents[neighborIndex] < 0 )
+			{
+				// not air
+				return;
+			}
+			int root = findAir( index );
+			int neighborRoot = findAir( neighborIndex );
+			if( root != neighborRoot )
+			{
+				m_airParents[neighborRoot] = root;
+				m_isAirOutside[root] = m_isAirOutside[root] || m_isAirOutside[neighborRoot];
 			}
 		}
-		return false;
 	}
 }
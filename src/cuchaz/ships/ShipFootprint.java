@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.util.MathHelper;
+import cuchaz.modsShared.blocks.BlockSet;
+import cuchaz.modsShared.blocks.Coords;
+
+public class ShipFootprint
+{
+	// the world blocks touched by the rotated boxes of some ship blocks
+	// stored as runs of x along each (y,z) row, so moving the ship only touches the rows' ends
+	
+	private static final double Epsilon = 0.01;
+	
+	private static class Row
+	{
+		public long[] runs = new long[4];
+		public int numRuns = 0;
+		
+		public void add( int minX, int maxX )
+		{
+			if( numRuns == runs.length )
+			{
+				runs = Arrays.copyOf( runs, runs.length*2 );
+			}
+			runs[numRuns++] = ( (long)minX << 32 ) | ( maxX & 0xffffffffL );
+		}
+	}
+	
+	private EntityShip m_ship;
+	
+	// the blocks that can touch world blocks on the edge of the footprint
+	private ShipDisplacement m_displacement;
+	private int m_layer;
+	private List<Coords> m_edgeBlocks;
+	
+	// the rotated block centers, relative to the ship position
+	private float m_yaw;
+	private double m_cos;
+	private double m_sin;
+	private double m_halfSize;
+	private double[] m_offsetsX;
+	private double[] m_offsetsY;
+	private double[] m_offsetsZ;
+	
+	// runs of x for each row, flattened into min,max pairs
+	private Map<Long,int[]> m_rows;
+	
+	public ShipFootprint( EntityShip ship )
+	{
+		m_ship = ship;
+		m_displacement = null;
+		m_edgeBlocks = null;
+		m_offsetsX = null;
+		m_rows = null;
+	}
+	
+	public boolean isEmpty( )
+	{
+		return m_rows == null;
+	}
+	
+	public void clear( )
+	{
+		m_rows = null;
+	}
+	
+	public boolean contains( int x, int y, int z )
+	{
+		if( m_rows == null )
+		{
+			return false;
+		}
+		int[] runs = m_rows.get( getRowKey( y, z ) );
+		if( runs == null )
+		{
+			return false;
+		}
+		for( int i=0; i<runs.length; i+=2 )
+		{
+			if( x >= runs[i] && x <= runs[i + 1] )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public void update( ShipDisplacement.BlocksView blocks, List<Coords> addedBlocks, List<Coords> removedBlocks )
+	{
+		// did the blocks change?
+		if( m_edgeBlocks == null || blocks.getDisplacement() != m_displacement || blocks.getLayer() != m_layer )
+		{
+			m_displacement = blocks.getDisplacement();
+			m_layer = blocks.getLayer();
+			m_edgeBlocks = getEdgeBlocks( blocks );
+			m_offsetsX = null;
+		}
+		
+		// did the ship turn?
+		if( m_offsetsX == null || m_ship.rotationYaw != m_yaw )
+		{
+			computeOffsets();
+		}
+		
+		// rasterize the edge blocks into rows
+		Map<Long,Row> rows = new HashMap<Long,Row>();
+		for( int i=0; i<m_edgeBlocks.size(); i++ )
+		{
+			double x = m_ship.posX + m_offsetsX[i];
+			double y = m_ship.posY + m_offsetsY[i];
+			double z = m_ship.posZ + m_offsetsZ[i];
+			int minX = MathHelper.floor_double( x - m_halfSize - Epsilon );
+			int maxX = MathHelper.floor_double( x + m_halfSize + Epsilon );
+			int minY = MathHelper.floor_double( y - 0.5 - Epsilon );
+			int maxY = MathHelper.floor_double( y + 0.5 + Epsilon );
+			int minZ = MathHelper.floor_double( z - m_halfSize - Epsilon );
+			int maxZ = MathHelper.floor_double( z + m_halfSize + Epsilon );
+			for( int wy=minY; wy<=maxY; wy++ )
+			{
+				for( int wz=minZ; wz<=maxZ; wz++ )
+				{
+					Long key = getRowKey( wy, wz );
+					Row row = rows.get( key );
+					if( row == null )
+					{
+						row = new Row();
+						rows.put( key, row );
+					}
+					row.add( minX, maxX );
+				}
+			}
+		}
+		
+		// merge the runs and fill in the inside of the footprint
+		Map<Long,int[]> newRows = new HashMap<Long,int[]>();
+		for( Map.Entry<Long,Row> entry : rows.entrySet() )
+		{
+			newRows.put( entry.getKey(), mergeRuns( entry.getValue(), getRowY( entry.getKey() ), getRowZ( entry.getKey() ), blocks ) );
+		}
+		
+		// only report the world blocks that changed
+		Map<Long,int[]> oldRows = m_rows == null ? new HashMap<Long,int[]>() : m_rows;
+		for( Map.Entry<Long,int[]> entry : newRows.entrySet() )
+		{
+			long key = entry.getKey();
+			int[] oldRuns = oldRows.get( key );
+			subtractRuns( addedBlocks, entry.getValue(), oldRuns, getRowY( key ), getRowZ( key ) );
+			subtractRuns( removedBlocks, oldRuns, entry.getValue(), getRowY( key ), getRowZ( key ) );
+		}
+		for( Map.Entry<Long,int[]> entry : oldRows.entrySet() )
+		{
+			long key = entry.getKey();
+			if( !newRows.containsKey( key ) )
+			{
+				subtractRuns( removedBlocks, entry.getValue(), null, getRowY( key ), getRowZ( key ) );
+			}
+		}
+		m_rows = newRows;
+	}
+	
+	private List<Coords> getEdgeBlocks( ShipDisplacement.BlocksView blocks )
+	{
+		// the box of a block can reach a world block whose center is within two blocks in xz and one in y
+		// so any block farther than that from the outside is covered by the fill instead
+		BlockSet outsideBlocks = new BlockSet();
+		for( Coords coords : blocks )
+		{
+			addIfOutside( outsideBlocks, blocks, coords.x - 1, coords.y, coords.z );
+			addIfOutside( outsideBlocks, blocks, coords.x + 1, coords.y, coords.z );
+			addIfOutside( outsideBlocks, blocks, coords.x, coords.y - 1, coords.z );
+			addIfOutside( outsideBlocks, blocks, coords.x, coords.y + 1, coords.z );
+			addIfOutside( outsideBlocks, blocks, coords.x, coords.y, coords.z - 1 );
+			addIfOutside( outsideBlocks, blocks, coords.x, coords.y, coords.z + 1 );
+		}
+		BlockSet edgeBlocks = new BlockSet();
+		for( Coords coords : outsideBlocks )
+		{
+			for( int dx=-2; dx<=2; dx++ )
+			{
+				for( int dy=-1; dy<=1; dy++ )
+				{
+					for( int dz=-2; dz<=2; dz++ )
+					{
+						if( blocks.contains( coords.x + dx, coords.y + dy, coords.z + dz ) )
+						{
+							edgeBlocks.add( new Coords( coords.x + dx, coords.y + dy, coords.z + dz ) );
+						}
+					}
+				}
+			}
+		}
+		return new ArrayList<Coords>( edgeBlocks );
+	}
+	
+	private void addIfOutside( BlockSet outsideBlocks, ShipDisplacement.BlocksView blocks, int x, int y, int z )
+	{
+		if( !blocks.contains( x, y, z ) )
+		{
+			outsideBlocks.add( new Coords( x, y, z ) );
+		}
+	}
+	
+	private void computeOffsets( )
+	{
+		// NOTE: this matches ShipCollider.getBlockBoundingBox(), but the rotation only gets computed once
+		m_yaw = m_ship.rotationYaw;
+		double yawRad = Math.toRadians( m_yaw );
+		m_cos = Math.cos( yawRad );
+		m_sin = Math.sin( yawRad );
+		float yawRadf = (float)Math.toRadians( m_yaw );
+		double cosf = MathHelper.cos( yawRadf );
+		double sinf = MathHelper.sin( yawRadf );
+		m_halfSize = Math.max( Math.abs( cosf - sinf ), Math.abs( sinf + cosf ) )/2;
+		
+		int numBlocks = m_edgeBlocks.size();
+		m_offsetsX = new double[numBlocks];
+		m_offsetsY = new double[numBlocks];
+		m_offsetsZ = new double[numBlocks];
+		for( int i=0; i<numBlocks; i++ )
+		{
+			Coords coords = m_edgeBlocks.get( i );
+			double x = m_ship.blocksToShipX( coords.x + 0.5 );
+			double z = m_ship.blocksToShipZ( coords.z + 0.5 );
+			m_offsetsX[i] = x*m_cos + z*m_sin;
+			m_offsetsY[i] = m_ship.blocksToShipY( coords.y + 0.5 );
+			m_offsetsZ[i] = -x*m_sin + z*m_cos;
+		}
+	}
+	
+	private int[] mergeRuns( Row row, int y, int z, ShipDisplacement.BlocksView blocks )
+	{
+		// sort by min x
+		Arrays.sort( row.runs, 0, row.numRuns );
+		
+		int[] runs = new int[row.numRuns*2];
+		int numRuns = 0;
+		for( int i=0; i<row.numRuns; i++ )
+		{
+			int minX = (int)( row.runs[i] >> 32 );
+			int maxX = (int)row.runs[i];
+			if( numRuns > 0 )
+			{
+				int lastMaxX = runs[numRuns*2 - 1];
+				
+				// NOTE: the edge blocks surround the inside of the footprint, so a gap is either all inside or all outside
+				// just check the first world block in the gap
+				if( minX <= lastMaxX + 1 || isInside( lastMaxX + 1, y, z, blocks ) )
+				{
+					runs[numRuns*2 - 1] = Math.max( lastMaxX, maxX );
+					continue;
+				}
+			}
+			runs[numRuns*2] = minX;
+			runs[numRuns*2 + 1] = maxX;
+			numRuns++;
+		}
+		return Arrays.copyOf( runs, numRuns*2 );
+	}
+	
+	private boolean isInside( int x, int y, int z, ShipDisplacement.BlocksView blocks )
+	{
+		// transform the world block center into blocks space
+		double dx = x + 0.5 - m_ship.posX;
+		double dz = z + 0.5 - m_ship.posZ;
+		double blockX = m_ship.shipToBlocksX( dx*m_cos - dz*m_sin );
+		double blockY = m_ship.shipToBlocksY( y + 0.5 - m_ship.posY );
+		double blockZ = m_ship.shipToBlocksZ( dx*m_sin + dz*m_cos );
+		return blocks.contains(
+			MathHelper.floor_double( blockX ),
+			MathHelper.floor_double( blockY ),
+			MathHelper.floor_double( blockZ )
+		);
+	}
+	
+	private void subtractRuns( List<Coords> out, int[] runs, int[] otherRuns, int y, int z )
+	{
+		// collect the world blocks in runs that aren't in otherRuns
+		if( runs == null )
+		{
+			return;
+		}
+		int j = 0;
+		for( int i=0; i<runs.length; i+=2 )
+		{
+			int x = runs[i];
+			int maxX = runs[i + 1];
+			while( x <= maxX )
+			{
+				// skip other runs that are behind us
+				while( otherRuns != null && j < otherRuns.length && otherRuns[j + 1] < x )
+				{
+					j += 2;
+				}
+				if( otherRuns == null || j >= otherRuns.length || otherRuns[j] > maxX )
+				{
+					addBlocks( out, x, maxX, y, z );
+					break;
+				}
+				if( otherRuns[j] > x )
+				{
+					addBlocks( out, x, otherRuns[j] - 1, y, z );
+				}
+				x = otherRuns[j + 1] + 1;
+			}
+		}
+	}
+	
+	private void addBlocks( List<Coords> out, int minX, int maxX, int y, int z )
+	{
+		for( int x=minX; x<=maxX; x++ )
+		{
+			out.add( new Coords( x, y, z ) );
+		}
+	}
+	
+	private static long getRowKey( int y, int z )
+	{
+		return ( (long)z << 32 ) | ( y & 0xffffffffL );
+	}
+	
+	private static int getRowY( long key )
+	{
+		return (int)key;
+	}
+	
+	private static int getRowZ( long key )
+	{
+		return (int)( key >> 32 );
+	}
+}
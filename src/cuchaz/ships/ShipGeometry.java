@@ -17,19 +17,68 @@ import cuchaz.modsShared.blocks.BlockSet;
 import cuchaz.modsShared.blocks.BlockSide;
 import cuchaz.modsShared.blocks.Coords;
 import cuchaz.modsShared.blocks.Envelopes;
+import cuchaz.modsShared.blocks.Neighbors;
 import cuchaz.modsShared.math.BoxCorner;
 import cuchaz.modsShared.math.RotatedBB;
 
 public class ShipGeometry
 {
+	private static class BlockCollector implements BlockOctree.BlockVisitor
+	{
+		private BlockSet m_out;
+		
+		public BlockCollector( BlockSet out )
+		{
+			m_out = out;
+		}
+		
+		@Override
+		public boolean visitBlock( int x, int y, int z )
+		{
+			m_out.add( new Coords( x, y, z ) );
+			return true;
+		}
+	}
+	
+	private class RotatedBoxFilter implements BlockOctree.BlockVisitor
+	{
+		// passes along only the blocks that intersect the rotated box in xz
+		
+		private RotatedBB m_box;
+		private BlockOctree.BlockVisitor m_visitor;
+		private Vec3 m_corner;
+		private boolean m_isBusy;
+		
+		public RotatedBoxFilter( )
+		{
+			m_box = null;
+			m_visitor = null;
+			m_corner = Vec3.createVectorHelper( 0, 0, 0 );
+			m_isBusy = false;
+		}
+		
+		@Override
+		public boolean visitBlock( int x, int y, int z )
+		{
+			return !blockIntersectsBoxXZ( x, z, m_box, m_corner ) || m_visitor.visitBlock( x, y, z );
+		}
+	}
+	
 	private BlockSet m_blocks;
+	private BlockOctree m_index;
 	private Envelopes m_envelopes;
+	private BlockSet m_hull;
+	private BlockOctree m_hullIndex;
+	private RotatedBoxFilter m_rotatedBoxFilter;
 	
 	public ShipGeometry( BlockSet blocks )
 	{
 		m_blocks = blocks;
-		
-		m_envelopes = new Envelopes( m_blocks );
+		m_index = new BlockOctree( m_blocks );
+		m_envelopes = null;
+		m_hull = null;
+		m_hullIndex = null;
+		m_rotatedBoxFilter = new RotatedBoxFilter();
 	}
 	
 	public BlockSet getBlocks( )
@@ -39,30 +88,143 @@ public class ShipGeometry
 	
 	public Envelopes getEnvelopes( )
 	{
+		// envelopes are expensive, so only rebuild them when someone asks
+		if( m_envelopes == null )
+		{
+			m_envelopes = new Envelopes( m_blocks );
+		}
 		return m_envelopes;
 	}
 	
+	public BlockSet getHull( )
+	{
+		// the hull is every block with at least one face open to the outside of the ship
+		if( m_hull == null )
+		{
+			m_hull = new BlockSet();
+			Coords neighborCoords = new Coords();
+			for( Coords coords : m_blocks )
+			{
+				for( int i=0; i<Neighbors.Faces.getNumNeighbors(); i++ )
+				{
+					Neighbors.Faces.getNeighbor( neighborCoords, coords, i );
+					if( !m_index.contains( neighborCoords.x, neighborCoords.y, neighborCoords.z ) )
+					{
+						m_hull.add( coords );
+						break;
+					}
+				}
+			}
+		}
+		return m_hull;
+	}
+	
+	public BlockOctree getHullIndex( )
+	{
+		if( m_hullIndex == null )
+		{
+			m_hullIndex = new BlockOctree( getHull() );
+		}
+		return m_hullIndex;
+	}
+	
+	public void addBlock( Coords coords )
+	{
+		if( m_index.add( coords.x, coords.y, coords.z ) )
+		{
+			m_blocks.add( new Coords( coords ) );
+			m_envelopes = null;
+			m_hull = null;
+			m_hullIndex = null;
+		}
+	}
+	
+	public void removeBlock( Coords coords )
+	{
+		if( m_index.remove( coords.x, coords.y, coords.z ) )
+		{
+			m_blocks.remove( coords );
+			m_envelopes = null;
+			m_hull = null;
+			m_hullIndex = null;
+		}
+	}
+	
+	public boolean pointQuery( int x, int y, int z )
+	{
+		return m_index.contains( x, y, z );
+	}
+	
 	public BlockSet rangeQuery( RotatedBB box )
+	{
+		BlockSet blocks = new BlockSet();
+		rangeQuery( new BlockCollector( blocks ), box );
+		return blocks;
+	}
+	
+	public boolean rangeQuery( BlockOctree.BlockVisitor visitor, RotatedBB box )
 	{
 		// get the bounds in y
 		int minY = MathHelper.floor_double( box.getMinY() );
 		int maxY = MathHelper.floor_double( box.getMaxY() );
 		
-		BlockSet blocks = new BlockSet();
-		for( int y=minY; y<=maxY; y++ )
+		RotatedBoxFilter filter = startFilter( box, visitor );
+		try
 		{
-			// add up the blocks from the xz range query
-			blocks.addAll( xzRangeQuery( y, box ) );
+			for( int y=minY; y<=maxY; y++ )
+			{
+				if( !xzRangeQuery( filter, y ) )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+		finally
+		{
+			finishFilter( filter );
 		}
-		return blocks;
 	}
 	
 	public BlockSet xzRangeQuery( int y, RotatedBB box )
 	{
-		// UNDONE: we can probably optimize this using a better algorithm
-		
-		Vec3 p = Vec3.createVectorHelper( 0, 0, 0 );
-		
+		BlockSet blocks = new BlockSet();
+		xzRangeQuery( new BlockCollector( blocks ), y, box );
+		return blocks;
+	}
+	
+	public boolean xzRangeQuery( BlockOctree.BlockVisitor visitor, int y, RotatedBB box )
+	{
+		RotatedBoxFilter filter = startFilter( box, visitor );
+		try
+		{
+			return xzRangeQuery( filter, y );
+		}
+		finally
+		{
+			finishFilter( filter );
+		}
+	}
+	
+	private RotatedBoxFilter startFilter( RotatedBB box, BlockOctree.BlockVisitor visitor )
+	{
+		// a visitor might start another query from inside this one, so don't clobber the filter in use
+		RotatedBoxFilter filter = m_rotatedBoxFilter.m_isBusy ? new RotatedBoxFilter() : m_rotatedBoxFilter;
+		filter.m_box = box;
+		filter.m_visitor = visitor;
+		filter.m_isBusy = true;
+		return filter;
+	}
+	
+	private void finishFilter( RotatedBoxFilter filter )
+	{
+		filter.m_box = null;
+		filter.m_visitor = null;
+		filter.m_isBusy = false;
+	}
+	
+	private boolean xzRangeQuery( RotatedBoxFilter filter, int y )
+	{
 		// get the bounds in x and z
 		int minX = Integer.MAX_VALUE;
 		int maxX = Integer.MIN_VALUE;
@@ -70,9 +232,9 @@ public class ShipGeometry
 		int maxZ = Integer.MIN_VALUE;
 		for( BoxCorner corner : BlockSide.Top.getCorners() )
 		{
-			box.getCorner( p, corner );
-			int x = MathHelper.floor_double( p.xCoord );
-			int z = MathHelper.floor_double( p.zCoord );
+			filter.m_box.getCorner( filter.m_corner, corner );
+			int x = MathHelper.floor_double( filter.m_corner.xCoord );
+			int z = MathHelper.floor_double( filter.m_corner.zCoord );
 			
 			minX = Math.min( minX, x );
 			maxX = Math.max( maxX, x );
@@ -80,69 +242,88 @@ public class ShipGeometry
 			maxZ = Math.max( maxZ, z );
 		}
 		
-		// search over the blocks in the range
-		Coords coords = new Coords();
-		BlockSet blocks = new BlockSet();
-		for( int x=minX; x<=maxX; x++ )
-		{
-			for( int z=minZ; z<=maxZ; z++ )
-			{
-				coords.set( x, y, z );
-				
-				// is there even a block here?
-				if( m_blocks.contains( coords ) )
-				{
-					continue;
-				}
-				
-				if( blockIntersectsBoxXZ( x, z, box ) )
-				{
-					blocks.add( new Coords( coords ) );
-				}
-			}
-		}
-		return blocks;
+		// get the blocks in the xz bounds from the index, the filter checks them against the rotated box
+		return m_index.query( filter, minX, y, minZ, maxX, y, maxZ );
 	}
 	
 	public BlockSet rangeQuery( AxisAlignedBB box )
 	{
-		// get the block coordinate bounds for y
-		int minY = MathHelper.floor_double( box.minY );
-		int maxY = MathHelper.floor_double( box.maxY );
-		
 		BlockSet blocks = new BlockSet();
-		for( int y=minY; y<=maxY; y++ )
-		{
-			blocks.addAll( rangeQuery( box, y ) );
-		}
+		m_index.query(
+			blocks,
+			MathHelper.floor_double( box.minX ),
+			MathHelper.floor_double( box.minY ),
+			MathHelper.floor_double( box.minZ ),
+			MathHelper.floor_double( box.maxX ),
+			MathHelper.floor_double( box.maxY ),
+			MathHelper.floor_double( box.maxZ )
+		);
 		return blocks;
 	}
 	
+	public boolean rangeQuery( BlockOctree.BlockVisitor visitor, AxisAlignedBB box )
+	{
+		return m_index.query(
+			visitor,
+			MathHelper.floor_double( box.minX ),
+			MathHelper.floor_double( box.minY ),
+			MathHelper.floor_double( box.minZ ),
+			MathHelper.floor_double( box.maxX ),
+			MathHelper.floor_double( box.maxY ),
+			MathHelper.floor_double( box.maxZ )
+		);
+	}
+	
 	public BlockSet rangeQuery( AxisAlignedBB box, int y )
 	{
-		// get the block coordinate bounds for x and z
-		int minX = MathHelper.floor_double( box.minX );
-		int minZ = MathHelper.floor_double( box.minZ );
-		int maxX = MathHelper.floor_double( box.maxX );
-		int maxZ = MathHelper.floor_double( box.maxZ );
-		
-		Coords coords = new Coords();
 		BlockSet blocks = new BlockSet();
-		for( int x=minX; x<=maxX; x++ )
-		{
-			for( int z=minZ; z<=maxZ; z++ )
-			{
-				coords.set( x, y, z );
-				if( m_blocks.contains( coords ) )
-				{
-					blocks.add( new Coords( coords ) );
-				}
-			}
-		}
+		m_index.query(
+			blocks,
+			MathHelper.floor_double( box.minX ), y, MathHelper.floor_double( box.minZ ),
+			MathHelper.floor_double( box.maxX ), y, MathHelper.floor_double( box.maxZ )
+		);
 		return blocks;
 	}
 	
-	private boolean blockIntersectsBoxXZ( int x, int z, RotatedBB box )
+	public boolean rangeQuery( BlockOctree.BlockVisitor visitor, AxisAlignedBB box, int y )
+	{
+		return m_index.query(
+			visitor,
+			MathHelper.floor_double( box.minX ), y, MathHelper.floor_double( box.minZ ),
+			MathHelper.floor_double( box.maxX ), y, MathHelper.floor_double( box.maxZ )
+		);
+	}
+	
+	public double getNearestBlockDistSq( double x, double y, double z )
+	{
+		// squared distance from the point to the nearest block center
+		return m_index.getNearestDistSq( x, y, z );
+	}
+	
+	public boolean rayQuery( BlockOctree.BlockVisitor visitor, Vec3 from, Vec3 to )
+	{
+		// visits the blocks along the line segment in order, starting from the "from" point
+		return m_index.rayQuery( visitor, from.xCoord, from.yCoord, from.zCoord, to.xCoord, to.yCoord, to.zCoord );
+	}
+	
+	public boolean visitBlocks( BlockOctree.BlockVisitor visitor )
+	{
+		return m_index.visitBlocks( visitor );
+	}
+	
+	public boolean anyInRange( AxisAlignedBB box )
+	{
+		return m_index.anyInBox(
+			MathHelper.floor_double( box.minX ),
+			MathHelper.floor_double( box.minY ),
+			MathHelper.floor_double( box.minZ ),
+			MathHelper.floor_double( box.maxX ),
+			MathHelper.floor_double( box.maxY ),
+			MathHelper.floor_double( box.maxZ )
+		);
+	}
+	
+	private boolean blockIntersectsBoxXZ( int x, int z, RotatedBB box, Vec3 corner )
 	{
 		// return true if any xz corner of the block is in the rotated box
 		double y = ( box.getMinY() + box.getMaxY() )/2;
@@ -150,12 +331,11 @@ public class ShipGeometry
 			|| box.containsPoint( x + 0, y, z + 1 )
 			|| box.containsPoint( x + 1, y, z + 0 )
 			|| box.containsPoint( x + 1, y, z + 1 )
-			|| anyCornerIsInBlockXZ( box, x, z );
+			|| anyCornerIsInBlockXZ( box, x, z, corner );
 	}
 	
-	private boolean anyCornerIsInBlockXZ( RotatedBB box, int x, int z )
+	private boolean anyCornerIsInBlockXZ( RotatedBB box, int x, int z, Vec3 p )
 	{
-		Vec3 p = Vec3.createVectorHelper( 0, 0, 0 );
 		for( BoxCorner corner : BlockSide.Top.getCorners() )
 		{
 			box.getCorner( p, corner );
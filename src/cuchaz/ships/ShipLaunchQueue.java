@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.ChatMessageComponent;
+import net.minecraft.world.World;
+import cpw.mods.fml.common.ITickHandler;
+import cpw.mods.fml.common.TickType;
+import cuchaz.modsShared.blocks.Coords;
+import cuchaz.ships.ShipLauncher.LaunchFlag;
+import cuchaz.ships.gui.GuiString;
+
+public class ShipLaunchQueue
+{
+	// finding ship blocks and computing physics is slow for big ships, so do it off the server thread
+	// only the world changes at the end happen on the server thread
+	
+	private static final int NumThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() - 1 );
+	private static final int SnapshotRadius = 1;
+	private static final int MaxAttempts = 3;
+	private static final int MaxSnapshotGrowths = 32;
+	
+	private static class PendingLaunch
+	{
+		public EntityPlayer player;
+		public World world;
+		public Coords shipBlock;
+		public ShipType shipType;
+		public WorldSnapshot snapshot;
+		public Future<ShipLauncher> future;
+		public int numAttempts;
+		public List<Coords> missingSections;
+	}
+	
+	private static ExecutorService m_executor = null;
+	private static List<PendingLaunch> m_pendingLaunches = new ArrayList<PendingLaunch>();
+	
+	public static class ServerTicker implements ITickHandler
+	{
+		@Override
+		public void tickStart( EnumSet<TickType> type, Object... tickData )
+		{
+			// nothing to do
+		}
+		
+		@Override
+		public void tickEnd( EnumSet<TickType> type, Object... tickData )
+		{
+			update();
+		}
+		
+		@Override
+		public EnumSet<TickType> ticks( )
+		{
+			return EnumSet.of( TickType.SERVER );
+		}
+		
+		@Override
+		public String getLabel( )
+		{
+			return "Ships launch queue";
+		}
+	}
+	
+	public static boolean isLaunching( World world, Coords shipBlock )
+	{
+		for( PendingLaunch launch : m_pendingLaunches )
+		{
+			if( launch.world == world && launch.shipBlock.equals( shipBlock ) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public static void launch( EntityPlayer player, Coords shipBlock )
+	{
+		// don't launch the same ship twice
+		if( isLaunching( player.worldObj, shipBlock ) )
+		{
+			return;
+		}
+		
+		PendingLaunch launch = new PendingLaunch();
+		launch.player = player;
+		launch.world = player.worldObj;
+		launch.shipBlock = shipBlock;
+		launch.shipType = ShipLauncher.getShipType( launch.world, shipBlock );
+		launch.numAttempts = 0;
+		launch.missingSections = new ArrayList<Coords>();
+		start( launch );
+		m_pendingLaunches.add( launch );
+		
+		player.sendChatToPlayer( ChatMessageComponent.createFromTranslationKey( GuiString.ShipLaunching.getKey() ) );
+	}
+	
+	private static void start( PendingLaunch launch )
+	{
+		capture( launch );
+		launch.numAttempts++;
+		submit( launch );
+	}
+	
+	private static void capture( PendingLaunch launch )
+	{
+		// snapshot the world around the ship block, and around every section an earlier try was missing
+		// NOTE: take the whole snapshot in one tick, so all the sections agree with each other
+		launch.snapshot = new WorldSnapshot( launch.world, false );
+		launch.snapshot.captureAround( launch.shipBlock.x, launch.shipBlock.y, launch.shipBlock.z, SnapshotRadius );
+		for( Coords section : launch.missingSections )
+		{
+			launch.snapshot.captureAround( section.x*16, section.y*16, section.z*16, SnapshotRadius );
+		}
+	}
+	
+	private static void submit( final PendingLaunch launch )
+	{
+		// NOTE: the snapshot isn't touched by the main thread again until the future is done
+		launch.future = getExecutor().submit( new Callable<ShipLauncher>( )
+		{
+			@Override
+			public ShipLauncher call( )
+			{
+				return new ShipLauncher( launch.shipType, launch.shipBlock, launch.snapshot );
+			}
+		} );
+	}
+	
+	private static void update( )
+	{
+		Iterator<PendingLaunch> iter = m_pendingLaunches.iterator();
+		while( iter.hasNext() )
+		{
+			PendingLaunch launch = iter.next();
+			if( !launch.future.isDone() )
+			{
+				continue;
+			}
+			
+			ShipLauncher launcher = null;
+			try
+			{
+				launcher = launch.future.get();
+			}
+			catch( InterruptedException ex )
+			{
+				// shouldn't happen since the future is done
+			}
+			catch( ExecutionException ex )
+			{
+				if( ex.getCause() instanceof WorldSnapshot.MissingSectionException )
+				{
+					// the ship is bigger than the snapshot, grab more of the world and try again
+					// NOTE: big ships need a few of these, so they get their own limit instead of using up the attempts
+					if( launch.missingSections.size() < MaxSnapshotGrowths )
+					{
+						WorldSnapshot.MissingSectionException missing = (WorldSnapshot.MissingSectionException)ex.getCause();
+						launch.missingSections.add( new Coords( missing.sectionX, missing.sectionY, missing.sectionZ ) );
+						capture( launch );
+						submit( launch );
+						continue;
+					}
+					Ships.logger.warning( "Ship at (%d,%d,%d) is too big to snapshot. Giving up.", launch.shipBlock.x, launch.shipBlock.y, launch.shipBlock.z );
+				}
+				else
+				{
+					Ships.logger.warning( ex.getCause(), "Unable to launch ship at (%d,%d,%d)!", launch.shipBlock.x, launch.shipBlock.y, launch.shipBlock.z );
+				}
+			}
+			
+			if( launcher != null && !launcher.isSnapshotCurrent() )
+			{
+				// the ship changed while we were working on it, start over
+				if( launch.numAttempts < MaxAttempts )
+				{
+					start( launch );
+					continue;
+				}
+				Ships.logger.warning( "Ship at (%d,%d,%d) kept changing during launch. Giving up.", launch.shipBlock.x, launch.shipBlock.y, launch.shipBlock.z );
+				launcher = null;
+			}
+			iter.remove();
+			
+			if( launcher != null && finishLaunch( launcher ) )
+			{
+				continue;
+			}
+			if( !launch.player.isDead )
+			{
+				launch.player.sendChatToPlayer( ChatMessageComponent.createFromTranslationKey( GuiString.ShipLaunchFailed.getKey() ) );
+			}
+		}
+	}
+	
+	private static boolean finishLaunch( ShipLauncher launcher )
+	{
+		if( !launcher.isLaunchable() )
+		{
+			// debug info
+			Coords shipBlock = launcher.getShipBlock();
+			Ships.logger.warning(
+				"Server can't launch ship at: (%d,%d,%d)",
+				shipBlock.x, shipBlock.y, shipBlock.z
+			);
+			for( LaunchFlag flag : LaunchFlag.values() )
+			{
+				Ships.logger.warning( "\t" + flag.name() + ": " + launcher.getLaunchFlag( flag ) );
+			}
+			return false;
+		}
+		return launcher.launch() != null;
+	}
+	
+	private static ExecutorService getExecutor( )
+	{
+		if( m_executor == null )
+		{
+			// use daemon threads so the pool never keeps the server from shutting down
+			m_executor = Executors.newFixedThreadPool( NumThreads, new ThreadFactory( )
+			{
+				private int m_nextId = 0;
+				
+				@Override
+				public Thread newThread( Runnable runnable )
+				{
+					Thread thread = new Thread( runnable, "Ships launcher " + m_nextId++ );
+					thread.setDaemon( true );
+					thread.setPriority( Thread.MIN_PRIORITY );
+					return thread;
+				}
+			} );
+		}
+		return m_executor;
+	}
+}
@@ -71,7 +71,9 @@ public class ShipLauncher
 	private World m_world;
 	private Coords m_shipBlock;
 	private ShipType m_shipType;
+	private WorldSnapshot m_snapshot;
 	private BlockSet m_blocks; // NOTE: blocks are in world coordinates
+	private BlocksStorage m_storage;
 	private List<Boolean> m_launchFlags;
 	private ShipWorld m_shipWorld;
 	private ShipPhysics m_shipPhysics;
@@ -79,13 +81,22 @@ public class ShipLauncher
 	private Integer m_sinkWaterHeight;
 	private int m_numBlocksChecked;
 	
-	public ShipLauncher( final World world, Coords shipBlock )
+	public ShipLauncher( World world, Coords shipBlock )
 	{
-		m_world = world;
+		// on the main thread, just read blocks from the world as we need them
+		this( getShipType( world, shipBlock ), shipBlock, new WorldSnapshot( world, true ) );
+		createShipWorld();
+	}
+	
+	public ShipLauncher( ShipType shipType, Coords shipBlock, final WorldSnapshot snapshot )
+	{
+		// NOTE: this doesn't touch the world, only the snapshot, so it can run on any thread
+		// the ship world still needs to be created on the main thread though
+		m_world = snapshot.getWorld();
 		m_shipBlock = shipBlock;
-		
-		// get the ship type from the block
-		m_shipType = Ships.m_blockShip.getShipType( world, m_shipBlock.x, m_shipBlock.y, m_shipBlock.z );
+		m_shipType = shipType;
+		m_snapshot = snapshot;
+		m_shipWorld = null;
 		
 		// determine how many blocks to check
 		int numBlocksToCheck = getNumBlocksToCheck();
@@ -99,7 +110,7 @@ public class ShipLauncher
 				@Override
 				public boolean shouldExploreBlock( Coords coords )
 				{
-					return !BlockProperties.isSeparator( Block.blocksList[world.getBlockId( coords.x, coords.y, coords.z )] );
+					return !BlockProperties.isSeparator( Block.blocksList[snapshot.getBlockId( coords.x, coords.y, coords.z )] );
 				}
 			},
 			ShipBlockNeighbors
@@ -119,8 +130,9 @@ public class ShipLauncher
 				// also add the ship block
 				m_blocks.add( m_shipBlock );
 				
-				m_shipWorld = new ShipWorld( m_world, m_shipBlock, m_blocks );
-				m_shipPhysics = new ShipPhysics( m_shipWorld.getBlocksStorage() );
+				m_storage = new BlocksStorage();
+				m_storage.readFromSnapshot( snapshot, m_shipBlock, m_blocks );
+				m_shipPhysics = new ShipPhysics( m_storage );
 				m_equilibriumWaterHeight = m_shipPhysics.getEquilibriumWaterHeight();
 				m_sinkWaterHeight = m_shipPhysics.getSinkWaterHeight();
 			}
@@ -128,7 +140,7 @@ public class ShipLauncher
 		else
 		{
 			// we found WAY too many blocks
-			m_shipWorld = null;
+			m_storage = null;
 			m_shipPhysics = null;
 			m_equilibriumWaterHeight = null;
 			m_sinkWaterHeight = null;
@@ -143,6 +155,48 @@ public class ShipLauncher
 		}
 	}
 	
+	public static ShipType getShipType( World world, Coords shipBlock )
+	{
+		return Ships.m_blockShip.getShipType( world, shipBlock.x, shipBlock.y, shipBlock.z );
+	}
+	
+	public void createShipWorld( )
+	{
+		// tile entities and hanging entities have to come from the world, so this has to happen on the main thread
+		if( m_storage != null && m_shipWorld == null )
+		{
+			m_shipWorld = new ShipWorld( m_world, m_shipBlock, m_blocks, m_storage );
+		}
+	}
+	
+	public boolean isSnapshotCurrent( )
+	{
+		// did any ship blocks change while we weren't looking?
+		if( m_blocks == null )
+		{
+			return true;
+		}
+		Coords neighborCoords = new Coords();
+		for( Coords coords : m_blocks )
+		{
+			if( !m_snapshot.matchesWorld( coords.x, coords.y, coords.z ) )
+			{
+				return false;
+			}
+			
+			// the separators around the ship matter too, since a missing one means the ship should be bigger
+			for( int i=0; i<ShipBlockNeighbors.getNumNeighbors(); i++ )
+			{
+				ShipBlockNeighbors.getNeighbor( neighborCoords, coords, i );
+				if( !m_blocks.contains( neighborCoords ) && !m_snapshot.matchesWorld( neighborCoords.x, neighborCoords.y, neighborCoords.z ) )
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
 	public Coords getShipBlock( )
 	{
 		return m_shipBlock;
@@ -226,22 +280,22 @@ public class ShipLauncher
 	
 	public BoundingBoxInt getShipBoundingBox( )
 	{
-		if( m_shipWorld == null )
+		if( m_storage == null )
 		{
 			return null;
 		}
 		
-		return m_shipWorld.getGeometry().getEnvelopes().getBoundingBox();
+		return m_storage.getGeometry().getEnvelopes().getBoundingBox();
 	}
 	
 	public BlockArray getShipEnvelope( BlockSide side )
 	{
-		if( m_shipWorld == null )
+		if( m_storage == null )
 		{
 			return null;
 		}
 		
-		return m_shipWorld.getGeometry().getEnvelopes().getEnvelope( side );
+		return m_storage.getGeometry().getEnvelopes().getEnvelope( side );
 	}
 	
 	public Double getEquilibriumWaterHeight( )
@@ -258,10 +312,11 @@ public class ShipLauncher
 	{
 		// currently, this is only called on the server
 		assert( Environment.isServer() );
+		createShipWorld();
 		
 		// spawn the ship
 		EntityShip ship = new EntityShip( m_world );
-		initShip( ship, m_shipWorld, m_shipBlock );
+		initShip( ship, m_shipWorld, m_shipBlock, m_shipPhysics );
 		
 		if( !m_world.spawnEntityInWorld( ship ) )
 		{
@@ -280,7 +335,13 @@ public class ShipLauncher
 	
 	public static void initShip( EntityShip ship, ShipWorld shipWorld, Coords shipBlock )
 	{
-		Vec3 centerOfMass = new ShipPhysics( shipWorld.getBlocksStorage() ).getCenterOfMass();
+		initShip( ship, shipWorld, shipBlock, new ShipPhysics( shipWorld.getBlocksStorage() ) );
+	}
+	
+	public static void initShip( EntityShip ship, ShipWorld shipWorld, Coords shipBlock, ShipPhysics physics )
+	{
+		// NOTE: the physics must be for the ship world's blocks
+		Vec3 centerOfMass = physics.getCenterOfMass();
 		
 		// set ship properties
 		ship.setPositionAndRotation(
@@ -289,7 +350,7 @@ public class ShipLauncher
 			shipBlock.z + centerOfMass.zCoord,
 			0, 0
 		);
-		ship.setShipWorld( shipWorld );
+		ship.setShipWorld( shipWorld, physics );
 		
 		removeShipFromWorld( ship.worldObj, shipWorld, shipBlock, UpdateRules.UpdateNoOne );
 	}
@@ -311,27 +372,30 @@ public class ShipLauncher
 		int waterHeight = computeWaterHeight( world, shipWorld, shipBlock );
 		
 		// remove the world blocks, but don't tell the clients. They'll do it later when the ship blocks are sent over
+		WorldEditBatch edits = new WorldEditBatch( world, updateRules );
 		for( Coords cords : worldBlocks )
 		{
 			if( cords.y < waterHeight )
 			{
-				BlockUtils.changeBlockWithoutNotifyingIt( world, cords.x, cords.y, cords.z, Block.waterStill.blockID, 0, updateRules );
+				edits.changeBlock( cords, Block.waterStill.blockID, 0 );
 			}
 			else
 			{
-				BlockUtils.removeBlockWithoutNotifyingIt( world, cords.x, cords.y, cords.z, updateRules );
+				edits.removeBlock( cords );
 			}
 		}
 		
 		// restore the trapped air to water
-		Coords worldCoords = new Coords( 0, 0, 0 );
 		for( Coords blockCoords : shipWorld.getDisplacement().getTrappedAirFromWaterHeight( waterHeight - shipBlock.y ) )
 		{
-			worldCoords.x = blockCoords.x + shipBlock.x;
-			worldCoords.y = blockCoords.y + shipBlock.y;
-			worldCoords.z = blockCoords.z + shipBlock.z;
-			BlockUtils.changeBlockWithoutNotifyingIt( world, worldCoords.x, worldCoords.y, worldCoords.z, Block.waterStill.blockID, 0, updateRules );
+			edits.changeBlock(
+				blockCoords.x + shipBlock.x,
+				blockCoords.y + shipBlock.y,
+				blockCoords.z + shipBlock.z,
+				Block.waterStill.blockID, 0
+			);
 		}
+		edits.apply();
 		
 		// remove any hanging entities
 		for( Map.Entry<Coords,EntityHanging> entry : shipWorld.getNearbyHangingEntities( world, worldBlocks ).entrySet() )
@@ -358,7 +422,7 @@ public class ShipLauncher
 				{
 					maxWaterHeight = waterHeight;
 				}
-				
+			
 			}
 		}
 		return maxWaterHeight;
@@ -26,51 +26,19 @@ public class ShipLocator
 {
 	public static List<EntityShip> getShips( World world )
 	{
-		List<EntityShip> ships = new ArrayList<EntityShip>();
-		for( Object entity : world.loadedEntityList )
-		{
-			if( entity instanceof EntityShip )
-			{
-				ships.add( (EntityShip)entity );
-			}
-		}
-		return ships;
+		return new ArrayList<EntityShip>( ShipRegistry.get( world ).ships() );
 	}
 	
 	public static EntityShip getShip( World world, int entityId )
 	{
-		return getShip( getShips( world ), entityId );
+		return ShipRegistry.get( world ).getShip( entityId );
 	}
 	
 	public static EntityShip getShip( World world, UUID uuid )
 	{
-		return getShip( getShips( world ), uuid );
-	}
-	
-	private static EntityShip getShip( List<EntityShip> ships, int entityId )
-	{
-		for( EntityShip ship : ships )
-		{
-			if( ship.entityId == entityId )
-			{
-				return ship;
-			}
-		}
-		return null;
+		return ShipRegistry.get( world ).getShip( uuid );
 	}
 	
-	private static EntityShip getShip( List<EntityShip> ships, UUID uuid )
-	{
-		for( EntityShip ship : ships )
-		{
-			if( ship.getPersistentID().equals( uuid ) )
-			{
-				return ship;
-			}
-		}
-		return null;
-	}
-
 	public static EntityShip getFromPlayerLook( EntityPlayer player )
 	{
 		// find out what entity the player is looking at
@@ -130,14 +98,9 @@ public class ShipLocator
 		// sadly, we can't use World.getEntitiesWithinAABB() because ship entities are too big.
 		// It will only return entities whose positions are within near the chunk of the query box.
 		// it doesn't do a global box-to-box test. =(
+		// so we keep our own registry of ship boxes instead
 		List<EntityShip> ships = new ArrayList<EntityShip>();
-		for( EntityShip ship : getShips( world ) )
-		{
-			if( ship.boundingBox.intersectsWith( box ) )
-			{
-				ships.add( ship );
-			}
-		}
+		ShipRegistry.get( world ).findShipsInBox( ships, box );
 		return ships;
 	}
 }
@@ -12,8 +12,6 @@ package cuchaz.ships;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 import net.minecraft.block.Block;
 import net.minecraft.util.MathHelper;
@@ -61,10 +59,48 @@ public class ShipPhysics
 		}
 	}
 	
-	private static class ScaledDisplacementEntry
+	private static class LayerTable
 	{
-		double surfaceDisplacement;
-		double underwaterDisplacement;
+		// per-layer sums over an envelope, with running totals so water height lookups don't have to loop
+		
+		private int m_minY;
+		private double[] m_layerValues;
+		private double[] m_valuesBelow;
+		private double m_total;
+		
+		public LayerTable( int minY, double[] layerValues )
+		{
+			m_minY = minY;
+			m_layerValues = layerValues;
+			m_valuesBelow = new double[layerValues.length];
+			m_total = 0;
+			for( int i=0; i<layerValues.length; i++ )
+			{
+				m_valuesBelow[i] = m_total;
+				m_total += layerValues[i];
+			}
+		}
+		
+		public double getTotal( )
+		{
+			return m_total;
+		}
+		
+		public double getSubmerged( BlockSide side, double waterHeight )
+		{
+			// layers under the surface layer are all the way underwater, layers over it are all dry
+			int y = MathHelper.floor_double( waterHeight );
+			int i = y - m_minY;
+			if( i < 0 )
+			{
+				return 0;
+			}
+			else if( i >= m_layerValues.length )
+			{
+				return m_total;
+			}
+			return m_valuesBelow[i] + m_layerValues[i]*side.getFractionSubmerged( y, waterHeight );
+		}
 	}
 	
 	private BlocksStorage m_blocks;
@@ -72,40 +108,33 @@ public class ShipPhysics
 	private Vec3 m_centerOfMass;
 	private Double m_equilibriumWaterHeight;
 	private Integer m_sinkWaterHeight;
-	private Map<Integer,ScaledDisplacementEntry> m_displacement;
+	private int m_blocksVersion;
+	
+	// displaced water mass for each layer of the ship, indexed by y - m_displacementMinY
+	private int m_displacementMinY;
+	private double[] m_surfaceDisplacedMass;
+	private double[] m_underwaterDisplacedMass;
+	
+	// envelope areas for drag, indexed by side, and envelope moments for angular drag
+	private LayerTable[] m_areaTables;
+	private LayerTable m_northMomentTable;
+	private LayerTable m_eastMomentTable;
 	
 	public ShipPhysics( BlocksStorage blocks )
 	{
 		m_blocks = blocks;
-		
-		// compute the total mass
-		m_shipMass = 0.0;
-		for( Coords coords : m_blocks.coords() )
-		{
-			m_shipMass += BlockProperties.getMass( getBlock( coords ) );
-		}
-		
-		// compute some extra stuff
-		m_centerOfMass = computeCenterOfMass();
-		m_displacement = new TreeMap<Integer,ScaledDisplacementEntry>();
-		m_equilibriumWaterHeight = computeEquilibriumWaterHeight();
-		m_sinkWaterHeight = m_blocks.getDisplacement().getLastFillY();
-		
-		// is the ship unsinkable?
-		ScaledDisplacementEntry lastDisplacement = getScaledDisplacement( m_blocks.getDisplacement().getMaxY() + 1 );
-		if( lastDisplacement.surfaceDisplacement + lastDisplacement.underwaterDisplacement > m_shipMass )
-		{
-			m_sinkWaterHeight = null;
-		}
+		computeBlockProperties();
 	}
 	
 	public double getMass( )
 	{
+		update();
 		return m_shipMass;
 	}
 	
 	public Vec3 getCenterOfMass( )
 	{
+		update();
 		return m_centerOfMass;
 	}
 	
@@ -117,38 +146,45 @@ public class ShipPhysics
 	
 	public double getDisplacedWaterMass( double waterHeight )
 	{
+		update();
+		
 		// get the surface block level
 		int surfaceLevel = MathHelper.floor_double( waterHeight );
 		
 		// compute the mass of the displaced water
 		double surfaceFraction = getBlockFractionSubmerged( surfaceLevel, waterHeight );
-		return ( (double)getUnderwaterDisplacement( surfaceLevel ) + (double)getSurfaceDisplacement( surfaceLevel )*surfaceFraction )*getWaterBlockMass();
+		return getUnderwaterDisplacedMass( surfaceLevel ) + getSurfaceDisplacedMass( surfaceLevel )*surfaceFraction;
 	}
 	
 	public Double getEquilibriumWaterHeight( )
 	{
+		update();
 		return m_equilibriumWaterHeight;
 	}
 	
 	public Integer getSinkWaterHeight( )
 	{
+		update();
 		return m_sinkWaterHeight;
 	}
 	
 	public boolean willItFloat( )
 	{
+		update();
 		return m_equilibriumWaterHeight != null;
 	}
 	
 	public double getLinearAccelerationDueToThrust( Propulsion propulsion, double speed )
 	{
+		update();
+		
 		// thrust is in N (which is Kg*m/s/s) and mass is in Kg
 		return propulsion.getTotalThrust( speed )/m_shipMass;
 	}
 	
 	public double getLinearAccelerationDueToDrag( Vec3 velocity, double waterHeight )
 	{
-		// UNDONE: it may be more efficient to cache these computations
+		update();
 		
 		// which side is the leading side?
 		BlockSide leadingSide = null;
@@ -165,14 +201,9 @@ public class ShipPhysics
 		assert( leadingSide != null );
 		
 		// compute the viscosity
-		double airSurfaceArea = 0;
-		double waterSurfaceArea = 0;
-		for( Coords coords : m_blocks.getGeometry().getEnvelopes().getEnvelope( leadingSide ).toBlockSet() )
-		{
-			double fractionSubmerged = leadingSide.getFractionSubmerged( coords.y, waterHeight );
-			waterSurfaceArea += fractionSubmerged;
-			airSurfaceArea += 1 - fractionSubmerged;
-		}
+		LayerTable areaTable = m_areaTables[leadingSide.ordinal()];
+		double waterSurfaceArea = areaTable.getSubmerged( leadingSide, waterHeight );
+		double airSurfaceArea = areaTable.getTotal() - waterSurfaceArea;
 		double linearViscosity = AirViscosity*airSurfaceArea + WaterViscosity*waterSurfaceArea;
 		
 		// how fast are we going?
@@ -189,10 +220,12 @@ public class ShipPhysics
 	
 	public float getAngularAccelerationDueToDrag( float motionYaw, double waterHeight )
 	{
+		update();
+		
 		// compute the viscosity in both directions
 		double angularViscosity = 0
-			+ getAngularViscosity( BlockSide.North, waterHeight, m_centerOfMass.xCoord )
-			+ getAngularViscosity( BlockSide.East, waterHeight, m_centerOfMass.zCoord );
+			+ getAngularViscosity( BlockSide.North, waterHeight, m_northMomentTable )
+			+ getAngularViscosity( BlockSide.East, waterHeight, m_eastMomentTable );
 		
 		return (float)( BaseAngularDrag + motionYaw*motionYaw*angularViscosity/m_shipMass );
 	}
@@ -317,34 +350,131 @@ public class ShipPhysics
 		return buf.toString();
 	}
 	
-	private double getUnderwaterDisplacement( int y )
+	private void update( )
 	{
-		return getScaledDisplacement( y ).underwaterDisplacement;
+		// recompute everything if the blocks changed
+		if( m_blocks.getPhysicsVersion() != m_blocksVersion )
+		{
+			computeBlockProperties();
+		}
 	}
 	
-	private double getSurfaceDisplacement( int y )
+	private void computeBlockProperties( )
 	{
-		return getScaledDisplacement( y ).surfaceDisplacement;
+		m_blocksVersion = m_blocks.getPhysicsVersion();
+		
+		// compute the total mass
+		m_shipMass = 0.0;
+		for( Coords coords : m_blocks.coords() )
+		{
+			m_shipMass += BlockProperties.getMass( getBlock( coords ) );
+		}
+		
+		// compute some extra stuff
+		m_centerOfMass = computeCenterOfMass();
+		computeDisplacedMass();
+		computeDragTables();
+		m_equilibriumWaterHeight = computeEquilibriumWaterHeight();
+		m_sinkWaterHeight = m_blocks.getDisplacement().getLastFillY();
+		
+		// is the ship unsinkable? ie, does it still float when it's completely underwater?
+		int top = m_surfaceDisplacedMass.length - 1;
+		if( top >= 0 && m_surfaceDisplacedMass[top] + m_underwaterDisplacedMass[top] > m_shipMass )
+		{
+			m_sinkWaterHeight = null;
+		}
 	}
-
-	private ScaledDisplacementEntry getScaledDisplacement( int y )
+	
+	private void computeDisplacedMass( )
+	{
+		// sum the displacement of each layer once, so buoyancy is just a lookup
+		// NOTE: the displacement only covers watertight blocks, which might be empty
+		ShipDisplacement displacement = m_blocks.getDisplacement();
+		if( displacement.getBlocks().isEmpty() )
+		{
+			m_displacementMinY = 0;
+			m_surfaceDisplacedMass = new double[0];
+			m_underwaterDisplacedMass = new double[0];
+			return;
+		}
+		
+		// NOTE: the displacement keeps running sums over its layer changes, so we never build the layer block sets
+		ShipDisplacement.BlockValue blockDisplacement = new ShipDisplacement.BlockValue( )
+		{
+			@Override
+			public double getValue( Coords coords )
+			{
+				return BlockProperties.getDisplacement( getBlock( coords ) );
+			}
+		};
+		double[] surfaceDisplacement = displacement.getSurfaceSums( blockDisplacement );
+		double[] underwaterDisplacement = displacement.getUnderwaterSums( blockDisplacement );
+		
+		double waterBlockMass = getWaterBlockMass();
+		m_displacementMinY = displacement.getMinY();
+		int numLayers = surfaceDisplacement.length;
+		m_surfaceDisplacedMass = new double[numLayers];
+		m_underwaterDisplacedMass = new double[numLayers];
+		for( int i=0; i<numLayers; i++ )
+		{
+			m_surfaceDisplacedMass[i] = surfaceDisplacement[i]*waterBlockMass;
+			m_underwaterDisplacedMass[i] = underwaterDisplacement[i]*waterBlockMass;
+		}
+	}
+	
+	private void computeDragTables( )
+	{
+		// tally the envelopes by layer once, so drag is just a lookup
+		m_areaTables = new LayerTable[BlockSide.values().length];
+		for( BlockSide side : BlockSide.values() )
+		{
+			m_areaTables[side.ordinal()] = buildLayerTable( side, null );
+		}
+		m_northMomentTable = buildLayerTable( BlockSide.North, (int)m_centerOfMass.xCoord );
+		m_eastMomentTable = buildLayerTable( BlockSide.East, (int)m_centerOfMass.zCoord );
+	}
+	
+	private LayerTable buildLayerTable( BlockSide side, Integer centerCoord )
 	{
-		ScaledDisplacementEntry entry = m_displacement.get( y );
-		if( entry == null )
+		// with no center, just count the blocks, otherwise sum their distances from the center
+		int minY = m_blocks.getBoundingBox().minY;
+		double[] layerValues = new double[m_blocks.getBoundingBox().maxY - minY + 1];
+		for( Coords coords : m_blocks.getGeometry().getEnvelopes().getEnvelope( side ).toBlockSet() )
 		{
-			entry = new ScaledDisplacementEntry();
-			entry.surfaceDisplacement = 0;
-			for( Coords coords : m_blocks.getDisplacement().getSurfaceBlocks( y ) )
+			if( centerCoord == null )
 			{
-				entry.surfaceDisplacement += BlockProperties.getDisplacement( getBlock( coords ) );
+				layerValues[coords.y - minY] += 1;
 			}
-			entry.underwaterDisplacement = 0;
-			for( Coords coords : m_blocks.getDisplacement().getUnderwaterBlocks( y ) )
+			else
 			{
-				entry.underwaterDisplacement += BlockProperties.getDisplacement( getBlock( coords ) );
+				layerValues[coords.y - minY] += Math.abs( side.getU( coords.x, coords.y, coords.z ) - centerCoord );
 			}
 		}
-		return entry;
+		return new LayerTable( minY, layerValues );
+	}
+	
+	private double getSurfaceDisplacedMass( int y )
+	{
+		int i = getDisplacementIndex( y );
+		return i < 0 ? 0 : m_surfaceDisplacedMass[i];
+	}
+	
+	private double getUnderwaterDisplacedMass( int y )
+	{
+		int i = getDisplacementIndex( y );
+		return i < 0 ? 0 : m_underwaterDisplacedMass[i];
+	}
+	
+	private int getDisplacementIndex( int y )
+	{
+		// layers below the ship don't displace anything
+		// layers above the ship displace the same as the top layer
+		if( m_surfaceDisplacedMass.length == 0 || y < m_displacementMinY )
+		{
+			return -1;
+		}
+		// NOTE: do the math in longs so big y values don't overflow
+		return (int)Math.min( (long)y - m_displacementMinY, m_surfaceDisplacedMass.length - 1 );
 	}
 	
 	private Double computeEquilibriumWaterHeight( )
@@ -354,11 +484,11 @@ public class ShipPhysics
 		int maxY = m_blocks.getBoundingBox().maxY;
 		for( int y=minY; y<=maxY+1; y++ )
 		{
-			double underwaterDisplacement = getUnderwaterDisplacement( y );
-			double surfaceDisplacement = getSurfaceDisplacement( y );
+			double underwaterDisplacedMass = getUnderwaterDisplacedMass( y );
+			double surfaceDisplacedMass = getSurfaceDisplacedMass( y );
 			
 			// assume water completely submerges this layer
-			double displacedWaterMass = ( underwaterDisplacement + surfaceDisplacement )*getWaterBlockMass();
+			double displacedWaterMass = underwaterDisplacedMass + surfaceDisplacedMass;
 			
 			// did we displace too much water?
 			if( displacedWaterMass > m_shipMass )
@@ -366,7 +496,7 @@ public class ShipPhysics
 				// good, the water height is in this block level
 				
 				// now solve for the water height
-				return y + ( m_shipMass - underwaterDisplacement*getWaterBlockMass() )/surfaceDisplacement/getWaterBlockMass();
+				return y + ( m_shipMass - underwaterDisplacedMass )/surfaceDisplacedMass;
 			}
 		}
 		
@@ -398,16 +528,11 @@ public class ShipPhysics
 		return BlockSide.North.getFractionSubmerged( y, waterHeight );
 	}
 	
-	private double getAngularViscosity( BlockSide side, double waterHeight, double center )
+	private double getAngularViscosity( BlockSide side, double waterHeight, LayerTable momentTable )
 	{
-		int centerCoord = (int)center;
-		double viscosity = 0;
-		for( Coords coords : m_blocks.getGeometry().getEnvelopes().getEnvelope( side ).toBlockSet() )
-		{
-			double fractionSubmerged = side.getFractionSubmerged( coords.y, waterHeight );
-			double dist = Math.abs( side.getU( coords.x, coords.y, coords.z ) - centerCoord );
-			viscosity += ( fractionSubmerged*WaterViscosity + ( 1 - fractionSubmerged )*AirViscosity )*dist;
-		}
+		// the underwater part of the moment gets water viscosity, the rest gets air viscosity
+		double submergedMoment = momentTable.getSubmerged( side, waterHeight );
+		double viscosity = WaterViscosity*submergedMoment + AirViscosity*( momentTable.getTotal() - submergedMoment );
 		return viscosity*AngularViscosityScale;
 	}
 	
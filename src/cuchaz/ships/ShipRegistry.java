@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+
+import net.minecraft.util.AxisAlignedBB;
+import net.minecraft.util.MathHelper;
+import net.minecraft.world.World;
+
+public class ShipRegistry
+{
+	// ships are bucketed into a coarse xz grid by their bounding boxes
+	private static final int CellSize = 32;
+	
+	private static class Entry
+	{
+		public EntityShip ship;
+		public int entityId;
+		public UUID uuid;
+		public int minCellX;
+		public int minCellZ;
+		public int maxCellX;
+		public int maxCellZ;
+		public int queryId;
+		
+		public Entry( EntityShip ship )
+		{
+			this.ship = ship;
+			entityId = ship.entityId;
+			uuid = ship.getPersistentID();
+			queryId = 0;
+		}
+	}
+	
+	// NOTE: in single player, the client and the integrated server run on different threads
+	// so each side gets its own map, and only ever touches it from its own thread
+	private static Map<World,ShipRegistry> m_clientRegistries = new WeakHashMap<World,ShipRegistry>();
+	private static Map<World,ShipRegistry> m_serverRegistries = new WeakHashMap<World,ShipRegistry>();
+	
+	// NOTE: entities compare by entity id, but a re-created ship with the same id is a different ship
+	private Map<EntityShip,Entry> m_entries;
+	private Map<Integer,Entry> m_entriesById;
+	private Map<UUID,Entry> m_entriesByUuid;
+	private Map<Long,List<Entry>> m_cells;
+	private int m_nextQueryId;
+	
+	public static ShipRegistry get( World world )
+	{
+		Map<World,ShipRegistry> registries = getRegistries( world );
+		ShipRegistry registry = registries.get( world );
+		if( registry == null )
+		{
+			registry = new ShipRegistry();
+			registries.put( world, registry );
+		}
+		return registry;
+	}
+	
+	public static void remove( World world )
+	{
+		getRegistries( world ).remove( world );
+	}
+	
+	private static Map<World,ShipRegistry> getRegistries( World world )
+	{
+		return world.isRemote ? m_clientRegistries : m_serverRegistries;
+	}
+	
+	private ShipRegistry( )
+	{
+		m_entries = new IdentityHashMap<EntityShip,Entry>();
+		m_entriesById = new HashMap<Integer,Entry>();
+		m_entriesByUuid = new HashMap<UUID,Entry>();
+		m_cells = new HashMap<Long,List<Entry>>();
+		m_nextQueryId = 0;
+	}
+	
+	public Collection<EntityShip> ships( )
+	{
+		return m_entries.keySet();
+	}
+	
+	public int getNumShips( )
+	{
+		return m_entries.size();
+	}
+	
+	public EntityShip getShip( int entityId )
+	{
+		return getLiveShip( m_entriesById.get( entityId ) );
+	}
+	
+	public EntityShip getShip( UUID uuid )
+	{
+		return getLiveShip( m_entriesByUuid.get( uuid ) );
+	}
+	
+	public void add( EntityShip ship )
+	{
+		if( ship.isDead || m_entries.containsKey( ship ) )
+		{
+			return;
+		}
+		Entry entry = new Entry( ship );
+		m_entries.put( ship, entry );
+		m_entriesById.put( entry.entityId, entry );
+		m_entriesByUuid.put( entry.uuid, entry );
+		addToCells( entry );
+	}
+	
+	public void move( EntityShip ship )
+	{
+		// only ships that have joined the world get tracked
+		Entry entry = m_entries.get( ship );
+		if( entry == null )
+		{
+			return;
+		}
+		
+		AxisAlignedBB box = ship.boundingBox;
+		if( entry.minCellX == getCell( box.minX ) && entry.minCellZ == getCell( box.minZ )
+			&& entry.maxCellX == getCell( box.maxX ) && entry.maxCellZ == getCell( box.maxZ ) )
+		{
+			// ship didn't change cells, nothing to do
+			return;
+		}
+		removeFromCells( entry );
+		addToCells( entry );
+	}
+	
+	public void remove( EntityShip ship )
+	{
+		Entry entry = m_entries.remove( ship );
+		if( entry != null )
+		{
+			// don't drop a newer entry for a ship that reloaded with the same id
+			if( m_entriesById.get( entry.entityId ) == entry )
+			{
+				m_entriesById.remove( entry.entityId );
+			}
+			if( m_entriesByUuid.get( entry.uuid ) == entry )
+			{
+				m_entriesByUuid.remove( entry.uuid );
+			}
+			removeFromCells( entry );
+		}
+	}
+	
+	public void findShipsInBox( List<EntityShip> out, AxisAlignedBB box )
+	{
+		if( m_entries.isEmpty() )
+		{
+			return;
+		}
+		
+		int minCellX = getCell( box.minX );
+		int minCellZ = getCell( box.minZ );
+		int maxCellX = getCell( box.maxX );
+		int maxCellZ = getCell( box.maxZ );
+		
+		// for really big boxes, it's faster to just check every ship
+		long numCells = (long)( maxCellX - minCellX + 1 )*( maxCellZ - minCellZ + 1 );
+		if( numCells > m_entries.size() )
+		{
+			for( EntityShip ship : m_entries.keySet() )
+			{
+				if( !ship.isDead && ship.boundingBox.intersectsWith( box ) )
+				{
+					out.add( ship );
+				}
+			}
+			return;
+		}
+		
+		// ships can span several cells, so tag each entry with the query to skip duplicates
+		int queryId = ++m_nextQueryId;
+		for( int x=minCellX; x<=maxCellX; x++ )
+		{
+			for( int z=minCellZ; z<=maxCellZ; z++ )
+			{
+				List<Entry> cell = m_cells.get( getKey( x, z ) );
+				if( cell == null )
+				{
+					continue;
+				}
+				for( Entry entry : cell )
+				{
+					if( entry.queryId == queryId )
+					{
+						continue;
+					}
+					entry.queryId = queryId;
+					if( !entry.ship.isDead && entry.ship.boundingBox.intersectsWith( box ) )
+					{
+						out.add( entry.ship );
+					}
+				}
+			}
+		}
+	}
+	
+	private EntityShip getLiveShip( Entry entry )
+	{
+		if( entry == null || entry.ship.isDead )
+		{
+			return null;
+		}
+		return entry.ship;
+	}
+	
+	private void addToCells( Entry entry )
+	{
+		AxisAlignedBB box = entry.ship.boundingBox;
+		int minCellX = getCell( box.minX );
+		int minCellZ = getCell( box.minZ );
+		int maxCellX = getCell( box.maxX );
+		int maxCellZ = getCell( box.maxZ );
+		entry.minCellX = minCellX;
+		entry.minCellZ = minCellZ;
+		entry.maxCellX = maxCellX;
+		entry.maxCellZ = maxCellZ;
+		for( int x=minCellX; x<=maxCellX; x++ )
+		{
+			for( int z=minCellZ; z<=maxCellZ; z++ )
+			{
+				long key = getKey( x, z );
+				List<Entry> cell = m_cells.get( key );
+				if( cell == null )
+				{
+					cell = new ArrayList<Entry>( 2 );
+					m_cells.put( key, cell );
+				}
+				cell.add( entry );
+			}
+		}
+	}
+	
+	private void removeFromCells( Entry entry )
+	{
+		for( int x=entry.minCellX; x<=entry.maxCellX; x++ )
+		{
+			for( int z=entry.minCellZ; z<=entry.maxCellZ; z++ )
+			{
+				long key = getKey( x, z );
+				List<Entry> cell = m_cells.get( key );
+				if( cell != null )
+				{
+					cell.remove( entry );
+					if( cell.isEmpty() )
+					{
+						m_cells.remove( key );
+					}
+				}
+			}
+		}
+	}
+	
+	private static int getCell( double val )
+	{
+		return MathHelper.floor_double( val/CellSize );
+	}
+	
+	private static long getKey( int cellX, int cellZ )
+	{
+		return ( (long)cellX << 32 ) | ( cellZ & 0xffffffffL );
+	}
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import cuchaz.modsShared.blocks.BlockSet;
+import cuchaz.modsShared.blocks.Coords;
+
+public class ShipSections
+{
+	// ships get rendered in 16x16x16 sections, so block changes only rebuild a little bit of the mesh
+	public static final int SectionSize = 16;
+	private static final int SectionShift = 4;
+	
+	private Map<Coords,BlockSet> m_sections;
+	private Set<Coords> m_dirtySections;
+	
+	public ShipSections( Collection<Coords> blocks )
+	{
+		m_sections = new HashMap<Coords,BlockSet>();
+		for( Coords coords : blocks )
+		{
+			Coords sectionCoords = getSectionCoords( coords.x, coords.y, coords.z );
+			BlockSet section = m_sections.get( sectionCoords );
+			if( section == null )
+			{
+				section = new BlockSet();
+				m_sections.put( sectionCoords, section );
+			}
+			section.add( coords );
+		}
+		
+		// nothing has been built yet
+		m_dirtySections = new HashSet<Coords>( m_sections.keySet() );
+	}
+	
+	public static Coords getSectionCoords( int x, int y, int z )
+	{
+		return new Coords( x >> SectionShift, y >> SectionShift, z >> SectionShift );
+	}
+	
+	public Set<Coords> sections( )
+	{
+		return m_sections.keySet();
+	}
+	
+	public BlockSet getBlocks( Coords sectionCoords )
+	{
+		return m_sections.get( sectionCoords );
+	}
+	
+	public boolean isDirty( Coords sectionCoords )
+	{
+		return m_dirtySections.contains( sectionCoords );
+	}
+	
+	public boolean hasDirtySections( )
+	{
+		return !m_dirtySections.isEmpty();
+	}
+	
+	public void markBlockDirty( Coords coords )
+	{
+		// faces get culled against neighboring blocks, so a block on a section border dirties the neighbor too
+		markSectionDirty( coords.x, coords.y, coords.z );
+		markSectionDirty( coords.x - 1, coords.y, coords.z );
+		markSectionDirty( coords.x + 1, coords.y, coords.z );
+		markSectionDirty( coords.x, coords.y - 1, coords.z );
+		markSectionDirty( coords.x, coords.y + 1, coords.z );
+		markSectionDirty( coords.x, coords.y, coords.z - 1 );
+		markSectionDirty( coords.x, coords.y, coords.z + 1 );
+	}
+	
+	public void markAllDirty( )
+	{
+		m_dirtySections.addAll( m_sections.keySet() );
+	}
+	
+	public void getDirtySections( Collection<Coords> out )
+	{
+		// NOTE: this clears the dirty flags, so the caller had better rebuild these sections
+		out.addAll( m_dirtySections );
+		m_dirtySections.clear();
+	}
+	
+	private void markSectionDirty( int x, int y, int z )
+	{
+		Coords sectionCoords = getSectionCoords( x, y, z );
+		if( m_sections.containsKey( sectionCoords ) )
+		{
+			m_dirtySections.add( sectionCoords );
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+public class ShipState
+{
+	// the ship motion the server sends to clients
+	// stored in fixed point, so the server and the clients agree on every bit and the deltas never drift
+	
+	public static final double PositionScale = 1024; // 1/1024 of a block
+	public static final double YawScale = 65536.0/360; // 1/65536 of a turn
+	public static final double MotionScale = 8192; // 1/8192 of a block per tick
+	public static final double MotionYawScale = 1024; // 1/1024 of a degree per tick
+	
+	public long x;
+	public long y;
+	public long z;
+	public int yaw; // in [0,65536)
+	public int motionX;
+	public int motionY;
+	public int motionZ;
+	public int motionYaw;
+	public int linearThrottle;
+	public int angularThrottle;
+	
+	public ShipState( )
+	{
+		// everything starts at zero
+	}
+	
+	public ShipState( ShipState other )
+	{
+		set( other );
+	}
+	
+	public void set( ShipState other )
+	{
+		x = other.x;
+		y = other.y;
+		z = other.z;
+		yaw = other.yaw;
+		motionX = other.motionX;
+		motionY = other.motionY;
+		motionZ = other.motionZ;
+		motionYaw = other.motionYaw;
+		linearThrottle = other.linearThrottle;
+		angularThrottle = other.angularThrottle;
+	}
+	
+	public void set( EntityShip ship )
+	{
+		x = Math.round( ship.posX*PositionScale );
+		y = Math.round( ship.posY*PositionScale );
+		z = Math.round( ship.posZ*PositionScale );
+		yaw = (int)Math.round( ship.rotationYaw*YawScale ) & 0xffff;
+		motionX = (int)Math.round( ship.motionX*MotionScale );
+		motionY = (int)Math.round( ship.motionY*MotionScale );
+		motionZ = (int)Math.round( ship.motionZ*MotionScale );
+		motionYaw = (int)Math.round( ship.motionYaw*MotionYawScale );
+		linearThrottle = ship.linearThrottle;
+		angularThrottle = ship.angularThrottle;
+	}
+	
+	public double getX( )
+	{
+		return x/PositionScale;
+	}
+	
+	public double getY( )
+	{
+		return y/PositionScale;
+	}
+	
+	public double getZ( )
+	{
+		return z/PositionScale;
+	}
+	
+	public float getYaw( )
+	{
+		return (float)( yaw/YawScale );
+	}
+	
+	public double getMotionX( )
+	{
+		return motionX/MotionScale;
+	}
+	
+	public double getMotionY( )
+	{
+		return motionY/MotionScale;
+	}
+	
+	public double getMotionZ( )
+	{
+		return motionZ/MotionScale;
+	}
+	
+	public float getMotionYaw( )
+	{
+		return (float)( motionYaw/MotionYawScale );
+	}
+	
+	public double getSpeed( )
+	{
+		double dx = getMotionX();
+		double dy = getMotionY();
+		double dz = getMotionZ();
+		return Math.sqrt( dx*dx + dy*dy + dz*dz );
+	}
+	
+	@Override
+	public boolean equals( Object obj )
+	{
+		if( obj instanceof ShipState )
+		{
+			return equals( (ShipState)obj );
+		}
+		return false;
+	}
+	
+	public boolean equals( ShipState other )
+	{
+		return x == other.x && y == other.y && z == other.z
+			&& yaw == other.yaw
+			&& motionX == other.motionX && motionY == other.motionY && motionZ == other.motionZ
+			&& motionYaw == other.motionYaw
+			&& linearThrottle == other.linearThrottle && angularThrottle == other.angularThrottle;
+	}
+	
+	@Override
+	public int hashCode( )
+	{
+		int hash = (int)( x ^ ( x >>> 32 ) );
+		hash = hash*31 + (int)( y ^ ( y >>> 32 ) );
+		hash = hash*31 + (int)( z ^ ( z >>> 32 ) );
+		hash = hash*31 + yaw;
+		hash = hash*31 + motionX;
+		hash = hash*31 + motionY;
+		hash = hash*31 + motionZ;
+		hash = hash*31 + motionYaw;
+		hash = hash*31 + linearThrottle;
+		hash = hash*31 + angularThrottle;
+		return hash;
+	}
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import net.minecraft.entity.player.EntityPlayer;
+import cpw.mods.fml.common.network.PacketDispatcher;
+import cpw.mods.fml.common.network.Player;
+import cuchaz.ships.packets.PacketShipState;
+
+public class ShipStateSender
+{
+	// server side. Sends the ship motion to the players that have the ship's blocks, as changes from what each player got last
+	// clients run the same physics between updates, so nearby fast ships get updates often, and far away or parked ships hardly ever
+	
+	private static final int MinIntervalTicks = 2;
+	private static final int MaxIntervalTicks = 20;
+	private static final int ParkedIntervalTicks = 20*5;
+	private static final double DistPerIntervalTick = 16; // blocks
+	private static final double FastSpeed = 0.5; // blocks per tick
+	private static final double ParkedSpeed = 0.01; // blocks per tick
+	private static final double ParkedYawSpeed = 0.1; // degrees per tick
+	
+	private static class Receiver
+	{
+		public ShipState state;
+		public int ticksSinceSend;
+	}
+	
+	private EntityShip m_ship;
+	private Map<EntityPlayer,Receiver> m_receivers;
+	private ShipState m_state;
+	
+	public ShipStateSender( EntityShip ship )
+	{
+		m_ship = ship;
+		m_receivers = new HashMap<EntityPlayer,Receiver>();
+		m_state = new ShipState();
+	}
+	
+	public void update( )
+	{
+		ShipBlockWatchers watchers = m_ship.getShipWorld().getBlockWatchers();
+		
+		// forget players that don't have the blocks anymore. They'll get the whole state when they do again
+		Iterator<EntityPlayer> iter = m_receivers.keySet().iterator();
+		while( iter.hasNext() )
+		{
+			if( !watchers.hasBlocks( iter.next() ) )
+			{
+				iter.remove();
+			}
+		}
+		
+		m_state.set( m_ship );
+		for( EntityPlayer player : watchers.getPlayers() )
+		{
+			if( !watchers.hasBlocks( player ) )
+			{
+				continue;
+			}
+			
+			Receiver receiver = m_receivers.get( player );
+			if( receiver == null )
+			{
+				// new players get everything
+				receiver = new Receiver();
+				receiver.state = new ShipState( m_state );
+				receiver.ticksSinceSend = 0;
+				m_receivers.put( player, receiver );
+				send( player, m_state, null );
+				continue;
+			}
+			
+			receiver.ticksSinceSend++;
+			if( receiver.state.equals( m_state ) )
+			{
+				continue;
+			}
+			
+			// throttle changes go out as soon as we can send them, everything else can wait a bit
+			// NOTE: held throttle keys change the throttle every tick, so don't send more often than the min interval
+			boolean isThrottleChanged = receiver.state.linearThrottle != m_state.linearThrottle || receiver.state.angularThrottle != m_state.angularThrottle;
+			int intervalTicks = isThrottleChanged ? MinIntervalTicks : getIntervalTicks( player );
+			if( receiver.ticksSinceSend >= intervalTicks )
+			{
+				send( player, m_state, PacketShipState.canSendDelta( m_state, receiver.state ) ? receiver.state : null );
+				receiver.state.set( m_state );
+				receiver.ticksSinceSend = 0;
+			}
+		}
+	}
+	
+	private int getIntervalTicks( EntityPlayer player )
+	{
+		// parked ships barely move, so the clients can predict them just fine
+		if( m_state.getSpeed() < ParkedSpeed && Math.abs( m_state.getMotionYaw() ) < ParkedYawSpeed )
+		{
+			return ParkedIntervalTicks;
+		}
+		
+		// far away ships can wait longer, fast ships can't wait as long
+		double intervalTicks = MinIntervalTicks + Math.sqrt( player.getDistanceSqToEntity( m_ship ) )/DistPerIntervalTick;
+		intervalTicks /= 1 + m_state.getSpeed()/FastSpeed;
+		return Math.max( MinIntervalTicks, Math.min( MaxIntervalTicks, (int)intervalTicks ) );
+	}
+	
+	private void send( EntityPlayer player, ShipState state, ShipState baseState )
+	{
+		PacketShipState packet = new PacketShipState( m_ship.entityId, state, baseState );
+		PacketDispatcher.sendPacketToPlayer( packet.getCustomPacket(), (Player)player );
+	}
+}
@@ -31,7 +31,6 @@ import net.minecraft.server.MinecraftServer;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.AxisAlignedBB;
 import net.minecraft.util.MathHelper;
-import net.minecraft.util.Vec3;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.BiomeGenBase;
 import net.minecraftforge.common.ForgeDirection;
@@ -44,7 +43,6 @@ import cuchaz.modsShared.blocks.BlockUtils;
 import cuchaz.modsShared.blocks.BlockUtils.UpdateRules;
 import cuchaz.modsShared.blocks.BoundingBoxInt;
 import cuchaz.modsShared.blocks.Coords;
-import cuchaz.ships.packets.PacketChangedBlocks;
 import cuchaz.ships.packets.PacketShipBlockEvent;
 
 public class ShipWorld extends DetachedWorld
@@ -56,9 +54,10 @@ public class ShipWorld extends DetachedWorld
 	private BlocksStorage m_storage;
 	private BlockMap<TileEntity> m_tileEntities;
 	private BlockMap<EntityHanging> m_hangingEntities;
-	private BlockSet m_changedBlocks;
-	private boolean m_needsRenderUpdate;
+	private ShipBlockWatchers m_blockWatchers;
+	private ShipSections m_sections;
 	private int m_biomeId;
+	private int m_tileEntitiesVersion;
 	
 	public ShipWorld( World world )
 	{
@@ -69,8 +68,10 @@ public class ShipWorld extends DetachedWorld
 		m_storage = new BlocksStorage();
 		m_tileEntities = new BlockMap<TileEntity>();
 		m_hangingEntities = new BlockMap<EntityHanging>();
-		m_changedBlocks = new BlockSet();
+		m_blockWatchers = new ShipBlockWatchers();
+		m_sections = null;
 		m_biomeId = 0;
+		m_tileEntitiesVersion = 0;
 	}
 	
 	public ShipWorld( World world, BlocksStorage storage, BlockMap<TileEntity> tileEntities, BlockMap<EntityHanging> hangingEntities, int biomeId )
@@ -99,10 +100,14 @@ public class ShipWorld extends DetachedWorld
 	
 	public ShipWorld( World world, Coords originCoords, BlockSet blocks )
 	{
+		this( world, originCoords, blocks, readBlocks( world, originCoords, blocks ) );
+	}
+	
+	public ShipWorld( World world, Coords originCoords, BlockSet blocks, BlocksStorage storage )
+	{
+		// NOTE: the storage must already hold the blocks, relative to the origin
 		this( world );
-		
-		// copy the blocks
-		m_storage.readFromWorld( world, originCoords, blocks );
+		m_storage = storage;
 		
 		// copy the tile entities
 		for( Coords worldCoords : blocks )
@@ -186,6 +191,13 @@ public class ShipWorld extends DetachedWorld
 		m_biomeId = world.getBiomeGenForCoords( originCoords.x, originCoords.z ).biomeID;
 	}
 	
+	private static BlocksStorage readBlocks( World world, Coords originCoords, BlockSet blocks )
+	{
+		BlocksStorage storage = new BlocksStorage();
+		storage.readFromWorld( world, originCoords, blocks );
+		return storage;
+	}
+	
 	public void restoreToWorld( World world, Map<Coords,Coords> correspondence, int waterHeightInBlockSpace )
 	{
 		// restore the blocks
@@ -322,6 +334,17 @@ public class ShipWorld extends DetachedWorld
 		m_ship = val;
 	}
 	
+	public int getVersion( )
+	{
+		// bumped whenever a block or tile entity changes
+		return m_storage.getVersion() + m_tileEntitiesVersion;
+	}
+	
+	public ShipBlockWatchers getBlockWatchers( )
+	{
+		return m_blockWatchers;
+	}
+	
 	public ShipType getShipType( )
 	{
 		return ShipType.getByMeta( getBlockMetadata( 0, 0, 0 ) );
@@ -435,7 +458,7 @@ public class ShipWorld extends DetachedWorld
 			// on the server, buffer the changes to be broadcast to the client
 			if( Environment.isServer() )
 			{
-				m_changedBlocks.add( new Coords( x, y, z ) );
+				m_blockWatchers.addChange( x, y, z );
 			}
 			return true;
 		}
@@ -457,18 +480,21 @@ public class ShipWorld extends DetachedWorld
 			// on the server, buffer the changes to be broadcast to the client
 			if( Environment.isServer() )
 			{
-				m_changedBlocks.add( new Coords( x, y, z ) );
+				m_blockWatchers.addChange( x, y, z );
 			}
 			return true;
 		}
 		return false;
 	}
 	
-	public boolean needsRenderUpdate( )
+	public ShipSections getSections( )
 	{
-		boolean val = m_needsRenderUpdate;
-		m_needsRenderUpdate = false;
-		return val;
+		// only the client renders sections, so build them lazily
+		if( m_sections == null )
+		{
+			m_sections = new ShipSections( m_storage.coords() );
+		}
+		return m_sections;
 	}
 	
 	public boolean applyBlockChange( int x, int y, int z, int newBlockId, int newMeta )
@@ -494,8 +520,7 @@ public class ShipWorld extends DetachedWorld
 		if( isAllowed )
 		{
 			// apply the change
-			storage.id = newBlockId;
-			storage.meta = newMeta;
+			m_storage.changeBlock( coords, newBlockId, newMeta );
 			
 			// notify the tile entity if needed
 			TileEntity tileEntity = getBlockTileEntity( coords );
@@ -504,7 +529,10 @@ public class ShipWorld extends DetachedWorld
 				tileEntity.updateContainingBlockInfo();
 			}
 			
-			m_needsRenderUpdate = true;
+			if( m_sections != null )
+			{
+				m_sections.markBlockDirty( coords );
+			}
 		}
 		
 		return isAllowed;
@@ -567,7 +595,8 @@ public class ShipWorld extends DetachedWorld
 	@Override
 	public void markTileEntityChunkModified( int x, int y, int z, TileEntity tileEntity )
 	{
-		// don't need to do anything
+		// tile entities call this when their saved data changes
+		m_tileEntitiesVersion++;
 	}
 	
 	@Override
@@ -605,11 +634,10 @@ public class ShipWorld extends DetachedWorld
 			updateEntitiesClient();
 		}
 		
-		// on the server, push any accumulated changes to the client
-		if( Environment.isServer() && !m_changedBlocks.isEmpty() )
+		// on the server, push any accumulated changes to the clients that have our blocks
+		if( Environment.isServer() && m_ship != null )
 		{
-			pushBlockChangesToClients();
-			m_changedBlocks.clear();
+			m_blockWatchers.update( m_ship );
 		}
 	}
 	
@@ -618,12 +646,9 @@ public class ShipWorld extends DetachedWorld
 	{
 		// get the player position on the ship
 		EntityPlayer player = Minecraft.getMinecraft().thePlayer;
-		Vec3 v = Vec3.createVectorHelper( player.posX, player.posY, player.posZ );
-		m_ship.worldToShip( v );
-		m_ship.shipToBlocks( v );
-		int playerX = MathHelper.floor_double( v.xCoord );
-		int playerY = MathHelper.floor_double( v.yCoord );
-		int playerZ = MathHelper.floor_double( v.zCoord );
+		int playerX = MathHelper.floor_double( m_ship.worldToBlocksX( player.posX, player.posZ ) );
+		int playerY = MathHelper.floor_double( m_ship.worldToBlocksY( player.posY ) );
+		int playerZ = MathHelper.floor_double( m_ship.worldToBlocksZ( player.posX, player.posZ ) );
 		
 		Random random = new Random();
 		for( int i=0; i<1000; i++ )
@@ -638,20 +663,6 @@ public class ShipWorld extends DetachedWorld
 			}
 		}
 	}
-
-	private void pushBlockChangesToClients( )
-	{
-		if( m_ship == null )
-		{
-			return;
-		}
-		
-		MinecraftServer.getServer().getConfigurationManager().sendToAllNear(
-			m_ship.posX, m_ship.posY, m_ship.posZ, 64,
-			m_ship.worldObj.provider.dimensionId,
-			new PacketChangedBlocks( m_ship, m_changedBlocks ).getCustomPacket()
-		);
-	}
 	
 	@Override
 	public void addBlockEvent( int x, int y, int z, int blockId, int eventId, int eventParam )
@@ -668,12 +679,12 @@ public class ShipWorld extends DetachedWorld
 		if( Environment.isServer() && eventWasAccepted )
 		{
 			// get the pos in world space
-			Vec3 v = Vec3.createVectorHelper( x, y, z );
-			m_ship.blocksToShip( v );
-			m_ship.shipToWorld( v );
+			double worldX = m_ship.blocksToWorldX( x, z );
+			double worldY = m_ship.blocksToWorldY( y );
+			double worldZ = m_ship.blocksToWorldZ( x, z );
 			
 			MinecraftServer.getServer().getConfigurationManager().sendToAllNear(
-				v.xCoord, v.yCoord, v.zCoord, 64,
+				worldX, worldY, worldZ, 64,
 				m_ship.worldObj.provider.dimensionId,
 				new PacketShipBlockEvent( m_ship.entityId, x, y, z, blockId, eventId, eventParam ).getCustomPacket()
 			);
@@ -692,15 +703,15 @@ public class ShipWorld extends DetachedWorld
 		if( Environment.isServer() )
 		{
 			// get the pos in world space
-			Vec3 v = Vec3.createVectorHelper( x, y, z );
-			m_ship.blocksToShip( v );
-			m_ship.shipToWorld( v );
+			double worldX = m_ship.blocksToWorldX( x, z );
+			double worldY = m_ship.blocksToWorldY( y );
+			double worldZ = m_ship.blocksToWorldZ( x, z );
 			
 			MinecraftServer.getServer().getConfigurationManager().sendToAllNear(
-				v.xCoord, v.yCoord, v.zCoord,
+				worldX, worldY, worldZ,
 				volume > 1.0F ? (double)(16.0F * volume) : 16.0D,
 				m_ship.worldObj.provider.dimensionId,
-				new Packet62LevelSound( sound, v.xCoord, v.yCoord, v.zCoord, volume, pitch )
+				new Packet62LevelSound( sound, worldX, worldY, worldZ, volume, pitch )
 			);
 		}
 		
@@ -716,19 +727,19 @@ public class ShipWorld extends DetachedWorld
 		if( Environment.isServer() )
 		{
 			// get the pos in world space
-			Vec3 v = Vec3.createVectorHelper( x, y, z );
-			m_ship.blocksToShip( v );
-			m_ship.shipToWorld( v );
+			double worldX = m_ship.blocksToWorldX( x, z );
+			double worldY = m_ship.blocksToWorldY( y );
+			double worldZ = m_ship.blocksToWorldZ( x, z );
 			
 			MinecraftServer.getServer().getConfigurationManager().sendToAllNear(
-				v.xCoord, v.yCoord, v.zCoord,
+				worldX, worldY, worldZ,
 				64.0D,
 				m_ship.worldObj.provider.dimensionId,
 				new Packet61DoorChange(
 					sfxID,
-					MathHelper.floor_double(v.xCoord),
-					MathHelper.floor_double(v.yCoord),
-					MathHelper.floor_double(v.zCoord),
+					MathHelper.floor_double(worldX),
+					MathHelper.floor_double(worldY),
+					MathHelper.floor_double(worldZ),
 					auxData,
 					false
 				)
@@ -746,24 +757,16 @@ public class ShipWorld extends DetachedWorld
 			return;
 		}
 		
-		// transform the position to world coordinates
-		Vec3 v = Vec3.createVectorHelper( x, y, z );
-		m_ship.blocksToShip( v );
-		m_ship.shipToWorld( v );
-		x = v.xCoord;
-		y = v.yCoord;
-		z = v.zCoord;
-		
-		// transform the velocity vector too
-		v.xCoord = motionX;
-		v.yCoord = motionY;
-		v.zCoord = motionZ;
-		m_ship.shipToWorldDirection( v );
-		motionX = v.xCoord;
-		motionY = v.yCoord;
-		motionZ = v.zCoord;
-		
-		m_ship.worldObj.spawnParticle( name, x, y, z, motionX, motionY, motionZ );
+		// transform the position and velocity to world coordinates
+		m_ship.worldObj.spawnParticle(
+			name,
+			m_ship.blocksToWorldX( x, z ),
+			m_ship.blocksToWorldY( y ),
+			m_ship.blocksToWorldZ( x, z ),
+			m_ship.shipToWorldDirectionX( motionX, motionZ ),
+			motionY,
+			m_ship.shipToWorldDirectionZ( motionX, motionZ )
+		);
 	}
 	
 	@Override
@@ -775,21 +778,17 @@ public class ShipWorld extends DetachedWorld
 		}
 		
 		// transform the entity position to world coordinates
-		Vec3 v = Vec3.createVectorHelper( entity.posX, entity.posY, entity.posZ );
-		m_ship.blocksToShip( v );
-		m_ship.shipToWorld( v );
-		entity.posX = v.xCoord;
-		entity.posY = v.yCoord;
-		entity.posZ = v.zCoord;
+		double x = entity.posX;
+		double z = entity.posZ;
+		entity.posX = m_ship.blocksToWorldX( x, z );
+		entity.posY = m_ship.blocksToWorldY( entity.posY );
+		entity.posZ = m_ship.blocksToWorldZ( x, z );
 		
 		// transform the velocity vector too
-		v.xCoord = entity.motionX;
-		v.yCoord = entity.motionY;
-		v.zCoord = entity.motionZ;
-		m_ship.shipToWorldDirection( v );
-		entity.motionX = v.xCoord;
-		entity.motionY = v.yCoord;
-		entity.motionZ = v.zCoord;
+		double motionX = entity.motionX;
+		double motionZ = entity.motionZ;
+		entity.motionX = m_ship.shipToWorldDirectionX( motionX, motionZ );
+		entity.motionZ = m_ship.shipToWorldDirectionZ( motionX, motionZ );
 		
 		// pass off to the outer world
 		entity.worldObj = m_ship.worldObj;
@@ -13,6 +13,7 @@ package cuchaz.ships;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Logger;
 
 import net.minecraft.block.Block;
@@ -25,9 +26,12 @@ import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.ForgeSubscribe;
 import net.minecraftforge.event.entity.EntityJoinWorldEvent;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
 
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
@@ -50,6 +54,7 @@ import cpw.mods.fml.common.network.Player;
 import cpw.mods.fml.common.registry.EntityRegistry;
 import cpw.mods.fml.common.registry.GameRegistry;
 import cpw.mods.fml.common.registry.LanguageRegistry;
+import cpw.mods.fml.common.registry.TickRegistry;
 import cpw.mods.fml.relauncher.Side;
 import cpw.mods.fml.relauncher.SideOnly;
 import cuchaz.modsShared.FMLHacker;
@@ -86,9 +91,13 @@ import cuchaz.ships.packets.PacketPlayerSleepInBerth;
 import cuchaz.ships.packets.PacketRequestShipBlocks;
 import cuchaz.ships.packets.PacketShipBlockEvent;
 import cuchaz.ships.packets.PacketShipBlocks;
+import cuchaz.ships.packets.PacketShipBlocksHash;
+import cuchaz.ships.packets.PacketShipBlocksReceived;
 import cuchaz.ships.packets.PacketShipLaunched;
 import cuchaz.ships.packets.PacketShipPlaque;
+import cuchaz.ships.packets.PacketShipState;
 import cuchaz.ships.packets.PacketUnlaunchShip;
+import cuchaz.ships.packets.ShipBlocksTransfer;
 import cuchaz.ships.render.RenderShip;
 import cuchaz.ships.render.RenderShipPlaque;
 import cuchaz.ships.render.RenderSupporterPlaque;
@@ -98,9 +107,9 @@ import cuchaz.ships.render.TileEntityProjectorRenderer;
 @NetworkMod(
 	// NOTE: 16-character limit for channel names
 	channels = { PacketLaunchShip.Channel, PacketShipLaunched.Channel, PacketUnlaunchShip.Channel,
-		PacketRequestShipBlocks.Channel, PacketShipBlocks.Channel, PacketPilotShip.Channel,
-		PacketShipBlockEvent.Channel, PacketChangedBlocks.Channel, PacketPasteShip.Channel,
-		PacketEraseShip.Channel, PacketShipPlaque.Channel, PacketPlayerSleepInBerth.Channel,
+		PacketRequestShipBlocks.Channel, PacketShipBlocks.Channel, PacketShipBlocksHash.Channel, PacketShipBlocksReceived.Channel,
+		PacketPilotShip.Channel, PacketShipBlockEvent.Channel, PacketChangedBlocks.Channel, PacketPasteShip.Channel,
+		PacketEraseShip.Channel, PacketShipPlaque.Channel, PacketShipState.Channel, PacketPlayerSleepInBerth.Channel,
 		PacketBlockPropertiesOverrides.Channel, PacketPlaceProjector.Channel },
 	packetHandler = PacketHandler.class,
 	clientSideRequired = true, // clients without ship mod should not connect to a ships mod server
@@ -252,6 +261,12 @@ public class Ships extends DummyModContainer
 				// this missing method reference won't cause an exception
 			}
 			
+			// stream ship blocks to clients a little at a time
+			TickRegistry.registerTickHandler( new ShipBlocksTransfer.ServerTicker(), Side.SERVER );
+			
+			// finish ship launches that were computed in the background
+			TickRegistry.registerTickHandler( new ShipLaunchQueue.ServerTicker(), Side.SERVER );
+			
 			// GUI hooks
 			NetworkRegistry.instance().registerGuiHandler( this, new IGuiHandler( )
 			{
@@ -338,7 +353,8 @@ public class Ships extends DummyModContainer
 		
 		// entities
 		EntityRegistry.registerGlobalEntityID( EntityShip.class, "Ship", EntityShipId );
-		EntityRegistry.registerModEntity( EntityShip.class, "Ship", EntityShipId, this, 256, 10, true );
+		// NOTE: ship motion gets sent by ShipStateSender, so the tracker hardly needs to send anything
+		EntityRegistry.registerModEntity( EntityShip.class, "Ship", EntityShipId, this, 256, 20*60, false );
 		EntityRegistry.registerGlobalEntityID( EntitySupporterPlaque.class, "Supporter Plaque", EntitySupporterPlaqueId );
 		EntityRegistry.registerModEntity( EntitySupporterPlaque.class, "Supporter Plaque", EntitySupporterPlaqueId, this, 256, 10, false );
 		EntityRegistry.registerGlobalEntityID( EntityShipPlaque.class, "Ship Plaque", EntityShipPlaqueId );
@@ -466,6 +482,13 @@ public class Ships extends DummyModContainer
 	@ForgeSubscribe
 	public void onEntityJoin( EntityJoinWorldEvent event )
 	{
+		// keep track of ships on both client and server
+		if( event.entity instanceof EntityShip )
+		{
+			ShipRegistry.get( event.world ).add( (EntityShip)event.entity );
+			return;
+		}
+		
 		if( event.world.isRemote )
 		{
 			// ignore on client
@@ -487,4 +510,31 @@ public class Ships extends DummyModContainer
 		Packet packet = new PacketBlockPropertiesOverrides( BlockProperties.getOverrides() );
 		PacketDispatcher.sendPacketToPlayer( packet.getCustomPacket(), (Player)player );
 	}
+	
+	@ForgeSubscribe
+	public void onChunkUnload( ChunkEvent.Unload event )
+	{
+		// ships in unloaded chunks leave the world without dying
+		Chunk chunk = event.getChunk();
+		for( List<?> entities : chunk.entityLists )
+		{
+			for( Object entity : entities )
+			{
+				if( entity instanceof EntityShip )
+				{
+					ShipRegistry.get( chunk.worldObj ).remove( (EntityShip)entity );
+				}
+			}
+		}
+	}
+	
+	@ForgeSubscribe
+	public void onWorldUnload( WorldEvent.Unload event )
+	{
+		ShipRegistry.remove( event.world );
+		if( event.world.isRemote )
+		{
+			ShipBlocksTransfer.onClientWorldUnloaded();
+		}
+	}
 }
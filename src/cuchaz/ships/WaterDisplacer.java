@@ -10,46 +10,106 @@
  ******************************************************************************/
 package cuchaz.ships;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import net.minecraft.block.Block;
 import cuchaz.modsShared.blocks.BlockSet;
+import cuchaz.modsShared.blocks.BlockUtils.UpdateRules;
 import cuchaz.modsShared.blocks.Coords;
 import cuchaz.ships.config.BlockProperties;
 
 public class WaterDisplacer extends Displacer
 {
+	private ShipFootprint m_footprint;
+	private BlockSet m_dryBlocks;
+	private List<Coords> m_addedBlocks;
+	private List<Coords> m_removedBlocks;
+	
 	public WaterDisplacer( EntityShip ship )
 	{
 		super( ship, Ships.m_blockAirWall );
+		
+		m_footprint = new ShipFootprint( ship );
+		m_dryBlocks = new BlockSet();
+		m_addedBlocks = new ArrayList<Coords>();
+		m_removedBlocks = new ArrayList<Coords>();
 	}
 	
 	public void update( double waterHeightInBlockSpace )
 	{
 		// get all the trapped air blocks
-		BlockSet trappedAirBlocks = m_ship.getShipWorld().getDisplacement().getTrappedAirFromWaterHeight( waterHeightInBlockSpace );
+		ShipDisplacement.BlocksView trappedAirBlocks = m_ship.getShipWorld().getDisplacement().getTrappedAirViewFromWaterHeight( waterHeightInBlockSpace );
 		if( trappedAirBlocks.isEmpty() )
 		{
 			// the ship is out of the water or flooded
 			return;
 		}
 		
-		// translate to world blocks
-		m_shouldBeDisplaced.clear();
-		m_ship.getCollider().getIntersectingWorldBlocks( m_shouldBeDisplaced, trappedAirBlocks, 0.01, false );
+		// find the world blocks that entered or left the footprint of the trapped air
+		boolean isFirstUpdate = m_footprint.isEmpty();
+		WorldEditBatch edits = new WorldEditBatch( m_ship.worldObj, UpdateRules.UpdateClients );
+		m_addedBlocks.clear();
+		m_removedBlocks.clear();
+		m_footprint.update( trappedAirBlocks, m_addedBlocks, m_removedBlocks );
+		
+		if( isFirstUpdate )
+		{
+			// we might have read some displaced blocks from a save, so clean up any that aren't in the footprint
+			for( Coords coords : new ArrayList<Coords>( getDisplacedBlocks() ) )
+			{
+				if( !m_footprint.contains( coords.x, coords.y, coords.z ) )
+				{
+					restoreBlock( edits, coords );
+				}
+			}
+		}
+		
+		for( Coords coords : m_removedBlocks )
+		{
+			m_dryBlocks.remove( coords );
+			restoreBlock( edits, coords );
+		}
+		for( Coords coords : m_addedBlocks )
+		{
+			// only displace water blocks
+			if( isWater( coords ) )
+			{
+				displaceBlock( edits, coords );
+			}
+			else
+			{
+				m_dryBlocks.add( coords );
+			}
+		}
 		
-		// filter out blocks that aren't water
-		Iterator<Coords> iter = m_shouldBeDisplaced.iterator();
+		// water might have flowed into the footprint since last time
+		Iterator<Coords> iter = m_dryBlocks.iterator();
 		while( iter.hasNext() )
 		{
 			Coords coords = iter.next();
-			int blockId = m_ship.worldObj.getBlockId( coords.x, coords.y, coords.z );
-			if( !BlockProperties.isWater( Block.blocksList[blockId] ) )
+			if( isWater( coords ) )
 			{
+				displaceBlock( edits, coords );
 				iter.remove();
 			}
 		}
 		
-		updateDisplacement();
+		edits.apply();
+	}
+	
+	@Override
+	public void restore( )
+	{
+		super.restore();
+		m_footprint.clear();
+		m_dryBlocks.clear();
+	}
+	
+	private boolean isWater( Coords coords )
+	{
+		int blockId = m_ship.worldObj.getBlockId( coords.x, coords.y, coords.z );
+		return BlockProperties.isWater( Block.blocksList[blockId] );
 	}
 }
@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.minecraft.block.Block;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.AxisAlignedBB;
+import net.minecraft.util.MathHelper;
+import net.minecraft.world.IWorldAccess;
+import net.minecraft.world.World;
+import cuchaz.ships.config.BlockProperties;
+
+public class WaterSurfaceSampler
+{
+	// columns with no water under the ship
+	private static final int NoWater = Integer.MIN_VALUE;
+	
+	private static class WorldListener implements IWorldAccess
+	{
+		// tells the samplers of nearby ships when world blocks change
+		
+		private World m_world;
+		private List<EntityShip> m_ships;
+		
+		public WorldListener( World world )
+		{
+			m_world = world;
+			m_ships = new ArrayList<EntityShip>();
+		}
+		
+		@Override
+		public void markBlockForUpdate( int x, int y, int z )
+		{
+			markColumnsDirty( x, z, x, z );
+		}
+		
+		@Override
+		public void markBlockForRenderUpdate( int x, int y, int z )
+		{
+			markColumnsDirty( x, z, x, z );
+		}
+		
+		@Override
+		public void markBlockRangeForRenderUpdate( int minX, int minY, int minZ, int maxX, int maxY, int maxZ )
+		{
+			// chunks arriving on the client land here
+			markColumnsDirty( minX, minZ, maxX, maxZ );
+		}
+		
+		private void markColumnsDirty( int minX, int minZ, int maxX, int maxZ )
+		{
+			ShipRegistry registry = ShipRegistry.get( m_world );
+			if( registry.getNumShips() <= 0 )
+			{
+				return;
+			}
+			
+			// NOTE: pad the box a bit since ship footprints include blocks the bounding box only touches
+			m_ships.clear();
+			registry.findShipsInBox( m_ships, AxisAlignedBB.getAABBPool().getAABB(
+				minX - 1, Double.NEGATIVE_INFINITY, minZ - 1,
+				maxX + 2, Double.POSITIVE_INFINITY, maxZ + 2
+			) );
+			for( EntityShip ship : m_ships )
+			{
+				ship.getWaterSurfaceSampler().markColumnsDirty( minX, minZ, maxX, maxZ );
+			}
+		}
+		
+		// we don't care about anything else
+		
+		@Override
+		public void playSound( String sound, double x, double y, double z, float volume, float pitch )
+		{
+		}
+		
+		@Override
+		public void playSoundToNearExcept( EntityPlayer player, String sound, double x, double y, double z, float volume, float pitch )
+		{
+		}
+		
+		@Override
+		public void spawnParticle( String name, double x, double y, double z, double motionX, double motionY, double motionZ )
+		{
+		}
+		
+		@Override
+		public void onEntityCreate( Entity entity )
+		{
+		}
+		
+		@Override
+		public void onEntityDestroy( Entity entity )
+		{
+		}
+		
+		@Override
+		public void playRecord( String record, int x, int y, int z )
+		{
+		}
+		
+		@Override
+		public void broadcastSound( int soundId, int x, int y, int z, int data )
+		{
+		}
+		
+		@Override
+		public void playAuxSFX( EntityPlayer player, int sfxId, int x, int y, int z, int data )
+		{
+		}
+		
+		@Override
+		public void destroyBlockPartially( int entityId, int x, int y, int z, int damage )
+		{
+		}
+	}
+	
+	// NOTE: the listener keeps a reference to the world, so don't keep it in the weak map
+	// and keep one map per side, since the client and the integrated server run on different threads
+	private static Map<World,Boolean> m_clientListenedWorlds = new WeakHashMap<World,Boolean>();
+	private static Map<World,Boolean> m_serverListenedWorlds = new WeakHashMap<World,Boolean>();
+	
+	private EntityShip m_ship;
+	private World m_world;
+	private int m_minX;
+	private int m_minY;
+	private int m_minZ;
+	private int m_maxX;
+	private int m_maxY;
+	private int m_maxZ;
+	private int[] m_topWaterY;
+	private boolean[] m_isColumnDirty;
+	private boolean m_hasDirtyColumns;
+	private double m_waterHeight;
+	
+	public WaterSurfaceSampler( EntityShip ship )
+	{
+		m_ship = ship;
+		m_world = null;
+		m_topWaterY = null;
+		m_isColumnDirty = null;
+		m_hasDirtyColumns = false;
+		m_waterHeight = 0;
+	}
+	
+	public double getWaterHeight( )
+	{
+		// did the ship change worlds?
+		if( m_world != m_ship.worldObj )
+		{
+			m_world = m_ship.worldObj;
+			m_topWaterY = null;
+			listenTo( m_world );
+		}
+		
+		// get the footprint of the ship
+		AxisAlignedBB box = m_ship.boundingBox;
+		int minX = MathHelper.floor_double( box.minX );
+		int minY = MathHelper.floor_double( box.minY );
+		int minZ = MathHelper.floor_double( box.minZ );
+		int maxX = MathHelper.floor_double( box.maxX );
+		int maxY = MathHelper.floor_double( box.maxY );
+		int maxZ = MathHelper.floor_double( box.maxZ );
+		
+		if( m_topWaterY == null || minY != m_minY || maxY != m_maxY )
+		{
+			// the columns got taller or shorter, so start over
+			setFootprint( minX, minY, minZ, maxX, maxY, maxZ );
+			Arrays.fill( m_isColumnDirty, true );
+			m_hasDirtyColumns = true;
+		}
+		else if( minX != m_minX || minZ != m_minZ || maxX != m_maxX || maxZ != m_maxZ )
+		{
+			// the ship moved, keep the columns we already have
+			int[] oldTopWaterY = m_topWaterY;
+			boolean[] oldIsColumnDirty = m_isColumnDirty;
+			int oldMinX = m_minX;
+			int oldMinZ = m_minZ;
+			int oldMaxX = m_maxX;
+			int oldMaxZ = m_maxZ;
+			setFootprint( minX, minY, minZ, maxX, maxY, maxZ );
+			for( int x=m_minX; x<=m_maxX; x++ )
+			{
+				for( int z=m_minZ; z<=m_maxZ; z++ )
+				{
+					int i = getIndex( x, z );
+					if( x >= oldMinX && x <= oldMaxX && z >= oldMinZ && z <= oldMaxZ )
+					{
+						int oldIndex = ( x - oldMinX )*( oldMaxZ - oldMinZ + 1 ) + ( z - oldMinZ );
+						m_topWaterY[i] = oldTopWaterY[oldIndex];
+						m_isColumnDirty[i] = oldIsColumnDirty[oldIndex];
+					}
+					else
+					{
+						m_isColumnDirty[i] = true;
+					}
+				}
+			}
+			m_hasDirtyColumns = true;
+		}
+		
+		if( m_hasDirtyColumns )
+		{
+			updateDirtyColumns();
+		}
+		return m_waterHeight;
+	}
+	
+	public void markColumnsDirty( int minX, int minZ, int maxX, int maxZ )
+	{
+		if( m_topWaterY == null )
+		{
+			return;
+		}
+		
+		// clip to the footprint
+		minX = Math.max( minX, m_minX );
+		minZ = Math.max( minZ, m_minZ );
+		maxX = Math.min( maxX, m_maxX );
+		maxZ = Math.min( maxZ, m_maxZ );
+		for( int x=minX; x<=maxX; x++ )
+		{
+			for( int z=minZ; z<=maxZ; z++ )
+			{
+				m_isColumnDirty[getIndex( x, z )] = true;
+				m_hasDirtyColumns = true;
+			}
+		}
+	}
+	
+	private void setFootprint( int minX, int minY, int minZ, int maxX, int maxY, int maxZ )
+	{
+		m_minX = minX;
+		m_minY = minY;
+		m_minZ = minZ;
+		m_maxX = maxX;
+		m_maxY = maxY;
+		m_maxZ = maxZ;
+		int numColumns = ( maxX - minX + 1 )*( maxZ - minZ + 1 );
+		m_topWaterY = new int[numColumns];
+		m_isColumnDirty = new boolean[numColumns];
+	}
+	
+	private void updateDirtyColumns( )
+	{
+		// find the top water block in each dirty column
+		for( int x=m_minX; x<=m_maxX; x++ )
+		{
+			for( int z=m_minZ; z<=m_maxZ; z++ )
+			{
+				int i = getIndex( x, z );
+				if( m_isColumnDirty[i] )
+				{
+					m_topWaterY[i] = getTopWaterY( x, z );
+					m_isColumnDirty[i] = false;
+				}
+			}
+		}
+		m_hasDirtyColumns = false;
+		
+		// the water height is the average top of the water columns
+		double sum = 0;
+		int numWaterColumns = 0;
+		for( int i=0; i<m_topWaterY.length; i++ )
+		{
+			if( m_topWaterY[i] != NoWater )
+			{
+				sum += m_topWaterY[i] + 1; // +1 for the top of the block
+				numWaterColumns++;
+			}
+		}
+		m_waterHeight = numWaterColumns == 0 ? 0 : sum/numWaterColumns;
+	}
+	
+	private int getTopWaterY( int x, int z )
+	{
+		for( int y=m_maxY; y>=m_minY; y-- )
+		{
+			Block block = Block.blocksList[m_world.getBlockId( x, y, z )];
+			if( BlockProperties.isWater( block ) )
+			{
+				return y;
+			}
+		}
+		return NoWater;
+	}
+	
+	private int getIndex( int x, int z )
+	{
+		return ( x - m_minX )*( m_maxZ - m_minZ + 1 ) + ( z - m_minZ );
+	}
+	
+	private static void listenTo( World world )
+	{
+		if( world == null )
+		{
+			return;
+		}
+		
+		Map<World,Boolean> listenedWorlds = world.isRemote ? m_clientListenedWorlds : m_serverListenedWorlds;
+		if( !listenedWorlds.containsKey( world ) )
+		{
+			world.addWorldAccess( new WorldListener( world ) );
+			listenedWorlds.put( world, true );
+		}
+	}
+}
@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.minecraft.block.Block;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.network.packet.Packet51MapChunk;
+import net.minecraft.network.packet.Packet52MultiBlockChange;
+import net.minecraft.server.management.PlayerManager;
+import net.minecraft.world.EnumSkyBlock;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import cuchaz.modsShared.blocks.BlockUtils.UpdateRules;
+import cuchaz.modsShared.blocks.Coords;
+
+public class WorldEditBatch
+{
+	// changes lots of world blocks at once without notifying them
+	// edits are grouped by chunk section, so each chunk only gets looked up, relit, and sent to clients once
+	
+	private static final int SectionSize = 16;
+	private static final int NumSections = 16;
+	
+	// NOTE: this matches PlayerInstance. Past this many changes, clients get the whole sections instead
+	private static final int MaxMultiBlockChanges = 64;
+	
+	private static class Section
+	{
+		public short[] ids;
+		public byte[] metas;
+		public boolean[] isChanged;
+		public int minX;
+		public int minY;
+		public int minZ;
+		public int maxX;
+		public int maxY;
+		public int maxZ;
+		
+		public Section( )
+		{
+			ids = new short[SectionSize*SectionSize*SectionSize];
+			metas = new byte[SectionSize*SectionSize*SectionSize];
+			isChanged = new boolean[SectionSize*SectionSize*SectionSize];
+			minX = minY = minZ = SectionSize;
+			maxX = maxY = maxZ = -1;
+		}
+	}
+	
+	private static class ChunkEdits
+	{
+		public int chunkX;
+		public int chunkZ;
+		public Section[] sections;
+		public short[] changes;
+		public int numChanges;
+		
+		public ChunkEdits( int chunkX, int chunkZ )
+		{
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+			sections = new Section[NumSections];
+			changes = new short[16];
+			numChanges = 0;
+		}
+	}
+	
+	private World m_world;
+	private UpdateRules m_updateRules;
+	private Map<Long,ChunkEdits> m_chunks;
+	
+	public WorldEditBatch( World world, UpdateRules updateRules )
+	{
+		m_world = world;
+		m_updateRules = updateRules;
+		m_chunks = new HashMap<Long,ChunkEdits>();
+	}
+	
+	public boolean isEmpty( )
+	{
+		return m_chunks.isEmpty();
+	}
+	
+	public void changeBlock( Coords coords, int blockId, int blockMeta )
+	{
+		changeBlock( coords.x, coords.y, coords.z, blockId, blockMeta );
+	}
+	
+	public void changeBlock( int x, int y, int z, int blockId, int blockMeta )
+	{
+		// blocks outside the world can't be changed
+		if( y < 0 || y >= SectionSize*NumSections )
+		{
+			return;
+		}
+		
+		int chunkX = x >> 4;
+		int chunkZ = z >> 4;
+		long key = getKey( chunkX, chunkZ );
+		ChunkEdits chunk = m_chunks.get( key );
+		if( chunk == null )
+		{
+			chunk = new ChunkEdits( chunkX, chunkZ );
+			m_chunks.put( key, chunk );
+		}
+		Section section = chunk.sections[y >> 4];
+		if( section == null )
+		{
+			section = new Section();
+			chunk.sections[y >> 4] = section;
+		}
+		
+		// NOTE: if the same block gets changed twice, the last change wins
+		int localX = x & 15;
+		int localY = y & 15;
+		int localZ = z & 15;
+		int i = getIndex( localX, localY, localZ );
+		section.ids[i] = (short)blockId;
+		section.metas[i] = (byte)blockMeta;
+		if( !section.isChanged[i] )
+		{
+			section.isChanged[i] = true;
+			section.minX = Math.min( section.minX, localX );
+			section.minY = Math.min( section.minY, localY );
+			section.minZ = Math.min( section.minZ, localZ );
+			section.maxX = Math.max( section.maxX, localX );
+			section.maxY = Math.max( section.maxY, localY );
+			section.maxZ = Math.max( section.maxZ, localZ );
+			
+			// remember the change in the same format the multi block change packet uses
+			if( chunk.numChanges == chunk.changes.length )
+			{
+				short[] changes = new short[chunk.changes.length*2];
+				System.arraycopy( chunk.changes, 0, changes, 0, chunk.numChanges );
+				chunk.changes = changes;
+			}
+			chunk.changes[chunk.numChanges++] = (short)( localX << 12 | localZ << 8 | y );
+		}
+	}
+	
+	public void removeBlock( Coords coords )
+	{
+		changeBlock( coords.x, coords.y, coords.z, 0, 0 );
+	}
+	
+	public void removeBlock( int x, int y, int z )
+	{
+		changeBlock( x, y, z, 0, 0 );
+	}
+	
+	public void apply( )
+	{
+		for( ChunkEdits edits : m_chunks.values() )
+		{
+			apply( edits );
+		}
+		m_chunks.clear();
+	}
+	
+	private void apply( ChunkEdits edits )
+	{
+		Chunk chunk = m_world.getChunkFromChunkCoords( edits.chunkX, edits.chunkZ );
+		ExtendedBlockStorage[] storageArray = chunk.getBlockStorageArray();
+		boolean isOpacityChanged = false;
+		int sectionMask = 0;
+		
+		// remember which blocks need block light, in the same format as the changes
+		short[] relights = new short[edits.numChanges];
+		int numRelights = 0;
+		for( int sectionY=0; sectionY<NumSections; sectionY++ )
+		{
+			Section section = edits.sections[sectionY];
+			if( section == null )
+			{
+				continue;
+			}
+			sectionMask |= 1 << sectionY;
+			
+			// write the blocks straight into the section
+			ExtendedBlockStorage storage = storageArray[sectionY];
+			for( int y=section.minY; y<=section.maxY; y++ )
+			{
+				for( int z=section.minZ; z<=section.maxZ; z++ )
+				{
+					for( int x=section.minX; x<=section.maxX; x++ )
+					{
+						int i = getIndex( x, y, z );
+						if( !section.isChanged[i] )
+						{
+							continue;
+						}
+						int newId = section.ids[i];
+						int newMeta = section.metas[i];
+						int oldId = storage == null ? 0 : storage.getExtBlockID( x, y, z );
+						int oldMeta = storage == null ? 0 : storage.getExtBlockMetadata( x, y, z );
+						if( newId == oldId && newMeta == oldMeta )
+						{
+							continue;
+						}
+						if( storage == null )
+						{
+							storage = new ExtendedBlockStorage( sectionY << 4, !m_world.provider.hasNoSky );
+							storageArray[sectionY] = storage;
+						}
+						
+						// we're not notifying the old block, so clean up its tile entity ourselves
+						Block oldBlock = Block.blocksList[oldId];
+						if( oldBlock != null && oldBlock.hasTileEntity( oldMeta ) )
+						{
+							chunk.removeChunkBlockTileEntity( x, ( sectionY << 4 ) + y, z );
+						}
+						
+						storage.setExtBlockID( x, y, z, newId );
+						storage.setExtBlockMetadata( x, y, z, newMeta );
+						
+						// NOTE: light sources and blocks that let more or less light through both need a block light update
+						boolean isBlockOpacityChanged = Block.lightOpacity[oldId] != Block.lightOpacity[newId];
+						isOpacityChanged |= isBlockOpacityChanged;
+						if( isBlockOpacityChanged || Block.lightValue[oldId] != Block.lightValue[newId] )
+						{
+							relights[numRelights++] = (short)( x << 12 | z << 8 | ( sectionY << 4 ) + y );
+						}
+					}
+				}
+			}
+			
+			// tell the world listeners (renderers, water samplers) once per section
+			m_world.markBlockRangeForRenderUpdate(
+				( edits.chunkX << 4 ) + section.minX, ( sectionY << 4 ) + section.minY, ( edits.chunkZ << 4 ) + section.minZ,
+				( edits.chunkX << 4 ) + section.maxX, ( sectionY << 4 ) + section.maxY, ( edits.chunkZ << 4 ) + section.maxZ
+			);
+		}
+		
+		// update the height map, precipitation, and sky light for the whole chunk at once
+		if( isOpacityChanged )
+		{
+			chunk.generateSkylightMap();
+		}
+		else
+		{
+			for( int i=0; i<edits.numChanges; i++ )
+			{
+				int x = ( edits.changes[i] >> 12 ) & 15;
+				int z = ( edits.changes[i] >> 8 ) & 15;
+				chunk.precipitationHeightMap[z << 4 | x] = -999;
+			}
+		}
+		
+		// then relight the changed blocks, now that they're all in the world
+		// NOTE: the sky light was done for the whole chunk above
+		for( int i=0; i<numRelights; i++ )
+		{
+			int x = ( relights[i] >> 12 ) & 15;
+			int z = ( relights[i] >> 8 ) & 15;
+			int y = relights[i] & 255;
+			m_world.updateLightByType( EnumSkyBlock.Block, ( edits.chunkX << 4 ) + x, y, ( edits.chunkZ << 4 ) + z );
+		}
+		chunk.setChunkModified();
+		
+		if( !m_world.isRemote && m_updateRules != UpdateRules.UpdateNoOne )
+		{
+			sendToClients( chunk, edits, sectionMask );
+		}
+	}
+	
+	private void sendToClients( Chunk chunk, ChunkEdits edits, int sectionMask )
+	{
+		// NOTE: the packets read the blocks from the world, so send them after the blocks are written
+		Packet packet;
+		if( edits.numChanges < MaxMultiBlockChanges )
+		{
+			packet = new Packet52MultiBlockChange( edits.chunkX, edits.chunkZ, edits.changes, edits.numChanges, m_world );
+		}
+		else
+		{
+			packet = new Packet51MapChunk( chunk, false, sectionMask );
+		}
+		
+		PlayerManager playerManager = ( (WorldServer)m_world ).getPlayerManager();
+		for( Object obj : m_world.playerEntities )
+		{
+			EntityPlayerMP player = (EntityPlayerMP)obj;
+			if( playerManager.isPlayerWatchingChunk( player, edits.chunkX, edits.chunkZ ) )
+			{
+				player.playerNetServerHandler.sendPacketToPlayer( packet );
+			}
+		}
+	}
+	
+	private static int getIndex( int x, int y, int z )
+	{
+		return ( y*SectionSize + z )*SectionSize + x;
+	}
+	
+	private static long getKey( int chunkX, int chunkZ )
+	{
+		return ( (long)chunkX << 32 ) | ( chunkZ & 0xffffffffL );
+	}
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+public class WorldSnapshot
+{
+	// copies of world chunk sections, so other threads can read blocks without touching the world
+	
+	private static final int SectionSize = 16;
+	private static final int NumSections = 16;
+	
+	public static class MissingSectionException extends RuntimeException
+	{
+		private static final long serialVersionUID = -3504416374869829452L;
+		
+		public final int sectionX;
+		public final int sectionY;
+		public final int sectionZ;
+		
+		public MissingSectionException( int sectionX, int sectionY, int sectionZ )
+		{
+			super( String.format( "Section (%d,%d,%d) is not in the snapshot!", sectionX, sectionY, sectionZ ) );
+			this.sectionX = sectionX;
+			this.sectionY = sectionY;
+			this.sectionZ = sectionZ;
+		}
+	}
+	
+	private static class Section
+	{
+		public short[] ids;
+		public byte[] metas;
+		
+		public Section( )
+		{
+			ids = new short[SectionSize*SectionSize*SectionSize];
+			metas = new byte[SectionSize*SectionSize*SectionSize];
+		}
+	}
+	
+	private World m_world;
+	private boolean m_captureOnDemand;
+	private Map<Long,Section> m_sections;
+	
+	public WorldSnapshot( World world, boolean captureOnDemand )
+	{
+		// NOTE: only capture on demand when the snapshot is used on the main thread
+		m_world = world;
+		m_captureOnDemand = captureOnDemand;
+		m_sections = new HashMap<Long,Section>();
+	}
+	
+	public World getWorld( )
+	{
+		return m_world;
+	}
+	
+	public void captureAround( int x, int y, int z, int radius )
+	{
+		// grab the section containing the block and all the sections within the radius
+		int sectionX = x >> 4;
+		int sectionY = y >> 4;
+		int sectionZ = z >> 4;
+		for( int sx=sectionX-radius; sx<=sectionX+radius; sx++ )
+		{
+			for( int sy=sectionY-radius; sy<=sectionY+radius; sy++ )
+			{
+				for( int sz=sectionZ-radius; sz<=sectionZ+radius; sz++ )
+				{
+					captureSection( sx, sy, sz );
+				}
+			}
+		}
+	}
+	
+	public void captureSection( int sectionX, int sectionY, int sectionZ )
+	{
+		// sections outside the world are always air, so don't bother
+		if( sectionY < 0 || sectionY >= NumSections )
+		{
+			return;
+		}
+		long key = getKey( sectionX, sectionY, sectionZ );
+		if( m_sections.containsKey( key ) )
+		{
+			return;
+		}
+		
+		// NOTE: unloaded chunks count as empty, we don't want to load chunks just to look at them
+		Section section = new Section();
+		int blockX = sectionX*SectionSize;
+		int blockZ = sectionZ*SectionSize;
+		if( m_world.blockExists( blockX, sectionY*SectionSize, blockZ ) )
+		{
+			Chunk chunk = m_world.getChunkFromChunkCoords( sectionX, sectionZ );
+			ExtendedBlockStorage storage = chunk.getBlockStorageArray()[sectionY];
+			if( storage != null )
+			{
+				for( int y=0; y<SectionSize; y++ )
+				{
+					for( int z=0; z<SectionSize; z++ )
+					{
+						for( int x=0; x<SectionSize; x++ )
+						{
+							int i = getIndex( x, y, z );
+							section.ids[i] = (short)storage.getExtBlockID( x, y, z );
+							section.metas[i] = (byte)storage.getExtBlockMetadata( x, y, z );
+						}
+					}
+				}
+			}
+		}
+		m_sections.put( key, section );
+	}
+	
+	public int getBlockId( int x, int y, int z )
+	{
+		Section section = getSection( x, y, z );
+		return section == null ? 0 : section.ids[getIndex( x & 15, y & 15, z & 15 )];
+	}
+	
+	public int getBlockMetadata( int x, int y, int z )
+	{
+		Section section = getSection( x, y, z );
+		return section == null ? 0 : section.metas[getIndex( x & 15, y & 15, z & 15 )];
+	}
+	
+	public boolean matchesWorld( int x, int y, int z )
+	{
+		// NOTE: only call this on the main thread
+		return getBlockId( x, y, z ) == m_world.getBlockId( x, y, z )
+			&& getBlockMetadata( x, y, z ) == m_world.getBlockMetadata( x, y, z );
+	}
+	
+	private Section getSection( int x, int y, int z )
+	{
+		int sectionY = y >> 4;
+		if( sectionY < 0 || sectionY >= NumSections )
+		{
+			return null;
+		}
+		int sectionX = x >> 4;
+		int sectionZ = z >> 4;
+		Section section = m_sections.get( getKey( sectionX, sectionY, sectionZ ) );
+		if( section == null )
+		{
+			if( !m_captureOnDemand )
+			{
+				throw new MissingSectionException( sectionX, sectionY, sectionZ );
+			}
+			captureSection( sectionX, sectionY, sectionZ );
+			section = m_sections.get( getKey( sectionX, sectionY, sectionZ ) );
+		}
+		return section;
+	}
+	
+	private static int getIndex( int x, int y, int z )
+	{
+		return ( y*SectionSize + z )*SectionSize + x;
+	}
+	
+	private static long getKey( int sectionX, int sectionY, int sectionZ )
+	{
+		// sections are 4 bits of y and 26 bits each of x and z
+		return ( ( sectionX & 0x3ffffffL ) << 30 ) | ( ( sectionZ & 0x3ffffffL ) << 4 ) | ( sectionY & 0xfL );
+	}
+}
@@ -53,7 +53,9 @@ public enum GuiString
 	Sink( "Sink" ),
 	Slept( "Naps are nap-a-licious!" ),
 	BerthNotFound( "Berth was not found!" ),
-	TryOnStillWater( "Try using this on top of still water" );
+	TryOnStillWater( "Try using this on top of still water" ),
+	ShipLaunching( "Launching ship..." ),
+	ShipLaunchFailed( "Ship could not be launched!" );
 	
 	private String m_unlocalizedText;
 	
@@ -73,6 +73,44 @@ public abstract class Packet
 		}
 	}
 	
+	protected static void writeVarInt( DataOutputStream out, int val ) throws IOException
+	{
+		// 7 bits per byte, small values first. High bit means more bytes follow
+		while( ( val & ~0x7f ) != 0 )
+		{
+			out.writeByte( ( val & 0x7f ) | 0x80 );
+			val >>>= 7;
+		}
+		out.writeByte( val );
+	}
+	
+	protected static int readVarInt( DataInputStream in ) throws IOException
+	{
+		int val = 0;
+		for( int shift=0; shift<32; shift+=7 )
+		{
+			int b = in.readUnsignedByte();
+			val |= ( b & 0x7f ) << shift;
+			if( ( b & 0x80 ) == 0 )
+			{
+				return val;
+			}
+		}
+		throw new IOException( "Varint is too long!" );
+	}
+	
+	protected static void writeSignedVarInt( DataOutputStream out, int val ) throws IOException
+	{
+		// zig-zag the sign into the low bit, so small negative numbers stay small
+		writeVarInt( out, ( val << 1 ) ^ ( val >> 31 ) );
+	}
+	
+	protected static int readSignedVarInt( DataInputStream in ) throws IOException
+	{
+		int val = readVarInt( in );
+		return ( val >>> 1 ) ^ -( val & 1 );
+	}
+	
 	public abstract void writeData( DataOutputStream out ) throws IOException;
 	public abstract void readData( DataInputStream in ) throws IOException;
 	public abstract void onPacketReceived( EntityPlayer player );
@@ -13,6 +13,7 @@ package cuchaz.ships.packets;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 import net.minecraft.entity.player.EntityPlayer;
 import cuchaz.modsShared.blocks.BlockSet;
@@ -23,6 +24,8 @@ import cuchaz.ships.ShipWorld;
 
 public class PacketChangedBlocks extends Packet
 {
+	// block changes are collected by ShipBlockWatchers, and sent as runs of the same block with varint position deltas
+	
 	public static final String Channel = "changedBlocks";
 	
 	private BlockSet m_changedBlocks;
@@ -51,16 +54,47 @@ public class PacketChangedBlocks extends Packet
 	@Override
 	public void writeData( DataOutputStream out ) throws IOException
 	{
+		// sort the changes by block, then by position
+		// so the same blocks make runs, and neighboring positions end up next to each other
 		ShipWorld world = m_ship.getShipWorld();
-		out.writeInt( m_ship.entityId );
-		out.writeInt( m_changedBlocks.size() );
+		long[] keys = new long[m_changedBlocks.size()];
+		int i = 0;
 		for( Coords coords : m_changedBlocks )
 		{
-			out.writeShort( coords.x );
-			out.writeShort( coords.y );
-			out.writeShort( coords.z );
-			out.writeShort( world.getBlockId( coords ) );
-			out.writeByte( world.getBlockMetadata( coords ) );
+			keys[i++] = getKey( coords.x, coords.y, coords.z, world.getBlockId( coords ), world.getBlockMetadata( coords ) );
+		}
+		Arrays.sort( keys );
+		
+		out.writeInt( m_ship.entityId );
+		writeVarInt( out, keys.length );
+		int lastX = 0;
+		int lastY = 0;
+		int lastZ = 0;
+		for( i=0; i<keys.length; i++ )
+		{
+			// start a new run?
+			if( i == 0 || getBlock( keys[i] ) != getBlock( keys[i - 1] ) )
+			{
+				int runLength = 1;
+				while( i + runLength < keys.length && getBlock( keys[i + runLength] ) == getBlock( keys[i] ) )
+				{
+					runLength++;
+				}
+				writeVarInt( out, runLength );
+				writeVarInt( out, getBlockId( keys[i] ) );
+				out.writeByte( getMeta( keys[i] ) );
+			}
+			
+			// positions are deltas from the last one
+			int x = getX( keys[i] );
+			int y = getY( keys[i] );
+			int z = getZ( keys[i] );
+			writeSignedVarInt( out, x - lastX );
+			writeSignedVarInt( out, y - lastY );
+			writeSignedVarInt( out, z - lastZ );
+			lastX = x;
+			lastY = y;
+			lastZ = z;
 		}
 	}
 	
@@ -69,7 +103,7 @@ public class PacketChangedBlocks extends Packet
 	{
 		// read the header
 		m_entityId = in.readInt();
-		m_numChangedBlocks = in.readInt();
+		m_numChangedBlocks = readVarInt( in );
 		
 		// allocate space for the rest
 		m_x = new int[m_numChangedBlocks];
@@ -78,14 +112,32 @@ public class PacketChangedBlocks extends Packet
 		m_blockId = new int[m_numChangedBlocks];
 		m_meta = new int[m_numChangedBlocks];
 		
-		// read the changes into a buffer
-		for( int i=0; i<m_numChangedBlocks; i++ )
+		// read the runs of changes into a buffer
+		int x = 0;
+		int y = 0;
+		int z = 0;
+		int i = 0;
+		while( i < m_numChangedBlocks )
 		{
-			m_x[i] = in.readShort();
-			m_y[i] = in.readShort();
-			m_z[i] = in.readShort();
-			m_blockId[i] = in.readShort();
-			m_meta[i] = in.readByte();
+			int runLength = readVarInt( in );
+			int blockId = readVarInt( in );
+			int meta = in.readUnsignedByte();
+			if( runLength <= 0 || runLength > m_numChangedBlocks - i )
+			{
+				throw new IOException( "Bad run length: " + runLength );
+			}
+			for( int j=0; j<runLength; j++ )
+			{
+				x += readSignedVarInt( in );
+				y += readSignedVarInt( in );
+				z += readSignedVarInt( in );
+				m_x[i] = x;
+				m_y[i] = y;
+				m_z[i] = z;
+				m_blockId[i] = blockId;
+				m_meta[i] = meta;
+				i++;
+			}
 		}
 	}
 	
@@ -94,7 +146,7 @@ public class PacketChangedBlocks extends Packet
 	{
 		// get the ship
 		EntityShip ship = ShipLocator.getShip( player.worldObj, m_entityId );
-		if( ship == null )
+		if( ship == null || ship.getShipWorld() == null )
 		{
 			return;
 		}
@@ -106,4 +158,45 @@ public class PacketChangedBlocks extends Packet
 			world.applyBlockChange( m_x[i], m_y[i], m_z[i], m_blockId[i], m_meta[i] );
 		}
 	}
+	
+	private static long getKey( int x, int y, int z, int blockId, int meta )
+	{
+		// block id, meta, y, z, x
+		// NOTE: positions fit in shorts, and block ids fit in 12 bits
+		return ( (long)( blockId & 0xfff ) << 52 )
+			| ( (long)( meta & 0xf ) << 48 )
+			| ( (long)( ( y + 0x8000 ) & 0xffff ) << 32 )
+			| ( (long)( ( z + 0x8000 ) & 0xffff ) << 16 )
+			| ( (long)( ( x + 0x8000 ) & 0xffff ) );
+	}
+	
+	private static int getBlock( long key )
+	{
+		return (int)( key >>> 48 );
+	}
+	
+	private static int getBlockId( long key )
+	{
+		return (int)( key >>> 52 );
+	}
+	
+	private static int getMeta( long key )
+	{
+		return (int)( key >>> 48 ) & 0xf;
+	}
+	
+	private static int getX( long key )
+	{
+		return (int)( key & 0xffff ) - 0x8000;
+	}
+	
+	private static int getY( long key )
+	{
+		return (int)( ( key >>> 32 ) & 0xffff ) - 0x8000;
+	}
+	
+	private static int getZ( long key )
+	{
+		return (int)( ( key >>> 16 ) & 0xffff ) - 0x8000;
+	}
 }
@@ -32,6 +32,9 @@ public class PacketHandler implements IPacketHandler
 		m_packetTypes.put( PacketUnlaunchShip.Channel, new PacketUnlaunchShip() );
 		m_packetTypes.put( PacketRequestShipBlocks.Channel, new PacketRequestShipBlocks() );
 		m_packetTypes.put( PacketShipBlocks.Channel, new PacketShipBlocks() );
+		m_packetTypes.put( PacketShipBlocksHash.Channel, new PacketShipBlocksHash() );
+		m_packetTypes.put( PacketShipBlocksReceived.Channel, new PacketShipBlocksReceived() );
+		m_packetTypes.put( PacketShipState.Channel, new PacketShipState() );
 		m_packetTypes.put( PacketPilotShip.Channel, new PacketPilotShip() );
 		m_packetTypes.put( PacketShipBlockEvent.Channel, new PacketShipBlockEvent() );
 		m_packetTypes.put( PacketChangedBlocks.Channel, new PacketChangedBlocks() );
@@ -16,9 +16,7 @@ import java.io.IOException;
 
 import net.minecraft.entity.player.EntityPlayer;
 import cuchaz.modsShared.blocks.Coords;
-import cuchaz.ships.ShipLauncher;
-import cuchaz.ships.ShipLauncher.LaunchFlag;
-import cuchaz.ships.Ships;
+import cuchaz.ships.ShipLaunchQueue;
 
 public class PacketLaunchShip extends Packet
 {
@@ -63,23 +61,7 @@ public class PacketLaunchShip extends Packet
 	@Override
 	public void onPacketReceived( EntityPlayer player )
 	{
-		// spawn the ship
-		ShipLauncher launcher = new ShipLauncher( player.worldObj, new Coords( m_x, m_y, m_z ) );
-		if( launcher.isLaunchable() )
-		{
-			launcher.launch();
-		}
-		else
-		{
-			// debug info
-			Ships.logger.warning(
-				"Server can't launch ship at: (%d,%d,%d)",
-				m_x, m_y, m_z
-			);
-			for( LaunchFlag flag : LaunchFlag.values() )
-			{
-				Ships.logger.warning( "\t" + flag.name() + ": " + launcher.getLaunchFlag( flag ) );
-			}
-		}
+		// spawn the ship, but do the heavy lifting off the server thread
+		ShipLaunchQueue.launch( player, new Coords( m_x, m_y, m_z ) );
 	}
 }
@@ -15,7 +15,6 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 
 import net.minecraft.entity.player.EntityPlayer;
-import cpw.mods.fml.common.network.PacketDispatcher;
 import cuchaz.modsShared.Environment;
 import cuchaz.modsShared.blocks.BlockSide;
 import cuchaz.ships.EntityShip;
@@ -23,9 +22,19 @@ import cuchaz.ships.ShipLocator;
 
 public class PacketPilotShip extends Packet
 {
+	// pilot changes get sent at most once every few ticks, see EntityShip.updatePilotChanges()
+	// the actions, forward side, and throttles all get packed into the bits of one varint
+	
 	public static final String Channel = "pilotShip";
 	
+	private static final int NumActionBits = 6;
+	private static final int NumSideBits = 3;
+	private static final int NumLinearThrottleBits = 7;
+	private static final int NumAngularThrottleBits = 2;
+	private static final int NoSide = ( 1 << NumSideBits ) - 1;
+	
 	private int m_entityId;
+	private int m_pilotId;
 	private int m_actions;
 	private BlockSide m_sideShipForward;
 	private int m_linearThrottle;
@@ -36,11 +45,12 @@ public class PacketPilotShip extends Packet
 		super( Channel );
 	}
 	
-	public PacketPilotShip( int entityId, int actions, BlockSide sideFacingPlayer, int linearThrottle, int angularThrottle )
+	public PacketPilotShip( int entityId, int pilotId, int actions, BlockSide sideFacingPlayer, int linearThrottle, int angularThrottle )
 	{
 		this();
 		
 		m_entityId = entityId;
+		m_pilotId = pilotId;
 		m_actions = actions;
 		m_sideShipForward = sideFacingPlayer;
 		m_linearThrottle = linearThrottle;
@@ -51,22 +61,35 @@ public class PacketPilotShip extends Packet
 	public void writeData( DataOutputStream out )
 	throws IOException
 	{
-		out.writeInt( m_entityId );
-		out.writeInt( m_actions );
-		out.writeByte( m_sideShipForward.ordinal() );
-		out.writeByte( m_linearThrottle );
-		out.writeByte( m_angularThrottle );
+		// NOTE: throttles are stored as offsets from their min values
+		int linearThrottle = Math.max( EntityShip.LinearThrottleMin, Math.min( EntityShip.LinearThrottleMax, m_linearThrottle ) ) - EntityShip.LinearThrottleMin;
+		int angularThrottle = Math.max( EntityShip.AngularThrottleMin, Math.min( EntityShip.AngularThrottleMax, m_angularThrottle ) ) - EntityShip.AngularThrottleMin;
+		int bits = m_actions & ( ( 1 << NumActionBits ) - 1 );
+		bits = ( bits << NumSideBits ) | ( m_sideShipForward == null ? NoSide : m_sideShipForward.ordinal() );
+		bits = ( bits << NumLinearThrottleBits ) | linearThrottle;
+		bits = ( bits << NumAngularThrottleBits ) | angularThrottle;
+		
+		writeVarInt( out, m_entityId );
+		writeVarInt( out, m_pilotId );
+		writeVarInt( out, bits );
 	}
 	
 	@Override
 	public void readData( DataInputStream in )
 	throws IOException
 	{
-		m_entityId = in.readInt();
-		m_actions = in.readInt();
-		m_sideShipForward = BlockSide.values()[in.readByte()];
-		m_linearThrottle = in.readByte();
-		m_angularThrottle = in.readByte();
+		m_entityId = readVarInt( in );
+		m_pilotId = readVarInt( in );
+		int bits = readVarInt( in );
+		
+		m_angularThrottle = ( bits & ( ( 1 << NumAngularThrottleBits ) - 1 ) ) + EntityShip.AngularThrottleMin;
+		bits >>>= NumAngularThrottleBits;
+		m_linearThrottle = ( bits & ( ( 1 << NumLinearThrottleBits ) - 1 ) ) + EntityShip.LinearThrottleMin;
+		bits >>>= NumLinearThrottleBits;
+		int side = bits & ( ( 1 << NumSideBits ) - 1 );
+		m_sideShipForward = side < BlockSide.values().length ? BlockSide.values()[side] : null;
+		bits >>>= NumSideBits;
+		m_actions = bits & ( ( 1 << NumActionBits ) - 1 );
 	}
 	
 	@Override
@@ -79,6 +102,12 @@ public class PacketPilotShip extends Packet
 			return;
 		}
 		
+		// the pilot's client already knows what the pilot is doing
+		if( Environment.isClient() && m_pilotId == player.entityId )
+		{
+			return;
+		}
+		
 		// handle ship movement
 		ship.setPilotActions( m_actions, m_sideShipForward, false );
 		ship.linearThrottle = m_linearThrottle;
@@ -86,9 +115,9 @@ public class PacketPilotShip extends Packet
 		
 		if( Environment.isServer() )
 		{
-			// broadcast the actions to the rest of the clients
-			final double BroadcastRange = 100;
-			PacketDispatcher.sendPacketToAllAround( ship.posX, ship.posY, ship.posZ, BroadcastRange, player.worldObj.provider.dimensionId, getCustomPacket() );
+			// pass the actions on to the rest of the clients
+			// NOTE: don't trust the client about who the pilot is
+			ship.sendPilotChangesToClients( player );
 		}
 	}
 }
@@ -15,8 +15,6 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 
 import net.minecraft.entity.player.EntityPlayer;
-import cpw.mods.fml.common.network.PacketDispatcher;
-import cpw.mods.fml.common.network.Player;
 import cuchaz.ships.EntityShip;
 import cuchaz.ships.ShipLocator;
 
@@ -25,29 +23,37 @@ public class PacketRequestShipBlocks extends Packet
 	public static final String Channel = "requestBlocks";
 	
 	private int m_entityId;
+	private int m_checksum;
+	private int m_resumeChunk;
 	
 	public PacketRequestShipBlocks( )
 	{
 		super( Channel );
 	}
 	
-	public PacketRequestShipBlocks( int entityId )
+	public PacketRequestShipBlocks( int entityId, int checksum, int resumeChunk )
 	{
 		this();
 		
 		m_entityId = entityId;
+		m_checksum = checksum;
+		m_resumeChunk = resumeChunk;
 	}
 	
 	@Override
 	public void writeData( DataOutputStream out ) throws IOException
 	{
 		out.writeInt( m_entityId );
+		out.writeInt( m_checksum );
+		out.writeInt( m_resumeChunk );
 	}
 	
 	@Override
 	public void readData( DataInputStream in ) throws IOException
 	{
 		m_entityId = in.readInt();
+		m_checksum = in.readInt();
+		m_resumeChunk = in.readInt();
 	}
 	
 	@Override
@@ -60,7 +66,7 @@ public class PacketRequestShipBlocks extends Packet
 			return;
 		}
 		
-		// respond with the blocks
-		PacketDispatcher.sendPacketToPlayer( new PacketShipBlocks( ship ).getCustomPacket(), (Player)player );
+		// stream the blocks back over the next few ticks
+		ShipBlocksTransfer.sendBlocks( player, ship, m_checksum, m_resumeChunk );
 	}
 }
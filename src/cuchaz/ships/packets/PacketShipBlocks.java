@@ -15,70 +15,68 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 
 import net.minecraft.entity.player.EntityPlayer;
-import cuchaz.ships.EntityShip;
-import cuchaz.ships.ShipLocator;
-import cuchaz.ships.Ships;
-import cuchaz.ships.persistence.PersistenceException;
-import cuchaz.ships.persistence.ShipWorldPersistence;
 
 public class PacketShipBlocks extends Packet
 {
+	// NOTE: ship blocks are usually too big for one packet, so each of these packets carries just one chunk
+	// see ShipBlocksTransfer
+	
 	public static final String Channel = "shipBlocks";
 	
 	private int m_entityId;
-	private byte[] m_shipData;
+	private int m_checksum;
+	private int m_totalSize;
+	private int m_chunkIndex;
+	private byte[] m_chunk;
+	private int m_chunkOffset;
+	private int m_chunkLength;
 	
 	public PacketShipBlocks( )
 	{
 		super( Channel );
 	}
 	
-	public PacketShipBlocks( EntityShip ship )
+	public PacketShipBlocks( int entityId, int checksum, int totalSize, int chunkIndex, byte[] data, int offset, int length )
 	{
 		this();
 		
-		m_entityId = ship.entityId;
-		m_shipData = ShipWorldPersistence.writeNewestVersion( ship.getShipWorld(), true );
+		m_entityId = entityId;
+		m_checksum = checksum;
+		m_totalSize = totalSize;
+		m_chunkIndex = chunkIndex;
+		m_chunk = data;
+		m_chunkOffset = offset;
+		m_chunkLength = length;
 	}
 
 	@Override
 	public void writeData( DataOutputStream out ) throws IOException
 	{
 		out.writeInt( m_entityId );
-		out.writeInt( m_shipData.length );
-		out.write( m_shipData );
+		out.writeInt( m_checksum );
+		out.writeInt( m_totalSize );
+		out.writeInt( m_chunkIndex );
+		out.writeInt( m_chunkLength );
+		out.write( m_chunk, m_chunkOffset, m_chunkLength );
 	}
 	
 	@Override
 	public void readData( DataInputStream in ) throws IOException
 	{
 		m_entityId = in.readInt();
-		m_shipData = new byte[Math.min( in.readInt(), MaxPacketSize )];
-		in.read( m_shipData );
+		m_checksum = in.readInt();
+		m_totalSize = in.readInt();
+		m_chunkIndex = in.readInt();
+		m_chunkLength = Math.min( in.readInt(), ShipBlocksTransfer.ChunkSize );
+		m_chunk = new byte[m_chunkLength];
+		m_chunkOffset = 0;
+		in.readFully( m_chunk );
 	}
 	
 	@Override
 	public void onPacketReceived( EntityPlayer player )
 	{
-		// get the ship
-		EntityShip ship = ShipLocator.getShip( player.worldObj, m_entityId );
-		if( ship == null )
-		{
-			return;
-		}
-		
-		// send the blocks to the ship
-		if( ship.getShipWorld() == null )
-		{
-			try
-			{
-				ship.setShipWorld( ShipWorldPersistence.readAnyVersion( ship.worldObj, m_shipData, true ) );
-			}
-			catch( PersistenceException ex )
-			{
-				Ships.logger.warning( ex, "Unable to read ship! Ship will be removed from world" );
-				ship.setDead();
-			}
-		}
+		// the ship might not be here yet, so just save the chunk
+		ShipBlocksTransfer.onChunkReceived( m_entityId, m_checksum, m_totalSize, m_chunkIndex, m_chunk );
 	}
 }
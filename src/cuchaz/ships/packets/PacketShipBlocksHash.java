@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships.packets;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import net.minecraft.entity.player.EntityPlayer;
+
+public class PacketShipBlocksHash extends Packet
+{
+	// tells the client which blocks the ship has before sending them, so the client can use its cached copy instead
+	// see ShipBlocksTransfer
+	
+	public static final String Channel = "shipBlocksHash";
+	
+	private int m_entityId;
+	private int m_checksum;
+	private int m_totalSize;
+	private String m_hash;
+	
+	public PacketShipBlocksHash( )
+	{
+		super( Channel );
+	}
+	
+	public PacketShipBlocksHash( int entityId, int checksum, int totalSize, String hash )
+	{
+		this();
+		
+		m_entityId = entityId;
+		m_checksum = checksum;
+		m_totalSize = totalSize;
+		m_hash = hash;
+	}
+	
+	@Override
+	public void writeData( DataOutputStream out ) throws IOException
+	{
+		out.writeInt( m_entityId );
+		out.writeInt( m_checksum );
+		out.writeInt( m_totalSize );
+		out.writeUTF( m_hash );
+	}
+	
+	@Override
+	public void readData( DataInputStream in ) throws IOException
+	{
+		m_entityId = in.readInt();
+		m_checksum = in.readInt();
+		m_totalSize = in.readInt();
+		m_hash = in.readUTF();
+	}
+	
+	@Override
+	public void onPacketReceived( EntityPlayer player )
+	{
+		ShipBlocksTransfer.onHashReceived( m_entityId, m_checksum, m_totalSize, m_hash );
+	}
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships.packets;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import net.minecraft.entity.player.EntityPlayer;
+import cuchaz.ships.EntityShip;
+import cuchaz.ships.ShipLocator;
+
+public class PacketShipBlocksReceived extends Packet
+{
+	// tells the server the client has the ship's blocks, so it can start sending block changes
+	// see ShipBlockWatchers
+	
+	public static final String Channel = "shipBlocksRecv";
+	
+	private int m_entityId;
+	private int m_checksum;
+	
+	public PacketShipBlocksReceived( )
+	{
+		super( Channel );
+	}
+	
+	public PacketShipBlocksReceived( int entityId, int checksum )
+	{
+		this();
+		
+		m_entityId = entityId;
+		m_checksum = checksum;
+	}
+	
+	@Override
+	public void writeData( DataOutputStream out ) throws IOException
+	{
+		out.writeInt( m_entityId );
+		out.writeInt( m_checksum );
+	}
+	
+	@Override
+	public void readData( DataInputStream in ) throws IOException
+	{
+		m_entityId = in.readInt();
+		m_checksum = in.readInt();
+	}
+	
+	@Override
+	public void onPacketReceived( EntityPlayer player )
+	{
+		// get the ship
+		EntityShip ship = ShipLocator.getShip( player.worldObj, m_entityId );
+		if( ship == null )
+		{
+			return;
+		}
+		
+		ShipBlocksTransfer.onBlocksReceived( player, ship, m_checksum );
+	}
+}
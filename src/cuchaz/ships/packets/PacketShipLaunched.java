@@ -20,16 +20,14 @@ import cuchaz.modsShared.blocks.Coords;
 import cuchaz.ships.EntityShip;
 import cuchaz.ships.ShipLauncher;
 import cuchaz.ships.ShipWorld;
-import cuchaz.ships.Ships;
-import cuchaz.ships.persistence.PersistenceException;
-import cuchaz.ships.persistence.ShipWorldPersistence;
 
 public class PacketShipLaunched extends Packet
 {
+	// NOTE: the ship blocks don't fit in this packet, they get streamed by ShipBlocksTransfer
+	
 	public static final String Channel = "shipLaunched";
 	
 	private int m_entityId;
-	private byte[] m_shipData;
 	private int m_launchX;
 	private int m_launchY;
 	private int m_launchZ;
@@ -47,22 +45,24 @@ public class PacketShipLaunched extends Packet
 	}
 	
 	public PacketShipLaunched( EntityShip ship, Coords shipBlock )
+	{
+		this( ship.entityId, shipBlock.x, shipBlock.y, shipBlock.z );
+	}
+	
+	private PacketShipLaunched( int entityId, int launchX, int launchY, int launchZ )
 	{
 		this();
 		
-		m_entityId = ship.entityId;
-		m_shipData = ShipWorldPersistence.writeNewestVersion( ship.getShipWorld(), true );
-		m_launchX = shipBlock.x;
-		m_launchY = shipBlock.y;
-		m_launchZ = shipBlock.z;
+		m_entityId = entityId;
+		m_launchX = launchX;
+		m_launchY = launchY;
+		m_launchZ = launchZ;
 	}
 	
 	@Override
 	public void writeData( DataOutputStream out ) throws IOException
 	{
 		out.writeInt( m_entityId );
-		out.writeInt( m_shipData.length );
-		out.write( m_shipData );
 		out.writeInt( m_launchX );
 		out.writeInt( m_launchY );
 		out.writeInt( m_launchZ );
@@ -72,8 +72,6 @@ public class PacketShipLaunched extends Packet
 	public void readData( DataInputStream in ) throws IOException
 	{
 		m_entityId = in.readInt();
-		m_shipData = new byte[Math.min( in.readInt(), MaxPacketSize )];
-		in.read( m_shipData );
 		m_launchX = in.readInt();
 		m_launchY = in.readInt();
 		m_launchZ = in.readInt();
@@ -83,7 +81,8 @@ public class PacketShipLaunched extends Packet
 	public void onPacketReceived( EntityPlayer player )
 	{
 		// save the packet for later
-		m_packets.put( m_entityId, this );
+		// NOTE: the packet handler reuses this instance, so save a copy
+		m_packets.put( m_entityId, new PacketShipLaunched( m_entityId, m_launchX, m_launchY, m_launchZ ) );
 	}
 	
 	public static PacketShipLaunched getPacket( EntityShip ship )
@@ -96,17 +95,8 @@ public class PacketShipLaunched extends Packet
 		return packet;
 	}
 	
-	public void process( EntityShip ship )
+	public void process( EntityShip ship, ShipWorld shipWorld )
 	{
-		try
-		{
-			ShipWorld shipWorld = ShipWorldPersistence.readAnyVersion( ship.worldObj, m_shipData, true );
-			ShipLauncher.initShip( ship, shipWorld, new Coords( m_launchX, m_launchY, m_launchZ ) );
-		}
-		catch( PersistenceException ex )
-		{
-			Ships.logger.warning( ex, "Unable to read ship! Ship will be removed from world" );
-			ship.setDead();
-		}
+		ShipLauncher.initShip( ship, shipWorld, new Coords( m_launchX, m_launchY, m_launchZ ) );
 	}
 }
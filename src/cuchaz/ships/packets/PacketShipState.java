@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships.packets;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import net.minecraft.entity.player.EntityPlayer;
+import cuchaz.ships.EntityShip;
+import cuchaz.ships.ShipLocator;
+import cuchaz.ships.ShipState;
+
+public class PacketShipState extends Packet
+{
+	// sends the ship motion to a client, as changes from the last state that client got
+	// see ShipStateSender
+	
+	public static final String Channel = "shipState";
+	
+	private static final int FlagFull = 1 << 0;
+	private static final int FlagPosition = 1 << 1;
+	private static final int FlagYaw = 1 << 2;
+	private static final int FlagMotion = 1 << 3;
+	private static final int FlagMotionYaw = 1 << 4;
+	private static final int FlagThrottle = 1 << 5;
+	
+	private int m_entityId;
+	private ShipState m_state;
+	private ShipState m_baseState;
+	private int m_flags;
+	private ShipState m_values;
+	
+	public PacketShipState( )
+	{
+		super( Channel );
+	}
+	
+	public PacketShipState( int entityId, ShipState state, ShipState baseState )
+	{
+		this();
+		
+		// NOTE: without a base state, the client gets the whole state
+		m_entityId = entityId;
+		m_state = state;
+		m_baseState = baseState;
+	}
+	
+	public static boolean canSendDelta( ShipState state, ShipState baseState )
+	{
+		// position deltas have to fit in an int
+		return Math.abs( state.x - baseState.x ) <= Integer.MAX_VALUE
+			&& Math.abs( state.y - baseState.y ) <= Integer.MAX_VALUE
+			&& Math.abs( state.z - baseState.z ) <= Integer.MAX_VALUE;
+	}
+	
+	@Override
+	public void writeData( DataOutputStream out ) throws IOException
+	{
+		out.writeInt( m_entityId );
+		
+		if( m_baseState == null )
+		{
+			out.writeByte( FlagFull );
+			out.writeLong( m_state.x );
+			out.writeLong( m_state.y );
+			out.writeLong( m_state.z );
+			out.writeShort( m_state.yaw );
+			writeSignedVarInt( out, m_state.motionX );
+			writeSignedVarInt( out, m_state.motionY );
+			writeSignedVarInt( out, m_state.motionZ );
+			writeSignedVarInt( out, m_state.motionYaw );
+			out.writeByte( m_state.linearThrottle );
+			out.writeByte( m_state.angularThrottle );
+			return;
+		}
+		
+		// only write the parts that changed
+		int flags = 0;
+		if( m_state.x != m_baseState.x || m_state.y != m_baseState.y || m_state.z != m_baseState.z )
+		{
+			flags |= FlagPosition;
+		}
+		if( m_state.yaw != m_baseState.yaw )
+		{
+			flags |= FlagYaw;
+		}
+		if( m_state.motionX != m_baseState.motionX || m_state.motionY != m_baseState.motionY || m_state.motionZ != m_baseState.motionZ )
+		{
+			flags |= FlagMotion;
+		}
+		if( m_state.motionYaw != m_baseState.motionYaw )
+		{
+			flags |= FlagMotionYaw;
+		}
+		if( m_state.linearThrottle != m_baseState.linearThrottle || m_state.angularThrottle != m_baseState.angularThrottle )
+		{
+			flags |= FlagThrottle;
+		}
+		out.writeByte( flags );
+		
+		if( ( flags & FlagPosition ) != 0 )
+		{
+			writeSignedVarInt( out, (int)( m_state.x - m_baseState.x ) );
+			writeSignedVarInt( out, (int)( m_state.y - m_baseState.y ) );
+			writeSignedVarInt( out, (int)( m_state.z - m_baseState.z ) );
+		}
+		if( ( flags & FlagYaw ) != 0 )
+		{
+			// take the short way around the circle
+			writeSignedVarInt( out, (short)( m_state.yaw - m_baseState.yaw ) );
+		}
+		if( ( flags & FlagMotion ) != 0 )
+		{
+			writeSignedVarInt( out, m_state.motionX - m_baseState.motionX );
+			writeSignedVarInt( out, m_state.motionY - m_baseState.motionY );
+			writeSignedVarInt( out, m_state.motionZ - m_baseState.motionZ );
+		}
+		if( ( flags & FlagMotionYaw ) != 0 )
+		{
+			writeSignedVarInt( out, m_state.motionYaw - m_baseState.motionYaw );
+		}
+		if( ( flags & FlagThrottle ) != 0 )
+		{
+			out.writeByte( m_state.linearThrottle );
+			out.writeByte( m_state.angularThrottle );
+		}
+	}
+	
+	@Override
+	public void readData( DataInputStream in ) throws IOException
+	{
+		// NOTE: we don't know the base state until we find the ship, so just read the values for now
+		m_entityId = in.readInt();
+		m_flags = in.readUnsignedByte();
+		m_values = new ShipState();
+		
+		if( ( m_flags & FlagFull ) != 0 )
+		{
+			m_values.x = in.readLong();
+			m_values.y = in.readLong();
+			m_values.z = in.readLong();
+			m_values.yaw = in.readUnsignedShort();
+			m_values.motionX = readSignedVarInt( in );
+			m_values.motionY = readSignedVarInt( in );
+			m_values.motionZ = readSignedVarInt( in );
+			m_values.motionYaw = readSignedVarInt( in );
+			m_values.linearThrottle = in.readByte();
+			m_values.angularThrottle = in.readByte();
+			return;
+		}
+		
+		if( ( m_flags & FlagPosition ) != 0 )
+		{
+			m_values.x = readSignedVarInt( in );
+			m_values.y = readSignedVarInt( in );
+			m_values.z = readSignedVarInt( in );
+		}
+		if( ( m_flags & FlagYaw ) != 0 )
+		{
+			m_values.yaw = readSignedVarInt( in );
+		}
+		if( ( m_flags & FlagMotion ) != 0 )
+		{
+			m_values.motionX = readSignedVarInt( in );
+			m_values.motionY = readSignedVarInt( in );
+			m_values.motionZ = readSignedVarInt( in );
+		}
+		if( ( m_flags & FlagMotionYaw ) != 0 )
+		{
+			m_values.motionYaw = readSignedVarInt( in );
+		}
+		if( ( m_flags & FlagThrottle ) != 0 )
+		{
+			m_values.linearThrottle = in.readByte();
+			m_values.angularThrottle = in.readByte();
+		}
+	}
+	
+	@Override
+	public void onPacketReceived( EntityPlayer player )
+	{
+		// get the ship
+		EntityShip ship = ShipLocator.getShip( player.worldObj, m_entityId );
+		if( ship == null )
+		{
+			return;
+		}
+		
+		if( ( m_flags & FlagFull ) != 0 )
+		{
+			ship.setStateFromServer( m_values );
+			return;
+		}
+		
+		// deltas are no good without the state they're from
+		ShipState baseState = ship.getStateFromServer();
+		if( baseState == null )
+		{
+			return;
+		}
+		
+		// apply the deltas
+		ShipState state = new ShipState( baseState );
+		state.x += m_values.x;
+		state.y += m_values.y;
+		state.z += m_values.z;
+		state.yaw = ( state.yaw + m_values.yaw ) & 0xffff;
+		state.motionX += m_values.motionX;
+		state.motionY += m_values.motionY;
+		state.motionZ += m_values.motionZ;
+		state.motionYaw += m_values.motionYaw;
+		if( ( m_flags & FlagThrottle ) != 0 )
+		{
+			state.linearThrottle = m_values.linearThrottle;
+			state.angularThrottle = m_values.angularThrottle;
+		}
+		ship.setStateFromServer( state );
+	}
+}
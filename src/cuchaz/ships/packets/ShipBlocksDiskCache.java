@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships.packets;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.minecraft.client.Minecraft;
+import cuchaz.modsShared.Util;
+import cuchaz.ships.Ships;
+
+public class ShipBlocksDiskCache
+{
+	// clients keep the ship blocks they received on disk, so familiar ships don't have to be downloaded again
+	// files are named by the hash of their contents, and the least recently used ones get deleted when the cache gets too big
+	
+	private static final String DirName = "shipsCache";
+	private static final String Extension = ".blocks";
+	private static final long MaxBytes = 64L*1024*1024;
+	
+	// hash -> file size, in order of last use
+	private static Map<String,Long> m_files = null;
+	private static long m_numBytes = 0;
+	
+	public static byte[] get( String hash )
+	{
+		if( !isValidHash( hash ) )
+		{
+			return null;
+		}
+		loadIndex();
+		
+		// NOTE: the lookup moves the hash to the back of the line
+		if( m_files.get( hash ) == null )
+		{
+			return null;
+		}
+		
+		File file = getFile( hash );
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream( new FileInputStream( file ) );
+			byte[] data = new byte[(int)file.length()];
+			in.readFully( data );
+			
+			// remember the use for the next time we load the index
+			file.setLastModified( System.currentTimeMillis() );
+			return data;
+		}
+		catch( IOException ex )
+		{
+			Ships.logger.warning( ex, "Unable to read cached ship blocks: %s", file.getName() );
+			remove( hash );
+			return null;
+		}
+		finally
+		{
+			Util.closeSilently( in );
+		}
+	}
+	
+	public static void put( String hash, byte[] data )
+	{
+		if( !isValidHash( hash ) )
+		{
+			return;
+		}
+		loadIndex();
+		if( m_files.containsKey( hash ) )
+		{
+			return;
+		}
+		
+		// write to a temp file first, so we never leave half a file with a good name
+		File file = getFile( hash );
+		File tempFile = new File( getDir(), hash + ".tmp" );
+		FileOutputStream out = null;
+		try
+		{
+			getDir().mkdirs();
+			out = new FileOutputStream( tempFile );
+			out.write( data );
+			out.close();
+			out = null;
+			if( !tempFile.renameTo( file ) )
+			{
+				throw new IOException( "Unable to rename " + tempFile.getName() );
+			}
+		}
+		catch( IOException ex )
+		{
+			Ships.logger.warning( ex, "Unable to cache ship blocks: %s", file.getName() );
+			tempFile.delete();
+			return;
+		}
+		finally
+		{
+			Util.closeSilently( out );
+		}
+		
+		m_files.put( hash, (long)data.length );
+		m_numBytes += data.length;
+		evict();
+	}
+	
+	private static void loadIndex( )
+	{
+		if( m_files != null )
+		{
+			return;
+		}
+		m_files = new LinkedHashMap<String,Long>( 16, 0.75f, true );
+		m_numBytes = 0;
+		
+		File[] files = getDir().listFiles();
+		if( files == null )
+		{
+			return;
+		}
+		
+		// oldest first
+		Arrays.sort( files, new Comparator<File>( )
+		{
+			@Override
+			public int compare( File a, File b )
+			{
+				long diff = a.lastModified() - b.lastModified();
+				return diff < 0 ? -1 : ( diff > 0 ? 1 : 0 );
+			}
+		} );
+		for( File file : files )
+		{
+			String name = file.getName();
+			if( name.endsWith( Extension ) )
+			{
+				m_files.put( name.substring( 0, name.length() - Extension.length() ), file.length() );
+				m_numBytes += file.length();
+			}
+		}
+		evict();
+	}
+	
+	private static void evict( )
+	{
+		// throw out the least recently used blocks until we fit
+		Iterator<Map.Entry<String,Long>> iter = m_files.entrySet().iterator();
+		while( m_numBytes > MaxBytes && iter.hasNext() )
+		{
+			Map.Entry<String,Long> entry = iter.next();
+			getFile( entry.getKey() ).delete();
+			m_numBytes -= entry.getValue();
+			iter.remove();
+		}
+	}
+	
+	private static void remove( String hash )
+	{
+		Long size = m_files.remove( hash );
+		if( size != null )
+		{
+			getFile( hash ).delete();
+			m_numBytes -= size;
+		}
+	}
+	
+	private static File getDir( )
+	{
+		// NOTE: only clients receive ship blocks, so the Minecraft instance is always there
+		return new File( Minecraft.getMinecraft().mcDataDir, DirName );
+	}
+	
+	private static File getFile( String hash )
+	{
+		return new File( getDir(), hash + Extension );
+	}
+	
+	private static boolean isValidHash( String hash )
+	{
+		// NOTE: the hash comes from the server and ends up in a file name, so only allow hex digits
+		if( hash == null || hash.length() == 0 || hash.length() > 64 )
+		{
+			return false;
+		}
+		for( int i=0; i<hash.length(); i++ )
+		{
+			char c = hash.charAt( i );
+			if( !( ( c >= '0' && c <= '9' ) || ( c >= 'a' && c <= 'f' ) ) )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
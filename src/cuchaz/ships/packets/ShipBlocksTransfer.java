@@ -0,0 +1,440 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships.packets;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import net.minecraft.entity.player.EntityPlayer;
+import cpw.mods.fml.common.ITickHandler;
+import cpw.mods.fml.common.TickType;
+import cpw.mods.fml.common.network.PacketDispatcher;
+import cpw.mods.fml.common.network.Player;
+import cuchaz.ships.EntityShip;
+import cuchaz.ships.Ships;
+import cuchaz.ships.persistence.PersistenceException;
+import cuchaz.ships.persistence.ShipWorldEncodingCache;
+import cuchaz.ships.persistence.ShipWorldPersistence;
+
+public class ShipBlocksTransfer
+{
+	// ship blocks are too big for one packet, so they get streamed to clients in chunks
+	public static final int ChunkSize = 8*1024;
+	public static final int BytesPerPlayerPerTick = 16*1024;
+	
+	// sizes come from the server, so don't trust them. No real ship gets anywhere near this big
+	private static final int MaxTotalSize = 16*1024*1024;
+	
+	// how long clients wait for chunks before asking again
+	private static final int RequestTimeoutTicks = 20*5;
+	
+	// how many unfinished transfers clients keep around to resume later
+	private static final int MaxPartialTransfers = 4;
+	
+	private static class Outgoing
+	{
+		public int entityId;
+		public byte[] data;
+		public int checksum;
+		public int nextChunk;
+	}
+	
+	private static class Incoming
+	{
+		public String hash;
+		public int checksum;
+		public byte[] data;
+		public int numChunksReceived;
+		public int ticksSinceLastChunk;
+		public boolean isComplete;
+	}
+	
+	// server side
+	private static Map<EntityPlayer,List<Outgoing>> m_outgoing = new HashMap<EntityPlayer,List<Outgoing>>();
+	
+	// client side
+	private static Map<Integer,Incoming> m_incoming = new TreeMap<Integer,Incoming>();
+	
+	// client side, unfinished transfers by checksum, in order of last use
+	// NOTE: entity ids change when the client reconnects, but the checksum of the blocks doesn't
+	private static LinkedHashMap<Integer,Incoming> m_partials = new LinkedHashMap<Integer,Incoming>( 16, 0.75f, true );
+	
+	public static class ServerTicker implements ITickHandler
+	{
+		@Override
+		public void tickStart( EnumSet<TickType> type, Object... tickData )
+		{
+			// nothing to do
+		}
+		
+		@Override
+		public void tickEnd( EnumSet<TickType> type, Object... tickData )
+		{
+			sendChunks();
+		}
+		
+		@Override
+		public EnumSet<TickType> ticks( )
+		{
+			return EnumSet.of( TickType.SERVER );
+		}
+		
+		@Override
+		public String getLabel( )
+		{
+			return "Ships block transfer";
+		}
+	}
+	
+	public static int getNumChunks( int numBytes )
+	{
+		return Math.max( 1, ( numBytes + ChunkSize - 1 )/ChunkSize );
+	}
+	
+	public static int getChecksum( byte[] data )
+	{
+		CRC32 crc = new CRC32();
+		crc.update( data );
+		return (int)crc.getValue();
+	}
+	
+	public static void sendBlocks( EntityPlayer player, EntityShip ship, int checksum, int resumeChunk )
+	{
+		List<Outgoing> transfers = m_outgoing.get( player );
+		if( transfers == null )
+		{
+			transfers = new ArrayList<Outgoing>();
+			m_outgoing.put( player, transfers );
+		}
+		
+		// are we already sending this ship?
+		for( Outgoing transfer : transfers )
+		{
+			if( transfer.entityId == ship.entityId )
+			{
+				return;
+			}
+		}
+		
+		// NOTE: every player asking for the same ship shares the same encoding
+		ShipWorldEncodingCache.Encoding encoding = ship.getEncodedShipWorld( true );
+		
+		// if the client doesn't know which blocks it's getting yet, tell it first. It might have them cached
+		// NOTE: if the client already heard about different blocks, the ship changed since then. Just send the new blocks
+		if( checksum == 0 || ( checksum != encoding.checksum && resumeChunk > 0 ) )
+		{
+			sendHash( player, ship, encoding );
+			return;
+		}
+		ship.getShipWorld().getBlockWatchers().onBlocksSent( player, encoding.checksum );
+		
+		Outgoing transfer = new Outgoing();
+		transfer.entityId = ship.entityId;
+		transfer.data = encoding.data;
+		transfer.checksum = encoding.checksum;
+		transfer.nextChunk = 0;
+		
+		// if the client already has some of these blocks, pick up where we left off
+		if( resumeChunk > 0 && resumeChunk < getNumChunks( transfer.data.length ) )
+		{
+			transfer.nextChunk = resumeChunk;
+		}
+		transfers.add( transfer );
+	}
+	
+	private static void sendHash( EntityPlayer player, EntityShip ship, ShipWorldEncodingCache.Encoding encoding )
+	{
+		ship.getShipWorld().getBlockWatchers().onBlocksSent( player, encoding.checksum );
+		PacketShipBlocksHash packet = new PacketShipBlocksHash( ship.entityId, encoding.checksum, encoding.data.length, encoding.hash );
+		PacketDispatcher.sendPacketToPlayer( packet.getCustomPacket(), (Player)player );
+	}
+	
+	public static void onBlocksReceived( EntityPlayer player, EntityShip ship, int checksum )
+	{
+		// if the client ended up with blocks we didn't expect, we can't catch it up with block changes. Send new blocks
+		if( !ship.getShipWorld().getBlockWatchers().onBlocksReceived( ship, player, checksum ) )
+		{
+			sendHash( player, ship, ship.getEncodedShipWorld( true ) );
+		}
+	}
+	
+	private static void sendChunks( )
+	{
+		Iterator<Map.Entry<EntityPlayer,List<Outgoing>>> iter = m_outgoing.entrySet().iterator();
+		while( iter.hasNext() )
+		{
+			Map.Entry<EntityPlayer,List<Outgoing>> entry = iter.next();
+			EntityPlayer player = entry.getKey();
+			List<Outgoing> transfers = entry.getValue();
+			
+			// players that logged out or changed worlds are dead
+			if( player.isDead || transfers.isEmpty() )
+			{
+				iter.remove();
+				continue;
+			}
+			
+			// send chunks until we run out of bandwidth for this player
+			int budget = BytesPerPlayerPerTick;
+			while( budget > 0 && !transfers.isEmpty() )
+			{
+				Outgoing transfer = transfers.get( 0 );
+				int offset = transfer.nextChunk*ChunkSize;
+				int length = Math.min( ChunkSize, transfer.data.length - offset );
+				PacketShipBlocks packet = new PacketShipBlocks(
+					transfer.entityId,
+					transfer.checksum,
+					transfer.data.length,
+					transfer.nextChunk,
+					transfer.data,
+					offset,
+					length
+				);
+				PacketDispatcher.sendPacketToPlayer( packet.getCustomPacket(), (Player)player );
+				budget -= length;
+				
+				transfer.nextChunk++;
+				if( transfer.nextChunk >= getNumChunks( transfer.data.length ) )
+				{
+					transfers.remove( 0 );
+				}
+			}
+		}
+	}
+	
+	public static void onHashReceived( int entityId, int checksum, int totalSize, String hash )
+	{
+		if( !isValidSize( totalSize ) )
+		{
+			Ships.logger.warning( "Ship blocks for entity %d have a bad size: %d", entityId, totalSize );
+			return;
+		}
+		
+		// are we already getting these blocks?
+		Incoming transfer = m_incoming.get( entityId );
+		if( transfer != null && transfer.checksum == checksum && transfer.data.length == totalSize )
+		{
+			return;
+		}
+		
+		// did we get some of these blocks before? (maybe before a reconnect)
+		transfer = m_partials.get( checksum );
+		if( transfer != null && transfer.data.length == totalSize && !transfer.isComplete )
+		{
+			transfer.hash = hash;
+			transfer.ticksSinceLastChunk = 0;
+			m_incoming.put( entityId, transfer );
+			PacketDispatcher.sendPacketToServer( new PacketRequestShipBlocks( entityId, checksum, transfer.numChunksReceived ).getCustomPacket() );
+			return;
+		}
+		
+		transfer = new Incoming();
+		transfer.hash = hash;
+		transfer.checksum = checksum;
+		transfer.numChunksReceived = 0;
+		transfer.ticksSinceLastChunk = 0;
+		m_incoming.put( entityId, transfer );
+		
+		// have we seen these blocks before?
+		byte[] data = ShipBlocksDiskCache.get( hash );
+		if( data != null && data.length == totalSize && getChecksum( data ) == checksum )
+		{
+			transfer.data = data;
+			transfer.numChunksReceived = getNumChunks( totalSize );
+			transfer.isComplete = true;
+			return;
+		}
+		
+		// nope, ask for them
+		transfer.data = new byte[totalSize];
+		transfer.isComplete = false;
+		addPartial( transfer );
+		PacketDispatcher.sendPacketToServer( new PacketRequestShipBlocks( entityId, checksum, 0 ).getCustomPacket() );
+	}
+	
+	public static void onChunkReceived( int entityId, int checksum, int totalSize, int chunkIndex, byte[] chunk )
+	{
+		if( !isValidSize( totalSize ) )
+		{
+			Ships.logger.warning( "Ship blocks for entity %d have a bad size: %d", entityId, totalSize );
+			return;
+		}
+		
+		Incoming transfer = m_incoming.get( entityId );
+		if( transfer == null || transfer.checksum != checksum || transfer.data.length != totalSize )
+		{
+			// new blocks, start over
+			if( chunkIndex != 0 )
+			{
+				return;
+			}
+			transfer = new Incoming();
+			transfer.hash = null;
+			transfer.checksum = checksum;
+			transfer.data = new byte[totalSize];
+			transfer.numChunksReceived = 0;
+			transfer.isComplete = false;
+			m_incoming.put( entityId, transfer );
+			addPartial( transfer );
+		}
+		
+		// chunks arrive in order, so skip anything we already have
+		if( transfer.isComplete || chunkIndex != transfer.numChunksReceived )
+		{
+			return;
+		}
+		
+		// make sure the chunk fits
+		long offset = (long)chunkIndex*ChunkSize;
+		if( chunk == null || chunk.length > ChunkSize || offset + chunk.length > totalSize )
+		{
+			Ships.logger.warning( "Ship blocks chunk %d for entity %d doesn't fit! Requesting them again.", chunkIndex, entityId );
+			m_incoming.remove( entityId );
+			removePartial( transfer );
+			return;
+		}
+		System.arraycopy( chunk, 0, transfer.data, chunkIndex*ChunkSize, chunk.length );
+		transfer.numChunksReceived++;
+		transfer.ticksSinceLastChunk = 0;
+		
+		if( transfer.numChunksReceived == getNumChunks( totalSize ) )
+		{
+			// the transfer is done one way or another, so there's nothing left to resume
+			removePartial( transfer );
+			
+			if( getChecksum( transfer.data ) == checksum )
+			{
+				transfer.isComplete = true;
+				
+				// save the blocks for the next time we see this ship
+				if( transfer.hash != null )
+				{
+					ShipBlocksDiskCache.put( transfer.hash, transfer.data );
+				}
+			}
+			else
+			{
+				Ships.logger.warning( "Ship blocks for entity %d failed checksum! Requesting them again.", entityId );
+				m_incoming.remove( entityId );
+			}
+		}
+	}
+	
+	private static void addPartial( Incoming transfer )
+	{
+		m_partials.put( transfer.checksum, transfer );
+		
+		// throw out the least recently used transfers until we fit
+		Iterator<Incoming> iter = m_partials.values().iterator();
+		while( m_partials.size() > MaxPartialTransfers && iter.hasNext() )
+		{
+			iter.next();
+			iter.remove();
+		}
+	}
+	
+	private static void removePartial( Incoming transfer )
+	{
+		if( m_partials.get( transfer.checksum ) == transfer )
+		{
+			m_partials.remove( transfer.checksum );
+		}
+	}
+	
+	private static boolean isValidSize( int totalSize )
+	{
+		return totalSize >= 0 && totalSize <= MaxTotalSize;
+	}
+	
+	public static boolean applyReceivedBlocks( EntityShip ship )
+	{
+		Incoming transfer = m_incoming.get( ship.entityId );
+		if( transfer == null || !transfer.isComplete )
+		{
+			return false;
+		}
+		m_incoming.remove( ship.entityId );
+		
+		try
+		{
+			// was this ship just launched?
+			PacketShipLaunched packet = PacketShipLaunched.getPacket( ship );
+			if( packet != null )
+			{
+				packet.process( ship, ShipWorldPersistence.readAnyVersion( ship.worldObj, transfer.data, true ) );
+			}
+			else
+			{
+				ship.setShipWorld( ShipWorldPersistence.readAnyVersion( ship.worldObj, transfer.data, true ) );
+			}
+			
+			// tell the server we're ready for block changes
+			PacketDispatcher.sendPacketToServer( new PacketShipBlocksReceived( ship.entityId, transfer.checksum ).getCustomPacket() );
+		}
+		catch( PersistenceException ex )
+		{
+			Ships.logger.warning( ex, "Unable to read ship! Ship will be removed from world" );
+			ship.setDead();
+		}
+		return true;
+	}
+	
+	public static void onClientWorldUnloaded( )
+	{
+		// entity ids don't mean anything after the client world goes away
+		// NOTE: unfinished transfers stay in the partials, so they can resume if we see the same blocks again
+		m_incoming.clear();
+	}
+	
+	public static void requestBlocks( EntityShip ship )
+	{
+		// don't ask again while the chunks are still coming in
+		Incoming transfer = m_incoming.get( ship.entityId );
+		if( transfer != null )
+		{
+			transfer.ticksSinceLastChunk++;
+			if( transfer.ticksSinceLastChunk < RequestTimeoutTicks )
+			{
+				return;
+			}
+		}
+		
+		// if we have some chunks already, ask the server to resume
+		int checksum = 0;
+		int resumeChunk = 0;
+		if( transfer != null )
+		{
+			checksum = transfer.checksum;
+			resumeChunk = transfer.numChunksReceived;
+			transfer.ticksSinceLastChunk = 0;
+		}
+		else
+		{
+			// start the timeout now so we don't ask every tick
+			transfer = new Incoming();
+			transfer.hash = null;
+			transfer.checksum = 0;
+			transfer.data = new byte[0];
+			transfer.numChunksReceived = 0;
+			transfer.ticksSinceLastChunk = 0;
+			transfer.isComplete = false;
+			m_incoming.put( ship.entityId, transfer );
+		}
+		PacketDispatcher.sendPacketToServer( new PacketRequestShipBlocks( ship.entityId, checksum, resumeChunk ).getCustomPacket() );
+	}
+}
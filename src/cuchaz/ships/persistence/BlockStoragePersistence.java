@@ -43,6 +43,7 @@ public enum BlockStoragePersistence
 				BlockStorage block = new BlockStorage( in.readInt(), in.readInt() );
 				blocks.setBlock( coords, block );
 			}
+			blocks.packIfDense();
 			return blocks;
 		}
 		
@@ -76,6 +77,7 @@ public enum BlockStoragePersistence
 				block.meta = Bits.unpackUnsigned( n, 4, 12 );
 				blocks.setBlock( coords, block );
 			}
+			blocks.packIfDense();
 			return blocks;
 		}
 		
@@ -29,7 +29,7 @@ public enum ShipPersistence
 		@Override
 		public void write( EntityShip ship, NBTTagCompound nbt )
 		{
-			nbt.setByteArray( "blocks", ShipWorldPersistence.writeNewestVersion( ship.getShipWorld() ) );
+			nbt.setByteArray( "blocks", ship.getSavedShipWorld() );
 		}
 	},
 	V2( 2 )
@@ -46,7 +46,7 @@ public enum ShipPersistence
 		@Override
 		public void write( EntityShip ship, NBTTagCompound nbt )
 		{
-			nbt.setByteArray( "blocks", ShipWorldPersistence.writeNewestVersion( ship.getShipWorld() ) );
+			nbt.setByteArray( "blocks", ship.getSavedShipWorld() );
 			nbt.setByteArray( "waterDisplacement", ship.getWaterDisplacer().write() );
 			nbt.setByteArray( "rainDisplacement", ship.getRainDisplacer().write() );
 		}
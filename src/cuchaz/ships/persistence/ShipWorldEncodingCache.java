@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships.persistence;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+import cuchaz.ships.ShipWorld;
+
+public class ShipWorldEncodingCache
+{
+	// encoding a ship means serializing every block and tile entity (and maybe compressing it all)
+	// so keep the bytes around until the ship changes, and share them with everyone who asks
+	
+	public static class Encoding
+	{
+		public final ShipWorld shipWorld;
+		public final int version;
+		public final boolean isCompressed;
+		public final byte[] data; // NOTE: shared by everyone, don't modify
+		public final int checksum;
+		public final String hash;
+		
+		private Encoding( ShipWorld shipWorld, boolean isCompressed )
+		{
+			this.shipWorld = shipWorld;
+			this.version = shipWorld.getVersion();
+			this.isCompressed = isCompressed;
+			this.data = ShipWorldPersistence.writeNewestVersion( shipWorld, isCompressed );
+			
+			// NOTE: this matches ShipBlocksTransfer.getChecksum()
+			CRC32 crc = new CRC32();
+			crc.update( data );
+			this.checksum = (int)crc.getValue();
+			
+			// the checksum catches transfer errors, but clients need something stronger to name cached blocks by
+			// NOTE: only the compressed blocks get sent to clients
+			this.hash = isCompressed ? getHash( data ) : null;
+		}
+		
+		public boolean isCurrent( ShipWorld shipWorld )
+		{
+			return this.shipWorld == shipWorld && this.version == shipWorld.getVersion();
+		}
+	}
+	
+	private static final String HexDigits = "0123456789abcdef";
+	
+	private static long m_numHits = 0;
+	private static long m_numMisses = 0;
+	
+	private Encoding m_encoding;
+	private Encoding m_compressedEncoding;
+	
+	public ShipWorldEncodingCache( )
+	{
+		m_encoding = null;
+		m_compressedEncoding = null;
+	}
+	
+	public static long getNumHits( )
+	{
+		return m_numHits;
+	}
+	
+	public static long getNumMisses( )
+	{
+		return m_numMisses;
+	}
+	
+	public Encoding get( ShipWorld shipWorld, boolean isCompressed )
+	{
+		Encoding encoding = isCompressed ? m_compressedEncoding : m_encoding;
+		if( encoding != null && encoding.isCurrent( shipWorld ) )
+		{
+			m_numHits++;
+			return encoding;
+		}
+		
+		// the ship changed, encode it again
+		m_numMisses++;
+		encoding = new Encoding( shipWorld, isCompressed );
+		if( isCompressed )
+		{
+			m_compressedEncoding = encoding;
+		}
+		else
+		{
+			m_encoding = encoding;
+		}
+		return encoding;
+	}
+	
+	public void clear( )
+	{
+		m_encoding = null;
+		m_compressedEncoding = null;
+	}
+	
+	public static String getHash( byte[] data )
+	{
+		try
+		{
+			// SHA-1 as hex digits
+			byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( data );
+			StringBuilder buf = new StringBuilder();
+			for( byte b : digest )
+			{
+				buf.append( HexDigits.charAt( ( b >> 4 ) & 0xf ) );
+				buf.append( HexDigits.charAt( b & 0xf ) );
+			}
+			return buf.toString();
+		}
+		catch( NoSuchAlgorithmException ex )
+		{
+			// every JVM has SHA-1
+			throw new Error( ex );
+		}
+	}
+}
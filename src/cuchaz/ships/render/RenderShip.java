@@ -11,6 +11,7 @@
 package cuchaz.ships.render;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +35,7 @@ import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.AxisAlignedBB;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.Vec3;
+import net.minecraft.world.IBlockAccess;
 
 import org.lwjgl.opengl.GL11;
 
@@ -41,21 +43,30 @@ import cuchaz.modsShared.ColorUtils;
 import cuchaz.modsShared.blocks.Coords;
 import cuchaz.ships.EntityShip;
 import cuchaz.ships.HitList;
+import cuchaz.ships.ShipSections;
 import cuchaz.ships.ShipWorld;
 import cuchaz.ships.Ships;
 
 public class RenderShip extends Render
 {
+	private static class DisplayLists
+	{
+		public int shipListId;
+		public Map<Coords,Integer> sectionListIds = new HashMap<Coords,Integer>();
+	}
+	
 	private RenderBlocks m_renderBlocks;
 	private Set<Integer> m_blacklistedBlocks;
-	private Map<ShipWorld,Integer> m_displayListIds;
+	private Map<ShipWorld,DisplayLists> m_displayLists;
+	private List<Coords> m_sectionsToBuild;
 	private List<TileEntity> m_tileEntitiesToRender;
 	
 	public RenderShip( )
 	{
 		m_renderBlocks = new RenderBlocks();
 		m_blacklistedBlocks = new TreeSet<Integer>();
-		m_displayListIds = new HashMap<ShipWorld,Integer>(); // fine to hash on instance
+		m_displayLists = new HashMap<ShipWorld,DisplayLists>(); // fine to hash on instance
+		m_sectionsToBuild = new ArrayList<Coords>();
 		m_tileEntitiesToRender = new ArrayList<TileEntity>();
 	}
 	
@@ -99,10 +110,9 @@ public class RenderShip extends Render
 		
 		// collect all the tile entities we need to render
 		m_tileEntitiesToRender.clear();
-		for( Coords coords : shipWorld.coords() )
+		for( TileEntity tileEntity : shipWorld.tileEntities().values() )
 		{
-			TileEntity tileEntity = shipWorld.getBlockTileEntity( coords );
-			if( tileEntity != null && TileEntityRenderer.instance.hasSpecialRenderer( tileEntity ) )
+			if( TileEntityRenderer.instance.hasSpecialRenderer( tileEntity ) )
 			{
 				m_tileEntitiesToRender.add( tileEntity );
 			}
@@ -138,40 +148,68 @@ public class RenderShip extends Render
 	
 	public int getDisplayList( RenderBlocks renderBlocks, ShipWorld shipWorld )
 	{
-		// does the ship have a list already?
-		Integer id = m_displayListIds.get( shipWorld );
+		ShipSections sections = shipWorld.getSections();
 		
-		if( id != null && shipWorld.needsRenderUpdate() )
+		// does the ship have lists already?
+		DisplayLists lists = m_displayLists.get( shipWorld );
+		if( lists == null )
 		{
-			// invalidate the old list
-			GL11.glDeleteLists( id, 1 );
-			id = null;
+			// make one list per section, plus one list for the whole ship that just calls the section lists
+			// NOTE: nested lists are called by id, so re-compiling a section list updates the ship list too
+			int baseId = GLAllocation.generateDisplayLists( sections.sections().size() + 1 );
+			lists = new DisplayLists();
+			lists.shipListId = baseId;
+			GL11.glNewList( lists.shipListId, GL11.GL_COMPILE );
+			int nextId = baseId + 1;
+			for( Coords sectionCoords : sections.sections() )
+			{
+				lists.sectionListIds.put( sectionCoords, nextId );
+				GL11.glCallList( nextId );
+				nextId++;
+			}
+			GL11.glEndList();
+			m_displayLists.put( shipWorld, lists );
+			
+			sections.markAllDirty();
 		}
 		
-		if( id == null )
+		// only rebuild the sections that changed
+		if( sections.hasDirtySections() )
 		{
-			// create a new list
-			id = GLAllocation.generateDisplayLists( 1 );
-			m_displayListIds.put( shipWorld, id );
-			
-			// build the list
-			GL11.glNewList( id, GL11.GL_COMPILE );
-			renderShip( renderBlocks, shipWorld );
-			GL11.glEndList();
+			m_sectionsToBuild.clear();
+			sections.getDirtySections( m_sectionsToBuild );
+			for( Coords sectionCoords : m_sectionsToBuild )
+			{
+				GL11.glNewList( lists.sectionListIds.get( sectionCoords ), GL11.GL_COMPILE );
+				renderSection( renderBlocks, shipWorld, sections.getBlocks( sectionCoords ) );
+				GL11.glEndList();
+			}
 		}
-		return id;
+		return lists.shipListId;
+	}
+	
+	public void renderSection( RenderBlocks renderBlocks, IBlockAccess blockAccess, Collection<Coords> blocks )
+	{
+		Tessellator.instance.startDrawingQuads();
+		tessellateSection( renderBlocks, blockAccess, blocks );
+		Tessellator.instance.draw();
 	}
 	
-	private void renderShip( RenderBlocks renderBlocks, ShipWorld shipWorld )
+	public void tessellateSection( RenderBlocks renderBlocks, IBlockAccess blockAccess, Collection<Coords> blocks )
 	{
-		renderBlocks.blockAccess = shipWorld;
-		Tessellator tessellator = Tessellator.instance;
-		tessellator.startDrawingQuads();
+		// NOTE: the block renderers always use Tessellator.instance, and adding vertices doesn't touch GL
+		// so tests can call this between their own startDrawingQuads() and reset, and capture the vertices
+		renderBlocks.blockAccess = blockAccess;
 		
 		// draw all the blocks (but defer special tile entities for later rendering)
-		for( Coords coords : shipWorld.coords() )
+		for( Coords coords : blocks )
 		{
-			Block block = Block.blocksList[shipWorld.getBlockId( coords )];
+			// blocks can turn into air without leaving the section
+			Block block = Block.blocksList[blockAccess.getBlockId( coords.x, coords.y, coords.z )];
+			if( block == null )
+			{
+				continue;
+			}
 			
 			// mod blocks can do weird things and crash. We need to be careful here
 			try
@@ -182,7 +220,7 @@ public class RenderShip extends Render
 				}
 				else
 				{
-					renderBlock( renderBlocks, shipWorld, block, coords );
+					renderBlock( renderBlocks, blockAccess, block, coords );
 				}
 			}
 			catch( Throwable t )
@@ -193,17 +231,15 @@ public class RenderShip extends Render
 				Ships.logger.warning( t, "Block: %s couldn't render properly! Blocks of this type will not be rendered again.", block.getUnlocalizedName() );
 			}
 		}
-		
-		tessellator.draw();
 	}
 	
-	public static void renderBlock( RenderBlocks renderBlocks, ShipWorld shipWorld, Block block, Coords coords )
+	public static void renderBlock( RenderBlocks renderBlocks, IBlockAccess blockAccess, Block block, Coords coords )
 	{
 		// get the block shape
-		block.setBlockBoundsBasedOnState( shipWorld, coords.x, coords.y, coords.z );
+		block.setBlockBoundsBasedOnState( blockAccess, coords.x, coords.y, coords.z );
 		
 		// do we have a tile entity that needs special rendering?
-		TileEntity tileEntity = shipWorld.getBlockTileEntity( coords );
+		TileEntity tileEntity = blockAccess.getBlockTileEntity( coords.x, coords.y, coords.z );
 		if( tileEntity != null && TileEntityRenderer.instance.hasSpecialRenderer( tileEntity ) )
 		{
 			// skip this block
@@ -216,7 +252,7 @@ public class RenderShip extends Render
 			// but use the color multiplier instead of ambient occlusion
 			// AO just looks weird and I can't make it look good yet
 			
-			int colorMultiplier = block.colorMultiplier( shipWorld, coords.x, coords.y, coords.z );
+			int colorMultiplier = block.colorMultiplier( blockAccess, coords.x, coords.y, coords.z );
 	        float colorR = (float)( colorMultiplier >> 16 & 255 )/255.0F;
 	        float colorG = (float)( colorMultiplier >> 8 & 255 )/255.0F;
 	        float colorB = (float)( colorMultiplier & 255 )/255.0F;
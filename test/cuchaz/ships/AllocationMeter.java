@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+public abstract class AllocationMeter
+{
+	// counts the bytes the test thread allocates while running onRun()
+	// tests should call Assume.assumeTrue( isSupported() ) first, so they get skipped instead of passing without a measurement
+	
+	private static final int NumWarmups = 20000;
+	
+	public static boolean isSupported( )
+	{
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if( !( bean instanceof com.sun.management.ThreadMXBean ) )
+		{
+			return false;
+		}
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean)bean;
+		return allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled();
+	}
+	
+	public long measure( )
+	throws Exception
+	{
+		// NOTE: Minecraft tests run on another classloader, where JUnit can't see assumptions, so fail instead
+		assertTrue( "this JVM can't count allocations", isSupported() );
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		
+		// run the work until the JIT has compiled it, and until the object pools have grown as big as it needs
+		for( int i=0; i<NumWarmups; i++ )
+		{
+			onRun();
+			onReset();
+		}
+		
+		long before = bean.getThreadAllocatedBytes( threadId );
+		onRun();
+		long after = bean.getThreadAllocatedBytes( threadId );
+		long overhead = bean.getThreadAllocatedBytes( threadId ) - after;
+		onReset();
+		
+		// don't count what getThreadAllocatedBytes() allocated for itself
+		return Math.max( 0, after - before - overhead );
+	}
+	
+	public abstract void onRun( ) throws Exception;
+	
+	public void onReset( )
+	throws Exception
+	{
+		// override to undo what onRun() did (eg, recycle the AABB pool), outside of the measurement
+	}
+}
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import cuchaz.modsShared.blocks.BlockSet;
+import cuchaz.modsShared.blocks.Coords;
+
+public class TestBlockOctree
+{
+	@Test
+	public void addRemove( )
+	{
+		BlockOctree index = new BlockOctree();
+		assertTrue( index.add( 0, 0, 0 ) );
+		assertFalse( index.add( 0, 0, 0 ) );
+		assertTrue( index.add( -20, 5, 33 ) );
+		assertEquals( 2, index.size() );
+		assertTrue( index.contains( -20, 5, 33 ) );
+		assertFalse( index.contains( -20, 5, 32 ) );
+		
+		assertTrue( index.remove( 0, 0, 0 ) );
+		assertFalse( index.remove( 0, 0, 0 ) );
+		assertFalse( index.contains( 0, 0, 0 ) );
+		assertEquals( 1, index.size() );
+	}
+	
+	@Test
+	public void queriesMatchBruteForce( )
+	{
+		Random rand = new Random( 12345 );
+		BlockSet blocks = new BlockSet();
+		BlockOctree index = new BlockOctree();
+		for( int i=0; i<3000; i++ )
+		{
+			Coords coords = new Coords( rand.nextInt( 60 ) - 30, rand.nextInt( 20 ) - 10, rand.nextInt( 60 ) - 30 );
+			if( rand.nextInt( 4 ) == 0 )
+			{
+				assertEquals( blocks.remove( coords ), index.remove( coords.x, coords.y, coords.z ) );
+			}
+			else
+			{
+				assertEquals( blocks.add( coords ), index.add( coords.x, coords.y, coords.z ) );
+			}
+		}
+		assertEquals( blocks.size(), index.size() );
+		
+		for( int i=0; i<500; i++ )
+		{
+			int minX = rand.nextInt( 70 ) - 35;
+			int minY = rand.nextInt( 30 ) - 15;
+			int minZ = rand.nextInt( 70 ) - 35;
+			int maxX = minX + rand.nextInt( 20 );
+			int maxY = minY + rand.nextInt( 10 );
+			int maxZ = minZ + rand.nextInt( 20 );
+			
+			BlockSet expected = new BlockSet();
+			for( Coords coords : blocks )
+			{
+				if( coords.x >= minX && coords.x <= maxX && coords.y >= minY && coords.y <= maxY && coords.z >= minZ && coords.z <= maxZ )
+				{
+					expected.add( coords );
+				}
+			}
+			
+			BlockSet observed = new BlockSet();
+			index.query( observed, minX, minY, minZ, maxX, maxY, maxZ );
+			assertEquals( expected, observed );
+			assertEquals( !expected.isEmpty(), index.anyInBox( minX, minY, minZ, maxX, maxY, maxZ ) );
+			
+			final BlockSet visited = new BlockSet();
+			assertTrue( index.query( new BlockOctree.BlockVisitor( )
+			{
+				@Override
+				public boolean visitBlock( int x, int y, int z )
+				{
+					visited.add( new Coords( x, y, z ) );
+					return true;
+				}
+			}, minX, minY, minZ, maxX, maxY, maxZ ) );
+			assertEquals( expected, visited );
+			
+			CountingVisitor counter = new CountingVisitor( 1 );
+			assertEquals( expected.isEmpty(), index.query( counter, minX, minY, minZ, maxX, maxY, maxZ ) );
+			assertEquals( Math.min( 1, expected.size() ), counter.numBlocks );
+		}
+	}
+	
+	@Test
+	public void rayQueriesMatchBruteForce( )
+	{
+		Random rand = new Random( 12345 );
+		BlockSet blocks = new BlockSet();
+		BlockOctree index = new BlockOctree();
+		for( int i=0; i<3000; i++ )
+		{
+			Coords coords = new Coords( rand.nextInt( 40 ) - 20, rand.nextInt( 20 ) - 10, rand.nextInt( 40 ) - 20 );
+			blocks.add( coords );
+			index.add( coords.x, coords.y, coords.z );
+		}
+		
+		for( int i=0; i<500; i++ )
+		{
+			// NOTE: some segments start or end outside the blocks
+			final double fromX = rand.nextDouble()*60 - 30;
+			final double fromY = rand.nextDouble()*30 - 15;
+			final double fromZ = rand.nextDouble()*60 - 30;
+			final double toX = fromX + rand.nextDouble()*20 - 10;
+			final double toY = fromY + rand.nextDouble()*20 - 10;
+			final double toZ = fromZ + rand.nextDouble()*20 - 10;
+			
+			BlockSet expected = new BlockSet();
+			for( Coords coords : blocks )
+			{
+				if( getSegmentEnterT( coords, fromX, fromY, fromZ, toX, toY, toZ ) != null )
+				{
+					expected.add( coords );
+				}
+			}
+			
+			// the blocks should come out in order along the segment
+			final BlockSet visited = new BlockSet();
+			final double[] lastT = { Double.NEGATIVE_INFINITY };
+			assertTrue( index.rayQuery( new BlockOctree.BlockVisitor( )
+			{
+				@Override
+				public boolean visitBlock( int x, int y, int z )
+				{
+					Coords coords = new Coords( x, y, z );
+					Double t = getSegmentEnterT( coords, fromX, fromY, fromZ, toX, toY, toZ );
+					assertTrue( t != null && t >= lastT[0] );
+					lastT[0] = t;
+					visited.add( coords );
+					return true;
+				}
+			}, fromX, fromY, fromZ, toX, toY, toZ ) );
+			assertEquals( expected, visited );
+			
+			CountingVisitor counter = new CountingVisitor( 1 );
+			assertEquals( expected.isEmpty(), index.rayQuery( counter, fromX, fromY, fromZ, toX, toY, toZ ) );
+			assertEquals( Math.min( 1, expected.size() ), counter.numBlocks );
+		}
+	}
+	
+	@Test
+	public void nearestMatchesBruteForce( )
+	{
+		Random rand = new Random( 12345 );
+		BlockSet blocks = new BlockSet();
+		BlockOctree index = new BlockOctree();
+		assertEquals( Double.POSITIVE_INFINITY, index.getNearestDistSq( 0, 0, 0 ), 0 );
+		for( int i=0; i<1000; i++ )
+		{
+			Coords coords = new Coords( rand.nextInt( 40 ) - 20, rand.nextInt( 20 ) - 10, rand.nextInt( 40 ) - 20 );
+			blocks.add( coords );
+			index.add( coords.x, coords.y, coords.z );
+		}
+		
+		for( int i=0; i<500; i++ )
+		{
+			// NOTE: some points are far outside the blocks
+			double x = rand.nextDouble()*100 - 50;
+			double y = rand.nextDouble()*60 - 30;
+			double z = rand.nextDouble()*100 - 50;
+			
+			double expected = Double.POSITIVE_INFINITY;
+			for( Coords coords : blocks )
+			{
+				double dx = coords.x + 0.5 - x;
+				double dy = coords.y + 0.5 - y;
+				double dz = coords.z + 0.5 - z;
+				expected = Math.min( expected, dx*dx + dy*dy + dz*dz );
+			}
+			assertEquals( expected, index.getNearestDistSq( x, y, z ), 1e-9 );
+		}
+	}
+	
+	@Test
+	public void visitorQueryDoesNotAllocate( )
+	throws Exception
+	{
+		Assume.assumeTrue( AllocationMeter.isSupported() );
+		
+		Random rand = new Random( 12345 );
+		final BlockOctree index = new BlockOctree();
+		for( int i=0; i<3000; i++ )
+		{
+			index.add( rand.nextInt( 60 ) - 30, rand.nextInt( 20 ) - 10, rand.nextInt( 60 ) - 30 );
+		}
+		final CountingVisitor counter = new CountingVisitor( Integer.MAX_VALUE );
+		long numBytes = new AllocationMeter( )
+		{
+			@Override
+			public void onRun( )
+			{
+				queryLoop( index, counter );
+			}
+		}.measure();
+		assertTrue( counter.numBlocks > 0 );
+		assertEquals( 0, numBytes );
+	}
+	
+	private static Double getSegmentEnterT( Coords coords, double fromX, double fromY, double fromZ, double toX, double toY, double toZ )
+	{
+		// returns where the segment enters the block, or null if it misses
+		double tMin = 0;
+		double tMax = 1;
+		double[] from = { fromX, fromY, fromZ };
+		double[] delta = { toX - fromX, toY - fromY, toZ - fromZ };
+		int[] min = { coords.x, coords.y, coords.z };
+		for( int i=0; i<3; i++ )
+		{
+			if( delta[i] == 0 )
+			{
+				if( from[i] < min[i] || from[i] > min[i] + 1 )
+				{
+					return null;
+				}
+				continue;
+			}
+			double t1 = ( min[i] - from[i] )/delta[i];
+			double t2 = ( min[i] + 1 - from[i] )/delta[i];
+			tMin = Math.max( tMin, Math.min( t1, t2 ) );
+			tMax = Math.min( tMax, Math.max( t1, t2 ) );
+		}
+		return tMin < tMax ? tMin : null;
+	}
+	
+	private static class CountingVisitor implements BlockOctree.BlockVisitor
+	{
+		public int maxBlocks;
+		public int numBlocks;
+		
+		public CountingVisitor( int maxBlocks )
+		{
+			this.maxBlocks = maxBlocks;
+			numBlocks = 0;
+		}
+		
+		@Override
+		public boolean visitBlock( int x, int y, int z )
+		{
+			numBlocks++;
+			return numBlocks < maxBlocks;
+		}
+	}
+	
+	private void queryLoop( BlockOctree index, CountingVisitor counter )
+	{
+		counter.numBlocks = 0;
+		for( int i=0; i<16; i++ )
+		{
+			index.query( counter, -i, -5, -i, i, 5, i );
+		}
+		index.visitBlocks( counter );
+		index.rayQuery( counter, -20.5, -3.2, -17.1, 19.3, 4.7, 18.9 );
+		index.getNearestDistSq( 40.3, 2.1, -7.6 );
+	}
+}
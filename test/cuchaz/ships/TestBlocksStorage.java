@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cuchaz.modsShared.blocks.BlockSet;
+import cuchaz.modsShared.blocks.Coords;
+
+public class TestBlocksStorage
+{
+	@Test
+	public void packDenseShip( )
+	{
+		BlocksStorage storage = getCube( 4 );
+		assertFalse( storage.isPacked() );
+		storage.packIfDense();
+		assertTrue( storage.isPacked() );
+		
+		checkCube( storage, 4 );
+	}
+	
+	@Test
+	public void keepSparseShip( )
+	{
+		BlocksStorage storage = new BlocksStorage();
+		storage.setBlock( new Coords( 0, 0, 0 ), new BlockStorage( 1, 0 ) );
+		storage.setBlock( new Coords( 40, 40, 40 ), new BlockStorage( 2, 0 ) );
+		storage.packIfDense();
+		assertFalse( storage.isPacked() );
+		assertEquals( 2, storage.getNumBlocks() );
+	}
+	
+	@Test
+	public void changePackedBlock( )
+	{
+		BlocksStorage storage = getCube( 3 );
+		storage.pack();
+		
+		assertTrue( storage.changeBlock( new Coords( 1, 1, 1 ), 7, 3 ) );
+		assertEquals( 7, storage.getBlock( new Coords( 1, 1, 1 ) ).id );
+		assertEquals( 3, storage.getBlock( new Coords( 1, 1, 1 ) ).meta );
+		
+		// the other blocks of the same kind shouldn't change
+		assertEquals( 1, storage.getBlock( new Coords( 0, 0, 0 ) ).id );
+		
+		// can't change blocks that aren't on the ship
+		assertFalse( storage.changeBlock( new Coords( 5, 5, 5 ), 7, 3 ) );
+		assertEquals( 0, storage.getBlock( new Coords( 5, 5, 5 ) ).id );
+		assertEquals( 27, storage.getNumBlocks() );
+	}
+	
+	@Test
+	public void changeMetaKeepsPhysics( )
+	{
+		BlocksStorage storage = getCube( 3 );
+		int version = storage.getVersion();
+		int physicsVersion = storage.getPhysicsVersion();
+		
+		// the blocks changed, but not in any way the physics cares about
+		assertTrue( storage.changeBlock( new Coords( 1, 1, 1 ), 1, 9 ) );
+		assertFalse( version == storage.getVersion() );
+		assertEquals( physicsVersion, storage.getPhysicsVersion() );
+		
+		storage.pack();
+		version = storage.getVersion();
+		assertTrue( storage.changeBlock( new Coords( 0, 1, 1 ), 1, 9 ) );
+		assertFalse( version == storage.getVersion() );
+		assertEquals( physicsVersion, storage.getPhysicsVersion() );
+	}
+	
+	@Test
+	public void setOutsidePackedBounds( )
+	{
+		BlocksStorage storage = getCube( 3 );
+		storage.pack();
+		
+		storage.setBlock( new Coords( 10, 0, 0 ), new BlockStorage( 5, 0 ) );
+		assertFalse( storage.isPacked() );
+		assertEquals( 28, storage.getNumBlocks() );
+		assertEquals( 5, storage.getBlock( new Coords( 10, 0, 0 ) ).id );
+		checkCube( storage, 3 );
+	}
+	
+	@Test
+	public void packedCoordsMatchCells( )
+	{
+		// a floor with a post, so the packed bounds have empty cells
+		BlocksStorage storage = new BlocksStorage();
+		for( int x=0; x<3; x++ )
+		{
+			for( int z=0; z<3; z++ )
+			{
+				storage.setBlock( new Coords( x, 0, z ), new BlockStorage( 1, 0 ) );
+			}
+		}
+		storage.setBlock( new Coords( 0, 2, 0 ), new BlockStorage( 1, 0 ) );
+		storage.pack();
+		assertFalse( storage.contains( new Coords( 1, 1, 1 ) ) );
+		
+		// fill an empty cell
+		storage.setBlock( new Coords( 1, 1, 1 ), new BlockStorage( 2, 0 ) );
+		assertTrue( storage.isPacked() );
+		assertEquals( 11, storage.getNumBlocks() );
+		
+		final BlockSet visited = new BlockSet();
+		assertTrue( storage.visitBlocks( new BlockOctree.BlockVisitor( )
+		{
+			@Override
+			public boolean visitBlock( int x, int y, int z )
+			{
+				return visited.add( new Coords( x, y, z ) );
+			}
+		} ) );
+		assertEquals( storage.coords(), visited );
+		assertEquals( 11, visited.size() );
+		for( Coords coords : visited )
+		{
+			assertTrue( storage.contains( coords ) );
+		}
+		assertFalse( storage.contains( new Coords( 3, 0, 0 ) ) );
+	}
+	
+	private BlocksStorage getCube( int size )
+	{
+		BlocksStorage storage = new BlocksStorage();
+		for( int x=0; x<size; x++ )
+		{
+			for( int y=0; y<size; y++ )
+			{
+				for( int z=0; z<size; z++ )
+				{
+					storage.setBlock( new Coords( x, y, z ), new BlockStorage( 1, ( x + y + z ) % 16 ) );
+				}
+			}
+		}
+		return storage;
+	}
+	
+	private void checkCube( BlocksStorage storage, int size )
+	{
+		for( int x=0; x<size; x++ )
+		{
+			for( int y=0; y<size; y++ )
+			{
+				for( int z=0; z<size; z++ )
+				{
+					Coords coords = new Coords( x, y, z );
+					assertTrue( storage.coords().contains( coords ) );
+					assertEquals( 1, storage.getBlock( coords ).id );
+					assertEquals( ( x + y + z ) % 16, storage.getBlock( coords ).meta );
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.minecraft.block.Block;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityLivingBase;
+import net.minecraft.entity.item.EntityHanging;
+import net.minecraft.entity.item.EntityItem;
+import net.minecraft.entity.passive.EntityPig;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.AxisAlignedBB;
+import net.minecraft.util.MovingObjectPosition;
+import net.minecraft.util.Vec3;
+import net.minecraft.util.Vec3Pool;
+import net.minecraft.world.EnumGameType;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldProviderSurface;
+import net.minecraft.world.WorldSettings;
+import net.minecraft.world.WorldType;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import cuchaz.modsShared.blocks.BlockMap;
+import cuchaz.modsShared.blocks.Coords;
+
+public class TestShipCollider
+{
+	@Test
+	public void colliderQueriesDoNotAllocate( )
+	throws Exception
+	{
+		Assume.assumeTrue( AllocationMeter.isSupported() );
+		new MinecraftRunner( )
+		{
+			@Override
+			public void onRun( )
+			throws Exception
+			{
+				// a raft with a ladder, and another raft a little ways off in +x
+				World world = getWorld();
+				final EntityShip ship = getRaft( world, 0, 0 );
+				final EntityShip otherShip = getRaft( world, 6, 0 );
+				final ShipCollider collider = ship.getCollider();
+				
+				// an item standing on the raft and a pig climbing the ladder
+				final Entity item = new EntityItem( world );
+				item.setPosition( ship.blocksToWorldX( 0.5, 0.5 ), ship.blocksToWorldY( 1 ), ship.blocksToWorldZ( 0.5, 0.5 ) );
+				final EntityLivingBase pig = new EntityPig( world );
+				pig.setPosition( ship.blocksToWorldX( 0.5, 2.5 ), ship.blocksToWorldY( 1 ), ship.blocksToWorldZ( 0.5, 2.5 ) );
+				final AxisAlignedBB box = collider.getBlockWorldBoundingBox( AxisAlignedBB.getBoundingBox( 0, 0, 0, 0, 0, 0 ), 0, 0, 0 );
+				final ShipCollider.CollisionResult result = new ShipCollider.CollisionResult();
+				
+				assertTrue( collider.isEntityStandingOnBlock( item ) );
+				assertTrue( collider.isEntityOnLadder( pig ) );
+				assertTrue( collider.isColliding( box ) );
+				collider.checkShipCollisions( result, 4, 0, 0, 0, otherShip );
+				assertTrue( result.scaling < 1 );
+				assertTrue( result.numCollidingBoxes > 0 );
+				
+				assertEquals( 0, new PooledMeter( )
+				{
+					@Override
+					public void onRun( )
+					{
+						collider.isEntityStandingOnBlock( item );
+						collider.isEntityOnLadder( pig );
+						collider.isColliding( box );
+						collider.checkShipCollisions( result, 4, 0, 0, 0, otherShip );
+					}
+				}.measure() );
+			}
+		}.run();
+	}
+	
+	@Test
+	public void moveShipDoesNotAllocate( )
+	throws Exception
+	{
+		Assume.assumeTrue( AllocationMeter.isSupported() );
+		new MinecraftRunner( )
+		{
+			@Override
+			public void onRun( )
+			throws Exception
+			{
+				// a raft floating just above the ground
+				World world = getWorld();
+				final EntityShip ship = getRaft( world, 0, 0.05 );
+				final ShipCollider collider = ship.getCollider();
+				final double startY = ship.posY;
+				
+				// the ground should stop the raft halfway down, and stop it from turning
+				collider.moveShip( 0, -0.1, 0, 1 );
+				assertEquals( startY - 0.05, ship.posY, 1e-6 );
+				assertEquals( 0, ship.rotationYaw, 0 );
+				
+				assertEquals( 0, new PooledMeter( )
+				{
+					@Override
+					public void onRun( )
+					{
+						collider.moveShip( 0, -0.1, 0, 1 );
+					}
+					
+					@Override
+					public void onReset( )
+					{
+						super.onReset();
+						ship.rotationYaw = 0;
+						ship.setPosition( 0, startY, 0 );
+					}
+				}.measure() );
+			}
+		}.run();
+	}
+	
+	@Test
+	public void onNearbyEntityMovedDoesNotAllocate( )
+	throws Exception
+	{
+		Assume.assumeTrue( AllocationMeter.isSupported() );
+		new MinecraftRunner( )
+		{
+			@Override
+			public void onRun( )
+			throws Exception
+			{
+				// a pig that just fell through the deck of the raft
+				World world = getWorld();
+				final EntityShip ship = getRaft( world, 0, 0 );
+				final ShipCollider collider = ship.getCollider();
+				final EntityLivingBase pig = new EntityPig( world );
+				final double x = ship.blocksToWorldX( 0.5, 0.5 );
+				final double z = ship.blocksToWorldZ( 0.5, 0.5 );
+				final double deckY = ship.blocksToWorldY( 1 );
+				pig.setPosition( x, deckY - 0.2, z );
+				
+				// NOTE: this goes through trajectoryQuery() too
+				collider.onNearbyEntityMoved( x, deckY + 0.2, z, 0, pig );
+				assertEquals( deckY, pig.posY, 0.01 );
+				assertTrue( pig.onGround );
+				
+				assertEquals( 0, new PooledMeter( )
+				{
+					@Override
+					public void onRun( )
+					{
+						collider.onNearbyEntityMoved( x, deckY + 0.2, z, 0, pig );
+					}
+					
+					@Override
+					public void onReset( )
+					{
+						super.onReset();
+						pig.setPosition( x, deckY - 0.2, z );
+						pig.onGround = false;
+						pig.fallDistance = 0;
+					}
+				}.measure() );
+			}
+		}.run();
+	}
+	
+	@Test
+	public void lineSegmentQueryDoesNotAllocate( )
+	throws Exception
+	{
+		Assume.assumeTrue( AllocationMeter.isSupported() );
+		new MinecraftRunner( )
+		{
+			@Override
+			public void onRun( )
+			throws Exception
+			{
+				World world = getWorld();
+				final EntityShip ship = getRaft( world, 0, 0 );
+				final ShipCollider collider = ship.getCollider();
+				final Vec3Pool vecPool = world.getWorldVec3Pool();
+				final List<MovingObjectPosition> hits = new ArrayList<MovingObjectPosition>();
+				
+				// a segment through the ladder hits it
+				Vec3 from = vecPool.getVecFromPool( -2.5, 1.5, 2.95 );
+				Vec3 to = vecPool.getVecFromPool( 2.5, 1.5, 2.95 );
+				collider.lineSegmentQuery( hits, from, to );
+				assertEquals( 1, hits.size() );
+				assertNotNull( collider.rayTrace( from, to ) );
+				
+				// but a segment through the empty part of the ladder's cell doesn't
+				hits.clear();
+				from = vecPool.getVecFromPool( -2.5, 1.5, 2.2 );
+				to = vecPool.getVecFromPool( 2.5, 1.5, 2.2 );
+				collider.lineSegmentQuery( hits, from, to );
+				assertTrue( hits.isEmpty() );
+				assertNull( collider.rayTrace( from, to ) );
+				
+				// NOTE: hits make new MovingObjectPositions, so only measure the misses
+				assertEquals( 0, new PooledMeter( )
+				{
+					@Override
+					public void onRun( )
+					{
+						// block ray traces move the segment with its own vector pool, so use the world's
+						Vec3 from = vecPool.getVecFromPool( -2.5, 1.5, 2.2 );
+						Vec3 to = vecPool.getVecFromPool( 2.5, 1.5, 2.2 );
+						collider.lineSegmentQuery( hits, from, to );
+						collider.rayTrace( from, to );
+					}
+					
+					@Override
+					public void onReset( )
+					{
+						super.onReset();
+						vecPool.clear();
+					}
+				}.measure() );
+				assertTrue( hits.isEmpty() );
+			}
+		}.run();
+	}
+	
+	private static abstract class PooledMeter extends AllocationMeter
+	{
+		@Override
+		public void onReset( )
+		{
+			// blocks get their collision boxes from the AABB pool, so recycle them like the world tick does
+			AxisAlignedBB.getAABBPool().cleanPool();
+		}
+	}
+	
+	private static World getWorld( )
+	{
+		// the ground is solid stone below y=0
+		return new DetachedWorld( "Test", new WorldSettings( 0, EnumGameType.SURVIVAL, false, false, WorldType.FLAT ), new WorldProviderSurface() )
+		{
+			@Override
+			public int getBlockId( int x, int y, int z )
+			{
+				return y < 0 ? Block.stone.blockID : 0;
+			}
+		};
+	}
+	
+	private static EntityShip getRaft( World world, double x, double bottomY )
+	{
+		// a 5x5 floor of planks with a ladder on the +z edge
+		BlocksStorage storage = new BlocksStorage();
+		for( int bx=-2; bx<=2; bx++ )
+		{
+			for( int bz=-2; bz<=2; bz++ )
+			{
+				storage.setBlock( new Coords( bx, 0, bz ), new BlockStorage( Block.planks.blockID, 0 ) );
+			}
+		}
+		storage.setBlock( new Coords( 0, 1, 2 ), new BlockStorage( Block.ladder.blockID, 2 ) );
+		
+		// put the bottom of the floor at the given height
+		EntityShip ship = new EntityShip( world );
+		ship.setShipWorld( new ShipWorld( world, storage, new BlockMap<TileEntity>(), new BlockMap<EntityHanging>(), 0 ) );
+		ship.setPosition( x, 0, 0 );
+		ship.setPosition( x, bottomY - ship.blocksToWorldY( 0 ), 0 );
+		return ship;
+	}
+}
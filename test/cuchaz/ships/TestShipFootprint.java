@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import net.minecraft.block.Block;
+import net.minecraft.entity.item.EntityHanging;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.EnumGameType;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldProviderSurface;
+import net.minecraft.world.WorldSettings;
+import net.minecraft.world.WorldType;
+
+import org.junit.Test;
+
+import cuchaz.modsShared.blocks.BlockMap;
+import cuchaz.modsShared.blocks.BlockSet;
+import cuchaz.modsShared.blocks.Coords;
+
+public class TestShipFootprint
+{
+	@Test
+	public void matchesIntersectingWorldBlocks( )
+	throws Exception
+	{
+		new MinecraftRunner( )
+		{
+			@Override
+			public void onRun( )
+			throws Exception
+			{
+				Random rand = new Random( 12345 );
+				World world = getWorld();
+				for( int i=0; i<50; i++ )
+				{
+					// put a random hull at a random pose
+					EntityShip ship = new EntityShip( world );
+					ship.setShipWorld( new ShipWorld( world, getHull( rand ), new BlockMap<TileEntity>(), new BlockMap<EntityHanging>(), 0 ) );
+					ship.rotationYaw = rand.nextFloat()*360;
+					ship.setPosition( rand.nextDouble()*16 - 8, 64 + rand.nextDouble(), rand.nextDouble()*16 - 8 );
+					
+					// sink it to the rim so the whole hold is trapped air
+					ShipWorld shipWorld = ship.getShipWorld();
+					double waterHeight = shipWorld.getDisplacement().getMaxY() + 1;
+					ShipDisplacement.BlocksView trappedAirBlocks = shipWorld.getDisplacement().getTrappedAirViewFromWaterHeight( waterHeight );
+					assertFalse( trappedAirBlocks.isEmpty() );
+					
+					// the first footprint adds everything
+					ShipFootprint footprint = new ShipFootprint( ship );
+					List<Coords> addedBlocks = new ArrayList<Coords>();
+					List<Coords> removedBlocks = new ArrayList<Coords>();
+					footprint.update( trappedAirBlocks, addedBlocks, removedBlocks );
+					Set<Coords> expected = getIntersectingWorldBlocks( ship, trappedAirBlocks );
+					assertEquals( expected, toSet( addedBlocks ) );
+					assertEquals( expected.size(), addedBlocks.size() );
+					assertTrue( removedBlocks.isEmpty() );
+					checkContains( footprint, expected );
+					
+					// then move the ship a little at a time, sometimes turning too
+					for( int j=0; j<20; j++ )
+					{
+						if( rand.nextInt( 4 ) == 0 )
+						{
+							ship.rotationYaw += rand.nextFloat()*6 - 3;
+						}
+						ship.setPosition(
+							ship.posX + rand.nextDouble()*0.6 - 0.3,
+							ship.posY + rand.nextDouble()*0.2 - 0.1,
+							ship.posZ + rand.nextDouble()*0.6 - 0.3
+						);
+						trappedAirBlocks = shipWorld.getDisplacement().getTrappedAirViewFromWaterHeight( waterHeight );
+						
+						addedBlocks.clear();
+						removedBlocks.clear();
+						footprint.update( trappedAirBlocks, addedBlocks, removedBlocks );
+						Set<Coords> nextExpected = getIntersectingWorldBlocks( ship, trappedAirBlocks );
+						assertEquals( subtract( nextExpected, expected ), toSet( addedBlocks ) );
+						assertEquals( subtract( expected, nextExpected ), toSet( removedBlocks ) );
+						checkContains( footprint, nextExpected );
+						expected = nextExpected;
+					}
+				}
+			}
+		}.run();
+	}
+	
+	private static World getWorld( )
+	{
+		// a world that's all water
+		return new DetachedWorld( "Test", new WorldSettings( 0, EnumGameType.SURVIVAL, false, false, WorldType.FLAT ), new WorldProviderSurface() )
+		{
+			@Override
+			public int getBlockId( int x, int y, int z )
+			{
+				return Block.waterStill.blockID;
+			}
+		};
+	}
+	
+	private static BlocksStorage getHull( Random rand )
+	{
+		// an open box with some random lumps on the outside
+		int sizeX = 3 + rand.nextInt( 8 );
+		int sizeY = 2 + rand.nextInt( 4 );
+		int sizeZ = 3 + rand.nextInt( 8 );
+		BlocksStorage storage = new BlocksStorage();
+		for( int x=0; x<sizeX; x++ )
+		{
+			for( int y=0; y<sizeY; y++ )
+			{
+				for( int z=0; z<sizeZ; z++ )
+				{
+					if( y == 0 || x == 0 || x == sizeX - 1 || z == 0 || z == sizeZ - 1 )
+					{
+						storage.setBlock( new Coords( x, y, z ), new BlockStorage( Block.planks.blockID, 0 ) );
+					}
+				}
+			}
+		}
+		for( int i=rand.nextInt( 10 ); i>0; i-- )
+		{
+			Coords coords = new Coords( rand.nextInt( sizeX + 2 ) - 1, rand.nextInt( sizeY ), rand.nextInt( sizeZ + 2 ) - 1 );
+			if( coords.x < 0 || coords.x >= sizeX || coords.z < 0 || coords.z >= sizeZ )
+			{
+				storage.setBlock( coords, new BlockStorage( Block.planks.blockID, 0 ) );
+			}
+		}
+		return storage;
+	}
+	
+	private static Set<Coords> getIntersectingWorldBlocks( EntityShip ship, ShipDisplacement.BlocksView blocks )
+	{
+		// NOTE: this is what the water displacer did before it had a footprint
+		BlockSet worldBlocks = new BlockSet();
+		ship.getCollider().getIntersectingWorldBlocks( worldBlocks, blocks, 0.01, false );
+		return toSet( worldBlocks );
+	}
+	
+	private static void checkContains( ShipFootprint footprint, Set<Coords> expected )
+	{
+		for( Coords coords : expected )
+		{
+			assertTrue( footprint.contains( coords.x, coords.y, coords.z ) );
+			
+			// check the neighbors too, so we catch footprints that are too big
+			for( int dx=-1; dx<=1; dx+=2 )
+			{
+				Coords neighbor = new Coords( coords.x + dx, coords.y, coords.z );
+				assertEquals( expected.contains( neighbor ), footprint.contains( neighbor.x, neighbor.y, neighbor.z ) );
+			}
+		}
+	}
+	
+	private static Set<Coords> toSet( Iterable<Coords> blocks )
+	{
+		Set<Coords> out = new HashSet<Coords>();
+		for( Coords coords : blocks )
+		{
+			out.add( coords );
+		}
+		return out;
+	}
+	
+	private static Set<Coords> subtract( Set<Coords> a, Set<Coords> b )
+	{
+		Set<Coords> out = new HashSet<Coords>( a );
+		out.removeAll( b );
+		return out;
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import net.minecraft.block.Block;
+
+import org.junit.Test;
+
+import cuchaz.modsShared.blocks.Coords;
+
+public class TestShipPhysics
+{
+	@Test
+	public void unsinkableHullBelowShipBlock( )
+	throws Exception
+	{
+		new MinecraftRunner( )
+		{
+			@Override
+			public void onRun( )
+			throws Exception
+			{
+				// a wooden bowl that hangs below the ship block, so the ship's min y is negative
+				BlocksStorage shipBlocks = getBowl( -2 );
+				assertTrue( shipBlocks.getBoundingBox().minY < 0 );
+				
+				// the bowl can fill with water, but wood floats even when it's full
+				assertNotNull( shipBlocks.getDisplacement().getLastFillY() );
+				ShipPhysics physics = new ShipPhysics( shipBlocks );
+				assertTrue( physics.willItFloat() );
+				assertNull( physics.getSinkWaterHeight() );
+			}
+		}.run();
+	}
+	
+	@Test
+	public void metaChangesKeepPhysics( )
+	throws Exception
+	{
+		new MinecraftRunner( )
+		{
+			@Override
+			public void onRun( )
+			throws Exception
+			{
+				BlocksStorage shipBlocks = getBowl( -2 );
+				int physicsVersion = shipBlocks.getPhysicsVersion();
+				
+				// meta changes and swaps between blocks with the same properties don't matter
+				Coords coords = new Coords( 2, -1, 0 );
+				shipBlocks.changeBlock( coords, Block.planks.blockID, 3 );
+				shipBlocks.changeBlock( coords, Block.wood.blockID, 0 );
+				assertEquals( physicsVersion, shipBlocks.getPhysicsVersion() );
+				
+				// but holes in the hull do
+				shipBlocks.changeBlock( coords, Block.cloth.blockID, 0 );
+				assertFalse( physicsVersion == shipBlocks.getPhysicsVersion() );
+			}
+		}.run();
+	}
+	
+	private static BlocksStorage getBowl( int floorY )
+	{
+		BlocksStorage storage = new BlocksStorage();
+		storage.setBlock( new Coords( 0, 0, 0 ), new BlockStorage( Ships.m_blockShip.blockID, 0 ) );
+		for( int x=-2; x<=2; x++ )
+		{
+			for( int z=-2; z<=2; z++ )
+			{
+				storage.setBlock( new Coords( x, floorY, z ), new BlockStorage( Block.planks.blockID, 0 ) );
+				if( Math.abs( x ) == 2 || Math.abs( z ) == 2 )
+				{
+					for( int y=floorY+1; y<=0; y++ )
+					{
+						storage.setBlock( new Coords( x, y, z ), new BlockStorage( Block.planks.blockID, 0 ) );
+					}
+				}
+			}
+		}
+		return storage;
+	}
+}
@@ -0,0 +1,423 @@
+/*******************************************************************************
+ * Copyright (c) 2014 jeff.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     jeff - initial API and implementation
+ ******************************************************************************/
+package cuchaz.ships;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.material.Material;
+import net.minecraft.client.renderer.RenderBlocks;
+import net.minecraft.client.renderer.Tessellator;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.Icon;
+import net.minecraft.util.Vec3Pool;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.biome.BiomeGenBase;
+import net.minecraftforge.common.ForgeDirection;
+
+import org.junit.Test;
+
+import cuchaz.modsShared.blocks.BlockSet;
+import cuchaz.modsShared.blocks.Coords;
+import cuchaz.ships.render.RenderShip;
+
+public class TestShipSections
+{
+	@Test
+	public void groupBlocks( )
+	{
+		ShipSections sections = new ShipSections( getLine( -20, 40 ) );
+		assertEquals( 5, sections.sections().size() );
+		assertEquals( 4, sections.getBlocks( new Coords( -2, 0, 0 ) ).size() );
+		assertEquals( 16, sections.getBlocks( new Coords( -1, 0, 0 ) ).size() );
+		assertEquals( 16, sections.getBlocks( new Coords( 0, 0, 0 ) ).size() );
+		assertEquals( 16, sections.getBlocks( new Coords( 1, 0, 0 ) ).size() );
+		assertEquals( 8, sections.getBlocks( new Coords( 2, 0, 0 ) ).size() );
+	}
+	
+	@Test
+	public void allDirtyAtFirst( )
+	{
+		ShipSections sections = new ShipSections( getLine( 0, 40 ) );
+		assertEquals( 3, getDirtySections( sections ).size() );
+		assertFalse( sections.hasDirtySections() );
+	}
+	
+	@Test
+	public void dirtyOneSection( )
+	{
+		ShipSections sections = new ShipSections( getLine( 0, 40 ) );
+		getDirtySections( sections );
+		
+		sections.markBlockDirty( new Coords( 20, 0, 0 ) );
+		Set<Coords> dirty = getDirtySections( sections );
+		assertEquals( 1, dirty.size() );
+		assertTrue( dirty.contains( new Coords( 1, 0, 0 ) ) );
+	}
+	
+	@Test
+	public void dirtyNeighborSection( )
+	{
+		ShipSections sections = new ShipSections( getLine( 0, 40 ) );
+		getDirtySections( sections );
+		
+		// blocks on the border dirty the section next door too
+		sections.markBlockDirty( new Coords( 16, 0, 0 ) );
+		Set<Coords> dirty = getDirtySections( sections );
+		assertEquals( 2, dirty.size() );
+		assertTrue( dirty.contains( new Coords( 0, 0, 0 ) ) );
+		assertTrue( dirty.contains( new Coords( 1, 0, 0 ) ) );
+	}
+	
+	@Test
+	public void tessellateBlock( )
+	throws Exception
+	{
+		new MinecraftRunner( )
+		{
+			@Override
+			public void onRun( )
+			throws Exception
+			{
+				BlockSet blocks = new BlockSet();
+				blocks.add( new Coords( 2, 3, 4 ) );
+				
+				// one block by itself gets all six faces
+				float[] vertices = tessellate( new FakeBlockAccess( blocks ), blocks );
+				assertEquals( 6*4*3, vertices.length );
+				for( int i=0; i<vertices.length; i+=3 )
+				{
+					assertTrue( vertices[i+0] == 2 || vertices[i+0] == 3 );
+					assertTrue( vertices[i+1] == 3 || vertices[i+1] == 4 );
+					assertTrue( vertices[i+2] == 4 || vertices[i+2] == 5 );
+				}
+			}
+		}.run();
+	}
+	
+	@Test
+	public void tessellateSections( )
+	throws Exception
+	{
+		new MinecraftRunner( )
+		{
+			@Override
+			public void onRun( )
+			throws Exception
+			{
+				BlockSet blocks = getLine( 0, 40 );
+				FakeBlockAccess world = new FakeBlockAccess( blocks );
+				ShipSections sections = new ShipSections( blocks );
+				
+				// the faces between blocks get culled, even across section borders
+				Map<Coords,Integer> numVertices = tessellateDirtySections( world, sections );
+				assertEquals( 3, numVertices.size() );
+				assertEquals( ( 16*4 + 1 )*4, (int)numVertices.get( new Coords( 0, 0, 0 ) ) );
+				assertEquals( ( 16*4 )*4, (int)numVertices.get( new Coords( 1, 0, 0 ) ) );
+				assertEquals( ( 8*4 + 1 )*4, (int)numVertices.get( new Coords( 2, 0, 0 ) ) );
+			}
+		}.run();
+	}
+	
+	@Test
+	public void retessellateEditedSections( )
+	throws Exception
+	{
+		new MinecraftRunner( )
+		{
+			@Override
+			public void onRun( )
+			throws Exception
+			{
+				BlockSet blocks = getLine( 0, 40 );
+				FakeBlockAccess world = new FakeBlockAccess( blocks );
+				ShipSections sections = new ShipSections( blocks );
+				Map<Coords,Integer> numVertices = tessellateDirtySections( world, sections );
+				
+				// remove a block on a section border
+				Coords coords = new Coords( 16, 0, 0 );
+				world.removeBlock( coords );
+				sections.markBlockDirty( coords );
+				
+				// only that section and its neighbor get tessellated again
+				Map<Coords,Integer> newNumVertices = tessellateDirtySections( world, sections );
+				assertEquals( 2, newNumVertices.size() );
+				assertEquals( ( 16*4 + 2 )*4, (int)newNumVertices.get( new Coords( 0, 0, 0 ) ) );
+				assertEquals( ( 15*4 + 1 )*4, (int)newNumVertices.get( new Coords( 1, 0, 0 ) ) );
+				
+				// and the sections we kept still match a full rebuild
+				numVertices.putAll( newNumVertices );
+				ShipSections freshSections = new ShipSections( blocks );
+				assertEquals( tessellateDirtySections( world, freshSections ), numVertices );
+			}
+		}.run();
+	}
+	
+	private BlockSet getLine( int minX, int maxX )
+	{
+		BlockSet blocks = new BlockSet();
+		for( int x=minX; x<maxX; x++ )
+		{
+			blocks.add( new Coords( x, 0, 0 ) );
+		}
+		return blocks;
+	}
+	
+	private Set<Coords> getDirtySections( ShipSections sections )
+	{
+		Set<Coords> dirty = new HashSet<Coords>();
+		sections.getDirtySections( dirty );
+		return dirty;
+	}
+	
+	private static Map<Coords,Integer> tessellateDirtySections( IBlockAccess world, ShipSections sections )
+	throws Exception
+	{
+		// just like RenderShip.getDisplayList(), but count the vertices instead of compiling display lists
+		Map<Coords,Integer> numVertices = new HashMap<Coords,Integer>();
+		Set<Coords> dirty = new HashSet<Coords>();
+		sections.getDirtySections( dirty );
+		for( Coords sectionCoords : dirty )
+		{
+			numVertices.put( sectionCoords, tessellate( world, sections.getBlocks( sectionCoords ) ).length/3 );
+		}
+		return numVertices;
+	}
+	
+	private static float[] tessellate( IBlockAccess world, Collection<Coords> blocks )
+	throws Exception
+	{
+		// the block renderers always draw to Tessellator.instance, so capture the vertices there
+		// NOTE: we never call draw(), so nothing touches GL
+		Tessellator tessellator = Tessellator.instance;
+		tessellator.startDrawingQuads();
+		RenderBlocks renderBlocks = new RenderBlocks();
+		renderBlocks.overrideBlockTexture = new FakeIcon();
+		new RenderShip().tessellateSection( renderBlocks, world, blocks );
+		
+		// read the positions out of the raw buffer, which has 8 ints per vertex
+		int numVertices = (Integer)getField( tessellator, "vertexCount" );
+		int[] rawBuffer = (int[])getField( tessellator, "rawBuffer" );
+		float[] vertices = new float[numVertices*3];
+		for( int i=0; i<numVertices; i++ )
+		{
+			for( int j=0; j<3; j++ )
+			{
+				vertices[i*3 + j] = Float.intBitsToFloat( rawBuffer[i*8 + j] );
+			}
+		}
+		
+		// throw away the vertices so the next test can start drawing
+		Method reset = Tessellator.class.getDeclaredMethod( "reset" );
+		reset.setAccessible( true );
+		reset.invoke( tessellator );
+		Field isDrawing = Tessellator.class.getDeclaredField( "isDrawing" );
+		isDrawing.setAccessible( true );
+		isDrawing.setBoolean( tessellator, false );
+		
+		return vertices;
+	}
+	
+	private static Object getField( Object obj, String name )
+	throws Exception
+	{
+		Field field = obj.getClass().getDeclaredField( name );
+		field.setAccessible( true );
+		return field.get( obj );
+	}
+	
+	private static class FakeBlockAccess implements IBlockAccess
+	{
+		// stone wherever the blocks are, air everywhere else
+		private BlockSet m_blocks;
+		
+		public FakeBlockAccess( BlockSet blocks )
+		{
+			m_blocks = new BlockSet( blocks );
+		}
+		
+		public void removeBlock( Coords coords )
+		{
+			m_blocks.remove( coords );
+		}
+		
+		@Override
+		public int getBlockId( int x, int y, int z )
+		{
+			return m_blocks.contains( new Coords( x, y, z ) ) ? Block.stone.blockID : 0;
+		}
+		
+		@Override
+		public TileEntity getBlockTileEntity( int x, int y, int z )
+		{
+			return null;
+		}
+		
+		@Override
+		public int getLightBrightnessForSkyBlocks( int x, int y, int z, int blockBrightness )
+		{
+			return 15 << 20 | 15 << 4;
+		}
+		
+		@Override
+		public float getBrightness( int x, int y, int z, int blockBrightness )
+		{
+			return 1;
+		}
+		
+		@Override
+		public float getLightBrightness( int x, int y, int z )
+		{
+			return 1;
+		}
+		
+		@Override
+		public int getBlockMetadata( int x, int y, int z )
+		{
+			return 0;
+		}
+		
+		@Override
+		public Material getBlockMaterial( int x, int y, int z )
+		{
+			return isAirBlock( x, y, z ) ? Material.air : Material.rock;
+		}
+		
+		@Override
+		public boolean isBlockOpaqueCube( int x, int y, int z )
+		{
+			return !isAirBlock( x, y, z );
+		}
+		
+		@Override
+		public boolean isBlockNormalCube( int x, int y, int z )
+		{
+			return !isAirBlock( x, y, z );
+		}
+		
+		@Override
+		public boolean isAirBlock( int x, int y, int z )
+		{
+			return getBlockId( x, y, z ) == 0;
+		}
+		
+		@Override
+		public BiomeGenBase getBiomeGenForCoords( int x, int z )
+		{
+			return BiomeGenBase.ocean;
+		}
+		
+		@Override
+		public int getHeight( )
+		{
+			return 256;
+		}
+		
+		@Override
+		public boolean extendedLevelsInChunkCache( )
+		{
+			return false;
+		}
+		
+		@Override
+		public boolean doesBlockHaveSolidTopSurface( int x, int y, int z )
+		{
+			return !isAirBlock( x, y, z );
+		}
+		
+		@Override
+		public Vec3Pool getWorldVec3Pool( )
+		{
+			return null;
+		}
+		
+		@Override
+		public int isBlockProvidingPowerTo( int x, int y, int z, int side )
+		{
+			return 0;
+		}
+		
+		@Override
+		public boolean isBlockSolidOnSide( int x, int y, int z, ForgeDirection side, boolean defaultValue )
+		{
+			return !isAirBlock( x, y, z );
+		}
+	}
+	
+	private static class FakeIcon implements Icon
+	{
+		// the tests don't have textures, so everything gets the whole texture
+		
+		@Override
+		public int getIconWidth( )
+		{
+			return 16;
+		}
+		
+		@Override
+		public int getIconHeight( )
+		{
+			return 16;
+		}
+		
+		@Override
+		public float getMinU( )
+		{
+			return 0;
+		}
+		
+		@Override
+		public float getMaxU( )
+		{
+			return 1;
+		}
+		
+		@Override
+		public float getInterpolatedU( double u )
+		{
+			return (float)u/16;
+		}
+		
+		@Override
+		public float getMinV( )
+		{
+			return 0;
+		}
+		
+		@Override
+		public float getMaxV( )
+		{
+			return 1;
+		}
+		
+		@Override
+		public float getInterpolatedV( double v )
+		{
+			return (float)v/16;
+		}
+		
+		@Override
+		public String getIconName( )
+		{
+			return "fake";
+		}
+	}
+}